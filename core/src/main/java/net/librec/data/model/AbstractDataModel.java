@@ -21,6 +21,7 @@ import com.google.common.collect.BiMap;
 import net.librec.common.LibrecException;
 import net.librec.conf.Configured;
 import net.librec.data.*;
+import net.librec.job.metrics.MetricsRegistry;
 import net.librec.math.structure.DataFrame;
 import net.librec.math.structure.DataSet;
 import net.librec.util.DriverClassUtil;
@@ -131,14 +132,21 @@ public abstract class AbstractDataModel extends Configured implements DataModel
     @Override
     public void buildDataModel() throws LibrecException {
         context = new DataContext(conf);
+        MetricsRegistry metrics = MetricsRegistry.get(conf);
         if (!conf.getBoolean("data.convert.read.ready")) {
+            long startTime = System.nanoTime();
             buildConvert();
+            metrics.timer("data.convert").updateSince(startTime);
             LOG.info("Transform data to Convertor successfully!");
             conf.setBoolean("data.convert.read.ready", true);
         }
+        long startTime = System.nanoTime();
         buildSplitter();
+        metrics.timer("data.split").updateSince(startTime);
         if (StringUtils.isNotBlank(conf.get("data.appender.class")) && !conf.getBoolean("data.appender.read.ready")) {
+            startTime = System.nanoTime();
             buildFeature();
+            metrics.timer("data.appender").updateSince(startTime);
             LOG.info("Transform data to Feature successfully!");
             conf.setBoolean("data.appender.read.ready", true);
         }
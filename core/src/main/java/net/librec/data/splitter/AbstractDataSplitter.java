@@ -20,7 +20,6 @@ package net.librec.data.splitter;
 import net.librec.conf.Configured;
 import net.librec.data.DataConvertor;
 import net.librec.data.DataSplitter;
-import net.librec.math.structure.MatrixEntry;
 import net.librec.math.structure.SequentialAccessSparseMatrix;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -61,6 +60,11 @@ public abstract class AbstractDataSplitter extends Configured implements DataSpl
     protected SequentialAccessSparseMatrix preferenceMatrix = null;
     protected SequentialAccessSparseMatrix datetimeMatrix = null;
 
+    /**
+     * partitioner of preferenceMatrix, shared by the folds
+     */
+    private MatrixPartitioner partitioner;
+
     @Override
     public void setDataConvertor(DataConvertor dataConvertor) {
         this.dataConvertor = dataConvertor;
@@ -98,6 +102,7 @@ public abstract class AbstractDataSplitter extends Configured implements DataSpl
 
     public void setPreferenceMatrix(SequentialAccessSparseMatrix preferenceMatrix) {
         this.preferenceMatrix = preferenceMatrix;
+        this.partitioner = null;
     }
 
     @Override
@@ -108,19 +113,13 @@ public abstract class AbstractDataSplitter extends Configured implements DataSpl
         } else {
             if (assignMatrixList.size() > 0) {
                 SequentialAccessSparseMatrix assign = assignMatrixList.poll();
-                trainMatrix = preferenceMatrix.clone();
-                testMatrix = preferenceMatrix.clone();
-
-                for (MatrixEntry matrixEntry : preferenceMatrix) {
-                    if (assign.get(matrixEntry.row(), matrixEntry.column()) == 1) {
-                        trainMatrix.setAtColumnPosition(matrixEntry.row(), matrixEntry.columnPosition(), 0.0D);
-                    } else {
-                        testMatrix.setAtColumnPosition(matrixEntry.row(), matrixEntry.columnPosition(), 0.0D);
-                    }
+                if (null == partitioner) {
+                    partitioner = new MatrixPartitioner(preferenceMatrix);
                 }
+                byte[] assignment = partitioner.assignByMask(assign);
 
-                trainMatrix.reshape();
-                testMatrix.reshape();
+                trainMatrix = partitioner.materialize(assignment, 0);
+                testMatrix = partitioner.materialize(assignment, 1);
                 return true;
             } else {
                 return false;
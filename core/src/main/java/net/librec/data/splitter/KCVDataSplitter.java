@@ -17,19 +17,15 @@
  */
 package net.librec.data.splitter;
 
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Table;
 import net.librec.common.LibrecException;
 import net.librec.conf.Configuration;
 import net.librec.data.DataConvertor;
 import net.librec.data.convertor.ArffDataConvertor;
-import net.librec.math.algorithm.Randoms;
-import net.librec.math.structure.MatrixEntry;
 import net.librec.math.structure.SequentialAccessSparseMatrix;
-import net.librec.util.Lists;
 import org.apache.commons.lang.StringUtils;
 
-import java.util.*;
+import java.util.LinkedList;
+import java.util.List;
 
 /**
  * K-fold Cross Validation Data Splitter
@@ -44,9 +40,15 @@ public class KCVDataSplitter extends AbstractDataSplitter {
 //    private SparseMatrix preferenceMatrix;
 
     /**
-     * The assign matrix for k-fold splitting
+     * The fold of each rating for k-fold splitting, see {@link MatrixPartitioner}.
+     * The folds are materialized from it one at a time in {@link #nextFold()}.
      */
-    private SequentialAccessSparseMatrix assignMatrix;
+    private byte[] assignment;
+
+    /**
+     * The partitioner of preferenceMatrix
+     */
+    private MatrixPartitioner partitioner;
 
     /**
      * The number of folds
@@ -98,44 +100,15 @@ public class KCVDataSplitter extends AbstractDataSplitter {
         }
 
         if (kFold > 0) {
-            assignMatrix = preferenceMatrix.clone();
             int numRates = preferenceMatrix.getNumEntries();
             int numFold = kFold > numRates ? numRates : kFold;
 
-            // divide rating data into kfold sample of equal size
-            List<Map.Entry<Integer, Double>> rdm = new ArrayList<>(numRates);
-            double indvCount = (numRates + 0.0) / numFold;
-            for (int index = 0; index < numRates; index++) {
-                rdm.add(new AbstractMap.SimpleImmutableEntry<>((int) (index / indvCount) + 1, Randoms.uniform()));
-            }
-
-            int[] fold = new int[numRates];
-            Lists.sortList(rdm, true);
-            for (int index = 0; index < numRates; index++) {
-                fold[index] = rdm.get(index).getKey();
-            }
-
-            int i = 0;
-            for (MatrixEntry matrixEntry : assignMatrix) {
-                assignMatrix.setAtColumnPosition(matrixEntry.row(), matrixEntry.columnPosition(), fold[i++]);
-            }
-        }
-
-        if (null == assignMatrixList) {
-            List<Table<Integer, Integer, Integer>> tableList = new ArrayList<>(kFold + 1);
-            for (int i = 0; i < kFold + 1; i++) {
-                tableList.add(HashBasedTable.create());
-            }
-            for (MatrixEntry me : assignMatrix) {
-                if (me.get() != 0) {
-                    tableList.get((int) me.get()).put(me.row(), me.column(), 1);
-                }
-            }
-
-            this.assignMatrixList = new LinkedList<>();
-            for (int i = 1; i < kFold + 1; i++) {
-                this.assignMatrixList.add(new SequentialAccessSparseMatrix(assignMatrix.rowSize(), assignMatrix.columnSize(), tableList.get(i)));
-            }
+            // divide rating data into kfold sample of (nearly) equal size
+            partitioner = new MatrixPartitioner(preferenceMatrix);
+            assignment = partitioner.assignFolds(numFold);
+            cvNumber = numFold;
+            cvIndex = 0;
+            assignMatrixList = null;
         }
     }
 
@@ -147,12 +120,63 @@ public class KCVDataSplitter extends AbstractDataSplitter {
     @Override
     public void splitData() throws LibrecException {
         this.cvNumber = conf.getInt("data.splitter.cv.number", 5);
-        if (null == assignMatrix) {
+        if (null == assignment) {
             splitData(this.cvNumber);
         }
     }
 
+    /**
+     * Materialize the next fold from the fold assignment. Only the train and
+     * test set of the current fold are held, instead of one matrix per fold.
+     *
+     * @return true if there is a next fold
+     */
+    @Override
+    public boolean nextFold() {
+        if (null == assignment) {
+            return super.nextFold();
+        }
+        if (cvIndex >= cvNumber) {
+            return false;
+        }
+        cvIndex++;
+        // release the previous fold before building the next one
+        trainMatrix = null;
+        testMatrix = null;
+        trainMatrix = getTrainData(cvIndex);
+        testMatrix = getTestData(cvIndex);
+        return true;
+    }
+
+    /**
+     * @param fold the fold index, from 1 to the number of folds
+     * @return a new matrix holding the ratings which are not in the fold
+     */
+    public SequentialAccessSparseMatrix getTrainData(int fold) {
+        return partitioner.materializeExcept(assignment, fold);
+    }
+
+    /**
+     * @param fold the fold index, from 1 to the number of folds
+     * @return a new matrix holding the ratings of the fold
+     */
+    public SequentialAccessSparseMatrix getTestData(int fold) {
+        return partitioner.materialize(assignment, fold);
+    }
+
+    /**
+     * Get the 0/1 assign matrix of every fold. They are materialized on the
+     * first call, {@link #nextFold()} does not need them.
+     *
+     * @return the assign matrices, one per fold
+     */
     public List<SequentialAccessSparseMatrix> getAssignMatrixList() {
+        if (null == assignMatrixList && null != assignment) {
+            assignMatrixList = new LinkedList<>();
+            for (int fold = 1; fold <= cvNumber; fold++) {
+                assignMatrixList.add(partitioner.materializeIndicator(assignment, fold));
+            }
+        }
         return this.assignMatrixList;
     }
 }
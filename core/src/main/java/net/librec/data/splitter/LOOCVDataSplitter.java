@@ -143,25 +143,11 @@ public class LOOCVDataSplitter extends AbstractDataSplitter {
      * the test set and the remaining data as the training set.
      */
     public void getLOOByUser() {
-        trainMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-        Table<Integer, Integer, Double> dataTable = HashBasedTable.create();
-
-        for (int rowIndex = 0, rowSize = preferenceMatrix.rowSize(); rowIndex < rowSize; rowIndex++) {
-            int numColumnEntries = preferenceMatrix.row(rowIndex).getNumEntries();
-            if (numColumnEntries == 0){
-                continue;
-            }
-            int randomRowPosition = (int) (numColumnEntries * Randoms.uniform());
-            this.preferenceMatrix = dataConvertor.getPreferenceMatrix();
+        MatrixPartitioner partitioner = new MatrixPartitioner(preferenceMatrix);
+        byte[] assignment = partitioner.assignOneByRow();
 
-            trainMatrix.setAtColumnPosition(rowIndex, randomRowPosition, 0.0D);
-
-            dataTable.put(rowIndex, preferenceMatrix.row(rowIndex).getIndexAtPosition(randomRowPosition),
-                    preferenceMatrix.getAtColumnPosition(rowIndex, randomRowPosition));
-        }
-
-        trainMatrix.reshape();
-        testMatrix = new SequentialAccessSparseMatrix(preferenceMatrix.rowSize(), preferenceMatrix.columnSize(), dataTable);
+        trainMatrix = partitioner.materialize(assignment, 0);
+        testMatrix = partitioner.materialize(assignment, 1);
     }
 
     /**
@@ -169,28 +155,11 @@ public class LOOCVDataSplitter extends AbstractDataSplitter {
      * preserved as the test set and the remaining data as the training set.
      */
     public void getLOOByUserDate() {
-        trainMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-        Table<Integer, Integer, Double> dataTable = HashBasedTable.create();
-
-        for (int rowIndex = 0, rowSize = preferenceMatrix.rowSize(); rowIndex < rowSize; rowIndex++) {
-            SequentialSparseVector itemRatingVector = preferenceMatrix.row(rowIndex);
-            if (itemRatingVector.getNumEntries() == 0){
-                continue;
-            }
+        MatrixPartitioner partitioner = new MatrixPartitioner(preferenceMatrix);
+        byte[] assignment = partitioner.assignLatestByRow(datetimeMatrix);
 
-            List<RatingContext> ratingContexts = new ArrayList<>(itemRatingVector.getNumEntries());
-            for (Vector.VectorEntry vectorEntry: itemRatingVector) {
-                ratingContexts.add(new RatingContext(rowIndex, vectorEntry.position(),
-                        (long) datetimeMatrix.getAtColumnPosition(rowIndex, vectorEntry.position())));
-            }
-            Collections.sort(ratingContexts);
-            int columnPosition = ratingContexts.get(ratingContexts.size() - 1).getItem();
-            trainMatrix.setAtColumnPosition(rowIndex, columnPosition, 0.0D);
-            dataTable.put(rowIndex, preferenceMatrix.row(rowIndex).getIndexAtPosition(columnPosition),
-                    preferenceMatrix.getAtColumnPosition(rowIndex, columnPosition));
-        }
-        trainMatrix.reshape();
-        testMatrix = new SequentialAccessSparseMatrix(preferenceMatrix.rowSize(), preferenceMatrix.columnSize(), dataTable);
+        trainMatrix = partitioner.materialize(assignment, 0);
+        testMatrix = partitioner.materialize(assignment, 1);
     }
 
     /**
@@ -0,0 +1,429 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.data.splitter;
+
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import net.librec.math.algorithm.Randoms;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.math.structure.SequentialSparseVector;
+import net.librec.math.structure.VectorBasedSequentialSparseVector;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Partition the entries of a sparse matrix into train, test, valid or fold
+ * subsets.
+ *
+ * Every entry gets a partition id in an assignment vector laid out like the
+ * CSR arrays of the matrix, i.e. entry (row, columnPosition) is at
+ * {@code getRowOffset(row) + columnPosition}. The assignment is computed in
+ * one parallel pass over the rows, each row drawing from its own random
+ * stream derived from the seed, so the result does not depend on the number
+ * of threads. A subset is then materialized directly from the assignment
+ * vector, without cloning and reshaping the whole matrix.
+ */
+public class MatrixPartitioner {
+
+    /**
+     * The matrix to partition
+     */
+    private final SequentialAccessSparseMatrix matrix;
+
+    /**
+     * The offset of each row in the assignment vector, of length rowSize + 1
+     */
+    private final int[] rowOffsets;
+
+    /**
+     * The seed of the per-row random streams
+     */
+    private final long seed;
+
+    /**
+     * Create a partitioner whose seed is drawn from {@link Randoms}, so that
+     * {@code rec.random.seed} still makes the splits reproducible.
+     *
+     * @param matrix the matrix to partition
+     */
+    public MatrixPartitioner(SequentialAccessSparseMatrix matrix) {
+        this(matrix, (long) (Randoms.uniform() * Long.MAX_VALUE));
+    }
+
+    /**
+     * @param matrix the matrix to partition
+     * @param seed   the seed of the per-row random streams
+     */
+    public MatrixPartitioner(SequentialAccessSparseMatrix matrix, long seed) {
+        this.matrix = matrix;
+        this.seed = seed;
+        int rowSize = matrix.rowSize();
+        rowOffsets = new int[rowSize + 1];
+        for (int rowIndex = 0; rowIndex < rowSize; rowIndex++) {
+            rowOffsets[rowIndex + 1] = rowOffsets[rowIndex] + matrix.row(rowIndex).getNumEntries();
+        }
+    }
+
+    /**
+     * @return the number of entries, i.e. the length of an assignment vector
+     */
+    public int getNumEntries() {
+        return rowOffsets[rowOffsets.length - 1];
+    }
+
+    /**
+     * @param row row index
+     * @return the offset of the first entry of the row in an assignment vector
+     */
+    public int getRowOffset(int row) {
+        return rowOffsets[row];
+    }
+
+    /**
+     * Assign each entry independently to a part: part i with probability
+     * {@code ratios[i]}, and the last part {@code ratios.length} with the rest.
+     *
+     * @param ratios the ratios of the first parts
+     * @return the assignment vector
+     */
+    public byte[] assignByRatio(double... ratios) {
+        double[] bounds = new double[ratios.length];
+        double bound = 0.0d;
+        for (int i = 0; i < ratios.length; i++) {
+            bound += ratios[i];
+            bounds[i] = bound;
+        }
+        byte[] assignment = new byte[getNumEntries()];
+        IntStream.range(0, matrix.rowSize()).parallel().forEach(rowIndex -> {
+            SplittableRandom random = rowRandom(rowIndex);
+            for (int entry = rowOffsets[rowIndex]; entry < rowOffsets[rowIndex + 1]; entry++) {
+                double rdm = random.nextDouble();
+                byte part = 0;
+                while (part < bounds.length && rdm >= bounds[part]) {
+                    part++;
+                }
+                assignment[entry] = part;
+            }
+        });
+        return assignment;
+    }
+
+    /**
+     * Assign a fixed number of random entries of each row to part 1, namely
+     * {@code floor(numEntries * (1 - ratio))}, and the others to part 0.
+     *
+     * @param ratio the ratio of part 0 in each row
+     * @return the assignment vector
+     */
+    public byte[] assignFixedByRow(double ratio) {
+        byte[] assignment = new byte[getNumEntries()];
+        IntStream.range(0, matrix.rowSize()).parallel().forEach(rowIndex -> {
+            int offset = rowOffsets[rowIndex];
+            int numEntries = rowOffsets[rowIndex + 1] - offset;
+            int numSelected = (int) Math.floor(numEntries * (1 - ratio));
+            if (numSelected < 1) {
+                return;
+            }
+            // selection sampling keeps exactly numSelected entries in one pass
+            SplittableRandom random = rowRandom(rowIndex);
+            for (int position = 0; position < numEntries && numSelected > 0; position++) {
+                if (random.nextInt(numEntries - position) < numSelected) {
+                    assignment[offset + position] = 1;
+                    numSelected--;
+                }
+            }
+        });
+        return assignment;
+    }
+
+    /**
+     * Assign one random entry of each non-empty row to part 1 and the others
+     * to part 0.
+     *
+     * @return the assignment vector
+     */
+    public byte[] assignOneByRow() {
+        byte[] assignment = new byte[getNumEntries()];
+        IntStream.range(0, matrix.rowSize()).parallel().forEach(rowIndex -> {
+            int numEntries = rowOffsets[rowIndex + 1] - rowOffsets[rowIndex];
+            if (numEntries > 0) {
+                assignment[rowOffsets[rowIndex] + rowRandom(rowIndex).nextInt(numEntries)] = 1;
+            }
+        });
+        return assignment;
+    }
+
+    /**
+     * Assign the latest entry of each non-empty row to part 1 and the others
+     * to part 0.
+     *
+     * @param datetimeMatrix the timestamps, with the same layout as the matrix
+     * @return the assignment vector
+     */
+    public byte[] assignLatestByRow(SequentialAccessSparseMatrix datetimeMatrix) {
+        byte[] assignment = new byte[getNumEntries()];
+        IntStream.range(0, matrix.rowSize()).parallel().forEach(rowIndex -> {
+            int numEntries = rowOffsets[rowIndex + 1] - rowOffsets[rowIndex];
+            if (numEntries < 1) {
+                return;
+            }
+            SequentialSparseVector datetimeVector = datetimeMatrix.row(rowIndex);
+            int latestPosition = 0;
+            for (int position = 1; position < numEntries; position++) {
+                if (datetimeVector.getAtPosition(position) >= datetimeVector.getAtPosition(latestPosition)) {
+                    latestPosition = position;
+                }
+            }
+            assignment[rowOffsets[rowIndex] + latestPosition] = 1;
+        });
+        return assignment;
+    }
+
+    /**
+     * Assign the entries present in the mask to part 1 and the others to part 0.
+     *
+     * @param mask a matrix of the same shape, e.g. an assign matrix of a fold
+     * @return the assignment vector
+     */
+    public byte[] assignByMask(SequentialAccessSparseMatrix mask) {
+        byte[] assignment = new byte[getNumEntries()];
+        IntStream.range(0, matrix.rowSize()).parallel().forEach(rowIndex -> {
+            SequentialSparseVector rowVector = matrix.row(rowIndex);
+            SequentialSparseVector maskVector = mask.row(rowIndex);
+            int offset = rowOffsets[rowIndex];
+            int numEntries = rowOffsets[rowIndex + 1] - offset;
+            int maskPosition = 0, numMaskEntries = maskVector.getNumEntries();
+            // both index arrays are sorted, so one merge pass finds the common entries
+            for (int position = 0; position < numEntries && maskPosition < numMaskEntries; position++) {
+                int columnIndex = rowVector.getIndexAtPosition(position);
+                while (maskPosition < numMaskEntries && maskVector.getIndexAtPosition(maskPosition) < columnIndex) {
+                    maskPosition++;
+                }
+                if (maskPosition < numMaskEntries && maskVector.getIndexAtPosition(maskPosition) == columnIndex) {
+                    assignment[offset + position] = 1;
+                }
+            }
+        });
+        return assignment;
+    }
+
+    /**
+     * Assign the earliest {@code (int) (numEntries * ratio)} entries of each
+     * row to part 0 and the others to part 1.
+     *
+     * @param datetimeMatrix the timestamps, with the same layout as the matrix
+     * @param ratio          the ratio of part 0 in each row
+     * @return the assignment vector
+     */
+    public byte[] assignByRowDate(SequentialAccessSparseMatrix datetimeMatrix, double ratio) {
+        byte[] assignment = new byte[getNumEntries()];
+        IntStream.range(0, matrix.rowSize()).parallel().forEach(rowIndex -> {
+            int offset = rowOffsets[rowIndex];
+            int numEntries = rowOffsets[rowIndex + 1] - offset;
+            if (numEntries < 1) {
+                return;
+            }
+            SequentialSparseVector datetimeVector = datetimeMatrix.row(rowIndex);
+            int[] positions = new int[numEntries];
+            for (int position = 0; position < numEntries; position++) {
+                positions[position] = position;
+            }
+            // merge sort is stable, so entries with equal dates keep their order
+            IntArrays.mergeSort(positions, (position1, position2) -> Double.compare(
+                    datetimeVector.getAtPosition(position1), datetimeVector.getAtPosition(position2)));
+            int trainSize = (int) (numEntries * ratio);
+            for (int index = trainSize; index < numEntries; index++) {
+                assignment[offset + positions[index]] = 1;
+            }
+        });
+        return assignment;
+    }
+
+    /**
+     * Assign the globally earliest {@code (int) (numEntries * ratio)} entries
+     * to part 0 and the others to part 1.
+     *
+     * @param datetimeMatrix the timestamps, with the same layout as the matrix
+     * @param ratio          the ratio of part 0
+     * @return the assignment vector
+     */
+    public byte[] assignByDate(SequentialAccessSparseMatrix datetimeMatrix, double ratio) {
+        int numEntries = getNumEntries();
+        double[] dates = new double[numEntries];
+        IntStream.range(0, matrix.rowSize()).parallel().forEach(rowIndex -> {
+            SequentialSparseVector datetimeVector = datetimeMatrix.row(rowIndex);
+            for (int entry = rowOffsets[rowIndex]; entry < rowOffsets[rowIndex + 1]; entry++) {
+                dates[entry] = (long) datetimeVector.getAtPosition(entry - rowOffsets[rowIndex]);
+            }
+        });
+
+        byte[] assignment = new byte[numEntries];
+        int trainSize = (int) (numEntries * ratio);
+        if (trainSize >= numEntries) {
+            return assignment;
+        }
+        double[] sortedDates = dates.clone();
+        Arrays.parallelSort(sortedDates);
+        double threshold = sortedDates[trainSize];
+        int numTies = trainSize - lowerBound(sortedDates, threshold);
+
+        // entries dated at the threshold go to part 0 until it is full
+        for (int entry = 0; entry < numEntries; entry++) {
+            if (dates[entry] > threshold) {
+                assignment[entry] = 1;
+            } else if (dates[entry] == threshold) {
+                if (numTies > 0) {
+                    numTies--;
+                } else {
+                    assignment[entry] = 1;
+                }
+            }
+        }
+        return assignment;
+    }
+
+    /**
+     * Assign the entries to {@code numFolds} folds whose sizes differ by at
+     * most one. The folds are stratified by row: consecutive entries in CSR
+     * order get consecutive fold ids, which are then shuffled within each row,
+     * so every row is also spread evenly over the folds.
+     *
+     * @param numFolds the number of folds, at most 127
+     * @return the assignment vector, with fold ids from 1 to numFolds
+     */
+    public byte[] assignFolds(int numFolds) {
+        if (numFolds < 1 || numFolds > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("the number of folds must be in [1, " + Byte.MAX_VALUE + "]: " + numFolds);
+        }
+        SplittableRandom foldRandom = new SplittableRandom(mix64(seed - 1));
+        int firstFold = foldRandom.nextInt(numFolds);
+        byte[] assignment = new byte[getNumEntries()];
+        IntStream.range(0, matrix.rowSize()).parallel().forEach(rowIndex -> {
+            int offset = rowOffsets[rowIndex];
+            int numEntries = rowOffsets[rowIndex + 1] - offset;
+            if (numEntries < 1) {
+                return;
+            }
+            for (int entry = offset; entry < offset + numEntries; entry++) {
+                assignment[entry] = (byte) ((firstFold + entry % numFolds) % numFolds + 1);
+            }
+            SplittableRandom random = rowRandom(rowIndex);
+            for (int position = numEntries - 1; position > 0; position--) {
+                int swapPosition = random.nextInt(position + 1);
+                byte fold = assignment[offset + position];
+                assignment[offset + position] = assignment[offset + swapPosition];
+                assignment[offset + swapPosition] = fold;
+            }
+        });
+        return assignment;
+    }
+
+    /**
+     * Materialize the entries assigned to one part.
+     *
+     * @param assignment the assignment vector
+     * @param part       the part to keep
+     * @return a new matrix holding the entries of the part
+     */
+    public SequentialAccessSparseMatrix materialize(byte[] assignment, int part) {
+        return materialize(assignment, part, false, false);
+    }
+
+    /**
+     * Materialize the entries assigned to any part but one.
+     *
+     * @param assignment the assignment vector
+     * @param part       the part to leave out
+     * @return a new matrix holding the entries of the other parts
+     */
+    public SequentialAccessSparseMatrix materializeExcept(byte[] assignment, int part) {
+        return materialize(assignment, part, true, false);
+    }
+
+    /**
+     * Materialize the positions of the entries assigned to one part, as a
+     * matrix of ones.
+     *
+     * @param assignment the assignment vector
+     * @param part       the part to keep
+     * @return a new 0/1 matrix
+     */
+    public SequentialAccessSparseMatrix materializeIndicator(byte[] assignment, int part) {
+        return materialize(assignment, part, false, true);
+    }
+
+    /**
+     * Build the matrix row by row in parallel. Zero entries are dropped, as
+     * {@link SequentialAccessSparseMatrix#reshape()} does.
+     */
+    private SequentialAccessSparseMatrix materialize(byte[] assignment, int part, boolean except, boolean indicator) {
+        int rowSize = matrix.rowSize();
+        VectorBasedSequentialSparseVector[] rowVectors = new VectorBasedSequentialSparseVector[rowSize];
+        IntStream.range(0, rowSize).parallel().forEach(rowIndex -> {
+            SequentialSparseVector rowVector = matrix.row(rowIndex);
+            int offset = rowOffsets[rowIndex];
+            int numEntries = rowOffsets[rowIndex + 1] - offset;
+            int size = 0;
+            for (int position = 0; position < numEntries; position++) {
+                if ((assignment[offset + position] == part) != except && rowVector.getAtPosition(position) != 0.0d) {
+                    size++;
+                }
+            }
+            int[] indices = new int[size];
+            double[] values = new double[size];
+            for (int position = 0, index = 0; index < size; position++) {
+                double value = rowVector.getAtPosition(position);
+                if ((assignment[offset + position] == part) != except && value != 0.0d) {
+                    indices[index] = rowVector.getIndexAtPosition(position);
+                    values[index] = indicator ? 1.0d : value;
+                    index++;
+                }
+            }
+            rowVectors[rowIndex] = new VectorBasedSequentialSparseVector(matrix.columnSize(), indices, values);
+        });
+        return new SequentialAccessSparseMatrix(rowSize, matrix.columnSize(), rowVectors);
+    }
+
+    private SplittableRandom rowRandom(int rowIndex) {
+        return new SplittableRandom(mix64(seed + rowIndex));
+    }
+
+    /**
+     * The 64-bit finalizer of MurmurHash3, which decorrelates the seeds of
+     * adjacent rows.
+     */
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    private static int lowerBound(double[] sortedValues, double value) {
+        int low = 0, high = sortedValues.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sortedValues[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
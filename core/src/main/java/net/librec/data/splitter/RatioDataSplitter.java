@@ -21,8 +21,6 @@ import net.librec.common.LibrecException;
 import net.librec.conf.Configuration;
 import net.librec.data.DataConvertor;
 import net.librec.data.convertor.ArffDataConvertor;
-import net.librec.math.algorithm.Randoms;
-import net.librec.math.structure.MatrixEntry;
 import net.librec.math.structure.SequentialAccessSparseMatrix;
 import net.librec.math.structure.SequentialSparseVector;
 import net.librec.math.structure.Vector;
@@ -135,23 +133,11 @@ public class RatioDataSplitter extends AbstractDataSplitter {
      */
     public void getRatioByRating(double ratio) {
         if (ratio > 0 && ratio < 1) {
+            MatrixPartitioner partitioner = new MatrixPartitioner(preferenceMatrix);
+            byte[] assignment = partitioner.assignByRatio(ratio);
 
-            testMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-            trainMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-
-            for (MatrixEntry matrixEntry : preferenceMatrix) {
-
-                double rdm = Randoms.uniform();
-
-                if (rdm < ratio) {
-                    testMatrix.setAtColumnPosition(matrixEntry.row(), matrixEntry.columnPosition(), 0.0D);
-                } else {
-                    trainMatrix.setAtColumnPosition(matrixEntry.row(), matrixEntry.columnPosition(), 0.0D);
-                }
-            }
-
-            testMatrix.reshape();
-            trainMatrix.reshape();
+            trainMatrix = partitioner.materialize(assignment, 0);
+            testMatrix = partitioner.materialize(assignment, 1);
         }
     }
 
@@ -163,31 +149,11 @@ public class RatioDataSplitter extends AbstractDataSplitter {
      */
     public void getRatioByRatingDate(double ratio) {
         if (ratio > 0 && ratio < 1) {
+            MatrixPartitioner partitioner = new MatrixPartitioner(preferenceMatrix);
+            byte[] assignment = partitioner.assignByDate(datetimeMatrix, ratio);
 
-            testMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-            trainMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-
-            List<RatingContext> ratingContexts = new ArrayList<>(datetimeMatrix.size());
-            for (MatrixEntry matrixEntry : preferenceMatrix) {
-                ratingContexts.add(new RatingContext(matrixEntry.row(), matrixEntry.columnPosition(),
-                        (long) datetimeMatrix.getAtColumnPosition(matrixEntry.row(), matrixEntry.columnPosition())));
-            }
-            Collections.sort(ratingContexts);
-
-            int trainSize = (int) (ratingContexts.size() * ratio);
-            for (int index = 0; index < ratingContexts.size(); index++) {
-                RatingContext rc = ratingContexts.get(index);
-                int rowIndex = rc.getUser();
-                int columnPosition = rc.getItem();
-
-                if (index < trainSize)
-                    testMatrix.setAtColumnPosition(rowIndex, columnPosition, 0.0D);
-                else
-                    trainMatrix.setAtColumnPosition(rowIndex, columnPosition, 0.0D);
-            }
-
-            trainMatrix.reshape();
-            testMatrix.reshape();
+            trainMatrix = partitioner.materialize(assignment, 0);
+            testMatrix = partitioner.materialize(assignment, 1);
         }
     }
 
@@ -200,21 +166,12 @@ public class RatioDataSplitter extends AbstractDataSplitter {
      */
     public void getRatioByUser(double ratio) {
         if (ratio > 0 && ratio < 1) {
-            trainMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-            testMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
+            MatrixPartitioner partitioner = new MatrixPartitioner(preferenceMatrix);
+            byte[] assignment = partitioner.assignByRatio(ratio);
 
-            for (int rowIndex = 0, rowSize = preferenceMatrix.rowSize(); rowIndex < rowSize; rowIndex++) {
-                for (Vector.VectorEntry vectorEntry : preferenceMatrix.row(rowIndex)) {
-                    if (Randoms.uniform() < ratio) {
-                        testMatrix.setAtColumnPosition(rowIndex, vectorEntry.position(), 0.0D);
-                    } else {
-                        trainMatrix.setAtColumnPosition(rowIndex, vectorEntry.position(), 0.0D);
-                    }
-                }
-            }
+            trainMatrix = partitioner.materialize(assignment, 0);
+            testMatrix = partitioner.materialize(assignment, 1);
         }
-        testMatrix.reshape();
-        trainMatrix.reshape();
     }
 
 
@@ -227,38 +184,13 @@ public class RatioDataSplitter extends AbstractDataSplitter {
      * @param ratio the ratio of training data
      */
     public void getFixedRatioByUser(double ratio) {
-
         if (ratio > 0 && ratio < 1) {
+            MatrixPartitioner partitioner = new MatrixPartitioner(preferenceMatrix);
+            // the test set is the smaller part, so its positions are drawn in each row
+            byte[] assignment = partitioner.assignFixedByRow(ratio);
 
-            trainMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-            testMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-
-            for (int rowIndex = 0, rowSize = preferenceMatrix.rowSize(); rowIndex < rowSize; rowIndex++) {
-                int numRated = preferenceMatrix.row(rowIndex).getNumEntries();
-
-                // k is the test set, this will be smaller, so we want these indices in the list
-                int numRatio = (int) Math.floor(numRated * (1 - ratio));
-                if (numRatio < 1) {
-                    continue;
-                }
-                try {
-                    int[] givenPositions = Randoms.nextIntArray(numRatio, numRated);
-
-                    for (int testColumnPosition = 0, columnPosition = 0; columnPosition < numRated; columnPosition++) {
-                        if (testColumnPosition < givenPositions.length && givenPositions[testColumnPosition] == columnPosition) {
-                            testMatrix.setAtColumnPosition(rowIndex, testColumnPosition, 0.0D);
-                            testColumnPosition++;
-                        } else {
-                            trainMatrix.setAtColumnPosition(rowIndex, testColumnPosition, 0.0D);
-                        }
-                    }
-                } catch (java.lang.Exception e) {
-                    LOG.error("This error should not happen because k cannot be outside of the range if ratio is " + ratio);
-                }
-            }
-
-            testMatrix.reshape();
-            trainMatrix.reshape();
+            trainMatrix = partitioner.materialize(assignment, 0);
+            testMatrix = partitioner.materialize(assignment, 1);
         }
     }
 
@@ -269,36 +201,12 @@ public class RatioDataSplitter extends AbstractDataSplitter {
      * @param ratio the ratio of train data
      */
     public void getRatioByUserDate(double ratio) {
-
         if (ratio > 0 && ratio < 1) {
+            MatrixPartitioner partitioner = new MatrixPartitioner(preferenceMatrix);
+            byte[] assignment = partitioner.assignByRowDate(datetimeMatrix, ratio);
 
-            trainMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-            testMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-
-            for (int rowIndex = 0, rowSize = preferenceMatrix.rowSize(); rowIndex < rowSize; rowIndex++) {
-                SequentialSparseVector itemRatingVector = preferenceMatrix.row(rowIndex);
-                if (itemRatingVector.getNumEntries() < 1) {
-                    continue;
-                }
-                List<RatingContext> itemRatingList = new ArrayList<>(itemRatingVector.getNumEntries());
-
-                for (Vector.VectorEntry vectorEntry : itemRatingVector) {
-                    itemRatingList.add(new RatingContext(rowIndex, vectorEntry.position(), (long) vectorEntry.get()));
-                }
-                int trainSize = (int) (itemRatingList.size() * ratio);
-
-                Collections.sort(itemRatingList);
-
-                for (int index = 0; index < itemRatingList.size(); index++) {
-                    if (index < trainSize) {
-                        testMatrix.setAtColumnPosition(rowIndex, itemRatingList.get(index).getItem(), 0.0D);
-                    } else {
-                        trainMatrix.setAtColumnPosition(rowIndex, itemRatingList.get(index).getItem(), 0.0D);
-                    }
-                }
-            }
-            trainMatrix.reshape();
-            testMatrix.reshape();
+            trainMatrix = partitioner.materialize(assignment, 0);
+            testMatrix = partitioner.materialize(assignment, 1);
         }
     }
 
@@ -310,23 +218,14 @@ public class RatioDataSplitter extends AbstractDataSplitter {
      * @param ratio the ratio of training data
      */
     public void getRatioByItem(double ratio) {
-
         if (ratio > 0 && ratio < 1) {
+            // every rating is kept independently with the same probability, which
+            // gives each item the same expected ratio as a column-wise pass
+            MatrixPartitioner partitioner = new MatrixPartitioner(preferenceMatrix);
+            byte[] assignment = partitioner.assignByRatio(ratio);
 
-            trainMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-            testMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-
-            for (int columnIndex = 0, columnSize = preferenceMatrix.columnSize(); columnIndex < columnSize; columnIndex++) {
-                for (Vector.VectorEntry vectorEntry : preferenceMatrix.column(columnIndex)) {
-                    if (Randoms.uniform() < ratio) {
-                        testMatrix.setAtRowPosition(vectorEntry.position(), columnIndex, 0.0D);
-                    } else {
-                        trainMatrix.setAtRowPosition(vectorEntry.position(), columnIndex, 0.0D);
-                    }
-                }
-            }
-            trainMatrix.reshape();
-            testMatrix.reshape();
+            trainMatrix = partitioner.materialize(assignment, 0);
+            testMatrix = partitioner.materialize(assignment, 1);
         }
     }
 
@@ -382,33 +281,12 @@ public class RatioDataSplitter extends AbstractDataSplitter {
      */
     public void getRatio(double trainRatio, double validationRatio) {
         if ((trainRatio > 0 && validationRatio > 0) && (trainRatio + validationRatio) < 1) {
+            MatrixPartitioner partitioner = new MatrixPartitioner(preferenceMatrix);
+            byte[] assignment = partitioner.assignByRatio(trainRatio, validationRatio);
 
-            trainMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-            validationMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-            testMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-
-//            for (int rowIndex = 0, rowSize = preferenceMatrix.rowSize(); rowIndex < rowSize; rowIndex++) {
-//                SequentialAccessSparseVector userRatingVector = preferenceMatrix.row(rowIndex);
-            for (MatrixEntry matrixEntry : preferenceMatrix) {
-                double rdm = Randoms.uniform();
-                if (rdm < trainRatio) {
-                    // training
-                    validationMatrix.setAtColumnPosition(matrixEntry.row(), matrixEntry.columnPosition(), 0.0D);
-                    testMatrix.setAtColumnPosition(matrixEntry.row(), matrixEntry.columnPosition(), 0.0D);
-                } else if (rdm < trainRatio + validationRatio) {
-                    // validation
-                    trainMatrix.setAtColumnPosition(matrixEntry.row(), matrixEntry.columnPosition(), 0.0D);
-                    testMatrix.setAtColumnPosition(matrixEntry.row(), matrixEntry.columnPosition(), 0.0D);
-                } else {
-                    // test
-                    trainMatrix.setAtColumnPosition(matrixEntry.row(), matrixEntry.columnPosition(), 0.0D);
-                    validationMatrix.setAtColumnPosition(matrixEntry.row(), matrixEntry.columnPosition(), 0.0D);
-                }
-            }
-
-            trainMatrix.reshape();
-            validationMatrix.reshape();
-            testMatrix.reshape();
+            trainMatrix = partitioner.materialize(assignment, 0);
+            validationMatrix = partitioner.materialize(assignment, 1);
+            testMatrix = partitioner.materialize(assignment, 2);
         }
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
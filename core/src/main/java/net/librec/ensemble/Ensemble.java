@@ -25,6 +25,7 @@ import net.librec.data.DataModel;
 import net.librec.data.model.TextDataModel;
 import net.librec.data.splitter.KCVDataSplitter;
 import net.librec.data.splitter.LOOCVDataSplitter;
+import net.librec.job.RecommendedResultWriter;
 import net.librec.job.RecommenderJob;
 import net.librec.math.structure.MatrixEntry;
 import net.librec.math.structure.SequentialAccessSparseMatrix;
@@ -32,18 +33,18 @@ import net.librec.recommender.Recommender;
 import net.librec.recommender.RecommenderContext;
 import net.librec.recommender.item.RecommendedItem;
 import net.librec.recommender.item.RecommendedList;
+import net.librec.similarity.AbstractRecommenderSimilarity;
 import net.librec.similarity.PCCSimilarity;
 import net.librec.similarity.RecommenderSimilarity;
 import net.librec.util.DriverClassUtil;
-import net.librec.util.FileUtil;
+import net.librec.util.ReflectionUtil;
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.*;
 
 //import net.librec.math.structure.SparseMatrix;
 
@@ -142,6 +143,17 @@ public class Ensemble {
      */
     public List<Double> realRating;
 
+    /**
+     * the trained recommenders, in the order of their locations
+     */
+    public List<Recommender> recommenders;
+
+    /**
+     * similarities built over the data model, by class name and options; each
+     * one is built by the first member asking for it, outside of the map
+     */
+    protected final Map<String, FutureTask<RecommenderSimilarity>> similarities = new ConcurrentHashMap<>();
+
     /**
      *
      */
@@ -263,6 +275,39 @@ public class Ensemble {
         return newRecommender;
     }
 
+    /**
+     * Train the recommenders of the locations rec.recommender.location.i, with
+     * at most rec.ensemble.threads recommenders at a time, 1 by default. The
+     * recommenders share the data model, which they only read. They also share
+     * the random generator of {@link net.librec.math.algorithm.Randoms}, so a
+     * seeded ensemble is reproducible only if it is trained by 1 thread.
+     *
+     * @return the trained recommenders, in the order of their locations
+     * @throws Exception if the training of a recommender fails
+     */
+    protected List<Recommender> trainRecommenders() throws Exception {
+        int numThreads = Math.min(this.numsOfAlg, conf.getInt("rec.ensemble.threads", 1));
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, numThreads));
+        try {
+            List<Future<Recommender>> futures = new ArrayList<>(this.numsOfAlg);
+            for (int algIdx = 0; algIdx < this.numsOfAlg; algIdx++) {
+                String configFilePath = this.conf.get("rec.recommender.location." + algIdx);
+                futures.add(executor.submit(() -> recommender(configFilePath, this.dataModel)));
+            }
+            List<Recommender> trainedRecommenders = new ArrayList<>(this.numsOfAlg);
+            for (Future<Recommender> future : futures) {
+                try {
+                    trainedRecommenders.add(future.get());
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+            return trainedRecommenders;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     /**
      * Set recommendation context
      *
@@ -273,12 +318,68 @@ public class Ensemble {
      */
     protected RecommenderContext context(Configuration conf, DataModel dataModel) throws LibrecException {
         RecommenderContext context = new RecommenderContext(conf, dataModel);
-        RecommenderSimilarity similarity = new PCCSimilarity();
-        similarity.buildSimilarityMatrix(dataModel);
-        context.setSimilarity(similarity);
+        context.setSimilarity(similarity(conf, dataModel));
         return context;
     }
 
+    /**
+     * The similarity of rec.similarity.class, PCC by default, built over the
+     * data model with the options of the recommender, and shared by the
+     * recommenders with the same class and options. The options are
+     * rec.recommender.similarity.key, or else the first of
+     * rec.recommender.similarities, and rec.similarity.shrinkage, taken from the
+     * configuration of the ensemble if the recommender does not set them.
+     *
+     * @param conf      configuration of the recommender
+     * @param dataModel the data model of the ensemble
+     * @return the similarity
+     * @throws LibrecException if the similarity class is not found
+     */
+    @SuppressWarnings("unchecked")
+    protected RecommenderSimilarity similarity(Configuration conf, DataModel dataModel) throws LibrecException {
+        Class<? extends RecommenderSimilarity> similarityClass = PCCSimilarity.class;
+        if (StringUtils.isNotBlank(conf.get("rec.similarity.class"))) {
+            try {
+                similarityClass = (Class<? extends RecommenderSimilarity>) DriverClassUtil.getClass(conf.get("rec.similarity.class"));
+            } catch (ClassNotFoundException e) {
+                throw new LibrecException(e);
+            }
+        }
+        String similarityKey = conf.get("rec.recommender.similarity.key");
+        if (StringUtils.isBlank(similarityKey)) {
+            String[] similarityKeys = conf.getStrings("rec.recommender.similarities");
+            similarityKey = similarityKeys != null && similarityKeys.length > 0 ? similarityKeys[0]
+                    : this.conf.get("rec.recommender.similarity.key", "user");
+        }
+        int shrinkage = conf.getInt("rec.similarity.shrinkage", this.conf.getInt("rec.similarity.shrinkage", 0));
+        Configuration similarityConf = new Configuration();
+        similarityConf.set("rec.recommender.similarity.key", similarityKey);
+        similarityConf.setInt("rec.similarity.shrinkage", shrinkage);
+
+        final Class<? extends RecommenderSimilarity> buildClass = similarityClass;
+        FutureTask<RecommenderSimilarity> similarityTask = similarities.computeIfAbsent(
+                buildClass.getName() + ":" + similarityKey + ":" + shrinkage, key -> new FutureTask<>(() -> {
+                    RecommenderSimilarity similarity = ReflectionUtil.newInstance(buildClass, similarityConf);
+                    if (similarity instanceof AbstractRecommenderSimilarity) {
+                        ((AbstractRecommenderSimilarity) similarity).buildSimilarityMatrix(dataModel, similarityConf);
+                    } else {
+                        similarity.buildSimilarityMatrix(dataModel);
+                    }
+                    return similarity;
+                }));
+        // the O(n^2) build runs once, on the first caller, without holding a bin of the map;
+        // the other members with the same key wait for it
+        similarityTask.run();
+        try {
+            return similarityTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LibrecException(e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof LibrecException ? (LibrecException) e.getCause() : new LibrecException(e.getCause());
+        }
+    }
+
     /**
      * @param context
      * @param algClass
@@ -374,21 +475,7 @@ public class Ensemble {
                 outputPath = outputPath + "/fold-" + String.valueOf(this.conf.getInt("data.splitter.cv.index"));
             }
             LOG.info("Result path is " + outputPath);
-            // Convert itemList to string
-            StringBuilder sb = new StringBuilder();
-            for (RecommendedItem recItem : recommendedList) {
-                String userId = recItem.getUserId();
-                String itemId = recItem.getItemId();
-                String value = String.valueOf(recItem.getValue());
-                sb.append(userId).append(",").append(itemId).append(",").append(value).append("\n");
-            }
-            String resultData = sb.toString();
-            // save resultData
-            try {
-                FileUtil.writeString(outputPath, resultData);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+            new RecommendedResultWriter(this.conf).write(outputPath, recommendedList);
         }
     }
 
@@ -18,15 +18,29 @@
 
 package net.librec.ensemble;
 
+import com.google.common.collect.BiMap;
 import net.librec.common.LibrecException;
+import net.librec.data.structure.AbstractBaseDataEntry;
+import net.librec.data.structure.BaseDataList;
+import net.librec.data.structure.BaseRatingDataEntry;
+import net.librec.data.structure.LibrecDataList;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.math.structure.SequentialSparseVector;
+import net.librec.recommender.MatrixRecommender;
 import net.librec.recommender.Recommender;
+import net.librec.recommender.item.ContextKeyValueEntry;
 import net.librec.recommender.item.GenericRecommendedItem;
+import net.librec.recommender.item.KeyValue;
 import net.librec.recommender.item.RecommendedItem;
 import net.librec.recommender.item.RecommendedList;
+import net.librec.util.Lists;
 import org.apache.commons.math3.linear.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.stream.IntStream;
 
 
 /**
@@ -51,6 +65,8 @@ public class EnsembleLinear extends Ensemble{
     }
 
     /**
+     * Train the individual recommenders concurrently, their results are
+     * blended per user by {@link #recommendEnsemble()}.
      *
      * @throws Exception
      */
@@ -58,27 +74,106 @@ public class EnsembleLinear extends Ensemble{
     protected void trainModel() throws Exception {
 
         super.trainModel();
-        int tempNums = this.numsOfAlg;
-        // individual training models
-        while(tempNums > 0){
-
-            // loading configuration
-            String algNum = String.valueOf(this.numsOfAlg - tempNums);
-            String configFilePath = this.conf.get("rec.recommender.location." + algNum);
-
-            // training recommender
-            Recommender recommender = recommender(configFilePath, this.dataModel);
-            // get recommend result
-
-            RecommendedList resultRecommend = getRecommendedList(recommender);
-            // collect the recommended results
-            this.recommendedItemListOfAlgs.add(resultRecommend);
-            tempNums --;
-        }
+        this.recommenders = trainRecommenders();
 
         //LeastSquaretrainModel();
     }
 
+    /**
+     * Blend the scores of the recommenders with the weights rec.ensemble.weight.i,
+     * one user at a time: the predicted ratings of the test items of the user,
+     * or the top n items by blended ranking score among the items scored by all
+     * the recommenders.
+     *
+     * @return the blended list, by user index
+     * @throws LibrecException if a recommender is not a MatrixRecommender
+     */
+    public RecommendedList recommendEnsemble() throws LibrecException {
+        List<MatrixRecommender> matrixRecommenders = new ArrayList<>(this.recommenders.size());
+        for (Recommender recommender : this.recommenders) {
+            if (!(recommender instanceof MatrixRecommender)) {
+                throw new LibrecException("Only MatrixRecommenders can be blended: " + recommender.getClass().getName());
+            }
+            matrixRecommenders.add((MatrixRecommender) recommender);
+        }
+        SequentialAccessSparseMatrix testMatrix = (SequentialAccessSparseMatrix) this.dataModel.getTestDataSet();
+        int numUsers = testMatrix.rowSize();
+        boolean isRanking = Boolean.valueOf(this.isranking);
+
+        RecommendedList recommendedList = new RecommendedList(numUsers);
+        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            recommendedList.addList(new ArrayList<>());
+        }
+        IntStream.range(0, numUsers).parallel().forEach(userIdx -> {
+            try {
+                recommendedList.setList(userIdx, isRanking ? blendRank(matrixRecommenders, userIdx, testMatrix.columnSize())
+                        : blendRating(matrixRecommenders, userIdx, testMatrix.row(userIdx).getIndices()));
+            } catch (LibrecException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        return recommendedList;
+    }
+
+    /**
+     * @param matrixRecommenders the recommenders
+     * @param userIdx            user index
+     * @param items              the items to predict
+     * @return the weighted sums of the predicted ratings of the items
+     */
+    protected List<KeyValue<Integer, Double>> blendRating(List<MatrixRecommender> matrixRecommenders, int userIdx, int[] items) throws LibrecException {
+        double[] blendedRatings = new double[items.length];
+        if (items.length > 0) {
+            LibrecDataList<AbstractBaseDataEntry> dataList = new BaseDataList<>();
+            dataList.addDataEntry(new BaseRatingDataEntry(userIdx, items));
+            for (int algIdx = 0; algIdx < matrixRecommenders.size(); algIdx++) {
+                double weight = this.weights.get(algIdx);
+                List<KeyValue<Integer, Double>> ratings = matrixRecommenders.get(algIdx).recommendRating(dataList).getKeyValueListByContext(0);
+                for (int position = 0; position < items.length; position++) {
+                    blendedRatings[position] += weight * ratings.get(position).getValue();
+                }
+            }
+        }
+        List<KeyValue<Integer, Double>> itemValueList = new ArrayList<>(items.length);
+        for (int position = 0; position < items.length; position++) {
+            itemValueList.add(new KeyValue<>(items[position], blendedRatings[position]));
+        }
+        return itemValueList;
+    }
+
+    /**
+     * The candidate items of the user, those not in the train set, are scored
+     * by each recommender without ranking them, and only the top n items by
+     * blended score are sorted.
+     *
+     * @param matrixRecommenders the recommenders
+     * @param userIdx            user index
+     * @param numItems           the number of items
+     * @return the top n items by weighted sum of the ranking scores
+     */
+    protected List<KeyValue<Integer, Double>> blendRank(List<MatrixRecommender> matrixRecommenders, int userIdx, int numItems) {
+        SequentialSparseVector trainItemsVector = ((SequentialAccessSparseMatrix) this.dataModel.getTrainDataSet()).row(userIdx);
+        int[] candidateItems = IntStream.range(0, numItems)
+                .filter(itemIdx -> Arrays.binarySearch(trainItemsVector.getIndices(), 0, trainItemsVector.getNumEntries(), itemIdx) < 0)
+                .toArray();
+        double[] blendedScores = new double[candidateItems.length];
+        for (int algIdx = 0; algIdx < matrixRecommenders.size(); algIdx++) {
+            double weight = this.weights.get(algIdx);
+            double[] scores = matrixRecommenders.get(algIdx).predictScores(userIdx, candidateItems);
+            for (int position = 0; position < candidateItems.length; position++) {
+                blendedScores[position] += weight * scores[position];
+            }
+        }
+        List<KeyValue<Integer, Double>> itemValueList = new ArrayList<>(candidateItems.length);
+        for (int position = 0; position < candidateItems.length; position++) {
+            // NaN unless every recommender scores the item
+            if (!Double.isNaN(blendedScores[position])) {
+                itemValueList.add(new KeyValue<>(candidateItems[position], blendedScores[position]));
+            }
+        }
+        return Lists.sortKeyValueListTopK(itemValueList, true, this.topN);
+    }
+
     /**
      *
      * @return
@@ -326,42 +421,27 @@ public class EnsembleLinear extends Ensemble{
     }
 
     /**
+     * The blended list of {@link #recommendEnsemble()} with the raw ids of the
+     * users and the items.
      *
-     * @return
-     * @throws LibrecException
+     * @return the blended recommended items
+     * @throws LibrecException if a recommender is not a MatrixRecommender
      */
     public  List<RecommendedItem>  getEnsembleRecommendedList() throws LibrecException{
 
-        String userId, itemId;
-        double value;
-        double weightedValue = 0.0;
-        RecommendedItem rating;
-        int userItemPairs = recommendedItemListOfAlgs.get(0).size();
-
+        BiMap<Integer, String> userMappingInverse = this.dataModel.getUserMappingData().inverse();
+        BiMap<Integer, String> itemMappingInverse = this.dataModel.getItemMappingData().inverse();
         List<RecommendedItem> result = new ArrayList<RecommendedItem>();
-        for(int k =0; k < userItemPairs; k++){
-            result.set(k, new GenericRecommendedItem("", "", 0.0));
-        }
-
-        for(int i=0; i< recommendedItemListOfAlgs.size(); i++){
-            // i-algorithm
-            List list= (List)recommendedItemListOfAlgs.get(i);
-
-            for(int j = 0; j < list.size(); j++)
-            {
-                rating= (RecommendedItem)list.get(j);
-                value = rating.getValue();
-                weightedValue = value * this.weightList.get(i);
-                userId = rating.getUserId();
-                itemId = rating.getItemId();
-                RecommendedItem men = new GenericRecommendedItem(userId, itemId, result.get(j).getValue() + weightedValue);
-                result.set(i, men);
-            }
-
+        Iterator<ContextKeyValueEntry> recommendedEntryIter = recommendEnsemble().iterator();
+        while (recommendedEntryIter.hasNext()) {
+            ContextKeyValueEntry contextKeyValueEntry = recommendedEntryIter.next();
+            result.add(new GenericRecommendedItem(userMappingInverse.get(contextKeyValueEntry.getContextIdx()),
+                    itemMappingInverse.get(contextKeyValueEntry.getKey()), contextKeyValueEntry.getValue()));
         }
+        this.recommendedItemFinal = result;
 
         return result;
-    };
+    }
 
     /**
      * Evaluation
@@ -48,6 +48,10 @@ public abstract class AbstractRecommenderEvaluator implements RecommenderEvaluat
      * all similarity maps
      */
     protected Map<String, RecommenderSimilarity> similarities;
+    /**
+     * statistics of the evaluated fold, e.g. the number of dropped items of each user
+     */
+    protected EvalStatistics evalStatistics;
 
     /**
      * Evaluate on the recommender context with the recommended list.
@@ -58,6 +62,7 @@ public abstract class AbstractRecommenderEvaluator implements RecommenderEvaluat
      */
     public double evaluate(RecommenderContext context, RecommendedList groundTruthList, RecommendedList recommendedList) {
         conf = context.getConf();
+        evalStatistics = context.getEvalStatistics();
         String[] similarityKeys = conf.getStrings("rec.recommender.similarities");
         if (similarityKeys != null && similarityKeys.length > 0) {
             similarityMatrix = context.getSimilarity().getSimilarityMatrix();
@@ -68,6 +73,7 @@ public abstract class AbstractRecommenderEvaluator implements RecommenderEvaluat
 
     public double evaluate(EvalContext evalContext){
         conf = evalContext.getConf();
+        evalStatistics = evalContext.getEvalStatistics();
 
         if (evalContext.getSimilarityMatrix() != null){
             similarityMatrix = evalContext.getSimilarityMatrix();
@@ -103,6 +109,7 @@ public abstract class AbstractRecommenderEvaluator implements RecommenderEvaluat
      */
     public double evaluateIndependently(Configuration conf, RecommendedList groundTruthList, RecommendedList recommendedList){
         this.conf = conf;
+        this.evalStatistics = null;
         this.topN = conf != null ? conf.getInt("rec.recommender.ranking.topn", -1): -1;
         RecommendedList[] lists = groundTruthList.joinTransform(recommendedList, topN);
         return evaluate(lists[0], lists[1]);
@@ -24,6 +24,7 @@ public class EvalContext {
     private Map<String, RecommenderSimilarity> similarities = null;
     private Configuration conf;
     private Recommender recommender;
+    private EvalStatistics evalStatistics;
 
     public EvalContext(Configuration conf, RecommendedList recommendedList, SequentialAccessSparseMatrix testMatrix,
                        SymmMatrix similarityMatrix, Map<String, RecommenderSimilarity> similarities) {
@@ -43,6 +44,7 @@ public class EvalContext {
     public EvalContext(Configuration conf, Recommender recommender, DataSet testDataset) throws LibrecException {
         this.conf = conf;
         this.recommender = recommender;
+        this.evalStatistics = recommender.getEvalStatistics();
         boolean isRanking = conf.getBoolean("rec.recommender.isranking");
         if (isRanking){
             recommendedList = recommender.recommendRank();
@@ -146,6 +148,14 @@ public class EvalContext {
         return conf;
     }
 
+    public EvalStatistics getEvalStatistics() {
+        return evalStatistics;
+    }
+
+    public void setEvalStatistics(EvalStatistics evalStatistics) {
+        this.evalStatistics = evalStatistics;
+    }
+
     public void setConf(Configuration conf) {
         this.conf = conf;
     }
@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.eval;
+
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+
+import java.util.stream.IntStream;
+
+/**
+ * Per-user and per-item statistics of a fold used by the evaluators, e.g.
+ * the number of dropped items of each user for {@link net.librec.eval.ranking.AUCEvaluator}
+ * and the purchase count of each item for {@link net.librec.eval.ranking.NoveltyEvaluator}.
+ *
+ * The statistics are kept as primitive arrays and computed in parallel from
+ * the train and test matrices the first time they are requested.
+ */
+public class EvalStatistics {
+
+    private final SequentialAccessSparseMatrix trainMatrix;
+
+    private final SequentialAccessSparseMatrix testMatrix;
+
+    private final int numItems;
+
+    /**
+     * the number of items not rated by each user in the train set
+     */
+    private volatile int[] numDroppedItems;
+
+    /**
+     * the number of users who rated each item, in the train and test sets
+     */
+    private volatile int[] itemPurchaseCounts;
+
+    /**
+     * Compute the statistics from the train and test matrices of a fold.
+     *
+     * @param trainMatrix the train matrix
+     * @param testMatrix  the test matrix
+     */
+    public EvalStatistics(SequentialAccessSparseMatrix trainMatrix, SequentialAccessSparseMatrix testMatrix) {
+        this(trainMatrix, testMatrix, trainMatrix.columnSize());
+    }
+
+    /**
+     * Compute the statistics from the train and test matrices of a fold.
+     *
+     * @param trainMatrix the train matrix
+     * @param testMatrix  the test matrix
+     * @param numItems    the number of candidate items of each user
+     */
+    public EvalStatistics(SequentialAccessSparseMatrix trainMatrix, SequentialAccessSparseMatrix testMatrix, int numItems) {
+        this.trainMatrix = trainMatrix;
+        this.testMatrix = testMatrix;
+        this.numItems = numItems;
+    }
+
+    /**
+     * Use precomputed statistics.
+     *
+     * @param numDroppedItems    the number of items not rated by each user in the train set
+     * @param itemPurchaseCounts the number of users who rated each item
+     */
+    public EvalStatistics(int[] numDroppedItems, int[] itemPurchaseCounts) {
+        this.trainMatrix = null;
+        this.testMatrix = null;
+        this.numItems = 0;
+        this.numDroppedItems = numDroppedItems;
+        this.itemPurchaseCounts = itemPurchaseCounts;
+    }
+
+    /**
+     * @return the number of items not rated by each user in the train set
+     */
+    public int[] getNumDroppedItems() {
+        int[] result = numDroppedItems;
+        if (result == null && trainMatrix != null) {
+            synchronized (this) {
+                result = numDroppedItems;
+                if (result == null) {
+                    int[] counts = new int[trainMatrix.rowSize()];
+                    IntStream.range(0, counts.length).parallel().forEach(userIdx ->
+                            counts[userIdx] = numItems - trainMatrix.row(userIdx).getNumEntries());
+                    numDroppedItems = result = counts;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of users who rated each item, in the train and test sets
+     */
+    public int[] getItemPurchaseCounts() {
+        int[] result = itemPurchaseCounts;
+        if (result == null && trainMatrix != null) {
+            synchronized (this) {
+                result = itemPurchaseCounts;
+                if (result == null) {
+                    int[] counts = new int[trainMatrix.columnSize()];
+                    IntStream.range(0, counts.length).parallel().forEach(itemIdx ->
+                            counts[itemIdx] = trainMatrix.column(itemIdx).getNumEntries()
+                                    + (itemIdx < testMatrix.columnSize() ? testMatrix.column(itemIdx).getNumEntries() : 0));
+                    itemPurchaseCounts = result = counts;
+                }
+            }
+        }
+        return result;
+    }
+}
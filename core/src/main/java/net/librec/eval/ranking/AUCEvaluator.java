@@ -47,10 +47,11 @@ public class AUCEvaluator extends AbstractRecommenderEvaluator {
 
         int numContext = groundTruthList.size();
         int nonZeroContext = 0;
-        int[] numDroppedArray = getConf().getInts("rec.eval.auc.dropped.num");
+        int[] numDroppedArray = evalStatistics != null ? evalStatistics.getNumDroppedItems()
+                : getConf().getInts("rec.eval.auc.dropped.num");
 
         if (numDroppedArray == null || numDroppedArray.length != numContext){
-            throw new LibrecRuntimeException("please set rec.eval.auc.dropped.num arrays, length of numDroppedArray must be cardinality of groundTruthList.");
+            throw new LibrecRuntimeException("please set the evaluation statistics or rec.eval.auc.dropped.num arrays, length of numDroppedArray must be cardinality of groundTruthList.");
         }
 
         for (int contextIdx = 0; contextIdx < numContext; ++contextIdx) {
@@ -64,7 +64,8 @@ public class NoveltyEvaluator extends AbstractRecommenderEvaluator {
         int numUsers = groundTruthList.size();
 
         // First collect item counts needed for estimating probabilities of the items
-        int[] itemCounts = conf.getInts("rec.eval.item.purchase.num");
+        int[] itemCounts = evalStatistics != null ? evalStatistics.getItemPurchaseCounts()
+                : conf.getInts("rec.eval.item.purchase.num");
 
         double sumInformation = 0;
         for (int contextIdx = 0; contextIdx < numUsers; contextIdx++) {
@@ -0,0 +1,280 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.filter;
+
+import com.google.common.collect.BiMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import net.librec.conf.Configuration;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Filter of the users and the items applied by
+ * {@link net.librec.recommender.MatrixRecommender#recommendRank()} while
+ * ranking, in inner indices: the users which are not accepted are not ranked,
+ * and the items which are not accepted are neither scored nor recommended.
+ * <ul>
+ * <li>allowed and denied users and items, e.g. from the configuration keys
+ * rec.filter.user.allow, rec.filter.user.deny, rec.filter.item.allow and
+ * rec.filter.item.deny (comma-separated ids)</li>
+ * <li>items excluded for a user</li>
+ * <li>maximum number of recommended items of each category for a user</li>
+ * </ul>
+ */
+public class RankingFilter {
+    private final int numUsers;
+
+    private final int numItems;
+
+    /**
+     * accepted users, null to accept all of them
+     */
+    private BitSet acceptedUsers;
+
+    /**
+     * accepted items, null to accept all of them
+     */
+    private BitSet acceptedItems;
+
+    /**
+     * sorted items excluded for each user
+     */
+    private final Int2ObjectOpenHashMap<int[]> excludedItems = new Int2ObjectOpenHashMap<>();
+
+    /**
+     * category of each item, negative for no category
+     */
+    private int[] itemCategories;
+
+    /**
+     * maximum number of recommended items of each category
+     */
+    private int[] categoryQuotas;
+
+    private static final int[] NO_ITEMS = new int[0];
+
+    /**
+     * Create a filter accepting all the users and the items.
+     *
+     * @param numUsers the number of users
+     * @param numItems the number of items
+     */
+    public RankingFilter(int numUsers, int numItems) {
+        this.numUsers = numUsers;
+        this.numItems = numItems;
+    }
+
+    /**
+     * Create a filter from the allowed and the denied ids of the configuration.
+     *
+     * @param conf            configuration
+     * @param userMappingData user {raw id, inner id} map
+     * @param itemMappingData item {raw id, inner id} map
+     * @return the filter, or null if no id is configured
+     */
+    public static RankingFilter build(Configuration conf, BiMap<String, Integer> userMappingData,
+                                      BiMap<String, Integer> itemMappingData) {
+        String[] allowedUsers = conf.getStrings("rec.filter.user.allow");
+        String[] deniedUsers = conf.getStrings("rec.filter.user.deny");
+        String[] allowedItems = conf.getStrings("rec.filter.item.allow");
+        String[] deniedItems = conf.getStrings("rec.filter.item.deny");
+        if (allowedUsers == null && deniedUsers == null && allowedItems == null && deniedItems == null) {
+            return null;
+        }
+
+        RankingFilter filter = new RankingFilter(userMappingData.size(), itemMappingData.size());
+        if (allowedUsers != null) {
+            filter.allowUsers(toIndices(allowedUsers, userMappingData));
+        }
+        if (deniedUsers != null) {
+            filter.denyUsers(toIndices(deniedUsers, userMappingData));
+        }
+        if (allowedItems != null) {
+            filter.allowItems(toIndices(allowedItems, itemMappingData));
+        }
+        if (deniedItems != null) {
+            filter.denyItems(toIndices(deniedItems, itemMappingData));
+        }
+        return filter;
+    }
+
+    private static int[] toIndices(String[] ids, BiMap<String, Integer> mappingData) {
+        return Arrays.stream(ids).map(String::trim).filter(mappingData::containsKey)
+                .mapToInt(mappingData::get).toArray();
+    }
+
+    /**
+     * Accept only the given users, and those allowed by a previous call.
+     *
+     * @param userIndices inner user indices
+     * @return this filter
+     */
+    public RankingFilter allowUsers(int... userIndices) {
+        acceptedUsers = allow(acceptedUsers, userIndices);
+        return this;
+    }
+
+    /**
+     * Do not accept the given users.
+     *
+     * @param userIndices inner user indices
+     * @return this filter
+     */
+    public RankingFilter denyUsers(int... userIndices) {
+        acceptedUsers = deny(acceptedUsers, numUsers, userIndices);
+        return this;
+    }
+
+    /**
+     * Accept only the given items, and those allowed by a previous call.
+     *
+     * @param itemIndices inner item indices
+     * @return this filter
+     */
+    public RankingFilter allowItems(int... itemIndices) {
+        acceptedItems = allow(acceptedItems, itemIndices);
+        return this;
+    }
+
+    /**
+     * Do not accept the given items.
+     *
+     * @param itemIndices inner item indices
+     * @return this filter
+     */
+    public RankingFilter denyItems(int... itemIndices) {
+        acceptedItems = deny(acceptedItems, numItems, itemIndices);
+        return this;
+    }
+
+    private static BitSet allow(BitSet accepted, int[] indices) {
+        if (accepted == null) {
+            accepted = new BitSet();
+        }
+        for (int index : indices) {
+            accepted.set(index);
+        }
+        return accepted;
+    }
+
+    private static BitSet deny(BitSet accepted, int size, int[] indices) {
+        if (accepted == null) {
+            accepted = new BitSet(size);
+            accepted.set(0, size);
+        }
+        for (int index : indices) {
+            accepted.clear(index);
+        }
+        return accepted;
+    }
+
+    /**
+     * Do not recommend the given items to a user.
+     *
+     * @param userIdx     inner user index
+     * @param itemIndices inner item indices
+     * @return this filter
+     */
+    public RankingFilter excludeItems(int userIdx, int... itemIndices) {
+        int[] userExcludedItems = excludedItems.get(userIdx);
+        int[] items = userExcludedItems == null ? itemIndices.clone()
+                : Arrays.copyOf(userExcludedItems, userExcludedItems.length + itemIndices.length);
+        if (userExcludedItems != null) {
+            System.arraycopy(itemIndices, 0, items, userExcludedItems.length, itemIndices.length);
+        }
+        excludedItems.put(userIdx, Arrays.stream(items).sorted().distinct().toArray());
+        return this;
+    }
+
+    /**
+     * Limit the number of the recommended items of each category for a user.
+     *
+     * @param itemCategories the category of each item, negative for no category
+     * @param categoryQuotas the maximum number of recommended items of each category
+     * @return this filter
+     */
+    public RankingFilter setCategoryQuotas(int[] itemCategories, int[] categoryQuotas) {
+        this.itemCategories = itemCategories;
+        this.categoryQuotas = categoryQuotas;
+        return this;
+    }
+
+    /**
+     * @param userIdx inner user index
+     * @return true if the user is ranked
+     */
+    public boolean acceptUser(int userIdx) {
+        return acceptedUsers == null || acceptedUsers.get(userIdx);
+    }
+
+    /**
+     * @param itemIdx inner item index
+     * @return true if the item can be recommended, regardless of the user
+     */
+    public boolean acceptItem(int itemIdx) {
+        return acceptedItems == null || acceptedItems.get(itemIdx);
+    }
+
+    /**
+     * @param userIdx inner user index
+     * @return the sorted items excluded for the user
+     */
+    public int[] getExcludedItems(int userIdx) {
+        int[] userExcludedItems = excludedItems.get(userIdx);
+        return userExcludedItems != null ? userExcludedItems : NO_ITEMS;
+    }
+
+    /**
+     * @return true if the number of recommended items of a category is limited
+     */
+    public boolean hasCategoryQuotas() {
+        return categoryQuotas != null;
+    }
+
+    /**
+     * @return the number of recommended items of each category for a new user,
+     * or null if there is no limit
+     */
+    public int[] newCategoryCounts() {
+        return categoryQuotas != null ? new int[categoryQuotas.length] : null;
+    }
+
+    /**
+     * Count an item in the recommended items of a user, if the quota of its
+     * category is not reached. The items must be offered in the ranking order.
+     *
+     * @param itemIdx        inner item index
+     * @param categoryCounts the counts of the user, from {@link #newCategoryCounts()}
+     * @return true if the item is recommended
+     */
+    public boolean takeWithinQuota(int itemIdx, int[] categoryCounts) {
+        if (categoryCounts == null) {
+            return true;
+        }
+        int category = itemCategories[itemIdx];
+        if (category < 0) {
+            return true;
+        }
+        if (categoryCounts[category] >= categoryQuotas[category]) {
+            return false;
+        }
+        categoryCounts[category]++;
+        return true;
+    }
+}
@@ -0,0 +1,302 @@
+package net.librec.increment;
+
+import net.librec.math.algorithm.Randoms;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Growable, row-chunked primitive matrix used to hold the factors and biases
+ * of the incremental recommenders.
+ *
+ * Rows are stored in fixed size chunks of {@code double[]}, so appending a new
+ * user or item only allocates a new chunk every {@code CHUNK_ROWS} rows and
+ * never copies existing factors. Removed rows are marked by a tombstone and
+ * zeroed, so {@link #removeRow(int)} is O(1) and row indices stay stable.
+ *
+ * Reads and writes of single cells are not synchronized: concurrent SGD
+ * updates on distinct or overlapping rows follow the lock-free (Hogwild!)
+ * scheme. Growing the matrix must not run concurrently with training.
+ */
+public class FactorMatrix {
+
+    /**
+     * number of rows per chunk is 2^CHUNK_SHIFT
+     */
+    private static final int CHUNK_SHIFT = 10;
+
+    private static final int CHUNK_ROWS = 1 << CHUNK_SHIFT;
+
+    private static final int CHUNK_MASK = CHUNK_ROWS - 1;
+
+    /**
+     * row chunks, each of length CHUNK_ROWS * numColumns
+     */
+    private double[][] chunks;
+
+    /**
+     * tombstones of the removed rows
+     */
+    private final BitSet removedRows;
+
+    private final int numColumns;
+
+    private int numRows;
+
+    /**
+     * Create a one column matrix, e.g. user or item biases.
+     *
+     * @param numRows number of rows
+     */
+    public FactorMatrix(int numRows) {
+        this(numRows, 1);
+    }
+
+    /**
+     * Create a matrix filled with zeros.
+     *
+     * @param numRows    number of rows
+     * @param numColumns number of columns
+     */
+    public FactorMatrix(int numRows, int numColumns) {
+        this.numColumns = numColumns;
+        this.removedRows = new BitSet();
+        this.chunks = new double[Math.max(1, (numRows + CHUNK_MASK) >>> CHUNK_SHIFT)][];
+        ensureRows(numRows);
+    }
+
+    /**
+     * @return the number of rows, including removed rows
+     */
+    public int rowSize() {
+        return numRows;
+    }
+
+    /**
+     * @return the number of columns
+     */
+    public int columnSize() {
+        return numColumns;
+    }
+
+    /**
+     * @return the number of rows which are not removed
+     */
+    public int activeRowSize() {
+        return numRows - removedRows.cardinality();
+    }
+
+    /**
+     * Grow the matrix so that it holds at least {@code rows} rows. New rows are zero.
+     *
+     * @param rows the minimum number of rows
+     */
+    public void ensureRows(int rows) {
+        if (rows <= numRows) {
+            return;
+        }
+        int numChunks = (rows + CHUNK_MASK) >>> CHUNK_SHIFT;
+        if (numChunks > chunks.length) {
+            chunks = Arrays.copyOf(chunks, Math.max(numChunks, chunks.length << 1));
+        }
+        for (int chunkIndex = numRows >>> CHUNK_SHIFT; chunkIndex < numChunks; chunkIndex++) {
+            if (chunks[chunkIndex] == null) {
+                chunks[chunkIndex] = new double[CHUNK_ROWS * numColumns];
+            }
+        }
+        numRows = rows;
+    }
+
+    /**
+     * Append a zero row to the end of the matrix.
+     *
+     * @return the index of the new row
+     */
+    public int appendRow() {
+        int row = numRows;
+        ensureRows(row + 1);
+        return row;
+    }
+
+    /**
+     * Mark a row as removed and zero its values.
+     *
+     * @param row row index
+     */
+    public void removeRow(int row) {
+        if (row < 0 || row >= numRows) {
+            return;
+        }
+        removedRows.set(row);
+        setRow(row, 0.0d);
+    }
+
+    /**
+     * Clear the tombstone of a removed row, e.g. when a removed user comes back.
+     *
+     * @param row row index
+     */
+    public void reviveRow(int row) {
+        ensureRows(row + 1);
+        removedRows.clear(row);
+    }
+
+    /**
+     * @param row row index
+     * @return true if the row is out of range or removed
+     */
+    public boolean isRemoved(int row) {
+        return row >= numRows || removedRows.get(row);
+    }
+
+    /**
+     * @param row    row index
+     * @param column column index
+     * @return the value at (row, column)
+     */
+    public double get(int row, int column) {
+        return chunks[row >>> CHUNK_SHIFT][(row & CHUNK_MASK) * numColumns + column];
+    }
+
+    /**
+     * @param row    row index
+     * @param column column index
+     * @param value  the new value
+     */
+    public void set(int row, int column, double value) {
+        chunks[row >>> CHUNK_SHIFT][(row & CHUNK_MASK) * numColumns + column] = value;
+    }
+
+    /**
+     * @param row    row index
+     * @param column column index
+     * @param value  value to add to (row, column)
+     */
+    public void add(int row, int column, double value) {
+        chunks[row >>> CHUNK_SHIFT][(row & CHUNK_MASK) * numColumns + column] += value;
+    }
+
+    /**
+     * @param row row index
+     * @return the value of the first column, used by bias vectors
+     */
+    public double get(int row) {
+        return get(row, 0);
+    }
+
+    /**
+     * @param row   row index
+     * @param value the new value of the first column
+     */
+    public void set(int row, double value) {
+        set(row, 0, value);
+    }
+
+    /**
+     * @param row   row index
+     * @param value value to add to the first column
+     */
+    public void add(int row, double value) {
+        add(row, 0, value);
+    }
+
+    /**
+     * Set all the values of a row to one value.
+     *
+     * @param row   row index
+     * @param value the new value
+     */
+    public void setRow(int row, double value) {
+        int offset = (row & CHUNK_MASK) * numColumns;
+        Arrays.fill(chunks[row >>> CHUNK_SHIFT], offset, offset + numColumns, value);
+    }
+
+    /**
+     * Initialize a row with Gaussian random values.
+     *
+     * @param row   row index
+     * @param mean  mean of the Gaussian distribution
+     * @param sigma standard deviation of the Gaussian distribution
+     */
+    public void initRow(int row, double mean, double sigma) {
+        double[] chunk = chunks[row >>> CHUNK_SHIFT];
+        int offset = (row & CHUNK_MASK) * numColumns;
+        for (int column = 0; column < numColumns; column++) {
+            chunk[offset + column] = Randoms.gaussian(mean, sigma);
+        }
+    }
+
+    /**
+     * Set all the values of the matrix to one value.
+     *
+     * @param initVal the new value
+     */
+    public void init(double initVal) {
+        for (int row = 0; row < numRows; row++) {
+            setRow(row, initVal);
+        }
+    }
+
+    /**
+     * Initialize all the rows which are not removed with Gaussian random values.
+     *
+     * @param mean  mean of the Gaussian distribution
+     * @param sigma standard deviation of the Gaussian distribution
+     */
+    public void init(double mean, double sigma) {
+        for (int row = 0; row < numRows; row++) {
+            if (!removedRows.get(row)) {
+                initRow(row, mean, sigma);
+            }
+        }
+    }
+
+    /**
+     * Copy a row into the given array.
+     *
+     * @param row    row index
+     * @param target array of length at least columnSize()
+     * @return the target array
+     */
+    public double[] getRow(int row, double[] target) {
+        System.arraycopy(chunks[row >>> CHUNK_SHIFT], (row & CHUNK_MASK) * numColumns, target, 0, numColumns);
+        return target;
+    }
+
+    /**
+     * @param row    row index
+     * @param vector array of length at least columnSize()
+     * @return the inner product of a row and the given vector
+     */
+    public double dot(int row, double[] vector) {
+        double[] chunk = chunks[row >>> CHUNK_SHIFT];
+        int offset = (row & CHUNK_MASK) * numColumns;
+        double res = 0.0d;
+        for (int column = 0; column < numColumns; column++) {
+            res += chunk[offset + column] * vector[column];
+        }
+        return res;
+    }
+
+    /**
+     * Inner product of row {@code mrow} of m and row {@code nrow} of n.
+     *
+     * @param m    the first matrix
+     * @param mrow row index of m
+     * @param n    the second matrix
+     * @param nrow row index of n
+     * @return the inner product
+     */
+    public static double rowMult(FactorMatrix m, int mrow, FactorMatrix n, int nrow) {
+        assert m.numColumns == n.numColumns;
+        double[] mChunk = m.chunks[mrow >>> CHUNK_SHIFT];
+        double[] nChunk = n.chunks[nrow >>> CHUNK_SHIFT];
+        int mOffset = (mrow & CHUNK_MASK) * m.numColumns;
+        int nOffset = (nrow & CHUNK_MASK) * n.numColumns;
+        double res = 0.0d;
+        for (int column = 0, columnSize = m.numColumns; column < columnSize; column++) {
+            res += mChunk[mOffset + column] * nChunk[nOffset + column];
+        }
+        return res;
+    }
+}
@@ -3,6 +3,8 @@ package net.librec.increment;
 // put this class to the top
 
 import net.librec.common.LibrecException;
+import net.librec.recommender.RecommenderContext;
+import net.librec.util.RangeExecutor;
 
 public abstract class IncrementalMFRecommender extends IncrementalRatingRecommender {
 
@@ -14,12 +16,12 @@ public abstract class IncrementalMFRecommender extends IncrementalRatingRecommen
     /**
      * user latent factors
      */
-    protected TableMatrix userFactors;
+    protected FactorMatrix userFactors;
 
     /**
      * item latent factors
      */
-    protected TableMatrix itemFactors;
+    protected FactorMatrix itemFactors;
 
     /**
      * the number of latent factors;
@@ -91,6 +93,16 @@ public abstract class IncrementalMFRecommender extends IncrementalRatingRecommen
      */
     protected double currentLearnrate;
 
+    /**
+     * the number of threads used to train the model
+     */
+    protected int maxThreads;
+
+    /**
+     * the threads of the training passes, from the first pass to the end of the training
+     */
+    private RangeExecutor rangeExecutor;
+
 
     /**
      *  construct function
@@ -128,9 +140,13 @@ public abstract class IncrementalMFRecommender extends IncrementalRatingRecommen
         numFactors = conf.getInt("rec.factor.number", 10);
         isBoldDriver = conf.getBoolean("rec.learnrate.bolddriver", false);
         decay = conf.getDouble("rec.learnrate.decay", 1.0d);
+        maxThreads = conf.getInt("rec.thread.count", 1);
 
-        userFactors = new TableMatrix(numUsers, numFactors);
-        itemFactors = new TableMatrix(numItems, numFactors);
+        maxUserId = numUsers - 1;
+        maxItemId = numItems - 1;
+
+        userFactors = new FactorMatrix(numUsers, numFactors);
+        itemFactors = new FactorMatrix(numItems, numFactors);
 
         initMean = 0.0d;
         initStd = 0.1d;
@@ -147,8 +163,8 @@ public abstract class IncrementalMFRecommender extends IncrementalRatingRecommen
         // extends AbstractRecommender
         setup();
 
-        userFactors = new TableMatrix(numUsers, numFactors);
-        itemFactors = new TableMatrix(numItems, numFactors);
+        userFactors = new FactorMatrix(numUsers, numFactors);
+        itemFactors = new FactorMatrix(numItems, numFactors);
 
         // initialize factors
         userFactors.init(initMean, initStd);
@@ -166,10 +182,57 @@ public abstract class IncrementalMFRecommender extends IncrementalRatingRecommen
      * @throws LibrecException if error occurs during predicting
      */
     protected double predict(int userIdx, int itemIdx) throws LibrecException {
-        //return DenseMatrix.rowMult(userFactors, userIdx, itemFactors, itemIdx);
-        return TableMatrix.rowMult(userFactors, userIdx, itemFactors, itemIdx);
+        return FactorMatrix.rowMult(userFactors, userIdx, itemFactors, itemIdx);
     }
 
+    /**
+     * Train the model, releasing the threads of the training passes at the end.
+     *
+     * @param context recommender context
+     * @throws LibrecException if error occurs during training
+     */
+    @Override
+    public void train(RecommenderContext context) throws LibrecException {
+        try {
+            super.train(context);
+        } finally {
+            if (rangeExecutor != null) {
+                rangeExecutor.close();
+                rangeExecutor = null;
+            }
+        }
+    }
+
+    /**
+     * One SGD pass over the ratings of all the users in trainMatrix.
+     * If maxThreads is greater than one, users are split into blocks which are
+     * trained concurrently: the factors of a user are only touched by the
+     * thread owning its block, item factors are updated lock-free.
+     *
+     * @param updateUser whether to update the user parameters
+     * @param updateItem whether to update the item parameters
+     * @throws LibrecException if error occurs during training
+     */
+    protected void iterateUsers(final boolean updateUser, final boolean updateItem) throws LibrecException {
+        if (rangeExecutor == null) {
+            rangeExecutor = new RangeExecutor(maxThreads);
+        }
+        rangeExecutor.run(numUsers, (fromUser, toUser) -> iterateUsers(fromUser, toUser, updateUser, updateItem));
+    }
+
+    /**
+     * One SGD pass over the ratings of the users in [fromUser, toUser).
+     * Implementations must not allocate per rating, since this is the hot loop
+     * of both full training and incremental retraining.
+     *
+     * @param fromUser   the first user, inclusive
+     * @param toUser     the last user, exclusive
+     * @param updateUser whether to update the user parameters
+     * @param updateItem whether to update the item parameters
+     * @throws LibrecException if error occurs during training
+     */
+    protected abstract void iterateUsers(int fromUser, int toUser, boolean updateUser, boolean updateItem) throws LibrecException;
+
     /**
      * Update current learning rate after each epoch <br>
      * <ol>
@@ -27,7 +27,7 @@ public abstract class IncrementalRankingRecommender extends IncrementalRecommend
 
     }
     public void removeUser(int userId){
-
+        invalidateUserResults(userId);
     }
 
     /**
@@ -41,7 +41,7 @@ public abstract class IncrementalRankingRecommender extends IncrementalRecommend
 
     }
     public void removeItem(int itemId){
-
+        invalidateItemResults(itemId);
     }
 
 }
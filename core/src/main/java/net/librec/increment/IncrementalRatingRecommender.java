@@ -173,12 +173,18 @@ public abstract class IncrementalRatingRecommender extends IncrementalRecommende
     }
 
 
+    @Override
+    protected boolean updatesItems(){
+        return updateItems;
+    }
+
     /***
      *
      * @param newRatings
      */
     public void  addRatings(TableMatrix newRatings) throws LibrecException{
 
+        invalidateResults(newRatings);
         Iterator<Table.Cell<Integer, Integer, Double>> it = newRatings.iterator();
         int userId, itemId;
         double ratingValue;
@@ -204,6 +210,7 @@ public abstract class IncrementalRatingRecommender extends IncrementalRecommende
      * @param newRatings
      */
     public void updateRatings(TableMatrix newRatings) throws LibrecException{
+        invalidateResults(newRatings);
         Iterator<Table.Cell<Integer, Integer, Double>> it = newRatings.iterator();
         int userId, itemId;
         double ratingValue;
@@ -224,6 +231,7 @@ public abstract class IncrementalRatingRecommender extends IncrementalRecommende
      * @param removeRatings
      */
     public void removeRatings(TableMatrix removeRatings)  throws LibrecException{
+        invalidateResults(removeRatings);
         Iterator<Table.Cell<Integer, Integer, Double>> it = removeRatings.iterator();
         int userId, itemId;
         double ratingValue;
@@ -246,12 +254,13 @@ public abstract class IncrementalRatingRecommender extends IncrementalRecommende
     @Override
     protected void addUser(int userId) {
         if (userId > this.maxUserId){
-           this.maxItemId = userId;
+           this.maxUserId = userId;
         }
     }
 
     @Override
     public void removeUser(int userId){
+        invalidateUserResults(userId);
         if(userId == this.maxUserId){
             this.maxUserId --;
         }
@@ -272,6 +281,7 @@ public abstract class IncrementalRatingRecommender extends IncrementalRecommende
 
     @Override
     public void removeItem(int itemId){
+        invalidateItemResults(itemId);
         if(itemId == this.maxItemId){
             this.maxItemId--;
         }
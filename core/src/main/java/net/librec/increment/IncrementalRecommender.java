@@ -2,8 +2,12 @@ package net.librec.increment;
 
 // put this class to the top
 
+import com.google.common.collect.Table;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import net.librec.recommender.MatrixFactorizationRecommender;
 
+import java.util.Iterator;
+
 public abstract class  IncrementalRecommender extends MatrixFactorizationRecommender implements IIncrementalRecommender{
 
     /**
@@ -36,4 +40,62 @@ public abstract class  IncrementalRecommender extends MatrixFactorizationRecomme
      */
     protected void addItem(int itemId){
     }
+
+    /**
+     * Whether the updates of ratings change the parameters of the items, e.g.
+     * their factors or their neighbourhoods. The scores of an updated item then
+     * change for every user, not only for the users whose cached items contain it.
+     *
+     * @return true unless the updates only change the parameters of the users
+     */
+    protected boolean updatesItems(){
+        return true;
+    }
+
+    /**
+     * Invalidate the cached ranked items after an update of ratings: all of them,
+     * for a new version of the model, if the parameters of the items change,
+     * else those of the users of the ratings and those containing their items.
+     *
+     * @param ratings the updated ratings
+     */
+    protected void invalidateResults(TableMatrix ratings){
+        if (resultCache == null) {
+            return;
+        }
+        if (updatesItems()) {
+            resultCache.invalidateAll();
+            return;
+        }
+        IntOpenHashSet itemIds = new IntOpenHashSet();
+        Iterator<Table.Cell<Integer, Integer, Double>> it = ratings.iterator();
+        while (it.hasNext()) {
+            Table.Cell<Integer, Integer, Double> ratingData = it.next();
+            resultCache.invalidateUser(ratingData.getRowKey());
+            itemIds.add(ratingData.getColumnKey().intValue());
+        }
+        resultCache.invalidateItems(itemIds.toIntArray());
+    }
+
+    /**
+     * Invalidate the cached ranked items of a removed user.
+     *
+     * @param userId
+     */
+    protected void invalidateUserResults(int userId){
+        if (resultCache != null) {
+            resultCache.invalidateUser(userId);
+        }
+    }
+
+    /**
+     * Invalidate the cached ranked items containing a removed item.
+     *
+     * @param itemId
+     */
+    protected void invalidateItemResults(int itemId){
+        if (resultCache != null) {
+            resultCache.invalidateItems(new int[]{itemId});
+        }
+    }
 }
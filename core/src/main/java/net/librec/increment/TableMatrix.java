@@ -135,8 +135,8 @@ public class TableMatrix {
      * @return
      */
     public double set(int itemId, double value) {
-        double previouslyValue = table.put(0, itemId, value);
-        return previouslyValue;
+        Double previouslyValue = table.put(0, itemId, value);
+        return previouslyValue == null ? 0.0d : previouslyValue;
     }
 
 
@@ -147,8 +147,8 @@ public class TableMatrix {
      * @return
      */
     public double set(int userId, int itemId, double value) {
-        double previouslyValue = table.put(userId, itemId, value);
-        return previouslyValue;
+        Double previouslyValue = table.put(userId, itemId, value);
+        return previouslyValue == null ? 0.0d : previouslyValue;
     }
 
     /***
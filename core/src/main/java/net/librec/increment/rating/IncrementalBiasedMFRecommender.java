@@ -3,9 +3,8 @@ package net.librec.increment.rating;
 
 import com.google.common.collect.Table;
 import net.librec.common.LibrecException;
-import net.librec.increment.TableMatrix;
+import net.librec.increment.FactorMatrix;
 import net.librec.math.structure.DenseVector;
-import net.librec.math.structure.MatrixEntry;
 import net.librec.math.structure.SparseTensor;
 import net.librec.math.structure.VectorBasedDenseVector;
 
@@ -32,11 +31,6 @@ public class IncrementalBiasedMFRecommender extends IncrementalSimpleMFRecommend
      */
     protected double ratingRangeSize;
 
-    /**
-     *  support max threads
-     */
-    public int maxThreads;
-
     /**
      *  loss target
      */
@@ -91,14 +85,19 @@ public class IncrementalBiasedMFRecommender extends IncrementalSimpleMFRecommend
     /**
      * user biases
      */
-    protected TableMatrix userBiases;
+    protected FactorMatrix userBiases;
 
     /**
      * item biases
      */
-    protected TableMatrix itemBiases;
+    protected FactorMatrix itemBiases;
 
 
+    /**
+     * regularization weights of the current epoch
+     */
+    protected double userRegWeight, itemRegWeight;
+
     /**
      * regularization factor for the bias terms
      * @throws Exception
@@ -115,6 +114,8 @@ public class IncrementalBiasedMFRecommender extends IncrementalSimpleMFRecommend
         getGlobalBias(this.globalMean);
 
         super.setup();
+
+        lossTarget = lossTarget(this.optTarget);
     }
 
     @Override
@@ -124,8 +125,8 @@ public class IncrementalBiasedMFRecommender extends IncrementalSimpleMFRecommend
         super.initModel();
 
         //initialize the userBiased and itemBiased
-        userBiases = new TableMatrix(numUsers);
-        itemBiases = new TableMatrix(numItems);
+        userBiases = new FactorMatrix(numUsers);
+        itemBiases = new FactorMatrix(numItems);
 
         userBiases.init(initMean, initStd);
         itemBiases.init(initMean, initStd);
@@ -140,10 +141,6 @@ public class IncrementalBiasedMFRecommender extends IncrementalSimpleMFRecommend
 
         initModel();
 
-//        if(maxThreads > 1){
-//
-//        }
-
         //the parameters from  IncrementalRatingRecommender
         this.ratingRangeSize = this.maxRating - this.minRating;
         double avg =  (this.globalMean - this.minRating) / (this.maxRating - this.minRating);
@@ -166,51 +163,57 @@ public class IncrementalBiasedMFRecommender extends IncrementalSimpleMFRecommend
      */
     protected void iterate(boolean updateUser, boolean updateItem) throws LibrecException {
 
-         for(MatrixEntry matrixEntry : trainMatrix) {
-             // user userId
-             int userId = matrixEntry.row();
-             // item itemId
-             int itemId = matrixEntry.column();
-             // real rating on item itemId rated by user userId
-             double realRating = matrixEntry.get();
-
-             double score = globalBias + userBiases.get(userId) + itemBiases.get(itemId) + TableMatrix.rowMult(userFactors, userId, itemFactors, itemId) ;
-             // kernel function (logistic)
-             double sigScore = 1 / (1 + Math.exp(score));
-             double prediction = minRating + sigScore * ratingRangeSize;
-
-             double err = realRating -  prediction;
-             double gradientCommon = this.computeGradientCommon(sigScore, err);
-
-             double userRegWeight = frequencyRegularization ? (double) (regU / Math.sqrt(trainMatrix.rowSize())) : regU;
-             double itemRegWeight = frequencyRegularization ? (double) (regI / Math.sqrt(trainMatrix.columnSize())) : regI;
-
-             // update user biases
-             if(updateUser){
-                 userBiases.add(userId, this.biasLearnReg * currentLearnrate * (gradientCommon - biasReg * userRegWeight * userBiases.get(userId)));
-             }
-             // update item biases
-             if(updateItem){
-                 itemBiases.add(itemId, this.biasLearnReg * currentLearnrate * (gradientCommon - biasReg * itemRegWeight * itemBiases.get(itemId)));
-             }
-
-             // update user and item factors
-             for (int f = 0; f < this.numFactors; f++){
-
-                 double userFactorValue = userFactors.get(userId, f);
-                 double itemFactorValue  = itemFactors.get(itemId, f);
-
-                 if(updateUser){
-                     double deltaU = gradientCommon * itemFactorValue - userRegWeight * userFactorValue;
-                     userFactors.add(userId, f, currentLearnrate * deltaU);
-                 }
-                 if(updateItem){
-                    double deltaI = gradientCommon * userFactorValue - itemRegWeight * itemFactorValue;
-                    itemFactors.add(userId, f, currentLearnrate * deltaI);
-                 }
-
-             }
-         }
+        userRegWeight = frequencyRegularization ? (double) (regU / Math.sqrt(trainMatrix.rowSize())) : regU;
+        itemRegWeight = frequencyRegularization ? (double) (regI / Math.sqrt(trainMatrix.columnSize())) : regI;
+
+        iterateUsers(updateUser, updateItem);
+    }
+
+    /**
+     * SGD update of the biases and factors of user userId and item itemId for one rating.
+     *
+     * @param userId     user index
+     * @param itemId     item index
+     * @param realRating real rating
+     * @param updateUser whether to update the user parameters
+     * @param updateItem whether to update the item parameters
+     */
+    @Override
+    protected void update(int userId, int itemId, double realRating, boolean updateUser, boolean updateItem) {
+
+        double score = globalBias + userBiases.get(userId) + itemBiases.get(itemId) + FactorMatrix.rowMult(userFactors, userId, itemFactors, itemId) ;
+        // kernel function (logistic)
+        double sigScore = 1 / (1 + Math.exp(score));
+        double prediction = minRating + sigScore * ratingRangeSize;
+
+        double err = realRating -  prediction;
+        double gradientCommon = this.computeGradientCommon(sigScore, err);
+
+        // update user biases
+        if(updateUser){
+            userBiases.add(userId, this.biasLearnReg * currentLearnrate * (gradientCommon - biasReg * userRegWeight * userBiases.get(userId)));
+        }
+        // update item biases
+        if(updateItem){
+            itemBiases.add(itemId, this.biasLearnReg * currentLearnrate * (gradientCommon - biasReg * itemRegWeight * itemBiases.get(itemId)));
+        }
+
+        // update user and item factors
+        for (int f = 0; f < this.numFactors; f++){
+
+            double userFactorValue = userFactors.get(userId, f);
+            double itemFactorValue  = itemFactors.get(itemId, f);
+
+            if(updateUser){
+                double deltaU = gradientCommon * itemFactorValue - userRegWeight * userFactorValue;
+                userFactors.add(userId, f, currentLearnrate * deltaU);
+            }
+            if(updateItem){
+                double deltaI = gradientCommon * userFactorValue - itemRegWeight * itemFactorValue;
+                itemFactors.add(itemId, f, currentLearnrate * deltaI);
+            }
+
+        }
     }
 
     /**
@@ -220,8 +223,6 @@ public class IncrementalBiasedMFRecommender extends IncrementalSimpleMFRecommend
      * @return
      */
     protected double computeGradientCommon(double sigScore,  double err){
-        // default loss target is RMSE
-        lossTarget = lossTarget(this.optTarget);
         return setupLoss(sigScore, err);
     }
 
@@ -233,19 +234,19 @@ public class IncrementalBiasedMFRecommender extends IncrementalSimpleMFRecommend
      */
     protected double setupLoss(double sigScore, double err){
 
-        double gradientCommon = 0.0;
+        // default loss target is RMSE
+        if (lossTarget == null) {
+            return (double)(Math.signum(err) * sigScore * (1 - sigScore) * ratingRangeSize);
+        }
         switch (lossTarget){
-            case RMSE:
-                gradientCommon =  (double)(Math.signum(err) * sigScore * (1 - sigScore) * ratingRangeSize);
             case MSE:
-                gradientCommon =  (double)(err * sigScore * (1 - sigScore) * ratingRangeSize);
+                return (double)(err * sigScore * (1 - sigScore) * ratingRangeSize);
             case LogisticLoss:
-                gradientCommon = (double)err;
+                return (double)err;
+            case RMSE:
             default:
-                gradientCommon =  (double)(Math.signum(err) * sigScore * (1 - sigScore) * ratingRangeSize);
-
+                return (double)(Math.signum(err) * sigScore * (1 - sigScore) * ratingRangeSize);
         }
-        return gradientCommon;
     }
 
     /***
@@ -273,14 +274,10 @@ public class IncrementalBiasedMFRecommender extends IncrementalSimpleMFRecommend
 
                 // 1. compute rating and error
 
-                //DenseVector itemFactor = itemFactors.row(itemId);
-                List<Double> itemFactorList = itemFactors.row(itemId);
-                // List to array
-                double[] itemFactorArr = itemFactorList.stream().mapToDouble(Double::doubleValue).toArray();
-                DenseVector itemFactor = new VectorBasedDenseVector(itemFactorArr);
-
-                //double score = this.globalBias + userBias + itemBiases.get(itemId) + userFactor.inner(itemFactor) ;
-                double score = this.globalBias + userBias + itemBiases.get(itemId) + userFactor.dot(itemFactor) ;
+                double score = this.globalBias + userBias + itemBiases.get(itemId);
+                for (int f = 0; f < this.numFactors; f++) {
+                    score += userFactor.get(f) * itemFactors.get(itemId, f);
+                }
 
                 double sigScore = 1 / (1 + Math.exp(score));
                 double prediction = minRating + sigScore * ratingRangeSize;
@@ -326,8 +323,8 @@ public class IncrementalBiasedMFRecommender extends IncrementalSimpleMFRecommend
        if(itemId < this.numIter){
            score += itemBiases.get(itemId);
        }
-       if(userId < userFactors.rowSize() && itemId < itemFactors.columnSize())
-           score += TableMatrix.rowMult(userFactors, userId, itemFactors, itemId);
+       if(userId < userFactors.rowSize() && itemId < itemFactors.rowSize())
+           score += FactorMatrix.rowMult(userFactors, userId, itemFactors, itemId);
 
        return  (double) (this.minRating + (1 / (1 + Math.exp(-score))) * this.ratingRangeSize);
 
@@ -351,12 +348,9 @@ public class IncrementalBiasedMFRecommender extends IncrementalSimpleMFRecommend
         double score = this.globalBias + userVector.get(0);
         //
         if(itemId < this.numUsers){
-            //DenseVector itemFactor = itemFactors.row(itemId);
-            List<Double> itemFactorList = itemFactors.row(itemId);
-            // List to array
-            double[] itemFactorArr = itemFactorList.stream().mapToDouble(Double::doubleValue).toArray();
-            DenseVector itemFactor = new VectorBasedDenseVector(itemFactorArr);
-            score += userFactor.dot(itemFactor);
+            for (int f = 0; f < this.numFactors; f++) {
+                score += userFactor.get(f) * itemFactors.get(itemId, f);
+            }
         }
 
         return (double)(minRating + 1 / (1 + Math.exp(-score) * ratingRangeSize));
@@ -395,8 +389,8 @@ public class IncrementalBiasedMFRecommender extends IncrementalSimpleMFRecommend
      */
     protected void reTrianItem(Table.Cell<Integer, Integer, Double> iterRatingData, SparseTensor itemValues) throws LibrecException {
         int itemId = iterRatingData.getColumnKey();
-        itemFactors.set(itemId, 0);
-        super.reTrianUser(iterRatingData, itemValues);
+        itemBiases.set(itemId, 0);
+        super.reTrianItem(iterRatingData, itemValues);
     }
 
 
@@ -409,7 +403,8 @@ public class IncrementalBiasedMFRecommender extends IncrementalSimpleMFRecommend
 
         super.addUser(userId);
 
-        userBiases.add(this.maxUserId + 1);
+        userBiases.reviveRow(userId);
+        userBiases.set(userId, 0.0d);
     }
 
     /**
@@ -420,8 +415,9 @@ public class IncrementalBiasedMFRecommender extends IncrementalSimpleMFRecommend
     protected void addItem(int itemId){
         super.addItem(itemId);
 
-        // resize user bias
-        itemBiases.add(this.maxItemId + 1);
+        // resize item bias
+        itemBiases.reviveRow(itemId);
+        itemBiases.set(itemId, 0.0d);
     }
 
 
@@ -432,7 +428,7 @@ public class IncrementalBiasedMFRecommender extends IncrementalSimpleMFRecommend
 
     @Override
     public void removeUser(int userId){
-        userBiases.set(userId, 0);
+        userBiases.removeRow(userId);
         super.removeUser(userId);
 
     }
@@ -443,7 +439,7 @@ public class IncrementalBiasedMFRecommender extends IncrementalSimpleMFRecommend
      */
     @Override
     public void removeItem(int itemId){
-        itemBiases.set(itemId, 0);
+        itemBiases.removeRow(itemId);
         super.removeItem(itemId);
     }
 
@@ -3,9 +3,10 @@ package net.librec.increment.rating;
 import com.google.common.collect.Table;
 import net.librec.common.LibrecException;
 import net.librec.increment.IncrementalMFRecommender;
+import net.librec.increment.FactorMatrix;
 import net.librec.increment.TableMatrix;
 import net.librec.math.structure.DenseVector;
-import net.librec.math.structure.MatrixEntry;
+import net.librec.math.structure.SequentialSparseVector;
 import net.librec.math.structure.SparseTensor;
 import net.librec.math.structure.VectorBasedDenseVector;
 
@@ -94,7 +95,7 @@ public class IncrementalSimpleMFRecommender extends IncrementalMFRecommender {
         int itemId = ratingData.getColumnKey();
         double value = ratingData.getValue();
 
-        iter(itemId, itemId, value);
+        iter(userId, itemId, value);
 
         // 2. Origin data train (rcData)
         if(isRow){
@@ -118,6 +119,20 @@ public class IncrementalSimpleMFRecommender extends IncrementalMFRecommender {
      */
     protected void iter(int userId, int itemId, double realRating) throws LibrecException {
 
+        update(userId, itemId, realRating, updateUsers, updateItems);
+    }
+
+    /**
+     * SGD update of the factors of user userId and item itemId for one rating.
+     *
+     * @param userId     user index
+     * @param itemId     item index
+     * @param realRating real rating
+     * @param updateUser whether to update the user factors
+     * @param updateItem whether to update the item factors
+     */
+    protected void update(int userId, int itemId, double realRating, boolean updateUser, boolean updateItem) {
+
         double prediction = predict(userId, itemId, false);
         double err = realRating -  prediction;
 
@@ -125,13 +140,13 @@ public class IncrementalSimpleMFRecommender extends IncrementalMFRecommender {
             double userFactorValue = userFactors.get(userId, f);
             double itemFactorValue  = itemFactors.get(itemId, f);
 
-            if(updateUsers){
+            if(updateUser){
                 double deltaU = err * itemFactorValue - regularization * userFactorValue;
                 userFactors.add(userId, f, currentLearnrate * deltaU);
             }
-            if(updateItems){
+            if(updateItem){
                 double deltaI = err * userFactorValue - regularization * itemFactorValue;
-                itemFactors.add(userId, f, currentLearnrate * deltaI);
+                itemFactors.add(itemId, f, currentLearnrate * deltaI);
             }
 
         }
@@ -143,33 +158,25 @@ public class IncrementalSimpleMFRecommender extends IncrementalMFRecommender {
      */
     protected void iterate() throws LibrecException {
 
-        for (MatrixEntry matrixEntry : trainMatrix) {
-            // user userIdx
-            int userId = matrixEntry.row();
-            // item itemIdx
-            int itemId = matrixEntry.column();
-            // real rating on item itemIdx rated by user userIdx
-            double realRating = matrixEntry.get();
-
-            double prediction = predict(userId, itemId, false);
-            double err = realRating -  prediction;
+        iterateUsers(updateUsers, updateItems);
+    }
 
-            for (int f = 0; f < this.numFactors; f++){
-                double userFactorValue = userFactors.get(userId, f);
-                double itemFactorValue  = itemFactors.get(itemId, f);
+    @Override
+    protected void iterateUsers(int fromUser, int toUser, boolean updateUser, boolean updateItem) throws LibrecException {
 
-                if(updateUsers){
-                    double deltaU = err * itemFactorValue - regularization * userFactorValue;
-                    userFactors.add(userId, f, currentLearnrate * deltaU);
-                }
-                if(updateItems){
-                    double deltaI = err * userFactorValue - regularization * itemFactorValue;
-                    itemFactors.add(userId, f, currentLearnrate * deltaI);
+        for (int userId = fromUser; userId < toUser; userId++) {
+            if (userFactors.isRemoved(userId)) {
+                continue;
+            }
+            SequentialSparseVector itemRatings = trainMatrix.row(userId);
+            for (int position = 0, numEntries = itemRatings.getNumEntries(); position < numEntries; position++) {
+                int itemId = itemRatings.getIndexAtPosition(position);
+                if (itemFactors.isRemoved(itemId)) {
+                    continue;
                 }
-
+                update(userId, itemId, itemRatings.getAtPosition(position), updateUser, updateItem);
             }
         }
-
     }
 
     /***
@@ -259,7 +266,7 @@ public class IncrementalSimpleMFRecommender extends IncrementalMFRecommender {
 
         double score = this.globalBias;
 
-        score += TableMatrix.rowMult(userFactors, userId, itemFactors, itemId);
+        score += FactorMatrix.rowMult(userFactors, userId, itemFactors, itemId);
 
         if(bound){
             if(score > maxRating){
@@ -295,13 +302,10 @@ public class IncrementalSimpleMFRecommender extends IncrementalMFRecommender {
      */
     protected double predict(DenseVector userVector, int itemId, boolean bound) throws LibrecException {
 
-        List<Double> itemFactorList = itemFactors.row(itemId);
-
-        // List to array
-        double[] itemFactorArr = itemFactorList.stream().mapToDouble(Double::doubleValue).toArray();
-        DenseVector itemFactor = new VectorBasedDenseVector(itemFactorArr);
-
-        double score = this.globalBias + userVector.dot(itemFactor);
+        double score = this.globalBias;
+        for (int f = 0; f < this.numFactors; f++) {
+            score += userVector.get(f) * itemFactors.get(itemId, f);
+        }
 
         if(bound){
             if(score > maxRating){
@@ -354,6 +358,8 @@ public class IncrementalSimpleMFRecommender extends IncrementalMFRecommender {
     }
 
     /***
+     * Learn the new ratings online: run numIter SGD passes over the batch,
+     * growing the factors for new users and items first.
      *
      * @param newRatings
      */
@@ -361,25 +367,7 @@ public class IncrementalSimpleMFRecommender extends IncrementalMFRecommender {
 
         super.addRatings(newRatings);
 
-        // iterative user data
-        Iterator<Table.Cell<Integer, Integer, Double>> it = newRatings.iterator();
-        int userId, itemId;
-        SparseTensor itemValues, userValues;
-        double ratingValue;
-        while (it.hasNext()){
-            // a separate piece of data
-            Table.Cell<Integer, Integer, Double> iterRatingData= it.next();
-            userId = iterRatingData.getRowKey();
-            itemId = iterRatingData.getColumnKey();
-            ratingValue = iterRatingData.getValue();
-
-            // ? train user or user
-            //itemValues = trainMatrix.row(userId);
-            //userValues = trainMatrix.column(itemId);
-            //this.reTrianUser(iterRatingData, itemValues);
-            //this.reTrianItem(iterRatingData, userValues);
-        }
-
+        learnRatings(newRatings);
     }
 
     /***
@@ -391,28 +379,12 @@ public class IncrementalSimpleMFRecommender extends IncrementalMFRecommender {
 
         super.updateRatings(newRatings);
 
-        // iterative user data
-        Iterator<Table.Cell<Integer, Integer, Double>> it = newRatings.iterator();
-        int userId, itemId;
-        SparseTensor itemValues, userValues;
-        double ratingValue;
-        while (it.hasNext()){
-            // a separate piece of data
-            Table.Cell<Integer, Integer, Double> iterRatingData= it.next();
-            userId = iterRatingData.getRowKey();
-            itemId = iterRatingData.getColumnKey();
-            ratingValue = iterRatingData.getValue();
-
-            // ? train user or user
-            //itemValues = trainMatrix.row(userId);
-            //userValues = trainMatrix.column(itemId);
-            //this.reTrianUser(iterRatingData, itemValues);
-            //this.reTrianItem(iterRatingData, userValues);
-        }
-
+        learnRatings(newRatings);
     }
 
     /***
+     * SGD cannot unlearn a rating, the factors of the affected users and
+     * items are only refreshed by the next retraining.
      *
      * @param removeRatings
      */
@@ -420,27 +392,29 @@ public class IncrementalSimpleMFRecommender extends IncrementalMFRecommender {
     public void removeRatings(TableMatrix removeRatings)  throws LibrecException{
 
         super.removeRatings(removeRatings);
+    }
 
-        // iterative user data
-        Iterator<Table.Cell<Integer, Integer, Double>> it = removeRatings.iterator();
-        int userId, itemId;
-        SparseTensor itemValues, userValues;
-        double ratingValue;
-        while (it.hasNext()){
-            // a separate piece of data
-            Table.Cell<Integer, Integer, Double> iterRatingData= it.next();
-            userId = iterRatingData.getRowKey();
-            itemId = iterRatingData.getColumnKey();
-            ratingValue = iterRatingData.getValue();
-
-            // ? train user or user
-            //itemValues = trainMatrix.row(userId);
-            //userValues = trainMatrix.column(itemId);
-
-            //this.reTrianUser(iterRatingData, itemValues);
-            //this.reTrianItem(iterRatingData, userValues);
+    /**
+     * Run numIter SGD passes over a batch of ratings of known users and items.
+     * The factors are updated without lock, the cached ranked items computed
+     * meanwhile are invalidated again once the batch is learned.
+     *
+     * @param ratings the batch of ratings
+     */
+    protected void learnRatings(TableMatrix ratings) {
+        for (int iter = 0; iter < this.numIter; iter++) {
+            Iterator<Table.Cell<Integer, Integer, Double>> it = ratings.iterator();
+            while (it.hasNext()) {
+                Table.Cell<Integer, Integer, Double> ratingData = it.next();
+                int userId = ratingData.getRowKey();
+                int itemId = ratingData.getColumnKey();
+                if (userFactors.isRemoved(userId) || itemFactors.isRemoved(itemId)) {
+                    continue;
+                }
+                update(userId, itemId, ratingData.getValue(), updateUsers, updateItems);
+            }
         }
-
+        invalidateResults(ratings);
     }
 
     /***
@@ -451,8 +425,9 @@ public class IncrementalSimpleMFRecommender extends IncrementalMFRecommender {
     protected void addUser(int userId){
 
         super.addUser(userId);
-        //userfactors plus row
-         userFactors.addRow(userId);
+        // grow the user factors, or bring back a removed user
+        userFactors.reviveRow(userId);
+        userFactors.initRow(userId, initMean, initStd);
     }
 
     /**
@@ -462,24 +437,25 @@ public class IncrementalSimpleMFRecommender extends IncrementalMFRecommender {
     @Override
     protected void addItem(int itemId){
         super.addItem(itemId);
-        // item factors plus rows
-        itemFactors.addRow(itemId);
+        // grow the item factors, or bring back a removed item
+        itemFactors.reviveRow(itemId);
+        itemFactors.initRow(itemId, initMean, initStd);
     }
 
 
     @Override
     public void removeUser(int userId){
         super.removeUser(userId);
-        // user factors set one row zero
-        userFactors.setRowToOneValue(userId, 0.0d);
-}
+        // tombstone the user factors
+        userFactors.removeRow(userId);
+    }
 
 
     @Override
     public void removeItem(int itemId){
         super.removeItem(itemId);
-        // item factors set one row zero
-        itemFactors.setRowToOneValue(itemId, 0.0d);
+        // tombstone the item factors
+        itemFactors.removeRow(itemId);
     }
 
 }
@@ -1,5 +1,13 @@
 package net.librec.increment.rating;
 
-public class ItemKNNRecommender {
+/**
+ * Incrementally updated item-based KNN: the neighbours of an item are the
+ * items with the most similar (cosine) rating vectors.
+ */
+public class ItemKNNRecommender extends KNNRecommender {
 
+    @Override
+    protected boolean isItemBased() {
+        return true;
+    }
 }
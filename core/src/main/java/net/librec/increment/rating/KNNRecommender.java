@@ -1,7 +1,36 @@
 package net.librec.increment.rating;
 
+import com.google.common.collect.Table;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntIterators;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import net.librec.common.LibrecException;
 import net.librec.increment.IncrementalRatingRecommender;
+import net.librec.increment.TableMatrix;
+import net.librec.math.structure.MatrixEntry;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Base class of the incrementally updated KNN recommenders.
+ *
+ * The recommender keeps, for every entity (item for item-based, user for
+ * user-based KNN), the sparse inner products with all the co-rated entities
+ * and its squared norm. A new, updated or removed rating only changes the
+ * products between its entity and the entities co-rated by the same
+ * user (or item), and the norm of its entity, which changes the similarity
+ * of the entity with all the entities it shares a product with. Only the
+ * neighbour lists of the entities sharing a product with the entity are
+ * recomputed after a batch, so the model stays fresh without a full rebuild.
+ */
 abstract public class KNNRecommender extends IncrementalRatingRecommender {
 
      // number of neighbors to take into account for predictions
@@ -10,6 +39,359 @@ abstract public class KNNRecommender extends IncrementalRatingRecommender {
      // underlying baseline predictor
      protected UserItemBaseline baselinesPredictor = new UserItemBaseline();
 
+    /**
+     * ratings of every user {item, rating}
+     */
+    protected List<Int2DoubleOpenHashMap> userRatings;
 
-}
+    /**
+     * ratings of every item {user, rating}
+     */
+    protected List<Int2DoubleOpenHashMap> itemRatings;
+
+    /**
+     * inner products of every entity with its co-rated entities
+     */
+    protected List<Int2DoubleOpenHashMap> entityProducts;
+
+    /**
+     * squared norms of the entities
+     */
+    protected DoubleArrayList entityNorms;
+
+    /**
+     * neighbours and their similarities, sorted by decreasing similarity
+     */
+    protected List<int[]> neighbors;
+
+    protected List<double[]> neighborSimilarities;
+
+    /**
+     * entities whose neighbour lists are stale
+     */
+    private final IntOpenHashSet dirtyEntities = new IntOpenHashSet();
+
+    /**
+     * whether the neighbour lists of all the entities are stale
+     */
+    private boolean allDirty;
+
+    /**
+     * batches are applied under the write lock, predictions under the read lock
+     */
+    protected final ReadWriteLock modelLock = new ReentrantReadWriteLock();
+
+    /**
+     * @return true if the neighbours are items, false if they are users
+     */
+    protected abstract boolean isItemBased();
+
+    @Override
+    protected void setup() throws LibrecException {
+        super.setup();
+        K = conf.getInt("rec.neighbors.knn.number", K);
+        maxUserId = numUsers - 1;
+        maxItemId = numItems - 1;
+    }
+
+    @Override
+    protected void trainModel() throws LibrecException {
+        userRatings = new ArrayList<>(numUsers);
+        itemRatings = new ArrayList<>(numItems);
+        int numEntities = isItemBased() ? numItems : numUsers;
+        entityProducts = new ArrayList<>(numEntities);
+        entityNorms = new DoubleArrayList(numEntities);
+        neighbors = new ArrayList<>(numEntities);
+        neighborSimilarities = new ArrayList<>(numEntities);
+        ensureUsers(numUsers);
+        ensureItems(numItems);
+
+        allDirty = true;
+        for (MatrixEntry matrixEntry : trainMatrix) {
+            putRating(matrixEntry.row(), matrixEntry.column(), matrixEntry.get());
+        }
+        refreshNeighbors();
+    }
+
+    /**
+     * The ratings change the neighbourhoods, and so the scores of other users.
+     */
+    @Override
+    protected boolean updatesItems() {
+        return true;
+    }
+
+    @Override
+    public void addRatings(TableMatrix newRatings) throws LibrecException {
+        modelLock.writeLock().lock();
+        try {
+            super.addRatings(newRatings);
+            Iterator<Table.Cell<Integer, Integer, Double>> it = newRatings.iterator();
+            while (it.hasNext()) {
+                Table.Cell<Integer, Integer, Double> ratingData = it.next();
+                putRating(ratingData.getRowKey(), ratingData.getColumnKey(), ratingData.getValue());
+            }
+            refreshNeighbors();
+        } finally {
+            modelLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void updateRatings(TableMatrix newRatings) throws LibrecException {
+        modelLock.writeLock().lock();
+        try {
+            super.updateRatings(newRatings);
+            Iterator<Table.Cell<Integer, Integer, Double>> it = newRatings.iterator();
+            while (it.hasNext()) {
+                Table.Cell<Integer, Integer, Double> ratingData = it.next();
+                int userId = ratingData.getRowKey();
+                int itemId = ratingData.getColumnKey();
+                if (userId < userRatings.size() && itemId < itemRatings.size()) {
+                    putRating(userId, itemId, ratingData.getValue());
+                }
+            }
+            refreshNeighbors();
+        } finally {
+            modelLock.writeLock().unlock();
+        }
+    }
 
+    @Override
+    public void removeRatings(TableMatrix removeRatings) throws LibrecException {
+        modelLock.writeLock().lock();
+        try {
+            super.removeRatings(removeRatings);
+            Iterator<Table.Cell<Integer, Integer, Double>> it = removeRatings.iterator();
+            while (it.hasNext()) {
+                Table.Cell<Integer, Integer, Double> ratingData = it.next();
+                removeRating(ratingData.getRowKey(), ratingData.getColumnKey());
+            }
+            refreshNeighbors();
+        } finally {
+            modelLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeUser(int userId) {
+        modelLock.writeLock().lock();
+        try {
+            if (userId < userRatings.size()) {
+                for (int itemId : userRatings.get(userId).keySet().toIntArray()) {
+                    removeRating(userId, itemId);
+                }
+                refreshNeighbors();
+            }
+            super.removeUser(userId);
+        } finally {
+            modelLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeItem(int itemId) {
+        modelLock.writeLock().lock();
+        try {
+            if (itemId < itemRatings.size()) {
+                for (int userId : itemRatings.get(itemId).keySet().toIntArray()) {
+                    removeRating(userId, itemId);
+                }
+                refreshNeighbors();
+            }
+            super.removeItem(itemId);
+        } finally {
+            modelLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Add or replace the rating of user userId on item itemId.
+     *
+     * @param userId user index
+     * @param itemId item index
+     * @param rating the rating
+     */
+    protected void putRating(int userId, int itemId, double rating) {
+        ensureUsers(userId + 1);
+        ensureItems(itemId + 1);
+        if (userRatings.get(userId).containsKey(itemId)) {
+            removeRating(userId, itemId);
+        }
+
+        int entity = isItemBased() ? itemId : userId;
+        Int2DoubleOpenHashMap coRatings = isItemBased() ? userRatings.get(userId) : itemRatings.get(itemId);
+        accumulate(entity, coRatings, rating, 1.0d);
+
+        userRatings.get(userId).put(itemId, rating);
+        itemRatings.get(itemId).put(userId, rating);
+    }
+
+    /**
+     * Remove the rating of user userId on item itemId, if any.
+     *
+     * @param userId user index
+     * @param itemId item index
+     */
+    protected void removeRating(int userId, int itemId) {
+        if (userId >= userRatings.size() || !userRatings.get(userId).containsKey(itemId)) {
+            return;
+        }
+        double rating = userRatings.get(userId).remove(itemId);
+        itemRatings.get(itemId).remove(userId);
+
+        int entity = isItemBased() ? itemId : userId;
+        Int2DoubleOpenHashMap coRatings = isItemBased() ? userRatings.get(userId) : itemRatings.get(itemId);
+        accumulate(entity, coRatings, rating, -1.0d);
+    }
+
+    /**
+     * Add (or subtract, if sign is negative) a rating of entity to its norm and
+     * to its products with every co-rated entity, and mark stale the neighbour
+     * lists of all the entities whose similarity with entity changes.
+     */
+    private void accumulate(int entity, Int2DoubleOpenHashMap coRatings, double rating, double sign) {
+        Int2DoubleOpenHashMap products = entityProducts.get(entity);
+        ObjectIterator<Int2DoubleMap.Entry> it = coRatings.int2DoubleEntrySet().fastIterator();
+        while (it.hasNext()) {
+            Int2DoubleMap.Entry entry = it.next();
+            int other = entry.getIntKey();
+            if (other == entity) {
+                continue;
+            }
+            double delta = sign * rating * entry.getDoubleValue();
+            products.addTo(other, delta);
+            entityProducts.get(other).addTo(entity, delta);
+        }
+        entityNorms.set(entity, entityNorms.getDouble(entity) + sign * rating * rating);
+        if (allDirty) {
+            return;
+        }
+        // the norm changes the similarity of entity with every entity it shares a product with,
+        // which include the co-rated ones
+        dirtyEntities.addAll(products.keySet());
+        dirtyEntities.add(entity);
+    }
+
+    /**
+     * Recompute the neighbour lists of the entities touched since the last refresh.
+     */
+    protected void refreshNeighbors() {
+        int[] candidates = new int[K];
+        double[] similarities = new double[K];
+        IntIterator it = allDirty ? IntIterators.fromTo(0, entityProducts.size()) : dirtyEntities.iterator();
+        while (it.hasNext()) {
+            int entity = it.nextInt();
+            double norm = entityNorms.getDouble(entity);
+            int size = 0;
+            ObjectIterator<Int2DoubleMap.Entry> productIt = entityProducts.get(entity).int2DoubleEntrySet().fastIterator();
+            while (productIt.hasNext()) {
+                Int2DoubleMap.Entry entry = productIt.next();
+                double product = entry.getDoubleValue();
+                if (product == 0.0d) {
+                    productIt.remove();
+                    continue;
+                }
+                double otherNorm = entityNorms.getDouble(entry.getIntKey());
+                if (norm <= 0.0d || otherNorm <= 0.0d) {
+                    continue;
+                }
+                double similarity = product / Math.sqrt(norm * otherNorm);
+                if (size == K && similarity <= similarities[K - 1]) {
+                    continue;
+                }
+                // insertion into the sorted top-K arrays
+                int position = size < K ? size++ : K - 1;
+                while (position > 0 && similarities[position - 1] < similarity) {
+                    candidates[position] = candidates[position - 1];
+                    similarities[position] = similarities[position - 1];
+                    position--;
+                }
+                candidates[position] = entry.getIntKey();
+                similarities[position] = similarity;
+            }
+            int[] entityNeighbors = new int[size];
+            double[] entitySimilarities = new double[size];
+            System.arraycopy(candidates, 0, entityNeighbors, 0, size);
+            System.arraycopy(similarities, 0, entitySimilarities, 0, size);
+            neighbors.set(entity, entityNeighbors);
+            neighborSimilarities.set(entity, entitySimilarities);
+        }
+        dirtyEntities.clear();
+        allDirty = false;
+    }
+
+    /**
+     * predict a specific rating for user userId on item itemId as the
+     * similarity weighted average of the ratings of its neighbours.
+     *
+     * @param userId user index
+     * @param itemId item index
+     * @return predictive rating for user userId on item itemId
+     * @throws LibrecException if error occurs during predicting
+     */
+    @Override
+    protected double predict(int userId, int itemId) throws LibrecException {
+        modelLock.readLock().lock();
+        try {
+            if (userId >= userRatings.size() || itemId >= itemRatings.size()) {
+                return globalMean;
+            }
+            int entity = isItemBased() ? itemId : userId;
+            Int2DoubleOpenHashMap ratings = isItemBased() ? userRatings.get(userId) : itemRatings.get(itemId);
+            int[] entityNeighbors = neighbors.get(entity);
+            double[] entitySimilarities = neighborSimilarities.get(entity);
+
+            double sum = 0.0d, weights = 0.0d;
+            for (int position = 0; position < entityNeighbors.length; position++) {
+                int neighbor = entityNeighbors[position];
+                if (ratings.containsKey(neighbor)) {
+                    double similarity = entitySimilarities[position];
+                    sum += similarity * ratings.get(neighbor);
+                    weights += Math.abs(similarity);
+                }
+            }
+            return weights > 0.0d ? sum / weights : globalMean;
+        } finally {
+            modelLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param entity user or item index
+     * @return the current neighbours of the entity, sorted by decreasing similarity
+     */
+    public int[] getNeighbors(int entity) {
+        modelLock.readLock().lock();
+        try {
+            return entity < neighbors.size() ? neighbors.get(entity).clone() : new int[0];
+        } finally {
+            modelLock.readLock().unlock();
+        }
+    }
+
+    private void ensureUsers(int size) {
+        while (userRatings.size() < size) {
+            userRatings.add(new Int2DoubleOpenHashMap());
+            if (!isItemBased()) {
+                addEntity();
+            }
+        }
+    }
+
+    private void ensureItems(int size) {
+        while (itemRatings.size() < size) {
+            itemRatings.add(new Int2DoubleOpenHashMap());
+            if (isItemBased()) {
+                addEntity();
+            }
+        }
+    }
+
+    private void addEntity() {
+        entityProducts.add(new Int2DoubleOpenHashMap());
+        entityNorms.add(0.0d);
+        neighbors.add(new int[0]);
+        neighborSimilarities.add(new double[0]);
+    }
+}
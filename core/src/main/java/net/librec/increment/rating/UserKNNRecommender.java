@@ -1,4 +1,13 @@
 package net.librec.increment.rating;
 
-public class UserKNNRecommender {
+/**
+ * Incrementally updated user-based KNN: the neighbours of a user are the
+ * users with the most similar (cosine) rating vectors.
+ */
+public class UserKNNRecommender extends KNNRecommender {
+
+    @Override
+    protected boolean isItemBased() {
+        return false;
+    }
 }
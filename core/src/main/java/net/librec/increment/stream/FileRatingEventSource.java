@@ -0,0 +1,143 @@
+package net.librec.increment.stream;
+
+import com.google.common.collect.BiMap;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tail a rating log and feed its lines to a {@link MicroBatchIngestor}.
+ *
+ * Each line is {@code user item [rating [op]]}, split by {@code sep}, where op
+ * is one of {@code add}, {@code update} or {@code remove} (default add) and the
+ * rating defaults to 1. Raw ids are mapped to inner ids with the user and item
+ * mappings of the data model; unseen ids are appended to the mappings, so new
+ * users and items get the next free inner id. Like {@code tail -f}, the source
+ * waits for more data at the end of the file until it is closed.
+ */
+public class FileRatingEventSource implements Runnable, Closeable {
+
+    private static final Log LOG = LogFactory.getLog(FileRatingEventSource.class);
+
+    private final String filePath;
+
+    private final String sep;
+
+    private final BiMap<String, Integer> userIds;
+
+    private final BiMap<String, Integer> itemIds;
+
+    private final MicroBatchIngestor ingestor;
+
+    private final long pollInterval;
+
+    private volatile boolean running = true;
+
+    private long position;
+
+    /**
+     * @param filePath     the rating log to tail
+     * @param sep          the regex separating the columns of a line
+     * @param userIds      user {raw id, inner id} map
+     * @param itemIds      item {raw id, inner id} map
+     * @param ingestor     the ingestor receiving the events
+     * @param pollInterval the time in milliseconds to wait at the end of the file
+     */
+    public FileRatingEventSource(String filePath, String sep, BiMap<String, Integer> userIds,
+                                 BiMap<String, Integer> itemIds, MicroBatchIngestor ingestor, long pollInterval) {
+        this.filePath = filePath;
+        this.sep = sep;
+        this.userIds = userIds;
+        this.itemIds = itemIds;
+        this.ingestor = ingestor;
+        this.pollInterval = pollInterval;
+    }
+
+    @Override
+    public void run() {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        byte[] buffer = new byte[64 * 1024];
+        try (RandomAccessFile file = new RandomAccessFile(filePath, "r")) {
+            while (running) {
+                if (file.length() < position) {
+                    // the log was truncated or rotated, start over
+                    position = 0;
+                    line.reset();
+                }
+                file.seek(position);
+                int length = file.read(buffer);
+                if (length <= 0) {
+                    Thread.sleep(pollInterval);
+                    continue;
+                }
+                position += length;
+                for (int i = 0; i < length; i++) {
+                    byte b = buffer[i];
+                    if (b == '\n') {
+                        parseLine(new String(line.toByteArray(), StandardCharsets.UTF_8));
+                        line.reset();
+                    } else if (b != '\r') {
+                        line.write(b);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            LOG.error("failed to tail " + filePath, e);
+        }
+    }
+
+    /**
+     * Parse one line of the log and submit its event.
+     *
+     * @param line a line of the log
+     * @throws InterruptedException if interrupted while waiting for the ingestor
+     */
+    protected void parseLine(String line) throws InterruptedException {
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+            return;
+        }
+        String[] data = line.split(sep);
+        if (data.length < 2) {
+            LOG.warn("skip malformed rating line: " + line);
+            return;
+        }
+        double rating = 1.0d;
+        RatingEvent.Type type = RatingEvent.Type.ADD;
+        try {
+            if (data.length > 2) {
+                rating = Double.parseDouble(data[2]);
+            }
+            if (data.length > 3) {
+                type = RatingEvent.Type.valueOf(data[3].toUpperCase());
+            }
+        } catch (IllegalArgumentException e) {
+            LOG.warn("skip malformed rating line: " + line);
+            return;
+        }
+        ingestor.submit(new RatingEvent(innerId(userIds, data[0]), innerId(itemIds, data[1]), rating, type));
+    }
+
+    private static int innerId(BiMap<String, Integer> ids, String rawId) {
+        synchronized (ids) {
+            Integer innerId = ids.get(rawId);
+            if (innerId == null) {
+                innerId = ids.size();
+                ids.put(rawId, innerId);
+            }
+            return innerId;
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+    }
+}
@@ -0,0 +1,260 @@
+package net.librec.increment.stream;
+
+import net.librec.common.LibrecException;
+import net.librec.increment.IIncrementalRatingRecommender;
+import net.librec.increment.TableMatrix;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streaming ingestion of rating events into an incremental recommender.
+ *
+ * Producers push {@link RatingEvent}s into a bounded queue; {@link #submit(RatingEvent)}
+ * blocks when the queue is full, which is the back-pressure towards the producers.
+ * A single consumer thread drains the queue into micro-batches, bounded by
+ * {@code maxBatchSize} events and {@code maxBatchDelay} milliseconds, coalesces
+ * events on the same (user, item) pair (the last one wins, at the position of
+ * the last one), and applies each run of consecutive coalesced events of the
+ * same type with one call of {@code addRatings}, {@code updateRatings} or
+ * {@code removeRatings}. Since batches are applied by one thread, the
+ * recommender sees the events in the order they were submitted.
+ */
+public class MicroBatchIngestor implements Runnable, Closeable {
+
+    private static final Log LOG = LogFactory.getLog(MicroBatchIngestor.class);
+
+    private final IIncrementalRatingRecommender recommender;
+
+    private final BlockingQueue<RatingEvent> queue;
+
+    private final int maxBatchSize;
+
+    private final long maxBatchDelay;
+
+    private volatile boolean running;
+
+    private Thread consumer;
+
+    private volatile long numBatches;
+
+    private volatile long numEvents;
+
+    private volatile long lastApplyNanos;
+
+    private volatile LibrecException lastException;
+
+    /**
+     * @param recommender   the recommender to update
+     * @param queueCapacity the maximum number of pending events
+     * @param maxBatchSize  the maximum number of events in one batch
+     * @param maxBatchDelay the maximum time in milliseconds an event waits for its batch
+     */
+    public MicroBatchIngestor(IIncrementalRatingRecommender recommender, int queueCapacity,
+                              int maxBatchSize, long maxBatchDelay) {
+        this.recommender = recommender;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchDelay = maxBatchDelay;
+    }
+
+    /**
+     * Start the consumer thread.
+     */
+    public synchronized void start() {
+        if (consumer != null) {
+            return;
+        }
+        running = true;
+        consumer = new Thread(this, "librec-ingestor");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    /**
+     * Submit an event, waiting while the queue is full.
+     *
+     * @param event the rating event
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void submit(RatingEvent event) throws InterruptedException {
+        queue.put(event);
+    }
+
+    /**
+     * Submit an event, waiting at most the given time while the queue is full.
+     *
+     * @param event   the rating event
+     * @param timeout how long to wait
+     * @param unit    the unit of timeout
+     * @return false if the event was not accepted in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean offer(RatingEvent event, long timeout, TimeUnit unit) throws InterruptedException {
+        return queue.offer(event, timeout, unit);
+    }
+
+    @Override
+    public void run() {
+        List<RatingEvent> buffer = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                RatingEvent first = queue.poll(maxBatchDelay, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                buffer.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxBatchDelay);
+                while (buffer.size() < maxBatchSize) {
+                    if (queue.drainTo(buffer, maxBatchSize - buffer.size()) > 0) {
+                        continue;
+                    }
+                    long waitNanos = deadline - System.nanoTime();
+                    if (waitNanos <= 0) {
+                        break;
+                    }
+                    RatingEvent next = queue.poll(waitNanos, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    buffer.add(next);
+                }
+                apply(buffer);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (LibrecException | RuntimeException e) {
+                // keep consuming, a dead consumer would block the producers forever
+                lastException = e instanceof LibrecException ? (LibrecException) e : new LibrecException(e);
+                LOG.error("failed to apply a batch of " + buffer.size() + " rating events", e);
+            } finally {
+                buffer.clear();
+            }
+        }
+    }
+
+    /**
+     * Coalesce a batch of events and apply it to the recommender.
+     *
+     * @param events the events, in arrival order
+     * @throws LibrecException if error occurs while updating the recommender
+     */
+    protected void apply(List<RatingEvent> events) throws LibrecException {
+        Map<Long, RatingEvent> coalesced = new LinkedHashMap<>(events.size() * 2);
+        for (RatingEvent event : events) {
+            // removed first, so that the pair takes the position of its last event
+            RatingEvent previous = coalesced.remove(event.key());
+            if (previous != null && previous.getType() == RatingEvent.Type.ADD
+                    && event.getType() == RatingEvent.Type.UPDATE) {
+                // the rating is not known by the recommender yet
+                event = new RatingEvent(event.getUserId(), event.getItemId(), event.getRating(), RatingEvent.Type.ADD);
+            }
+            coalesced.put(event.key(), event);
+        }
+
+        TableMatrix ratings = new TableMatrix();
+        RatingEvent.Type type = null;
+        for (RatingEvent event : coalesced.values()) {
+            if (event.getType() != type) {
+                applyRatings(type, ratings);
+                ratings = new TableMatrix();
+                type = event.getType();
+            }
+            ratings.set(event.getUserId(), event.getItemId(), event.getRating());
+        }
+        applyRatings(type, ratings);
+
+        numBatches++;
+        numEvents += events.size();
+        lastApplyNanos = System.nanoTime();
+    }
+
+    /**
+     * Apply ratings of the same type to the recommender.
+     *
+     * @param type    the type of the events of the ratings, null if there are none
+     * @param ratings the ratings
+     * @throws LibrecException if error occurs while updating the recommender
+     */
+    private void applyRatings(RatingEvent.Type type, TableMatrix ratings) throws LibrecException {
+        if (type == null || ratings.size() == 0) {
+            return;
+        }
+        switch (type) {
+            case ADD:
+                recommender.addRatings(ratings);
+                break;
+            case UPDATE:
+                recommender.updateRatings(ratings);
+                break;
+            case REMOVE:
+                recommender.removeRatings(ratings);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Stop accepting work, apply the pending events and wait for the consumer thread.
+     */
+    @Override
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            running = false;
+            thread = consumer;
+            consumer = null;
+        }
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return the number of events waiting in the queue
+     */
+    public int getPendingEvents() {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of applied batches
+     */
+    public long getNumBatches() {
+        return numBatches;
+    }
+
+    /**
+     * @return the number of applied events, before coalescing
+     */
+    public long getNumEvents() {
+        return numEvents;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} of the last applied batch, 0 if none
+     */
+    public long getLastApplyNanos() {
+        return lastApplyNanos;
+    }
+
+    /**
+     * @return the last error raised by the recommender, null if none
+     */
+    public LibrecException getLastException() {
+        return lastException;
+    }
+}
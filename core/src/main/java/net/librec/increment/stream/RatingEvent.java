@@ -0,0 +1,63 @@
+package net.librec.increment.stream;
+
+/**
+ * A single rating change fed to an incremental recommender, in inner ids.
+ */
+public class RatingEvent {
+
+    /**
+     * the kind of change carried by an event
+     */
+    public enum Type {
+        ADD,
+        UPDATE,
+        REMOVE
+    }
+
+    private final int userId;
+
+    private final int itemId;
+
+    private final double rating;
+
+    private final Type type;
+
+    public RatingEvent(int userId, int itemId, double rating) {
+        this(userId, itemId, rating, Type.ADD);
+    }
+
+    public RatingEvent(int userId, int itemId, double rating, Type type) {
+        this.userId = userId;
+        this.itemId = itemId;
+        this.rating = rating;
+        this.type = type;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public int getItemId() {
+        return itemId;
+    }
+
+    public double getRating() {
+        return rating;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the key of the (user, item) pair of this event
+     */
+    long key() {
+        return ((long) userId << 32) | (itemId & 0xffffffffL);
+    }
+
+    @Override
+    public String toString() {
+        return type + "(" + userId + ", " + itemId + ", " + rating + ")";
+    }
+}
@@ -17,6 +17,8 @@
  */
 package net.librec.job;
 
+import net.librec.job.metrics.MetricsRegistry;
+
 /**
  * @author WangYuFeng
  */
@@ -35,6 +37,7 @@ public class JobStatus {
     private float progress;
     private long startTime;
     private long finishTime;
+    private MetricsRegistry metrics;
 
     /**
      * Helper method to get human-readable state of the job.
@@ -118,4 +121,18 @@ public class JobStatus {
     public void setFinishTime(long finishTime) {
         this.finishTime = finishTime;
     }
+
+    /**
+     * @return the metrics of the job
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param metrics the metrics to set
+     */
+    public void setMetrics(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
 }
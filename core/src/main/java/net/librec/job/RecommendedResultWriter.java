@@ -0,0 +1,266 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.job;
+
+import com.google.common.collect.BiMap;
+import net.librec.conf.Configuration;
+import net.librec.recommender.item.KeyValue;
+import net.librec.recommender.item.RecommendedItem;
+import net.librec.recommender.item.RecommendedList;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import java.util.stream.IntStream;
+
+/**
+ * Streaming writer of the recommended results: the records are written user by
+ * user through bounded buffers, so that the results are never held as a whole
+ * in memory.
+ * <ul>
+ * <li>rec.result.format: csv (default), one "user,item,value" line per record,
+ * or binary, one block per user made of the user id (modified UTF-8), the
+ * number of items (int) and, for each item, the item id (modified UTF-8) and
+ * the value (double)</li>
+ * <li>rec.result.compress: true to gzip the files, with the suffix ".gz"</li>
+ * <li>rec.result.shards: number of files written in parallel, each one holding
+ * a contiguous range of the users, with the suffix "-part-NNNNN"</li>
+ * <li>rec.result.buffer.size: size in bytes of the buffer of a file</li>
+ * </ul>
+ */
+public class RecommendedResultWriter {
+    private final boolean binary;
+
+    private final boolean compress;
+
+    private final int numShards;
+
+    private final int bufferSize;
+
+    /**
+     * Create a writer from the configuration.
+     *
+     * @param conf configuration
+     */
+    public RecommendedResultWriter(Configuration conf) {
+        String format = conf.get("rec.result.format", "csv");
+        if (!"csv".equalsIgnoreCase(format) && !"binary".equalsIgnoreCase(format)) {
+            throw new IllegalArgumentException("rec.result.format should be csv or binary: " + format);
+        }
+        binary = "binary".equalsIgnoreCase(format);
+        compress = conf.getBoolean("rec.result.compress", false);
+        numShards = Math.max(1, conf.getInt("rec.result.shards", 1));
+        bufferSize = Math.max(1024, conf.getInt("rec.result.buffer.size", 1 << 16));
+    }
+
+    /**
+     * Write the recommended list, mapping the inner indices to the raw ids on the
+     * fly. The records whose user id or item id is blank are skipped.
+     *
+     * @param outputPath         path of the result
+     * @param recommendedList    recommended list, with the inner user index as context
+     * @param userMappingInverse user {inner id, raw id} map
+     * @param itemMappingInverse item {inner id, raw id} map
+     * @return the paths of the written files
+     * @throws IOException if an I/O error occurs
+     */
+    public List<String> write(String outputPath, RecommendedList recommendedList,
+                              BiMap<Integer, String> userMappingInverse,
+                              BiMap<Integer, String> itemMappingInverse) throws IOException {
+        return writeShards(outputPath, shardBounds(recommendedList.size()), (sink, from, to) -> {
+            for (int contextIdx = from; contextIdx < to; contextIdx++) {
+                String userId = userMappingInverse.get(contextIdx);
+                if (StringUtils.isBlank(userId)) {
+                    continue;
+                }
+                for (KeyValue<Integer, Double> keyValue : recommendedList.getKeyValueListByContext(contextIdx)) {
+                    String itemId = itemMappingInverse.get(keyValue.getKey());
+                    if (StringUtils.isNotBlank(itemId)) {
+                        sink.write(userId, itemId, keyValue.getValue());
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Write a list of recommended items.
+     *
+     * @param outputPath       path of the result
+     * @param recommendedItems recommended items, grouped by user
+     * @return the paths of the written files
+     * @throws IOException if an I/O error occurs
+     */
+    public List<String> write(String outputPath, List<RecommendedItem> recommendedItems) throws IOException {
+        int size = recommendedItems.size();
+        int[] bounds = shardBounds(size);
+        // move each bound to the next change of user, so that no user is split across two shards
+        for (int shard = 1; shard < bounds.length - 1; shard++) {
+            int bound = Math.max(bounds[shard], bounds[shard - 1]);
+            while (bound > 0 && bound < size
+                    && recommendedItems.get(bound).getUserId().equals(recommendedItems.get(bound - 1).getUserId())) {
+                bound++;
+            }
+            bounds[shard] = bound;
+        }
+        return writeShards(outputPath, bounds, (sink, from, to) -> {
+            for (RecommendedItem recommendedItem : recommendedItems.subList(from, to)) {
+                sink.write(recommendedItem.getUserId(), recommendedItem.getItemId(), recommendedItem.getValue());
+            }
+        });
+    }
+
+    private interface ShardWriter {
+        void write(RecordSink sink, int from, int to) throws IOException;
+    }
+
+    /**
+     * Split the records into rec.result.shards ranges of even sizes, at most one
+     * shard per record.
+     *
+     * @param size the number of records
+     * @return the bounds of the shards, the shard i holding the records from
+     * bounds[i] inclusive to bounds[i + 1] exclusive
+     */
+    private int[] shardBounds(int size) {
+        int shards = Math.max(1, Math.min(numShards, size));
+        int[] bounds = new int[shards + 1];
+        for (int shard = 0; shard <= shards; shard++) {
+            bounds[shard] = (int) ((long) size * shard / shards);
+        }
+        return bounds;
+    }
+
+    private List<String> writeShards(String outputPath, int[] bounds, ShardWriter shardWriter) throws IOException {
+        int shards = bounds.length - 1;
+        String[] paths = new String[shards];
+        for (int shard = 0; shard < shards; shard++) {
+            paths[shard] = (shards > 1 ? String.format("%s-part-%05d", outputPath, shard) : outputPath)
+                    + (compress ? ".gz" : "");
+        }
+        File parent = new File(outputPath).getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        try {
+            IntStream.range(0, shards).parallel().forEach(shard -> {
+                try (RecordSink sink = openSink(paths[shard])) {
+                    shardWriter.write(sink, bounds[shard], bounds[shard + 1]);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return Arrays.asList(paths);
+    }
+
+    private RecordSink openSink(String path) throws IOException {
+        OutputStream outputStream = new FileOutputStream(path);
+        if (compress) {
+            outputStream = new GZIPOutputStream(outputStream, bufferSize);
+        }
+        return binary ? new BinarySink(new DataOutputStream(new BufferedOutputStream(outputStream, bufferSize)))
+                : new CsvSink(new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), bufferSize));
+    }
+
+    /**
+     * Destination of the records of a file.
+     */
+    private interface RecordSink extends Closeable {
+        void write(String userId, String itemId, double value) throws IOException;
+    }
+
+    private static final class CsvSink implements RecordSink {
+        private final Writer writer;
+
+        CsvSink(Writer writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void write(String userId, String itemId, double value) throws IOException {
+            writer.write(userId);
+            writer.write(',');
+            writer.write(itemId);
+            writer.write(',');
+            writer.write(String.valueOf(value));
+            writer.write('\n');
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    /**
+     * Binary sink holding only the items of the current user until the user changes.
+     */
+    private static final class BinarySink implements RecordSink {
+        private final DataOutputStream outputStream;
+        private final List<String> itemIds = new ArrayList<>();
+        private double[] values = new double[16];
+        private String userId;
+
+        BinarySink(DataOutputStream outputStream) {
+            this.outputStream = outputStream;
+        }
+
+        @Override
+        public void write(String userId, String itemId, double value) throws IOException {
+            if (!userId.equals(this.userId)) {
+                flushUser();
+                this.userId = userId;
+            }
+            if (itemIds.size() == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[itemIds.size()] = value;
+            itemIds.add(itemId);
+        }
+
+        private void flushUser() throws IOException {
+            if (userId == null) {
+                return;
+            }
+            outputStream.writeUTF(userId);
+            outputStream.writeInt(itemIds.size());
+            for (int index = 0; index < itemIds.size(); index++) {
+                outputStream.writeUTF(itemIds.get(index));
+                outputStream.writeDouble(values[index]);
+            }
+            itemIds.clear();
+            userId = null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flushUser();
+            } finally {
+                outputStream.close();
+            }
+        }
+    }
+}
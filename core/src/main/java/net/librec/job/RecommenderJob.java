@@ -28,12 +28,14 @@ import net.librec.eval.Measure;
 import net.librec.eval.Measure.MeasureValue;
 import net.librec.eval.RecommenderEvaluator;
 import net.librec.filter.RecommendedFilter;
+import net.librec.job.metrics.MetricsRegistry;
 import net.librec.math.algorithm.Randoms;
 import net.librec.math.structure.DataSet;
 import net.librec.math.structure.SymmMatrix;
 import net.librec.recommender.Recommender;
 import net.librec.recommender.RecommenderContext;
 import net.librec.recommender.item.RecommendedItem;
+import net.librec.recommender.item.RecommendedList;
 import net.librec.similarity.RecommenderSimilarity;
 import net.librec.util.DriverClassUtil;
 import net.librec.util.FileUtil;
@@ -69,6 +71,8 @@ public class RecommenderJob {
 
     private Recommender recommender;
 
+    private JobStatus jobStatus;
+
     public RecommenderJob(Configuration conf) {
         this.conf = conf;
         Long seed = conf.getLong("rec.random.seed");
@@ -76,6 +80,9 @@ public class RecommenderJob {
             Randoms.seed(seed);
         }
         setJobId(JobUtil.generateNewJobId());
+        jobStatus = new JobStatus();
+        jobStatus.setJobId(conf.get("rec.job.id"));
+        jobStatus.setJobStage(JobStatus.getJobRunState(JobStatus.PREP));
     }
 
     /**
@@ -86,7 +93,53 @@ public class RecommenderJob {
      * @throws IOException            If an I/O error occurs.
      */
     public void runJob() throws LibrecException, ClassNotFoundException, IOException {
-        executeRecommenderJob();
+        MetricsRegistry metrics = MetricsRegistry.get(conf);
+        jobStatus.setMetrics(metrics);
+        jobStatus.setStartTime(System.currentTimeMillis());
+        jobStatus.setJobStage(JobStatus.getJobRunState(JobStatus.RUNNING));
+        try {
+            executeRecommenderJob();
+            jobStatus.setProgress(1.0f);
+            jobStatus.setJobStage(JobStatus.getJobRunState(JobStatus.SUCCEEDED));
+        } catch (Exception e) {
+            jobStatus.setJobStage(JobStatus.getJobRunState(JobStatus.FAILED));
+            throw e;
+        } finally {
+            jobStatus.setFinishTime(System.currentTimeMillis());
+            MetricsRegistry.remove(metrics.getJobId());
+            exportMetrics(metrics);
+        }
+    }
+
+    /**
+     * Export the metrics of the job in the formats of rec.metrics.format (json
+     * and/or csv) to the directory rec.metrics.dir, by default the metrics folder
+     * of the result directory.
+     *
+     * @param metrics metrics of the job
+     */
+    private void exportMetrics(MetricsRegistry metrics) {
+        String[] formats = conf.getStrings("rec.metrics.format");
+        if (formats == null) {
+            return;
+        }
+        String metricsDir = conf.get("rec.metrics.dir", conf.get("dfs.result.dir") + "/metrics");
+        for (String format : formats) {
+            String filePath = metricsDir + "/" + metrics.getJobId() + "." + format.trim().toLowerCase();
+            try {
+                if ("json".equalsIgnoreCase(format.trim())) {
+                    FileUtil.writeString(filePath, metrics.toJson());
+                } else if ("csv".equalsIgnoreCase(format.trim())) {
+                    FileUtil.writeString(filePath, metrics.toCsv());
+                } else {
+                    LOG.warn("Unknown metrics format " + format);
+                    continue;
+                }
+                LOG.info("Metrics path is " + filePath);
+            } catch (Exception e) {
+                LOG.error("Could not export the metrics to " + filePath, e);
+            }
+        }
     }
 
 //    /**
@@ -119,27 +172,43 @@ public class RecommenderJob {
      */
     @SuppressWarnings("unchecked")
     private void executeRecommenderJob() throws ClassNotFoundException, LibrecException, IOException {
+        MetricsRegistry metrics = MetricsRegistry.get(conf);
+        long startTime = System.nanoTime();
         generateDataModel();
+        metrics.timer("data.build").updateSince(startTime);
         recommender = ReflectionUtil.newInstance((Class<Recommender>) getRecommenderClass(), conf);
         RecommenderContext context = new RecommenderContext(conf);
         cvEvalResults = new HashMap<>();
         while(dataModel.hasNextFold()) {
             dataModel.nextFold();
             context.setDataModel(dataModel);
+            jobStatus.setJobStage("similarity");
+            startTime = System.nanoTime();
             generateSimilarity(context);
+            metrics.timer("similarity.build").updateSince(startTime);
+            jobStatus.setJobStage("train");
             recommender.train(context);
+            jobStatus.setJobStage("evaluate");
             executeEvaluator(recommender, context);
         }
         printCVAverageResult();
+        jobStatus.setJobStage("recommend");
         boolean isRanking = conf.getBoolean("rec.recommender.isranking");
-        List<RecommendedItem> recommendedList = null;
+        RecommendedList recommendedList = null;
         if (isRanking){
-            recommendedList = recommender.getRecommendedList(recommender.recommendRank());
+            recommendedList = recommender.recommendRank();
+        } else {
+            recommendedList = recommender.recommendRating(context.getDataModel().getTestDataSet());
+        }
+        jobStatus.setJobStage("result");
+        startTime = System.nanoTime();
+        if (getFilterClass() != null) {
+            // the filters work on the raw ids of the recommended items
+            saveResult(filterResult(recommender.getRecommendedList(recommendedList)));
         } else {
-            recommendedList = recommender.getRecommendedList(recommender.recommendRating(context.getDataModel().getTestDataSet()));
+            saveResult(recommendedList);
         }
-        recommendedList = filterResult(recommendedList);
-        saveResult(recommendedList);
+        metrics.timer("result.write").updateSince(startTime);
     }
 
     /**
@@ -204,6 +273,8 @@ public class RecommenderJob {
      */
     private void executeEvaluator(Recommender recommender, RecommenderContext context) throws ClassNotFoundException, IOException, LibrecException {
         if (conf.getBoolean("rec.eval.enable")) {
+            MetricsRegistry metrics = MetricsRegistry.get(conf);
+            long startTime = System.nanoTime();
             DataSet dataSet =  dataModel.getTestDataSet();
             String[] similarityKeys = conf.getStrings("rec.recommender.similarities");
             EvalContext evalContext = null;
@@ -214,6 +285,7 @@ public class RecommenderJob {
             } else {
                 evalContext = new EvalContext(conf, recommender, dataSet);
             }
+            metrics.timer("eval.context").updateSince(startTime);
 
 
             String[] evalClassKeys = conf.getStrings("rec.eval.classes");
@@ -223,7 +295,9 @@ public class RecommenderJob {
                     RecommenderEvaluator evaluator = ReflectionUtil.newInstance(getEvaluatorClass(evalClassKeys[classIdx]), null);
                     evaluator.setTopN(conf.getInt("rec.recommender.ranking.topn", 10));
 
+                    startTime = System.nanoTime();
                     double evalValue = evaluator.evaluate(evalContext);
+                    metrics.timer("eval." + evaluator.getClass().getSimpleName()).updateSince(startTime);
                     LOG.info("Evaluator info:" + evaluator.getClass().getSimpleName() + " is " + evalValue);
                     collectCVResults(evaluator.getClass().getSimpleName(), evalValue);
                 }
@@ -245,7 +319,11 @@ public class RecommenderJob {
                         if (isRanking && measureValue.getTopN() != null && measureValue.getTopN() > 0) {
                             evaluator.setTopN(measureValue.getTopN());
                         }
+                        startTime = System.nanoTime();
                         double evaluatedValue = evaluator.evaluate(evalContext);
+                        metrics.timer("eval." + measureValue.getMeasure()
+                                + (measureValue.getTopN() != null && measureValue.getTopN() > 0 ? "." + measureValue.getTopN() : ""))
+                                .updateSince(startTime);
                         evaluatedMap.put(measureValue, evaluatedValue);
                     }
                 }
@@ -280,31 +358,45 @@ public class RecommenderJob {
      */
     public void saveResult(List<RecommendedItem> recommendedList) throws LibrecException, IOException, ClassNotFoundException {
         if (recommendedList != null && recommendedList.size() > 0) {
-            // make output path
-            String algoSimpleName = DriverClassUtil.getDriverName(getRecommenderClass());
-            String outputPath = conf.get("dfs.result.dir") + "/" + conf.get("data.input.path") + "-" + algoSimpleName + "-output/" + algoSimpleName;
-            if (null != dataModel && (dataModel.getDataSplitter() instanceof KCVDataSplitter || dataModel.getDataSplitter() instanceof LOOCVDataSplitter) && null != conf.getInt("data.splitter.cv.index")) {
-                outputPath = outputPath + "-" + String.valueOf(conf.getInt("data.splitter.cv.index"));
-            }
+            String outputPath = getResultPath();
             LOG.info("Result path is " + outputPath);
-            // convert itemList to string
-            StringBuilder sb = new StringBuilder();
-            for (RecommendedItem recItem : recommendedList) {
-                String userId = recItem.getUserId();
-                String itemId = recItem.getItemId();
-                String value = String.valueOf(recItem.getValue());
-                sb.append(userId).append(",").append(itemId).append(",").append(value).append("\n");
-            }
-            String resultData = sb.toString();
-            // save resultData
-            try {
-                FileUtil.writeString(outputPath, resultData);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+            new RecommendedResultWriter(conf).write(outputPath, recommendedList);
+        }
+    }
+
+    /**
+     * Save result, streaming the recommended list with the raw ids of the data model.
+     *
+     * @param recommendedList recommended list, with the inner user index as context
+     * @throws LibrecException        if error occurs
+     * @throws IOException            if I/O error occurs
+     * @throws ClassNotFoundException if class not found error occurs
+     */
+    public void saveResult(RecommendedList recommendedList) throws LibrecException, IOException, ClassNotFoundException {
+        if (recommendedList != null && recommendedList.size() > 0) {
+            String outputPath = getResultPath();
+            LOG.info("Result path is " + outputPath);
+            new RecommendedResultWriter(conf).write(outputPath, recommendedList,
+                    dataModel.getUserMappingData().inverse(), dataModel.getItemMappingData().inverse());
         }
     }
 
+    /**
+     * Make the output path of the result.
+     *
+     * @return output path
+     * @throws ClassNotFoundException if can't find the class of recommender
+     * @throws IOException            If an I/O error occurs.
+     */
+    private String getResultPath() throws ClassNotFoundException, IOException {
+        String algoSimpleName = DriverClassUtil.getDriverName(getRecommenderClass());
+        String outputPath = conf.get("dfs.result.dir") + "/" + conf.get("data.input.path") + "-" + algoSimpleName + "-output/" + algoSimpleName;
+        if (null != dataModel && (dataModel.getDataSplitter() instanceof KCVDataSplitter || dataModel.getDataSplitter() instanceof LOOCVDataSplitter) && null != conf.getInt("data.splitter.cv.index")) {
+            outputPath = outputPath + "-" + String.valueOf(conf.getInt("data.splitter.cv.index"));
+        }
+        return outputPath;
+    }
+
     /**
      * Print the average evaluate results when using cross validation.
      */
@@ -422,4 +514,13 @@ public class RecommenderJob {
     public Map<MeasureValue, Double> getEvaluatedMap() {
         return evaluatedMap;
     }
+
+    /**
+     * Get the status of the job, with its metrics once it has run.
+     *
+     * @return the status of the job
+     */
+    public JobStatus getJobStatus() {
+        return jobStatus;
+    }
 }
@@ -0,0 +1,433 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.job.metrics;
+
+import net.librec.conf.Configuration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registry of the runtime metrics of a job: counters, timers, histograms and
+ * the trace of the training epochs. The metrics are updated lock-free and are
+ * meant to be updated per stage, per epoch or per batch, not per sample.
+ * <p>
+ * The registry of a job is shared through {@link #get(Configuration)}, keyed by
+ * the job id rec.job.id, so that the data model, the recommender and the job
+ * report into the same registry until the job releases it with
+ * {@link #remove(String)}. Without a job id, e.g. a recommender trained directly
+ * or by an ensemble, each caller gets its own registry, which lives as long as
+ * the caller keeps it.
+ */
+public class MetricsRegistry {
+    /**
+     * maximum number of the recorded epochs
+     */
+    public static final int MAX_EPOCHS = 100000;
+
+    private static final String DEFAULT_JOB_ID = "default";
+
+    private static final ConcurrentMap<String, MetricsRegistry> REGISTRIES = new ConcurrentHashMap<>();
+
+    private final String jobId;
+
+    private final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+
+    private final Map<String, Timer> timers = new ConcurrentSkipListMap<>();
+
+    private final Map<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+
+    private final List<Epoch> epochs = Collections.synchronizedList(new ArrayList<>());
+
+    public MetricsRegistry(String jobId) {
+        this.jobId = jobId;
+    }
+
+    /**
+     * Get the registry of the job of a configuration, created on first use.
+     *
+     * @param conf configuration
+     * @return the registry of the job rec.job.id, or a new unshared one if the id is not set
+     */
+    public static MetricsRegistry get(Configuration conf) {
+        String jobId = conf != null ? conf.get("rec.job.id") : null;
+        return jobId != null ? REGISTRIES.computeIfAbsent(jobId, MetricsRegistry::new) : new MetricsRegistry(DEFAULT_JOB_ID);
+    }
+
+    /**
+     * Release the registry of a job.
+     *
+     * @param jobId job id
+     * @return the released registry, or null if none
+     */
+    public static MetricsRegistry remove(String jobId) {
+        return REGISTRIES.remove(jobId);
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    public Timer timer(String name) {
+        return timers.computeIfAbsent(name, key -> new Timer());
+    }
+
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    /**
+     * Record a training epoch, and its time in the timer train.epoch.
+     *
+     * @param recommender name of the recommender
+     * @param iteration   iteration of the epoch
+     * @param nanos       wall time of the epoch in nanoseconds
+     * @param samples     number of the training samples of the epoch, 0 if unknown
+     * @param loss        loss at the end of the epoch
+     */
+    public void recordEpoch(String recommender, int iteration, long nanos, long samples, double loss) {
+        timer("train.epoch").update(nanos);
+        if (epochs.size() < MAX_EPOCHS) {
+            epochs.add(new Epoch(recommender, iteration, nanos, samples, loss));
+        }
+    }
+
+    public Map<String, Counter> getCounters() {
+        return Collections.unmodifiableMap(counters);
+    }
+
+    public Map<String, Timer> getTimers() {
+        return Collections.unmodifiableMap(timers);
+    }
+
+    public Map<String, Histogram> getHistograms() {
+        return Collections.unmodifiableMap(histograms);
+    }
+
+    public List<Epoch> getEpochs() {
+        synchronized (epochs) {
+            return new ArrayList<>(epochs);
+        }
+    }
+
+    /**
+     * @return the metrics as a JSON object
+     */
+    public String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"jobId\":").append(quote(jobId)).append(",\"counters\":{");
+        String separator = "";
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            sb.append(separator).append(quote(entry.getKey())).append(':').append(entry.getValue().get());
+            separator = ",";
+        }
+        sb.append("},\"timers\":{");
+        separator = "";
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            sb.append(separator).append(quote(entry.getKey())).append(':');
+            appendJson(sb, entry.getValue().getFields());
+            separator = ",";
+        }
+        sb.append("},\"histograms\":{");
+        separator = "";
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            sb.append(separator).append(quote(entry.getKey())).append(':');
+            appendJson(sb, entry.getValue().getFields());
+            separator = ",";
+        }
+        sb.append("},\"epochs\":[");
+        separator = "";
+        for (Epoch epoch : getEpochs()) {
+            sb.append(separator).append("{\"recommender\":").append(quote(epoch.recommender));
+            appendJsonFields(sb, epoch.getFields(), ",");
+            sb.append('}');
+            separator = ",";
+        }
+        return sb.append("]}\n").toString();
+    }
+
+    /**
+     * @return the metrics as CSV lines "type,name,field,value"
+     */
+    public String toCsv() {
+        StringBuilder sb = new StringBuilder("type,name,field,value\n");
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            sb.append("counter,").append(entry.getKey()).append(",count,").append(entry.getValue().get()).append('\n');
+        }
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            appendCsv(sb, "timer", entry.getKey(), entry.getValue().getFields());
+        }
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            appendCsv(sb, "histogram", entry.getKey(), entry.getValue().getFields());
+        }
+        for (Epoch epoch : getEpochs()) {
+            appendCsv(sb, "epoch", epoch.recommender + "#" + epoch.iteration, epoch.getFields());
+        }
+        return sb.toString();
+    }
+
+    private static void appendJson(StringBuilder sb, Map<String, Number> fields) {
+        sb.append('{');
+        appendJsonFields(sb, fields, "");
+        sb.append('}');
+    }
+
+    private static void appendJsonFields(StringBuilder sb, Map<String, Number> fields, String separator) {
+        for (Map.Entry<String, Number> field : fields.entrySet()) {
+            Number value = field.getValue();
+            sb.append(separator).append(quote(field.getKey())).append(':');
+            if (value instanceof Double && (((Double) value).isNaN() || ((Double) value).isInfinite())) {
+                sb.append("null");
+            } else {
+                sb.append(value);
+            }
+            separator = ",";
+        }
+    }
+
+    private static void appendCsv(StringBuilder sb, String type, String name, Map<String, Number> fields) {
+        for (Map.Entry<String, Number> field : fields.entrySet()) {
+            sb.append(type).append(',').append(name).append(',').append(field.getKey()).append(',')
+                    .append(field.getValue()).append('\n');
+        }
+    }
+
+    private static String quote(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Monotonic counter.
+     */
+    public static final class Counter {
+        private final LongAdder count = new LongAdder();
+
+        public void increment() {
+            count.increment();
+        }
+
+        public void add(long value) {
+            count.add(value);
+        }
+
+        public long get() {
+            return count.sum();
+        }
+    }
+
+    /**
+     * Distribution of non-negative long values in power-of-two buckets.
+     */
+    public static class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(Long.SIZE + 1);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+        private final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+        public void update(long value) {
+            value = Math.max(0L, value);
+            buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(value));
+            count.increment();
+            sum.add(value);
+            min.accumulate(value);
+            max.accumulate(value);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getSum() {
+            return sum.sum();
+        }
+
+        public long getMin() {
+            return getCount() > 0 ? min.get() : 0L;
+        }
+
+        public long getMax() {
+            return getCount() > 0 ? max.get() : 0L;
+        }
+
+        public double getMean() {
+            long count = getCount();
+            return count > 0 ? (double) getSum() / count : 0.0;
+        }
+
+        /**
+         * Estimate a quantile by the upper bound of its bucket, so within a factor
+         * of two of the exact value.
+         *
+         * @param quantile quantile in [0, 1]
+         * @return the estimated quantile
+         */
+        public long getQuantile(double quantile) {
+            long count = getCount();
+            if (count == 0) {
+                return 0L;
+            }
+            long rank = Math.max(1L, (long) Math.ceil(quantile * count));
+            long cumulative = 0;
+            for (int bucket = 0; bucket < buckets.length(); bucket++) {
+                cumulative += buckets.get(bucket);
+                if (cumulative >= rank) {
+                    long upperBound = bucket == 0 ? 0L : bucket == Long.SIZE ? Long.MAX_VALUE : (1L << bucket) - 1;
+                    return Math.max(getMin(), Math.min(upperBound, getMax()));
+                }
+            }
+            return getMax();
+        }
+
+        Map<String, Number> getFields() {
+            Map<String, Number> fields = new LinkedHashMap<>();
+            fields.put("count", getCount());
+            fields.put("sum", getSum());
+            fields.put("mean", getMean());
+            fields.put("min", getMin());
+            fields.put("max", getMax());
+            fields.put("p50", getQuantile(0.5));
+            fields.put("p90", getQuantile(0.9));
+            fields.put("p99", getQuantile(0.99));
+            return fields;
+        }
+    }
+
+    /**
+     * Histogram of durations in nanoseconds, exported in seconds.
+     */
+    public static final class Timer extends Histogram {
+
+        /**
+         * Record the time elapsed since a start time.
+         *
+         * @param startTime start time from {@link System#nanoTime()}
+         */
+        public void updateSince(long startTime) {
+            update(System.nanoTime() - startTime);
+        }
+
+        /**
+         * @return the total time in seconds
+         */
+        public double getTotalSeconds() {
+            return getSum() / 1e9;
+        }
+
+        /**
+         * Throughput of the timed operations.
+         *
+         * @param counter counter of the items processed by the timed operations
+         * @return the number of items per second
+         */
+        public double getRate(Counter counter) {
+            double totalSeconds = getTotalSeconds();
+            return totalSeconds > 0 ? counter.get() / totalSeconds : 0.0;
+        }
+
+        @Override
+        Map<String, Number> getFields() {
+            Map<String, Number> fields = new LinkedHashMap<>();
+            fields.put("count", getCount());
+            fields.put("totalSeconds", getSum() / 1e9);
+            fields.put("meanSeconds", getMean() / 1e9);
+            fields.put("minSeconds", getMin() / 1e9);
+            fields.put("maxSeconds", getMax() / 1e9);
+            fields.put("p50Seconds", getQuantile(0.5) / 1e9);
+            fields.put("p90Seconds", getQuantile(0.9) / 1e9);
+            fields.put("p99Seconds", getQuantile(0.99) / 1e9);
+            return fields;
+        }
+    }
+
+    /**
+     * A training epoch of a recommender.
+     */
+    public static final class Epoch {
+        private final String recommender;
+        private final int iteration;
+        private final long nanos;
+        private final long samples;
+        private final double loss;
+
+        Epoch(String recommender, int iteration, long nanos, long samples, double loss) {
+            this.recommender = recommender;
+            this.iteration = iteration;
+            this.nanos = nanos;
+            this.samples = samples;
+            this.loss = loss;
+        }
+
+        public String getRecommender() {
+            return recommender;
+        }
+
+        public int getIteration() {
+            return iteration;
+        }
+
+        public double getSeconds() {
+            return nanos / 1e9;
+        }
+
+        public long getSamples() {
+            return samples;
+        }
+
+        public double getSamplesPerSecond() {
+            return nanos > 0 ? samples * 1e9 / nanos : 0.0;
+        }
+
+        public double getLoss() {
+            return loss;
+        }
+
+        Map<String, Number> getFields() {
+            Map<String, Number> fields = new LinkedHashMap<>();
+            fields.put("iteration", iteration);
+            fields.put("seconds", getSeconds());
+            fields.put("samples", samples);
+            fields.put("samplesPerSecond", getSamplesPerSecond());
+            fields.put("loss", loss);
+            return fields;
+        }
+    }
+}
@@ -0,0 +1,380 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.math.structure;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Dense linear algebra kernels on row-major {@code double[][]} arrays, used by
+ * {@link DenseMatrix} and {@link DenseVector}.
+ * <p>
+ * The products are cache-blocked and split into row blocks which run in
+ * parallel once the amount of work exceeds {@link #PARALLEL_THRESHOLD}
+ * multiply-adds; the factorizations work in place on the given array.
+ */
+public final class DenseKernels {
+
+    /**
+     * the minimum number of multiply-adds of a product to run it in parallel
+     */
+    public static final long PARALLEL_THRESHOLD = 1L << 18;
+
+    /**
+     * the number of rows of a block of the left operand
+     */
+    private static final int ROW_BLOCK_SIZE = 64;
+
+    /**
+     * the number of inner-dimension entries of a block
+     */
+    private static final int INNER_BLOCK_SIZE = 256;
+
+    /**
+     * the number of columns of a block of the right operand
+     */
+    private static final int COLUMN_BLOCK_SIZE = 512;
+
+    private DenseKernels() {
+    }
+
+    /**
+     * GEMM: {@code c += a * b}.
+     *
+     * @param a an m x k matrix
+     * @param b a k x n matrix
+     * @param c an m x n matrix
+     */
+    public static void gemm(double[][] a, double[][] b, double[][] c) {
+        int numRows = a.length;
+        if (numRows == 0) {
+            return;
+        }
+        int numInner = b.length;
+        int numColumns = numInner == 0 ? 0 : b[0].length;
+        int numBlocks = (numRows + ROW_BLOCK_SIZE - 1) / ROW_BLOCK_SIZE;
+        IntStream blocks = IntStream.range(0, numBlocks);
+        if ((long) numRows * numInner * numColumns >= PARALLEL_THRESHOLD) {
+            blocks = blocks.parallel();
+        }
+        blocks.forEach(blockIdx -> {
+            int fromRow = blockIdx * ROW_BLOCK_SIZE;
+            int toRow = Math.min(fromRow + ROW_BLOCK_SIZE, numRows);
+            for (int fromInner = 0; fromInner < numInner; fromInner += INNER_BLOCK_SIZE) {
+                int toInner = Math.min(fromInner + INNER_BLOCK_SIZE, numInner);
+                for (int fromColumn = 0; fromColumn < numColumns; fromColumn += COLUMN_BLOCK_SIZE) {
+                    int toColumn = Math.min(fromColumn + COLUMN_BLOCK_SIZE, numColumns);
+                    for (int rowIdx = fromRow; rowIdx < toRow; rowIdx++) {
+                        double[] aRow = a[rowIdx];
+                        double[] cRow = c[rowIdx];
+                        for (int innerIdx = fromInner; innerIdx < toInner; innerIdx++) {
+                            double value = aRow[innerIdx];
+                            if (value == 0.0D) {
+                                continue;
+                            }
+                            double[] bRow = b[innerIdx];
+                            for (int columnIdx = fromColumn; columnIdx < toColumn; columnIdx++) {
+                                cRow[columnIdx] += value * bRow[columnIdx];
+                            }
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * SYRK: the weighted Gram matrix {@code a^T * diag(weights) * a}, without
+     * materializing the transpose of {@code a}.
+     *
+     * @param a          an m x n matrix
+     * @param weights    the weight of each row of {@code a}, or {@code null} for all ones
+     * @param numColumns the number of columns n of {@code a}
+     * @return the symmetric n x n Gram matrix
+     */
+    public static double[][] syrk(double[][] a, double[] weights, int numColumns) {
+        int numRows = a.length;
+        int numBlocks = numBlocks(numRows, (long) numRows * numColumns * numColumns / 2);
+        double[][] gram = IntStream.range(0, numBlocks).parallel().mapToObj(blockIdx -> {
+            double[][] partial = new double[numColumns][numColumns];
+            int fromRow = (int) ((long) numRows * blockIdx / numBlocks);
+            int toRow = (int) ((long) numRows * (blockIdx + 1) / numBlocks);
+            for (int rowIdx = fromRow; rowIdx < toRow; rowIdx++) {
+                double[] row = a[rowIdx];
+                double weight = weights == null ? 1.0D : weights[rowIdx];
+                for (int columnIdx1 = 0; columnIdx1 < numColumns; columnIdx1++) {
+                    double value = weight * row[columnIdx1];
+                    if (value == 0.0D) {
+                        continue;
+                    }
+                    double[] partialRow = partial[columnIdx1];
+                    for (int columnIdx2 = 0; columnIdx2 <= columnIdx1; columnIdx2++) {
+                        partialRow[columnIdx2] += value * row[columnIdx2];
+                    }
+                }
+            }
+            return partial;
+        }).reduce((partial1, partial2) -> {
+            for (int columnIdx1 = 0; columnIdx1 < numColumns; columnIdx1++) {
+                axpy(1.0D, partial2[columnIdx1], partial1[columnIdx1], columnIdx1 + 1);
+            }
+            return partial1;
+        }).orElseGet(() -> new double[numColumns][numColumns]);
+
+        for (int columnIdx1 = 0; columnIdx1 < numColumns; columnIdx1++) {
+            for (int columnIdx2 = 0; columnIdx2 < columnIdx1; columnIdx2++) {
+                gram[columnIdx2][columnIdx1] = gram[columnIdx1][columnIdx2];
+            }
+        }
+        return gram;
+    }
+
+    /**
+     * GEMV: {@code y = a * x}.
+     *
+     * @param a an m x n matrix
+     * @param x a vector of length n
+     * @param y a vector of length m
+     */
+    public static void gemv(double[][] a, double[] x, double[] y) {
+        IntStream rows = IntStream.range(0, a.length);
+        if ((long) a.length * x.length >= PARALLEL_THRESHOLD) {
+            rows = rows.parallel();
+        }
+        rows.forEach(rowIdx -> y[rowIdx] = dot(a[rowIdx], x, x.length));
+    }
+
+    /**
+     * Transposed GEMV: {@code y = a^T * x}, without materializing the transpose of {@code a}.
+     *
+     * @param a an m x n matrix
+     * @param x a vector of length m
+     * @param y a vector of length n
+     */
+    public static void gemvTranspose(double[][] a, double[] x, double[] y) {
+        int numRows = a.length;
+        int numColumns = y.length;
+        int numBlocks = numBlocks(numRows, (long) numRows * numColumns);
+        double[] result = IntStream.range(0, numBlocks).parallel().mapToObj(blockIdx -> {
+            double[] partial = new double[numColumns];
+            int fromRow = (int) ((long) numRows * blockIdx / numBlocks);
+            int toRow = (int) ((long) numRows * (blockIdx + 1) / numBlocks);
+            for (int rowIdx = fromRow; rowIdx < toRow; rowIdx++) {
+                axpy(x[rowIdx], a[rowIdx], partial, numColumns);
+            }
+            return partial;
+        }).reduce((partial1, partial2) -> {
+            axpy(1.0D, partial2, partial1, numColumns);
+            return partial1;
+        }).orElseGet(() -> new double[numColumns]);
+        System.arraycopy(result, 0, y, 0, numColumns);
+    }
+
+    /**
+     * AXPY: {@code y += alpha * x} on the first {@code length} entries.
+     *
+     * @param alpha  the scalar
+     * @param x      the vector to add
+     * @param y      the vector to update
+     * @param length the number of entries
+     */
+    public static void axpy(double alpha, double[] x, double[] y, int length) {
+        for (int index = 0; index < length; index++) {
+            y[index] += alpha * x[index];
+        }
+    }
+
+    /**
+     * @param x      a vector
+     * @param y      a vector
+     * @param length the number of entries
+     * @return the dot product of the first {@code length} entries of {@code x} and {@code y}
+     */
+    public static double dot(double[] x, double[] y, int length) {
+        double value = 0.0D;
+        for (int index = 0; index < length; index++) {
+            value += x[index] * y[index];
+        }
+        return value;
+    }
+
+    /**
+     * @param a          an m x n matrix
+     * @param numColumns the number of columns n of {@code a}
+     * @return the n x m transpose of {@code a}, built block by block
+     */
+    public static double[][] transpose(double[][] a, int numColumns) {
+        int numRows = a.length;
+        double[][] transpose = new double[numColumns][numRows];
+        int numBlocks = (numRows + ROW_BLOCK_SIZE - 1) / ROW_BLOCK_SIZE;
+        IntStream blocks = IntStream.range(0, numBlocks);
+        if ((long) numRows * numColumns >= PARALLEL_THRESHOLD) {
+            blocks = blocks.parallel();
+        }
+        blocks.forEach(blockIdx -> {
+            int fromRow = blockIdx * ROW_BLOCK_SIZE;
+            int toRow = Math.min(fromRow + ROW_BLOCK_SIZE, numRows);
+            for (int fromColumn = 0; fromColumn < numColumns; fromColumn += ROW_BLOCK_SIZE) {
+                int toColumn = Math.min(fromColumn + ROW_BLOCK_SIZE, numColumns);
+                for (int rowIdx = fromRow; rowIdx < toRow; rowIdx++) {
+                    double[] row = a[rowIdx];
+                    for (int columnIdx = fromColumn; columnIdx < toColumn; columnIdx++) {
+                        transpose[columnIdx][rowIdx] = row[columnIdx];
+                    }
+                }
+            }
+        });
+        return transpose;
+    }
+
+    /**
+     * In-place Cholesky decomposition {@code a = l * l^T} of a symmetric positive
+     * definite matrix. The lower triangle of {@code a} is overwritten by {@code l}
+     * and the strict upper triangle is cleared.
+     *
+     * @param a an n x n symmetric matrix
+     * @return false if {@code a} is not positive definite, in which case its content is undefined
+     */
+    public static boolean cholesky(double[][] a) {
+        int size = a.length;
+        for (int rowIdx = 0; rowIdx < size; rowIdx++) {
+            double[] row = a[rowIdx];
+            for (int columnIdx = 0; columnIdx < rowIdx; columnIdx++) {
+                double[] lowerRow = a[columnIdx];
+                row[columnIdx] = (row[columnIdx] - dot(row, lowerRow, columnIdx)) / lowerRow[columnIdx];
+            }
+            double diagonal = row[rowIdx] - dot(row, row, rowIdx);
+            if (!(diagonal > 0.0D)) {
+                return false;
+            }
+            row[rowIdx] = Math.sqrt(diagonal);
+            for (int columnIdx = rowIdx + 1; columnIdx < size; columnIdx++) {
+                row[columnIdx] = 0.0D;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Solve {@code l * l^T * x = b} in place, with {@code l} from {@link #cholesky(double[][])}.
+     *
+     * @param l the Cholesky factor
+     * @param b the right-hand side, overwritten by the solution
+     */
+    public static void choleskySolve(double[][] l, double[] b) {
+        int size = l.length;
+        for (int rowIdx = 0; rowIdx < size; rowIdx++) {
+            b[rowIdx] = (b[rowIdx] - dot(l[rowIdx], b, rowIdx)) / l[rowIdx][rowIdx];
+        }
+        for (int rowIdx = size - 1; rowIdx >= 0; rowIdx--) {
+            double value = b[rowIdx];
+            for (int columnIdx = rowIdx + 1; columnIdx < size; columnIdx++) {
+                value -= l[columnIdx][rowIdx] * b[columnIdx];
+            }
+            b[rowIdx] = value / l[rowIdx][rowIdx];
+        }
+    }
+
+    /**
+     * In-place LU decomposition with partial pivoting, {@code p * a = l * u}. The
+     * rows of {@code a} are permuted and overwritten by the unit lower factor
+     * {@code l} (below the diagonal) and the upper factor {@code u}.
+     *
+     * @param a      an n x n matrix
+     * @param pivots the length n array receiving the original row index of each row
+     * @return false if {@code a} is singular, in which case its content is undefined
+     */
+    public static boolean lu(double[][] a, int[] pivots) {
+        int size = a.length;
+        for (int rowIdx = 0; rowIdx < size; rowIdx++) {
+            pivots[rowIdx] = rowIdx;
+        }
+        for (int pivotIdx = 0; pivotIdx < size; pivotIdx++) {
+            int maxRowIdx = pivotIdx;
+            double maxValue = Math.abs(a[pivotIdx][pivotIdx]);
+            for (int rowIdx = pivotIdx + 1; rowIdx < size; rowIdx++) {
+                double value = Math.abs(a[rowIdx][pivotIdx]);
+                if (value > maxValue) {
+                    maxValue = value;
+                    maxRowIdx = rowIdx;
+                }
+            }
+            if (!(maxValue > 0.0D)) {
+                return false;
+            }
+            if (maxRowIdx != pivotIdx) {
+                double[] row = a[pivotIdx];
+                a[pivotIdx] = a[maxRowIdx];
+                a[maxRowIdx] = row;
+                int pivot = pivots[pivotIdx];
+                pivots[pivotIdx] = pivots[maxRowIdx];
+                pivots[maxRowIdx] = pivot;
+            }
+            double[] pivotRow = a[pivotIdx];
+            double pivotValue = pivotRow[pivotIdx];
+            for (int rowIdx = pivotIdx + 1; rowIdx < size; rowIdx++) {
+                double[] row = a[rowIdx];
+                double factor = row[pivotIdx] / pivotValue;
+                row[pivotIdx] = factor;
+                if (factor != 0.0D) {
+                    for (int columnIdx = pivotIdx + 1; columnIdx < size; columnIdx++) {
+                        row[columnIdx] -= factor * pivotRow[columnIdx];
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Solve {@code a * x = b} with the factors from {@link #lu(double[][], int[])}.
+     *
+     * @param lu     the LU factors
+     * @param pivots the row permutation
+     * @param b      the right-hand side
+     * @return the solution
+     */
+    public static double[] luSolve(double[][] lu, int[] pivots, double[] b) {
+        int size = lu.length;
+        double[] x = new double[size];
+        for (int rowIdx = 0; rowIdx < size; rowIdx++) {
+            x[rowIdx] = b[pivots[rowIdx]] - dot(lu[rowIdx], x, rowIdx);
+        }
+        for (int rowIdx = size - 1; rowIdx >= 0; rowIdx--) {
+            double[] row = lu[rowIdx];
+            double value = x[rowIdx];
+            for (int columnIdx = rowIdx + 1; columnIdx < size; columnIdx++) {
+                value -= row[columnIdx] * x[columnIdx];
+            }
+            x[rowIdx] = value / row[rowIdx];
+        }
+        return x;
+    }
+
+    /**
+     * @param numRows the number of rows to split
+     * @param work    the number of multiply-adds
+     * @return the number of row blocks of a reduction, one when it is not worth parallelizing
+     */
+    private static int numBlocks(int numRows, long work) {
+        if (work < PARALLEL_THRESHOLD) {
+            return 1;
+        }
+        return Math.max(1, Math.min(numRows / ROW_BLOCK_SIZE, ForkJoinPool.getCommonPoolParallelism() * 4));
+    }
+}
@@ -4,10 +4,9 @@ import net.librec.common.CardinalityException;
 import net.librec.math.algorithm.Randoms;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.stream.IntStream;
 
 /**
  * Matrix of doubles implemented using a 2-d array
@@ -230,18 +229,24 @@ public class DenseMatrix extends AbstractMatrix implements Serializable {
         if (columnSize() != otherMatrix.rowSize()) {
             throw new CardinalityException(columnSize(), otherMatrix.rowSize());
         }
+        if (otherMatrix instanceof DenseMatrix) {
+            DenseMatrix denseMatrix = new DenseMatrix(rowSize(), otherMatrix.columnSize());
+            DenseKernels.gemm(values, ((DenseMatrix) otherMatrix).values, denseMatrix.values);
+            return denseMatrix;
+        }
         int tempRows = this.rowSize();
         int tempColumns = otherMatrix.columnSize();
         DenseMatrix denseMatrix = new DenseMatrix(tempRows, tempColumns);
-        List<Integer> columnList = new ArrayList<>(denseMatrix.columnSize());
-        for (int columnIndex = 0; columnIndex < denseMatrix.columnSize(); columnIndex++) {
-            columnList.add(columnIndex);
-        }
 
-        columnList.parallelStream().forEach(columnIndex->{
+        IntStream.range(0, tempColumns).parallel().forEach(columnIndex -> {
             Vector colVector = otherMatrix.viewColumn(columnIndex);
-            for (int rowIndex = 0; rowIndex < denseMatrix.rowSize(); rowIndex++) {
-                denseMatrix.set(rowIndex, columnIndex, row(rowIndex).dot(colVector));
+            for (int rowIndex = 0; rowIndex < tempRows; rowIndex++) {
+                double value = 0.0D;
+                double[] rowValues = values[rowIndex];
+                for (Vector.VectorEntry vectorEntry : colVector) {
+                    value += vectorEntry.get() * rowValues[vectorEntry.index()];
+                }
+                denseMatrix.values[rowIndex][columnIndex] = value;
             }
         });
 
@@ -261,28 +266,56 @@ public class DenseMatrix extends AbstractMatrix implements Serializable {
             throw new CardinalityException(columnSize(), vector.cardinality());
         }
 
-        DenseVector resultVector = new VectorBasedDenseVector(rowSize());
+        VectorBasedDenseVector resultVector = new VectorBasedDenseVector(rowSize());
 
-        for (int rowIndex = 0; rowIndex < rowSize(); rowIndex++) {
-            resultVector.set(rowIndex, row(rowIndex).dot(vector));
+        if (vector instanceof VectorBasedDenseVector) {
+            DenseKernels.gemv(values, ((VectorBasedDenseVector) vector).getValues(), resultVector.getValues());
+        } else {
+            IntStream.range(0, rowSize()).parallel().forEach(rowIndex ->
+                    resultVector.set(rowIndex, row(rowIndex).dot(vector)));
         }
 
         return resultVector;
     }
 
     /**
-     * @return a transposed matrix of current matrix
+     * Do {@code matrix^T x vector} between current matrix and a given vector, without transposing the matrix
+     *
+     * @param vector a given dense vector
+     * @return a dense vector with the results of {@code matrix^T x vector}
+     * @throws CardinalityException if {@code rowSize() != vector.cardinality()}
      */
-    public DenseMatrix transpose() {
-        DenseMatrix transposeMatrix = new DenseMatrix(columnSize(), rowSize());
-
-        for (int transposeRowIndex = 0; transposeRowIndex < transposeMatrix.rowSize(); transposeRowIndex++) {
-            for (int transposeColumnIndex = 0; transposeColumnIndex < transposeMatrix.columnSize(); transposeColumnIndex++) {
-                transposeMatrix.set(transposeRowIndex, transposeColumnIndex, values[transposeColumnIndex][transposeRowIndex]);
-            }
+    public DenseVector transposeTimes(DenseVector vector) {
+        if (rowSize() != vector.cardinality()) {
+            throw new CardinalityException(rowSize(), vector.cardinality());
         }
 
-        return transposeMatrix;
+        VectorBasedDenseVector resultVector = new VectorBasedDenseVector(columnSize());
+        DenseKernels.gemvTranspose(values, vector.getValues(), resultVector.getValues());
+        return resultVector;
+    }
+
+    /**
+     * @return the Gram matrix {@code matrix^T x matrix}, computed without transposing the matrix
+     */
+    public DenseMatrix gram() {
+        return gram(null);
+    }
+
+    /**
+     * @param weights the weight of each row, or {@code null} for all ones
+     * @return the weighted Gram matrix {@code matrix^T x diag(weights) x matrix},
+     * computed without transposing the matrix
+     */
+    public DenseMatrix gram(double[] weights) {
+        return new DenseMatrix(DenseKernels.syrk(values, weights, columnSize()), true);
+    }
+
+    /**
+     * @return a transposed matrix of current matrix
+     */
+    public DenseMatrix transpose() {
+        return new DenseMatrix(DenseKernels.transpose(values, columnSize()), true);
     }
 
     /**
@@ -334,26 +367,55 @@ public class DenseMatrix extends AbstractMatrix implements Serializable {
             throw new CardinalityException(rowSize(), columnSize());
         }
 
-        int size = rowSize();
-        DenseMatrix choleskyMatrix = new DenseMatrix(size, size);
-
-        for (int rowIndex = 0; rowIndex < size; rowIndex++) {
-            for (int rowIndex_2 = 0; rowIndex_2 <= rowIndex; rowIndex_2++) {
-                double sum = 0.0D;
-                for (int columnIndex = 0; columnIndex < rowIndex_2; columnIndex++)
-                    sum += choleskyMatrix.get(rowIndex, columnIndex) * choleskyMatrix.get(rowIndex_2, columnIndex);
-
-                double val = rowIndex == rowIndex_2 ? Math.sqrt(values[rowIndex][rowIndex] - sum)
-                        : (values[rowIndex][rowIndex_2] - sum) / choleskyMatrix.get(rowIndex_2, rowIndex_2);
-                choleskyMatrix.set(rowIndex, rowIndex_2, val);
-            }
-            if (Double.isNaN(choleskyMatrix.get(rowIndex, rowIndex)))
-                return null;
+        DenseMatrix choleskyMatrix = this.clone();
+        if (!DenseKernels.cholesky(choleskyMatrix.values)) {
+            return null;
         }
 
         return choleskyMatrix.transpose();
     }
 
+    /**
+     * Solve {@code matrix x result = vector} for a symmetric positive definite matrix by Cholesky
+     * decomposition, falling back to {@link #solve(DenseVector)} if the matrix is not positive definite.
+     *
+     * @param vector the right-hand side
+     * @return the solution
+     */
+    public DenseVector solveSymmetric(DenseVector vector) {
+        if (rowSize() != columnSize()) {
+            throw new CardinalityException(rowSize(), columnSize());
+        }
+
+        double[][] factors = this.clone().values;
+        if (!DenseKernels.cholesky(factors)) {
+            return solve(vector);
+        }
+        double[] result = vector.getValues().clone();
+        DenseKernels.choleskySolve(factors, result);
+        return new VectorBasedDenseVector(result, true);
+    }
+
+    /**
+     * Solve {@code matrix x result = vector} by LU decomposition with partial pivoting. A singular
+     * matrix falls back to {@code inverse().times(vector)}.
+     *
+     * @param vector the right-hand side
+     * @return the solution
+     */
+    public DenseVector solve(DenseVector vector) {
+        if (rowSize() != columnSize()) {
+            throw new CardinalityException(rowSize(), columnSize());
+        }
+
+        double[][] factors = this.clone().values;
+        int[] pivots = new int[rowSize()];
+        if (!DenseKernels.lu(factors, pivots)) {
+            return inverse().times(vector);
+        }
+        return new VectorBasedDenseVector(DenseKernels.luSolve(factors, pivots, vector.getValues()), true);
+    }
+
     /**
      * NOTE: this implementation adopted from PREA package
      *
@@ -375,14 +437,17 @@ public class DenseMatrix extends AbstractMatrix implements Serializable {
             return inverseMatrix;
         }
 
-        DenseMatrix copyMatrix = this.clone();
+        // work on the backing arrays; the columns left of the pivot are never read again,
+        // so swapping pivot rows can swap the row references
+        double[][] copyValues = this.clone().values;
+        double[][] inverseValues = inverseMatrix.values;
         for (int rowIndex = 0; rowIndex < size; rowIndex++) {
             // find pivot:
             double mag = 0.0D;
             int pivot = -1;
 
             for (int columnIndex = rowIndex; columnIndex < size; columnIndex++) {
-                double mag2 = Math.abs(copyMatrix.get(columnIndex, rowIndex));
+                double mag2 = Math.abs(copyValues[columnIndex][rowIndex]);
                 if (mag2 > mag) {
                     mag = mag2;
                     pivot = columnIndex;
@@ -395,43 +460,42 @@ public class DenseMatrix extends AbstractMatrix implements Serializable {
 
             // move pivot row into position:
             if (pivot != rowIndex) {
-                double temp;
-                for (int columnIndex = rowIndex; columnIndex < size; columnIndex++) {
-                    temp = copyMatrix.get(rowIndex, columnIndex);
-                    copyMatrix.set(rowIndex, columnIndex, copyMatrix.get(pivot, columnIndex));
-                    copyMatrix.set(pivot, columnIndex, temp);
-                }
+                double[] temp = copyValues[rowIndex];
+                copyValues[rowIndex] = copyValues[pivot];
+                copyValues[pivot] = temp;
 
-                for (int columnIndex = 0; columnIndex < size; columnIndex++) {
-                    temp = inverseMatrix.get(rowIndex, columnIndex);
-                    inverseMatrix.set(rowIndex, columnIndex, inverseMatrix.get(pivot, columnIndex));
-                    inverseMatrix.set(pivot, columnIndex, temp);
-                }
+                temp = inverseValues[rowIndex];
+                inverseValues[rowIndex] = inverseValues[pivot];
+                inverseValues[pivot] = temp;
             }
 
             // normalize pivot row:
-            mag = copyMatrix.get(rowIndex, rowIndex);
+            double[] pivotRow = copyValues[rowIndex];
+            double[] inversePivotRow = inverseValues[rowIndex];
+            mag = pivotRow[rowIndex];
             for (int columnIndex = rowIndex; columnIndex < size; columnIndex++)
-                copyMatrix.set(rowIndex, columnIndex, copyMatrix.get(rowIndex, columnIndex) / mag);
+                pivotRow[columnIndex] /= mag;
 
             for (int columnIndex = 0; columnIndex < size; columnIndex++)
-                inverseMatrix.set(rowIndex, columnIndex, inverseMatrix.get(rowIndex, columnIndex) / mag);
+                inversePivotRow[columnIndex] /= mag;
 
             // eliminate pivot row component from other rows:
-            for (int rowIndex_2 = 0; rowIndex_2 < size; rowIndex_2++) {
-                if (rowIndex == rowIndex_2)
-                    continue;
-
-                double mag2 = copyMatrix.get(rowIndex_2, rowIndex);
+            int pivotIndex = rowIndex;
+            IntStream rows = IntStream.range(0, size);
+            if ((long) size * size >= DenseKernels.PARALLEL_THRESHOLD) {
+                rows = rows.parallel();
+            }
+            rows.forEach(rowIndex_2 -> {
+                double[] row = copyValues[rowIndex_2];
+                double mag2 = row[pivotIndex];
+                if (pivotIndex == rowIndex_2 || mag2 == 0.0D)
+                    return;
 
-                for (int columnIndex = rowIndex; columnIndex < size; columnIndex++)
-                    copyMatrix.set(rowIndex_2, columnIndex, copyMatrix.get(rowIndex_2, columnIndex)
-                            - mag2 * copyMatrix.get(rowIndex, columnIndex));
+                for (int columnIndex = pivotIndex; columnIndex < size; columnIndex++)
+                    row[columnIndex] -= mag2 * pivotRow[columnIndex];
 
-                for (int columnIndex = 0; columnIndex < size; columnIndex++)
-                    inverseMatrix.set(rowIndex_2, columnIndex, inverseMatrix.get(rowIndex_2, columnIndex)
-                            - mag2 * inverseMatrix.get(rowIndex, columnIndex));
-            }
+                DenseKernels.axpy(-mag2, inversePivotRow, inverseValues[rowIndex_2], size);
+            });
         }
 
         return inverseMatrix;
@@ -110,6 +110,20 @@ public abstract class DenseVector extends AbstractVector {
         return resultValue;
     }
 
+    /**
+     * AXPY: add {@code alpha * vector} to the recipient in place
+     *
+     * @param alpha  a double argument
+     * @param vector a Vector
+     * @return the recipient
+     */
+    public DenseVector axpy(double alpha, Vector vector) {
+        for (VectorEntry vectorEntry : vector) {
+            plus(vectorEntry.index(), alpha * vectorEntry.get());
+        }
+        return this;
+    }
+
     /**
      * Do vector operation: {@code a * b^t}
      *
@@ -0,0 +1,211 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.math.structure;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Design matrix of feature vectors in compressed sparse row format, e.g. the
+ * one-hot feature vectors of the entries of a tensor used by the factorization
+ * machines.
+ * <p>
+ * The feature indices of row r are {@code features[rowOffsets[r]]} to
+ * {@code features[rowOffsets[r + 1] - 1]} in ascending order. The field of each
+ * feature is optional, and the values are only stored when some of them are
+ * not 1.
+ */
+public class FeatureMatrix implements Serializable {
+    private static final long serialVersionUID = 5830215867411374291L;
+
+    private final int numFeatures;
+
+    private final int[] rowOffsets;
+
+    private final int[] features;
+
+    private final int[] fields;
+
+    private final double[] values;
+
+    /**
+     * Construct a feature matrix from its compressed sparse rows.
+     *
+     * @param numFeatures the number of features (columns)
+     * @param rowOffsets  the offset of each row in {@code features}, with one more entry for the end
+     * @param features    the feature indices of the rows
+     * @param fields      the field of each feature, or {@code null}
+     * @param values      the value of each feature, or {@code null} if all the values are 1
+     */
+    public FeatureMatrix(int numFeatures, int[] rowOffsets, int[] features, int[] fields, double[] values) {
+        this.numFeatures = numFeatures;
+        this.rowOffsets = rowOffsets;
+        this.features = features;
+        this.fields = fields;
+        this.values = values;
+    }
+
+    /**
+     * Build the one-hot feature matrix of a tensor: the key of dimension d of an
+     * entry is mapped to the feature {@code sum(dimensions[0..d-1]) + key}, in field d.
+     *
+     * @param tensor the tensor
+     * @return the feature matrix with one row per entry of the tensor
+     */
+    public static FeatureMatrix oneHot(SparseTensor tensor) {
+        int numDimensions = tensor.numDimensions;
+        int numRows = tensor.size();
+        int[] rowOffsets = new int[numRows + 1];
+        for (int row = 0; row <= numRows; row++) {
+            rowOffsets[row] = row * numDimensions;
+        }
+
+        int[] features = new int[numRows * numDimensions];
+        int[] fields = new int[numRows * numDimensions];
+        int featureOffset = 0;
+        for (int dimension = 0; dimension < numDimensions; dimension++) {
+            List<Integer> keys = tensor.ndKeys[dimension];
+            int position = dimension;
+            for (int row = 0; row < numRows; row++, position += numDimensions) {
+                features[position] = featureOffset + keys.get(row);
+                fields[position] = dimension;
+            }
+            featureOffset += tensor.dimensions[dimension];
+        }
+        return new FeatureMatrix(featureOffset, rowOffsets, features, fields, null);
+    }
+
+    /**
+     * @return the transpose, with one row per feature holding the rows the
+     * feature occurs in; the transpose has no fields
+     */
+    public FeatureMatrix transpose() {
+        int numRows = rowSize();
+        int[] transposeOffsets = new int[numFeatures + 1];
+        for (int feature : features) {
+            transposeOffsets[feature + 1]++;
+        }
+        for (int feature = 0; feature < numFeatures; feature++) {
+            transposeOffsets[feature + 1] += transposeOffsets[feature];
+        }
+
+        int[] nextPositions = new int[numFeatures];
+        System.arraycopy(transposeOffsets, 0, nextPositions, 0, numFeatures);
+        int[] transposeFeatures = new int[features.length];
+        double[] transposeValues = values == null ? null : new double[values.length];
+        for (int row = 0; row < numRows; row++) {
+            for (int position = rowOffsets[row]; position < rowOffsets[row + 1]; position++) {
+                int transposePosition = nextPositions[features[position]]++;
+                transposeFeatures[transposePosition] = row;
+                if (values != null) {
+                    transposeValues[transposePosition] = values[position];
+                }
+            }
+        }
+        return new FeatureMatrix(numRows, transposeOffsets, transposeFeatures, null, transposeValues);
+    }
+
+    /**
+     * @return the number of rows
+     */
+    public int rowSize() {
+        return rowOffsets.length - 1;
+    }
+
+    /**
+     * @return the number of features (columns)
+     */
+    public int getNumFeatures() {
+        return numFeatures;
+    }
+
+    /**
+     * @return the number of stored features over all the rows
+     */
+    public int getNumEntries() {
+        return features.length;
+    }
+
+    /**
+     * @param row a row
+     * @return the position of the first feature of the row
+     */
+    public int getRowStart(int row) {
+        return rowOffsets[row];
+    }
+
+    /**
+     * @param row a row
+     * @return the position after the last feature of the row
+     */
+    public int getRowEnd(int row) {
+        return rowOffsets[row + 1];
+    }
+
+    /**
+     * @param position a position
+     * @return the feature index at the position
+     */
+    public int getFeature(int position) {
+        return features[position];
+    }
+
+    /**
+     * @param position a position
+     * @return the field of the feature at the position
+     */
+    public int getField(int position) {
+        return fields[position];
+    }
+
+    /**
+     * @param position a position
+     * @return the value of the feature at the position
+     */
+    public double getValue(int position) {
+        return values == null ? 1.0D : values[position];
+    }
+
+    /**
+     * @return true if all the values are 1
+     */
+    public boolean isBinary() {
+        return values == null;
+    }
+
+    /**
+     * @return the backing array of the feature indices
+     */
+    public int[] getFeatures() {
+        return features;
+    }
+
+    /**
+     * @return the backing array of the fields, or {@code null}
+     */
+    public int[] getFields() {
+        return fields;
+    }
+
+    /**
+     * @return the backing array of the values, or {@code null} if all the values are 1
+     */
+    public double[] getValues() {
+        return values;
+    }
+}
@@ -82,6 +82,49 @@ public class SequentialAccessSparseMatrix extends AbstractMatrix implements Seri
         constructMap();
     }
 
+    /**
+     * Wrap the given row vectors without copying them. The column indices and
+     * the position maps are built by a counting pass over the rows, so the cost
+     * is linear in the number of entries.
+     *
+     * @param rows       the number of rows
+     * @param columns    the number of columns
+     * @param rowVectors row vectors with sorted indices, owned by the new matrix
+     */
+    public SequentialAccessSparseMatrix(int rows, int columns, VectorBasedSequentialSparseVector[] rowVectors) {
+        this(rows, columns);
+        this.rowMatrix = new RowSequentialAccessSparseMatrix(rows, columns, rowVectors, true);
+
+        int[] columnCounts = new int[columns];
+        for (int rowIndex = 0; rowIndex < rows; rowIndex++) {
+            VectorBasedSequentialSparseVector rowVector = rowVectors[rowIndex];
+            for (int position = 0, numEntries = rowVector.getNumEntries(); position < numEntries; position++) {
+                columnCounts[rowVector.getIndexAtPosition(position)]++;
+            }
+        }
+        columnIndices = new int[columns][];
+        columnToRowPositionMap = new int[columns][];
+        for (int columnIndex = 0; columnIndex < columns; columnIndex++) {
+            columnIndices[columnIndex] = new int[columnCounts[columnIndex]];
+            columnToRowPositionMap[columnIndex] = new int[columnCounts[columnIndex]];
+        }
+
+        Arrays.fill(columnCounts, 0);
+        rowToColumnPositionMap = new int[rows][];
+        for (int rowIndex = 0; rowIndex < rows; rowIndex++) {
+            VectorBasedSequentialSparseVector rowVector = rowVectors[rowIndex];
+            int numEntries = rowVector.getNumEntries();
+            rowToColumnPositionMap[rowIndex] = new int[numEntries];
+            for (int position = 0; position < numEntries; position++) {
+                int columnIndex = rowVector.getIndexAtPosition(position);
+                int rowPosition = columnCounts[columnIndex]++;
+                columnIndices[columnIndex][rowPosition] = rowIndex;
+                columnToRowPositionMap[columnIndex][rowPosition] = position;
+                rowToColumnPositionMap[rowIndex][position] = rowPosition;
+            }
+        }
+    }
+
     public SequentialAccessSparseMatrix(SequentialAccessSparseMatrix otherMatrix, boolean shallowIndicesCopy) {
         this(otherMatrix.rowSize(), otherMatrix.columnSize());
         this.rowMatrix = new RowSequentialAccessSparseMatrix(otherMatrix, shallowIndicesCopy);
@@ -1,5 +1,7 @@
 package net.librec.math.structure;
 
+import net.librec.common.CardinalityException;
+
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
@@ -76,6 +78,37 @@ public class VectorBasedDenseVector extends DenseVector {
         return values;
     }
 
+    /**
+     * @throws CardinalityException if the cardinalities of the vectors differ
+     */
+    @Override
+    public double dot(Vector vector) {
+        if (vector instanceof VectorBasedDenseVector) {
+            if (cardinality() != vector.cardinality()) {
+                throw new CardinalityException(cardinality(), vector.cardinality());
+            }
+            double[] otherValues = ((VectorBasedDenseVector) vector).values;
+            return DenseKernels.dot(values, otherValues, otherValues.length);
+        }
+        return super.dot(vector);
+    }
+
+    /**
+     * @throws CardinalityException if the cardinalities of the vectors differ
+     */
+    @Override
+    public DenseVector axpy(double alpha, Vector vector) {
+        if (vector instanceof VectorBasedDenseVector) {
+            if (cardinality() != vector.cardinality()) {
+                throw new CardinalityException(cardinality(), vector.cardinality());
+            }
+            double[] otherValues = ((VectorBasedDenseVector) vector).values;
+            DenseKernels.axpy(alpha, otherValues, values, otherValues.length);
+            return this;
+        }
+        return super.axpy(alpha, vector);
+    }
+
     @Override
     public VectorEntry getVectorEntry(int index) {
         return new DenseVectorEntry(index);
@@ -21,12 +21,15 @@ import com.google.common.collect.BiMap;
 import net.librec.common.LibrecException;
 import net.librec.conf.Configuration;
 import net.librec.data.DataModel;
+import net.librec.eval.EvalStatistics;
+import net.librec.job.metrics.MetricsRegistry;
 import net.librec.job.progress.ProgressBar;
 import net.librec.recommender.item.*;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -92,6 +95,16 @@ public abstract class AbstractRecommender implements Recommender {
      */
     protected ProgressBar progressBar;
 
+    /**
+     * metrics of the job
+     */
+    protected MetricsRegistry metrics;
+
+    /**
+     * start time of the current epoch, for {@link #isConverged(int)}
+     */
+    private long epochStartTime;
+
     /**
      * user Mapping Data
      */
@@ -142,9 +155,15 @@ public abstract class AbstractRecommender implements Recommender {
      */
     public void train(RecommenderContext context) throws LibrecException {
         this.context = context;
+        metrics = MetricsRegistry.get(context.getConf());
+        long startTime = System.nanoTime();
         setup();
+        metrics.timer("train.setup").updateSince(startTime);
         LOG.info("Job Setup completed.");
+        startTime = System.nanoTime();
+        epochStartTime = startTime;
         trainModel();
+        metrics.timer("train.model").updateSince(startTime);
         LOG.info("Job Train completed.");
         cleanup();
     }
@@ -159,23 +178,61 @@ public abstract class AbstractRecommender implements Recommender {
     }
 
     /**
-     * (non-Javadoc)
+     * Load the model fields listed in the {@link net.librec.annotation.ModelData}
+     * annotation, and the user and item mappings, written by {@link #saveModel(String)}.
      *
      * @see net.librec.recommender.Recommender#loadModel(String)
+     * @see net.librec.recommender.ModelStore
      */
     @Override
     public void loadModel(String filePath) {
+        try {
+            List<String> fieldNames = ModelStore.load(this, filePath);
+            LOG.info("Loaded model fields " + fieldNames + " from " + filePath);
+        } catch (IOException e) {
+            LOG.error("Could not load model", e);
+        }
+    }
 
+    /**
+     * Set up the recommender with a context, without training it, then load the
+     * model written by {@link #saveModel(String)}, e.g. to serve a trained model.
+     * The data model of the context must be built from the same data as the saved
+     * model, so that the inner indices match.
+     *
+     * @param context  recommender context
+     * @param filePath path of the model
+     * @throws LibrecException if error occurs during setting up or loading
+     */
+    public void loadModel(RecommenderContext context, String filePath) throws LibrecException {
+        this.context = context;
+        metrics = MetricsRegistry.get(context.getConf());
+        setup();
+        try {
+            List<String> fieldNames = ModelStore.load(this, filePath);
+            LOG.info("Loaded model fields " + fieldNames + " from " + filePath);
+        } catch (IOException e) {
+            throw new LibrecException(e);
+        }
     }
 
     /**
-     * (non-Javadoc)
+     * Save the model fields listed in the {@link net.librec.annotation.ModelData}
+     * annotation, and the user and item mappings.
      *
      * @see net.librec.recommender.Recommender#saveModel(String)
+     * @see net.librec.recommender.ModelStore
      */
     @Override
     public void saveModel(String filePath) {
-
+        List<String> fieldNames = ModelStore.getModelFields(getClass());
+        fieldNames.add("userMappingData");
+        fieldNames.add("itemMappingData");
+        try {
+            ModelStore.save(this, fieldNames, filePath);
+        } catch (IOException e) {
+            LOG.error("Could not save model", e);
+        }
     }
 
     /**
@@ -196,6 +253,16 @@ public abstract class AbstractRecommender implements Recommender {
         this.context = context;
     }
 
+    /**
+     * get the statistics of the current fold for the evaluators
+     *
+     * @return evaluation statistics, null if not available
+     */
+    @Override
+    public EvalStatistics getEvalStatistics() {
+        return context != null ? context.getEvalStatistics() : null;
+    }
+
     /**
      * get Data Model
      *
@@ -234,9 +301,20 @@ public abstract class AbstractRecommender implements Recommender {
         return null;
     }
 
+    /**
+     * The number of the training samples of an epoch, for the samples per second
+     * of the epochs in the metrics.
+     *
+     * @return the number of the samples, 0 if unknown
+     */
+    protected long getEpochSamples() {
+        return 0L;
+    }
+
     /**
      * Post each iteration, we do things:
      * <ol>
+     * <li>record the epoch, timed since the previous call, in the metrics</li>
      * <li>print debug information</li>
      * <li>check if converged</li>
      * <li>if not, adjust learning rate</li>
@@ -249,6 +327,12 @@ public abstract class AbstractRecommender implements Recommender {
     protected boolean isConverged(int iter) throws LibrecException {
         float delta_loss = (float) (lastLoss - loss);
 
+        long currentTime = System.nanoTime();
+        if (metrics != null) {
+            metrics.recordEpoch(getClass().getSimpleName(), iter, currentTime - epochStartTime, getEpochSamples(), loss);
+        }
+        epochStartTime = currentTime;
+
         // print out debug info
         if (verbose) {
             String recName = getClass().getSimpleName();
@@ -22,6 +22,8 @@ import net.librec.math.structure.*;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import net.librec.util.RangeExecutor;
+
 import java.util.HashMap;
 import java.util.Map;
 
@@ -77,6 +79,28 @@ public abstract class FactorizationMachineRecommender extends TensorRecommender
      */
     protected int numFactors;
 
+    /**
+     * the first feature index of each tensor dimension
+     */
+    protected int[] featureOffsets;
+    /**
+     * one-hot feature vectors of the train tensor, one row per rating
+     */
+    protected FeatureMatrix trainFeatureMatrix;
+    /**
+     * the train ratings, in the order of the rows of trainFeatureMatrix
+     */
+    protected double[] trainRatings;
+    /**
+     * the number of threads of Hogwild training, see {@link #iterateRows(RangeExecutor.RangeFunction)}
+     */
+    protected int numThreads;
+
+    /**
+     * the threads of the training passes, from the first pass to the end of the training
+     */
+    private RangeExecutor rangeExecutor;
+
 
     /**
      * setup
@@ -94,6 +118,17 @@ public abstract class FactorizationMachineRecommender extends TensorRecommender
         n = trainTensor.size(); // set the number of ratings
         numFactors = k = conf.getInt("rec.factor.number");
 
+        featureOffsets = new int[trainTensor.numDimensions];
+        for (int dim = 1; dim < trainTensor.numDimensions; dim++) {
+            featureOffsets[dim] = featureOffsets[dim - 1] + trainTensor.dimensions[dim - 1];
+        }
+        trainFeatureMatrix = FeatureMatrix.oneHot(trainTensor);
+        trainRatings = new double[n];
+        for (int i = 0; i < n; i++) {
+            trainRatings[i] = trainTensor.value(i);
+        }
+        numThreads = conf.getInt("rec.thread.count", 1);
+
         // init all weight with zero
         w0 = 0;
         W = new VectorBasedDenseVector(p);
@@ -145,6 +180,58 @@ public abstract class FactorizationMachineRecommender extends TensorRecommender
         return res;
     }
 
+    /**
+     * Predict the rating given the features in {@code [from, to)} of a feature
+     * array, without allocation.
+     *
+     * @param features the feature indices
+     * @param values   the feature values, or {@code null} if all the values are 1
+     * @param from     the first position, inclusive
+     * @param to       the last position, exclusive
+     * @return predicted rating
+     */
+    protected double predict(int[] features, double[] values, int from, int to) {
+        double[] weights = W.getValues();
+        double[][] factors = V.getValues();
+        double res = 0;
+        // global bias
+        res += w0;
+
+        // 1-way interaction
+        for (int position = from; position < to; position++) {
+            double val = values == null ? 1.0D : values[position];
+            res += val * weights[features[position]];
+        }
+
+        // 2-way interaction
+        for (int f = 0; f < k; f++) {
+            double sum1 = 0;
+            double sum2 = 0;
+            for (int position = from; position < to; position++) {
+                double xi = values == null ? 1.0D : values[position];
+                double vif = factors[features[position]][f];
+
+                sum1 += vif * xi;
+                sum2 += vif * vif * xi * xi;
+            }
+            res += (sum1 * sum1 - sum2) / 2;
+        }
+
+        return res;
+    }
+
+    /**
+     * Predict the rating of a row of a feature matrix.
+     *
+     * @param featureMatrix the feature matrix
+     * @param row           the row
+     * @return predicted rating
+     */
+    protected double predict(FeatureMatrix featureMatrix, int row) {
+        return predict(featureMatrix.getFeatures(), featureMatrix.getValues(),
+                featureMatrix.getRowStart(row), featureMatrix.getRowEnd(row));
+    }
+
     /**
      * Predict the rating given a sparse appender vector.
      * if {@code bound} is true,The predicted rating value will be
@@ -202,9 +289,56 @@ public abstract class FactorizationMachineRecommender extends TensorRecommender
         return new VectorBasedSequentialSparseVector(capacity, mapVector);
     }
 
+    /**
+     * Transform the keys of a tensor entry into its one-hot feature indices.
+     *
+     * @param tenserKeys the given keys of a tensor entry
+     * @return the feature indices in ascending order
+     */
+    protected int[] tenserKeysToFeatures(int[] tenserKeys) {
+        int[] features = new int[tenserKeys.length];
+        for (int i = 0; i < tenserKeys.length; i++) {
+            features[i] = featureOffsets[i] + tenserKeys[i];
+        }
+        return features;
+    }
+
     @Override
     protected double predict(int[] keys) throws LibrecException {
-        VectorBasedSequentialSparseVector featureVec = tenserKeysToFeatureVector(keys);
-        return predict(featureVec);
+        return predict(tenserKeysToFeatures(keys), null, 0, keys.length);
+    }
+
+    /**
+     * One training pass over the rows of trainFeatureMatrix. If numThreads is
+     * greater than one, the rows are split into blocks which are trained
+     * concurrently in the Hogwild style: all the parameters are updated lock-free.
+     *
+     * @param updater the update of a range of rows
+     * @return the sum of the losses returned by the updater
+     * @throws LibrecException if error occurs during training
+     */
+    protected double iterateRows(RangeExecutor.RangeFunction updater) throws LibrecException {
+        if (rangeExecutor == null) {
+            rangeExecutor = new RangeExecutor(numThreads);
+        }
+        return rangeExecutor.sum(n, updater);
+    }
+
+    /**
+     * Train the model, releasing the threads of the training passes at the end.
+     *
+     * @param context recommender context
+     * @throws LibrecException if error occurs during training
+     */
+    @Override
+    public void train(RecommenderContext context) throws LibrecException {
+        try {
+            super.train(context);
+        } finally {
+            if (rangeExecutor != null) {
+                rangeExecutor.close();
+                rangeExecutor = null;
+            }
+        }
     }
 }
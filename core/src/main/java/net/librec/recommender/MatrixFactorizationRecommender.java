@@ -3,6 +3,9 @@ package net.librec.recommender;
 import net.librec.common.LibrecException;
 import net.librec.math.structure.DenseMatrix;
 
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
 /**
  * Matrix Factorization Recommender
  * Methods with user factors and item factors: such as SVD(Singular Value Decomposition)
@@ -55,6 +58,17 @@ public abstract class MatrixFactorizationRecommender extends MatrixRecommender {
      */
     protected float regItem;
 
+    /**
+     * approximate index of the item factors for ranking, built on the first
+     * ranking after training if rec.ann.enable is true
+     */
+    private volatile MaxInnerProductIndex itemIndex;
+
+    /**
+     * the number of scanned clusters and of exactly re-ranked items of a search in {@link #itemIndex}
+     */
+    private int indexProbes, indexCandidates;
+
     /**
      * setup
      * init member method
@@ -83,6 +97,7 @@ public abstract class MatrixFactorizationRecommender extends MatrixRecommender {
         // initialize factors
         userFactors.init(initMean, initStd);
         itemFactors.init(initMean, initStd);
+        itemIndex = null;
     }
 
     /**
@@ -97,6 +112,103 @@ public abstract class MatrixFactorizationRecommender extends MatrixRecommender {
         return userFactors.row(userIdx).dot(itemFactors.row(itemIdx));
     }
 
+    /**
+     * Whether the prediction is the inner product of the user and item factors,
+     * plus {@link #getItemScoreOffsets()} and a term depending on the user only,
+     * so that the items can be retrieved from a {@link MaxInnerProductIndex}.
+     *
+     * @return true if the items can be ranked by an inner product index
+     */
+    protected boolean isInnerProductModel() {
+        return false;
+    }
+
+    /**
+     * @return the score offset of each item, e.g. the item biases, or null if none
+     */
+    protected double[] getItemScoreOffsets() {
+        return null;
+    }
+
+    /**
+     * Retrieve the items from an approximate inner product index of the item
+     * factors if rec.ann.enable is true, see {@link #buildItemIndex()}.
+     */
+    @Override
+    protected int[] retrieveTopItems(int userIdx, int topN, IntPredicate acceptItem) {
+        if (!isInnerProductModel() || !conf.getBoolean("rec.ann.enable", false)) {
+            return null;
+        }
+        MaxInnerProductIndex index = itemIndex;
+        if (index == null) {
+            synchronized (this) {
+                if (itemIndex == null) {
+                    itemIndex = buildItemIndex();
+                }
+                index = itemIndex;
+            }
+        }
+        return index.search(getIndexQuery(userIdx), topN, indexProbes, indexCandidates, acceptItem);
+    }
+
+    private double[] getIndexQuery(int userIdx) {
+        double[] userFactor = userFactors.getValues()[userIdx];
+        if (getItemScoreOffsets() == null) {
+            return userFactor;
+        }
+        double[] query = Arrays.copyOf(userFactor, numFactors + 1);
+        query[numFactors] = 1.0;
+        return query;
+    }
+
+    /**
+     * Build the index of the item factors, extended by the item score offsets:
+     * <ul>
+     * <li>rec.ann.lists: the number of clusters, by default the square root of the number of items</li>
+     * <li>rec.ann.probes: the number of clusters scanned by a search, by default 1/8 of them</li>
+     * <li>rec.ann.candidates: the number of items re-ranked exactly, by default 4 * topN</li>
+     * <li>rec.ann.kmeans.iterations: the number of iterations of the clustering</li>
+     * <li>rec.ann.recall.samples: the number of users of the recall@topN check against
+     * the brute force search, 0 to skip it</li>
+     * </ul>
+     *
+     * @return the index
+     */
+    private MaxInnerProductIndex buildItemIndex() {
+        long startTime = System.nanoTime();
+        double[] itemOffsets = getItemScoreOffsets();
+        double[][] vectors = new double[numItems][];
+        for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+            double[] itemFactor = itemFactors.getValues()[itemIdx];
+            if (itemOffsets != null) {
+                vectors[itemIdx] = Arrays.copyOf(itemFactor, numFactors + 1);
+                vectors[itemIdx][numFactors] = itemOffsets[itemIdx];
+            } else {
+                vectors[itemIdx] = itemFactor;
+            }
+        }
+        int numLists = conf.getInt("rec.ann.lists", Math.max(1, (int) Math.sqrt(numItems)));
+        indexProbes = conf.getInt("rec.ann.probes", Math.max(1, numLists / 8));
+        indexCandidates = conf.getInt("rec.ann.candidates", 4 * topN);
+        MaxInnerProductIndex index = MaxInnerProductIndex.build(vectors, numLists,
+                conf.getInt("rec.ann.kmeans.iterations", 10), conf.getLong("rec.random.seed", 1L));
+        if (metrics != null) {
+            metrics.timer("ann.build").updateSince(startTime);
+        }
+        LOG.info("Built the item index of " + index.getNumLists() + " clusters");
+
+        int numSamples = Math.min(numUsers, conf.getInt("rec.ann.recall.samples", 100));
+        if (numSamples > 0) {
+            double[][] queries = new double[numSamples][];
+            for (int sample = 0; sample < numSamples; sample++) {
+                queries[sample] = getIndexQuery((int) ((long) sample * numUsers / numSamples));
+            }
+            double recall = index.recall(queries, topN, indexProbes, indexCandidates);
+            LOG.info("Recall@" + topN + " of the item index against brute force: " + recall);
+        }
+        return index;
+    }
+
     /**
      * Update current learning rate after each epoch <br>
      * <ol>
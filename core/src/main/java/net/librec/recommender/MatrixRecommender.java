@@ -19,13 +19,20 @@ package net.librec.recommender;
 
 import net.librec.common.LibrecException;
 import net.librec.data.structure.*;
+import net.librec.eval.EvalStatistics;
+import net.librec.filter.RankingFilter;
 import net.librec.math.structure.DataSet;
 import net.librec.math.structure.MatrixEntry;
 import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.math.structure.SequentialSparseVector;
 import net.librec.recommender.item.KeyValue;
 import net.librec.recommender.item.RecommendedList;
+import net.librec.recommender.item.RecommendedResultCache;
+import net.librec.util.Lists;
 
 import java.util.*;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
 
 /**
  * Matrix Recommender
@@ -76,7 +83,7 @@ public abstract class MatrixRecommender extends AbstractRecommender {
     /**
      * a list of rating scales
      */
-    protected static List<Double> ratingScale;
+    protected List<Double> ratingScale;
 
 
     /**
@@ -84,6 +91,16 @@ public abstract class MatrixRecommender extends AbstractRecommender {
      */
     protected double globalMean;
 
+    /**
+     * filter of the users and the items applied while ranking, null for none
+     */
+    protected RankingFilter rankingFilter;
+
+    /**
+     * cache of the ranked items of the users, null for none
+     */
+    protected RecommendedResultCache resultCache;
+
     protected void setup() throws LibrecException{
         super.setup();
         trainMatrix = (SequentialAccessSparseMatrix) getDataModel().getTrainDataSet();
@@ -97,33 +114,59 @@ public abstract class MatrixRecommender extends AbstractRecommender {
         for (MatrixEntry matrixEntry : trainMatrix) {
             ratingSet.add(matrixEntry.get());
         }
-        ratingScale = new ArrayList<>(ratingSet);
-        Collections.sort(ratingScale);
-        maxRate = Collections.max(ratingScale);
-        minRate = Collections.min(ratingScale);
+        List<Double> sortedRatingScale = new ArrayList<>(ratingSet);
+        Collections.sort(sortedRatingScale);
+        ratingScale = sortedRatingScale;
+        maxRate = Collections.max(sortedRatingScale);
+        minRate = Collections.min(sortedRatingScale);
         if (minRate == maxRate) {
             minRate = 0;
         }
         globalMean = trainMatrix.mean();
 
-        int[] numDroppedItemsArray = new int[numUsers]; // for AUCEvaluator
         int maxNumTestItemsByUser = 0; //for idcg
         for (int userIdx = 0; userIdx < numUsers; ++userIdx) {
-            numDroppedItemsArray[userIdx] = numItems - trainMatrix.row(userIdx).getNumEntries();
             int numTestItemsByUser = testMatrix.row(userIdx).getNumEntries();
             maxNumTestItemsByUser = maxNumTestItemsByUser < numTestItemsByUser ? numTestItemsByUser : maxNumTestItemsByUser;
         }
 
-        int[] itemPurchasedCount = new int[numItems]; // for NoveltyEvaluator
-        for (int itemIdx = 0; itemIdx < numItems; ++itemIdx) {
-            itemPurchasedCount[itemIdx] = trainMatrix.column(itemIdx).getNumEntries()
-                    + testMatrix.column(itemIdx).getNumEntries();
-        }
-
-        conf.setInts("rec.eval.auc.dropped.num", numDroppedItemsArray);
+        // for AUCEvaluator and NoveltyEvaluator, computed when first evaluated
+        context.setEvalStatistics(new EvalStatistics(trainMatrix, testMatrix, numItems));
         conf.setInt("rec.eval.key.test.max.num", maxNumTestItemsByUser); //for nDCGEvaluator
         conf.setInt("rec.eval.item.num", testMatrix.columnSize()); // for EntropyEvaluator
-        conf.setInts("rec.eval.item.purchase.num", itemPurchasedCount); // for NoveltyEvaluator
+
+        if (rankingFilter == null) {
+            rankingFilter = RankingFilter.build(conf, userMappingData, itemMappingData);
+        }
+        if (resultCache == null) {
+            resultCache = RecommendedResultCache.build(conf);
+        } else {
+            resultCache.invalidateAll();
+        }
+    }
+
+    /**
+     * Set the filter of the users and the items applied while ranking.
+     *
+     * @param rankingFilter the filter, null for none
+     */
+    public void setRankingFilter(RankingFilter rankingFilter) {
+        this.rankingFilter = rankingFilter;
+    }
+
+    /**
+     * @return the cache of the ranked items of the users, null for none
+     */
+    public RecommendedResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * @return the number of the training ratings
+     */
+    @Override
+    protected long getEpochSamples() {
+        return numRates;
     }
 
     /**
@@ -150,6 +193,24 @@ public abstract class MatrixRecommender extends AbstractRecommender {
      * @throws LibrecException if error occurs during recommending
      */
     public RecommendedList recommendRank(LibrecDataList<AbstractBaseDataEntry> dataList) throws LibrecException {
+        long startTime = System.nanoTime();
+        double[] globalItemScores = getGlobalItemScores();
+        RecommendedList recommendedList = globalItemScores != null ? recommendGlobalRank(dataList, globalItemScores)
+                : recommendPersonalizedRank(dataList);
+        if (metrics != null) {
+            metrics.timer("recommend.rank").updateSince(startTime);
+            metrics.counter("recommend.rank.users").add(dataList.size());
+        }
+        return recommendedList;
+    }
+
+    /**
+     * Rank the items of each user by the predicted scores.
+     *
+     * @param dataList the users to rank for
+     * @return the recommended list
+     */
+    private RecommendedList recommendPersonalizedRank(LibrecDataList<AbstractBaseDataEntry> dataList) {
         LOG.info("begin recommend");
 
         int numDataEntries = dataList.size();
@@ -163,32 +224,269 @@ public abstract class MatrixRecommender extends AbstractRecommender {
         contextList.parallelStream().forEach((Integer contextIdx) -> {
             BaseRankingDataEntry baseRankingDataEntry = (BaseRankingDataEntry) dataList.getDataEntry(contextIdx);
             int userIdx = baseRankingDataEntry.getUserId();
+            if (rankingFilter != null && !rankingFilter.acceptUser(userIdx)) {
+                return;
+            }
+            IntPredicate acceptItem = null;
+            if (rankingFilter != null) {
+                int[] excludedItems = rankingFilter.getExcludedItems(userIdx);
+                acceptItem = itemIdx -> rankingFilter.acceptItem(itemIdx) && Arrays.binarySearch(excludedItems, itemIdx) < 0;
+            }
+            if (rankingFilter != null && rankingFilter.hasCategoryQuotas()) {
+                recommendedList.setList(contextIdx, selectWithinQuotas(scoreItems(userIdx, acceptItem)));
+            } else {
+                recommendedList.setList(contextIdx, recommendRank(userIdx, topN, acceptItem));
+            }
+        });
 
-            int[] items = trainMatrix.row(userIdx).getIndices();
-            List<KeyValue<Integer, Double>> itemValueList = new ArrayList<>(numItems);
-            for (int itemIdx = 0, trainItemIndex = 0; itemIdx < numItems; ++itemIdx) {
-                if (trainItemIndex < items.length && items[trainItemIndex] == itemIdx) {
-                    trainItemIndex++;
-                    continue;
-                }
+        if (recommendedList.size() == 0) {
+            throw new IndexOutOfBoundsException("No item is recommended, " +
+                    "there is something error in the recommendation algorithm! Please check it!");
+        }
+        LOG.info("end recommend");
+        return recommendedList;
+    }
 
-                double predictRating = 0;
+    /**
+     * Rank the items of a user which are not in the train set, from
+     * {@link #resultCache} if the user is cached.
+     *
+     * @param userIdx    user index
+     * @param n          the number of items, at most the number of items of the model
+     * @param acceptItem the filter of the items, null to accept all of them
+     * @return the top n items with their predicted scores, by decreasing score
+     */
+    public List<KeyValue<Integer, Double>> recommendRank(int userIdx, int n, IntPredicate acceptItem) {
+        // n sizes the buffers of the ranking, whatever the request asks for
+        n = Math.min(Math.max(0, n), numItems);
+        if (resultCache == null) {
+            return rankItems(userIdx, n, acceptItem).itemValueList;
+        }
+        List<KeyValue<Integer, Double>> itemValueList = resultCache.get(userIdx, n, acceptItem);
+        if (itemValueList != null) {
+            return itemValueList;
+        }
+
+        // cache the unfiltered items, the filtered ones are taken from them
+        long generation = resultCache.getGeneration(userIdx);
+        int numCachedItems = Math.max(n, resultCache.getTopN());
+        RankedItems cachedItems = rankItems(userIdx, numCachedItems, null);
+        List<KeyValue<Integer, Double>> cachedList = cachedItems.itemValueList;
+        resultCache.put(userIdx, generation, cachedList, cachedItems.complete);
+
+        itemValueList = new ArrayList<>(n);
+        for (int position = 0; position < cachedList.size() && itemValueList.size() < n; position++) {
+            KeyValue<Integer, Double> itemValue = cachedList.get(position);
+            if (acceptItem == null || acceptItem.test(itemValue.getKey())) {
+                itemValueList.add(itemValue);
+            }
+        }
+        return itemValueList.size() < n && !cachedItems.complete
+                ? rankItems(userIdx, n, acceptItem).itemValueList : itemValueList;
+    }
+
+    /**
+     * The ranked items of a user, and whether they are all its candidate items.
+     */
+    private static final class RankedItems {
+        final List<KeyValue<Integer, Double>> itemValueList;
+
+        final boolean complete;
+
+        RankedItems(List<KeyValue<Integer, Double>> itemValueList, boolean complete) {
+            this.itemValueList = itemValueList;
+            this.complete = complete;
+        }
+    }
+
+    /**
+     * Rank the items of a user which are not in the train set.
+     *
+     * @param userIdx    user index
+     * @param n          the number of items
+     * @param acceptItem the filter of the items, null to accept all of them
+     * @return the top n items with their predicted scores, by decreasing score
+     */
+    private RankedItems rankItems(int userIdx, int n, IntPredicate acceptItem) {
+        SequentialSparseVector trainItemsVector = trainMatrix.row(userIdx);
+        int[] retrievedItems = retrieveTopItems(userIdx, n, itemIdx ->
+                Arrays.binarySearch(trainItemsVector.getIndices(), 0, trainItemsVector.getNumEntries(), itemIdx) < 0
+                        && (acceptItem == null || acceptItem.test(itemIdx)));
+        if (retrievedItems != null) {
+            List<KeyValue<Integer, Double>> itemValueList = new ArrayList<>(retrievedItems.length);
+            for (int itemIdx : retrievedItems) {
                 try {
-                    predictRating = predict(userIdx, itemIdx);
+                    itemValueList.add(new KeyValue<>(itemIdx, predict(userIdx, itemIdx)));
                 } catch (LibrecException e) {
-                    System.out.println(userIdx + ", " + itemIdx + ": "+ predictRating);
-                    e.printStackTrace();
-                } catch (Exception e) {
-                    System.out.println(userIdx + ", " + itemIdx + ": "+ predictRating);
-                    e.printStackTrace();
+                    LOG.error("failed to predict the score of item " + itemIdx + " for user " + userIdx, e);
                 }
-                if (Double.isNaN(predictRating)) {
+            }
+            Lists.sortKeyValueList(itemValueList, true);
+            // the retrieval runs short of n items only when it has run out of candidate items
+            return new RankedItems(itemValueList, retrievedItems.length < n);
+        }
+        List<KeyValue<Integer, Double>> scoredList = scoreItems(userIdx, acceptItem);
+        boolean complete = scoredList.size() <= n;
+        return new RankedItems(Lists.sortKeyValueListTopK(scoredList, true, n), complete);
+    }
+
+    /**
+     * Predict the scores of the items of a user which are not in the train set.
+     *
+     * @param userIdx    user index
+     * @param acceptItem the filter of the items, null to accept all of them
+     * @return the items with their predicted scores, NaN scores excluded
+     */
+    private List<KeyValue<Integer, Double>> scoreItems(int userIdx, IntPredicate acceptItem) {
+        int[] items = trainMatrix.row(userIdx).getIndices();
+        List<KeyValue<Integer, Double>> itemValueList = new ArrayList<>(numItems);
+        for (int itemIdx = 0, trainItemIndex = 0; itemIdx < numItems; ++itemIdx) {
+            if (trainItemIndex < items.length && items[trainItemIndex] == itemIdx) {
+                trainItemIndex++;
+                continue;
+            }
+            if (acceptItem != null && !acceptItem.test(itemIdx)) {
+                continue;
+            }
+
+            double predictRating;
+            try {
+                predictRating = predict(userIdx, itemIdx);
+            } catch (Exception e) {
+                LOG.error("failed to predict the score of item " + itemIdx + " for user " + userIdx, e);
+                continue;
+            }
+            if (Double.isNaN(predictRating)) {
+                continue;
+            }
+            itemValueList.add(new KeyValue<>(itemIdx, predictRating));
+        }
+        return itemValueList;
+    }
+
+    /**
+     * Predict the scores of the given items of a user without ranking them, e.g.
+     * to blend them with the scores of other recommenders.
+     *
+     * @param userIdx user index
+     * @param items   the items to score
+     * @return the predicted score of each item, NaN if it cannot be predicted
+     */
+    public double[] predictScores(int userIdx, int[] items) {
+        double[] scores = new double[items.length];
+        for (int position = 0; position < items.length; position++) {
+            try {
+                scores[position] = predict(userIdx, items[position]);
+            } catch (LibrecException e) {
+                LOG.error("failed to predict the score of item " + items[position] + " for user " + userIdx, e);
+                scores[position] = Double.NaN;
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * The topN items of a user by decreasing predicted score, if the recommender
+     * can retrieve them without predicting the scores of all the items, e.g. from
+     * an index of its item factors.
+     *
+     * @param userIdx    user index
+     * @param topN       the number of items
+     * @param acceptItem the filter of the candidate items
+     * @return the items, fewer than topN only if fewer items are accepted, or null
+     * to predict the scores of all the items
+     */
+    protected int[] retrieveTopItems(int userIdx, int topN, IntPredicate acceptItem) {
+        return null;
+    }
+
+    /**
+     * Take the topN items in the order of the scores within the category quotas
+     * of {@link #rankingFilter}.
+     *
+     * @param itemValueList the scores of the candidate items
+     * @return the recommended items
+     */
+    private List<KeyValue<Integer, Double>> selectWithinQuotas(List<KeyValue<Integer, Double>> itemValueList) {
+        Lists.sortKeyValueList(itemValueList, true);
+        int[] categoryCounts = rankingFilter.newCategoryCounts();
+        List<KeyValue<Integer, Double>> selectedList = new ArrayList<>(topN);
+        for (int position = 0; position < itemValueList.size() && selectedList.size() < topN; position++) {
+            KeyValue<Integer, Double> itemValue = itemValueList.get(position);
+            if (rankingFilter.takeWithinQuota(itemValue.getKey(), categoryCounts)) {
+                selectedList.add(itemValue);
+            }
+        }
+        return selectedList;
+    }
+
+    /**
+     * The scores of the items if they are the same for every user, e.g. the
+     * popularity of the items, so that the items are ranked once for all the
+     * users in {@link #recommendRank(LibrecDataList)}.
+     *
+     * @return the score of each item, or null if the scores are personalized
+     * @throws LibrecException if error occurs during predicting
+     */
+    protected double[] getGlobalItemScores() throws LibrecException {
+        return null;
+    }
+
+    /**
+     * recommend
+     * * rank the items by scores shared by all the users: the items are sorted
+     * once, then the first topN items of each user not in the train data and
+     * accepted by {@link #rankingFilter} are taken
+     *
+     * @param dataList         the users to recommend to
+     * @param globalItemScores the score of each item
+     * @return recommended list
+     */
+    private RecommendedList recommendGlobalRank(LibrecDataList<AbstractBaseDataEntry> dataList, double[] globalItemScores) {
+        LOG.info("begin recommend by global ranking");
+
+        int[] rankedItems = IntStream.range(0, numItems)
+                .filter(itemIdx -> !Double.isNaN(globalItemScores[itemIdx]))
+                .boxed()
+                .sorted((itemIdx, otherItemIdx) -> {
+                    int res = Double.compare(globalItemScores[otherItemIdx], globalItemScores[itemIdx]);
+                    return res != 0 ? res : Integer.compare(itemIdx, otherItemIdx);
+                })
+                .mapToInt(Integer::intValue)
+                .toArray();
+
+        int numDataEntries = dataList.size();
+        RecommendedList recommendedList = new RecommendedList(numUsers);
+        for (int contextIdx = 0; contextIdx < numDataEntries; ++contextIdx) {
+            recommendedList.addList(new ArrayList<>());
+        }
+
+        IntStream.range(0, numDataEntries).parallel().forEach(contextIdx -> {
+            BaseRankingDataEntry baseRankingDataEntry = (BaseRankingDataEntry) dataList.getDataEntry(contextIdx);
+            int userIdx = baseRankingDataEntry.getUserId();
+            if (rankingFilter != null && !rankingFilter.acceptUser(userIdx)) {
+                return;
+            }
+            int[] excludedItems = rankingFilter != null ? rankingFilter.getExcludedItems(userIdx) : null;
+            int[] categoryCounts = rankingFilter != null ? rankingFilter.newCategoryCounts() : null;
+
+            SequentialSparseVector itemRatingsVector = trainMatrix.row(userIdx);
+            int[] items = itemRatingsVector.getIndices();
+            int numTrainItems = itemRatingsVector.getNumEntries();
+            List<KeyValue<Integer, Double>> itemValueList = new ArrayList<>(topN);
+            for (int rank = 0; rank < rankedItems.length && itemValueList.size() < topN; rank++) {
+                int itemIdx = rankedItems[rank];
+                if (Arrays.binarySearch(items, 0, numTrainItems, itemIdx) >= 0) {
                     continue;
                 }
-                itemValueList.add(new KeyValue<>(itemIdx, predictRating));
+                if (rankingFilter != null && (!rankingFilter.acceptItem(itemIdx)
+                        || Arrays.binarySearch(excludedItems, itemIdx) >= 0
+                        || !rankingFilter.takeWithinQuota(itemIdx, categoryCounts))) {
+                    continue;
+                }
+                itemValueList.add(new KeyValue<>(itemIdx, globalItemScores[itemIdx]));
             }
             recommendedList.setList(contextIdx, itemValueList);
-            recommendedList.topNRankByIndex(contextIdx, topN);
         });
 
         if (recommendedList.size() == 0) {
@@ -227,6 +525,8 @@ public abstract class MatrixRecommender extends AbstractRecommender {
      * @throws LibrecException if error occurs during recommending
      */
     public RecommendedList recommendRating(LibrecDataList<AbstractBaseDataEntry> dataList) throws LibrecException {
+        long startTime = System.nanoTime();
+        long numPredictions = 0;
         int numDataEntries = dataList.size();
         RecommendedList recommendedList = new RecommendedList(numDataEntries);
         for (int contextIdx = 0; contextIdx < numDataEntries; ++contextIdx) {
@@ -241,8 +541,13 @@ public abstract class MatrixRecommender extends AbstractRecommender {
                 }
                 recommendedList.add(contextIdx, itemIdx, predictRating);
             }
+            numPredictions += itemIdsArray.length;
         }
 
+        if (metrics != null) {
+            metrics.timer("recommend.rating").updateSince(startTime);
+            metrics.counter("recommend.rating.predictions").add(numPredictions);
+        }
         return recommendedList;
     }
 
@@ -0,0 +1,428 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * Approximate maximum inner product search over item vectors, with an inverted
+ * file (IVF) of 8-bit scalar quantized vectors:
+ * <ol>
+ * <li>the items are clustered by k-means after the MIPS-to-L2 transform
+ * x &rarr; [x / M, sqrt(1 - |x|<sup>2</sup> / M<sup>2</sup>)], M being the maximum
+ * norm, so that the nearest centroids of a normalized query [q, 0] are those of
+ * the clusters of its largest inner products</li>
+ * <li>a query scans the items of its numProbes nearest clusters, and of the next
+ * nearest ones while fewer than n items are accepted, scoring them with the
+ * quantized vectors</li>
+ * <li>the best numCandidates items are re-ranked by their exact inner products</li>
+ * </ol>
+ * More probes and candidates trade latency for recall, which can be checked
+ * against the brute force search with {@link #recall(double[][], int, int, int)}.
+ * <p>
+ * Bachrach et al., Speeding Up the Xbox Recommender System Using a Euclidean
+ * Transformation for Inner-Product Spaces, RecSys 2014.
+ */
+public class MaxInnerProductIndex {
+    private final int numItems;
+
+    private final int dimension;
+
+    /**
+     * exact item vectors
+     */
+    private final double[][] vectors;
+
+    /**
+     * cluster centroids in the transformed space, of size dimension + 1
+     */
+    private final double[][] centroids;
+
+    /**
+     * half of the squared norm of each centroid
+     */
+    private final double[] centroidHalfNorms;
+
+    /**
+     * items of cluster c at the positions [listOffsets[c], listOffsets[c + 1])
+     */
+    private final int[] listOffsets;
+
+    private final int[] listItems;
+
+    /**
+     * quantized vectors of the items in the order of listItems, value = codeMins[d] + code * codeSteps[d]
+     */
+    private final byte[] codes;
+
+    private final double[] codeMins;
+
+    private final double[] codeSteps;
+
+    private MaxInnerProductIndex(double[][] vectors, double[][] centroids, int[] itemLists) {
+        this.vectors = vectors;
+        this.centroids = centroids;
+        numItems = vectors.length;
+        dimension = numItems > 0 ? vectors[0].length : 0;
+        int numLists = centroids.length;
+
+        centroidHalfNorms = halfNorms(centroids);
+
+        listOffsets = new int[numLists + 1];
+        for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+            listOffsets[itemLists[itemIdx] + 1]++;
+        }
+        for (int list = 0; list < numLists; list++) {
+            listOffsets[list + 1] += listOffsets[list];
+        }
+        listItems = new int[numItems];
+        int[] positions = new int[numLists];
+        for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+            int list = itemLists[itemIdx];
+            listItems[listOffsets[list] + positions[list]++] = itemIdx;
+        }
+
+        codeMins = new double[dimension];
+        codeSteps = new double[dimension];
+        for (int d = 0; d < dimension; d++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (double[] vector : vectors) {
+                min = Math.min(min, vector[d]);
+                max = Math.max(max, vector[d]);
+            }
+            codeMins[d] = min;
+            codeSteps[d] = (max - min) / 255.0;
+        }
+        codes = new byte[numItems * dimension];
+        IntStream.range(0, numItems).parallel().forEach(position -> {
+            double[] vector = vectors[listItems[position]];
+            for (int d = 0; d < dimension; d++) {
+                int code = codeSteps[d] > 0.0 ? (int) Math.round((vector[d] - codeMins[d]) / codeSteps[d]) : 0;
+                codes[position * dimension + d] = (byte) code;
+            }
+        });
+    }
+
+    /**
+     * Build the index of item vectors, clustering them by k-means on a sample of
+     * at most 64 items per cluster.
+     *
+     * @param vectors       the vector of each item, all of the same dimension, kept by reference
+     * @param numLists      the number of clusters
+     * @param numIterations the number of k-means iterations
+     * @param seed          the seed of the sampling
+     * @return the index
+     */
+    public static MaxInnerProductIndex build(double[][] vectors, int numLists, int numIterations, long seed) {
+        int numItems = vectors.length;
+        int dimension = numItems > 0 ? vectors[0].length : 0;
+        numLists = Math.max(1, Math.min(numLists, numItems));
+
+        double maxNorm = 0.0;
+        for (double[] vector : vectors) {
+            maxNorm = Math.max(maxNorm, Math.sqrt(dot(vector, vector, dimension)));
+        }
+        double scale = maxNorm > 0.0 ? 1.0 / maxNorm : 1.0;
+        double[][] points = new double[numItems][];
+        IntStream.range(0, numItems).parallel().forEach(itemIdx -> {
+            double[] point = new double[dimension + 1];
+            double squaredNorm = 0.0;
+            for (int d = 0; d < dimension; d++) {
+                point[d] = vectors[itemIdx][d] * scale;
+                squaredNorm += point[d] * point[d];
+            }
+            point[dimension] = Math.sqrt(Math.max(0.0, 1.0 - squaredNorm));
+            points[itemIdx] = point;
+        });
+
+        // the first numLists items of the permutation are the initial centroids,
+        // the first numSamples ones the training sample
+        int numSamples = (int) Math.min(numItems, 64L * numLists);
+        int[] permutation = IntStream.range(0, numItems).toArray();
+        Random random = new Random(seed);
+        for (int position = 0; position < numSamples; position++) {
+            int swapPosition = position + random.nextInt(numItems - position);
+            int itemIdx = permutation[swapPosition];
+            permutation[swapPosition] = permutation[position];
+            permutation[position] = itemIdx;
+        }
+        double[][] centroids = new double[numLists][];
+        for (int list = 0; list < numLists; list++) {
+            centroids[list] = points[permutation[list]].clone();
+        }
+
+        int[] sampleLists = new int[numSamples];
+        for (int iteration = 0; iteration < numIterations; iteration++) {
+            double[] halfNorms = halfNorms(centroids);
+            double[][] currentCentroids = centroids;
+            IntStream.range(0, numSamples).parallel().forEach(position ->
+                    sampleLists[position] = nearestList(points[permutation[position]], currentCentroids, halfNorms));
+            double[][] sums = new double[numLists][dimension + 1];
+            int[] counts = new int[numLists];
+            for (int position = 0; position < numSamples; position++) {
+                int list = sampleLists[position];
+                double[] point = points[permutation[position]];
+                for (int d = 0; d <= dimension; d++) {
+                    sums[list][d] += point[d];
+                }
+                counts[list]++;
+            }
+            for (int list = 0; list < numLists; list++) {
+                if (counts[list] > 0) {
+                    for (int d = 0; d <= dimension; d++) {
+                        sums[list][d] /= counts[list];
+                    }
+                    centroids[list] = sums[list];
+                }
+            }
+        }
+
+        double[] halfNorms = halfNorms(centroids);
+        double[][] finalCentroids = centroids;
+        int[] itemLists = new int[numItems];
+        IntStream.range(0, numItems).parallel().forEach(itemIdx ->
+                itemLists[itemIdx] = nearestList(points[itemIdx], finalCentroids, halfNorms));
+        return new MaxInnerProductIndex(vectors, centroids, itemLists);
+    }
+
+    private static double[] halfNorms(double[][] centroids) {
+        double[] halfNorms = new double[centroids.length];
+        for (int list = 0; list < centroids.length; list++) {
+            halfNorms[list] = 0.5 * dot(centroids[list], centroids[list], centroids[list].length);
+        }
+        return halfNorms;
+    }
+
+    /**
+     * The nearest centroid in L2 distance, maximizing point . centroid - |centroid|^2 / 2.
+     */
+    private static int nearestList(double[] point, double[][] centroids, double[] halfNorms) {
+        int nearestList = 0;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int list = 0; list < centroids.length; list++) {
+            double score = dot(point, centroids[list], point.length) - halfNorms[list];
+            if (score > bestScore) {
+                bestScore = score;
+                nearestList = list;
+            }
+        }
+        return nearestList;
+    }
+
+    private static double dot(double[] x, double[] y, int length) {
+        double sum = 0.0;
+        for (int d = 0; d < length; d++) {
+            sum += x[d] * y[d];
+        }
+        return sum;
+    }
+
+    /**
+     * @return the number of clusters
+     */
+    public int getNumLists() {
+        return centroids.length;
+    }
+
+    /**
+     * Search the items of approximately largest inner products with a query.
+     *
+     * @param query         the query vector
+     * @param n             the number of returned items
+     * @param numProbes     the number of scanned clusters
+     * @param numCandidates the number of items re-ranked by their exact inner products
+     * @param accept        the filter of the items, null to accept all of them
+     * @return n items by decreasing exact inner product, fewer only if fewer items are accepted
+     */
+    public int[] search(double[] query, int n, int numProbes, int numCandidates, IntPredicate accept) {
+        int numLists = centroids.length;
+        double queryNorm = Math.sqrt(dot(query, query, dimension));
+        double queryScale = queryNorm > 0.0 ? 1.0 / queryNorm : 1.0;
+        TopK probes = new TopK(numLists);
+        for (int list = 0; list < numLists; list++) {
+            probes.offer(list, dot(query, centroids[list], dimension) * queryScale - centroidHalfNorms[list]);
+        }
+        int[] probeOrder = probes.sortedIds();
+        int minProbes = Math.min(Math.max(1, numProbes), numLists);
+
+        double base = 0.0;
+        double[] codeWeights = new double[dimension];
+        for (int d = 0; d < dimension; d++) {
+            base += query[d] * codeMins[d];
+            codeWeights[d] = query[d] * codeSteps[d];
+        }
+        TopK candidates = new TopK(Math.max(n, numCandidates));
+        // the next nearest clusters are scanned while fewer than n items are accepted, e.g. under a
+        // restrictive filter, so that the items run short only when the catalogue does
+        for (int probe = 0; probe < numLists && (probe < minProbes || candidates.size() < n); probe++) {
+            int list = probeOrder[probe];
+            for (int position = listOffsets[list]; position < listOffsets[list + 1]; position++) {
+                int itemIdx = listItems[position];
+                if (accept != null && !accept.test(itemIdx)) {
+                    continue;
+                }
+                double score = base;
+                for (int d = 0, offset = position * dimension; d < dimension; d++) {
+                    score += codeWeights[d] * (codes[offset + d] & 0xFF);
+                }
+                candidates.offer(itemIdx, score);
+            }
+        }
+
+        TopK results = new TopK(n);
+        for (int itemIdx : candidates.sortedIds()) {
+            results.offer(itemIdx, dot(query, vectors[itemIdx], dimension));
+        }
+        return results.sortedIds();
+    }
+
+    /**
+     * Search the items of largest inner products with a query by brute force.
+     *
+     * @param query  the query vector
+     * @param n      the number of returned items
+     * @param accept the filter of the items, null to accept all of them
+     * @return at most n items, by decreasing inner product
+     */
+    public int[] exactSearch(double[] query, int n, IntPredicate accept) {
+        TopK results = new TopK(n);
+        for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+            if (accept == null || accept.test(itemIdx)) {
+                results.offer(itemIdx, dot(query, vectors[itemIdx], dimension));
+            }
+        }
+        return results.sortedIds();
+    }
+
+    /**
+     * The mean recall@n of the approximate search against the brute force search.
+     *
+     * @param queries       the query vectors
+     * @param n             the number of searched items
+     * @param numProbes     the number of scanned clusters
+     * @param numCandidates the number of re-ranked items
+     * @return the mean fraction of the exact top n items found by the approximate search
+     */
+    public double recall(double[][] queries, int n, int numProbes, int numCandidates) {
+        return IntStream.range(0, queries.length).parallel().mapToDouble(queryIdx -> {
+            int[] exactItems = exactSearch(queries[queryIdx], n, null);
+            if (exactItems.length == 0) {
+                return 1.0;
+            }
+            int[] items = search(queries[queryIdx], n, numProbes, numCandidates, null);
+            Arrays.sort(items);
+            int hits = 0;
+            for (int itemIdx : exactItems) {
+                if (Arrays.binarySearch(items, itemIdx) >= 0) {
+                    hits++;
+                }
+            }
+            return (double) hits / exactItems.length;
+        }).average().orElse(1.0);
+    }
+
+    /**
+     * Bounded min-heap of the k best scored ids, the lower id winning ties.
+     */
+    private static final class TopK {
+        private final int[] ids;
+        private final double[] scores;
+        private int size;
+
+        TopK(int k) {
+            ids = new int[Math.max(0, k)];
+            scores = new double[Math.max(0, k)];
+        }
+
+        int size() {
+            return size;
+        }
+
+        private boolean worse(int i, int j) {
+            return scores[i] < scores[j] || (scores[i] == scores[j] && ids[i] > ids[j]);
+        }
+
+        void offer(int id, double score) {
+            if (ids.length == 0) {
+                return;
+            }
+            if (size < ids.length) {
+                ids[size] = id;
+                scores[size] = score;
+                int child = size++;
+                while (child > 0) {
+                    int parent = (child - 1) / 2;
+                    if (!worse(child, parent)) {
+                        break;
+                    }
+                    swap(child, parent);
+                    child = parent;
+                }
+            } else if (score > scores[0] || (score == scores[0] && id < ids[0])) {
+                ids[0] = id;
+                scores[0] = score;
+                siftDown(0, size);
+            }
+        }
+
+        private void siftDown(int parent, int length) {
+            while (true) {
+                int child = 2 * parent + 1;
+                if (child >= length) {
+                    return;
+                }
+                if (child + 1 < length && worse(child + 1, child)) {
+                    child++;
+                }
+                if (!worse(child, parent)) {
+                    return;
+                }
+                swap(child, parent);
+                parent = child;
+            }
+        }
+
+        private void swap(int i, int j) {
+            int id = ids[i];
+            ids[i] = ids[j];
+            ids[j] = id;
+            double score = scores[i];
+            scores[i] = scores[j];
+            scores[j] = score;
+        }
+
+        /**
+         * @return the ids by decreasing score; the heap is consumed
+         */
+        int[] sortedIds() {
+            int count = size;
+            for (int length = size - 1; length > 0; length--) {
+                swap(0, length);
+                siftDown(0, length);
+            }
+            size = 0;
+            int[] sortedIds = new int[count];
+            System.arraycopy(ids, 0, sortedIds, 0, count);
+            return sortedIds;
+        }
+    }
+}
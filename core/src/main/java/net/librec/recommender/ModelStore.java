@@ -0,0 +1,720 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender;
+
+import com.google.common.collect.BiMap;
+import com.google.common.collect.HashBiMap;
+import com.google.common.collect.Table;
+import net.librec.annotation.ModelData;
+import net.librec.math.structure.*;
+
+import java.io.*;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary store of the fields of a trained model listed in its
+ * {@link net.librec.annotation.ModelData} annotation.
+ * <p>
+ * A model file starts with a header holding the class of the model, followed
+ * by one chunk per field: the name of the field, the length of the chunk and
+ * the typed value. Dense and sparse matrices, dense vectors, symmetric
+ * matrices, primitive arrays and string-to-index BiMaps are written in a
+ * compact layout of primitive arrays; any other {@link java.io.Serializable}
+ * value, e.g. a factor table or a network, falls back to Java serialization.
+ * Such values are only read back if all their classes belong to the packages
+ * of the model data types, so that a model file can not instantiate arbitrary
+ * classes. Files are memory-mapped on read, and the chunks of fields the model
+ * does not declare are skipped.
+ */
+public final class ModelStore {
+    private static final int MAGIC = 0x4C524D44;
+    private static final int VERSION = 1;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_BOOLEAN = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_FLOAT = 4;
+    private static final byte TYPE_DOUBLE = 5;
+    private static final byte TYPE_STRING = 6;
+    private static final byte TYPE_DENSE_MATRIX = 10;
+    private static final byte TYPE_DENSE_VECTOR = 11;
+    private static final byte TYPE_SPARSE_MATRIX = 12;
+    private static final byte TYPE_SYMM_MATRIX = 13;
+    private static final byte TYPE_BIMAP = 14;
+    private static final byte TYPE_DOUBLE_ARRAY = 20;
+    private static final byte TYPE_FLOAT_ARRAY = 21;
+    private static final byte TYPE_INT_ARRAY = 22;
+    private static final byte TYPE_LONG_ARRAY = 23;
+    private static final byte TYPE_BOOLEAN_ARRAY = 24;
+    private static final byte TYPE_OBJECT_ARRAY = 25;
+    private static final byte TYPE_SERIALIZED = 30;
+
+    /**
+     * the packages of the classes a serialized value may hold: the model data
+     * types of LibRec, and the collections, tables and networks they are built of
+     */
+    private static final String[] SERIALIZED_PACKAGES = {"java.lang.", "java.util.", "com.google.common.collect.",
+            "net.librec.", "org.nd4j.", "org.deeplearning4j."};
+
+    private ModelStore() {
+    }
+
+    /**
+     * Get the names of the model fields declared by the
+     * {@link net.librec.annotation.ModelData} annotation of a class.
+     *
+     * @param modelClass the class of the model
+     * @return the names in declaration order, empty if the class is not annotated
+     */
+    public static List<String> getModelFields(Class<?> modelClass) {
+        ModelData modelData = modelClass.getAnnotation(ModelData.class);
+        if (modelData == null) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(new LinkedHashSet<>(Arrays.asList(modelData.value())));
+    }
+
+    /**
+     * Write the given fields of a model. Names which are not fields of the
+     * model, e.g. the model keys of the annotations, are ignored.
+     *
+     * @param model      the model
+     * @param fieldNames the names of the fields to write
+     * @param filePath   the model file
+     * @throws IOException if a field can not be written
+     */
+    public static void save(Object model, Collection<String> fieldNames, String filePath) throws IOException {
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (String fieldName : fieldNames) {
+            Field field = findField(model.getClass(), fieldName);
+            if (field != null) {
+                values.put(fieldName, get(model, field));
+            }
+        }
+        save(model.getClass().getName(), values, filePath);
+    }
+
+    /**
+     * Write the values of the fields of a model of the given class, e.g. the
+     * factors of a model trained outside of the recommender, so that
+     * {@link #load(Object, String)} fills them into a model of that class.
+     *
+     * @param modelClassName the name of the class of the model
+     * @param values         the values by field name
+     * @param filePath       the model file
+     * @throws IOException if a value can not be written
+     */
+    public static void save(String modelClassName, Map<String, ?> values, String filePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ChunkOutput output = new ChunkOutput(channel);
+            output.putInt(MAGIC);
+            output.putInt(VERSION);
+            output.putString(modelClassName);
+            for (Map.Entry<String, ?> value : values.entrySet()) {
+                output.putString(value.getKey());
+                long lengthPosition = output.position();
+                output.putLong(0L);
+                writeValue(output, value.getValue());
+                output.flush();
+                ByteBuffer length = ByteBuffer.allocate(Long.BYTES);
+                length.putLong(0, output.position() - lengthPosition - Long.BYTES);
+                channel.write(length, lengthPosition);
+            }
+            output.flush();
+        }
+    }
+
+    /**
+     * Read the fields of a model written by {@link #save(Object, Collection, String)}
+     * or {@link #save(String, Map, String)}.
+     *
+     * @param model    the model, of the class the file was written from
+     * @param filePath the model file
+     * @return the names of the fields read
+     * @throws IOException if the file is not a model file of the class of the model
+     */
+    public static List<String> load(Object model, String filePath) throws IOException {
+        List<String> fieldNames = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            MappedInput input = new MappedInput(channel);
+            if (input.size() < 2 * Integer.BYTES || input.getInt() != MAGIC) {
+                throw new IOException("Not a model file: " + filePath);
+            }
+            int version = input.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported model file version " + version + ": " + filePath);
+            }
+            String className = input.getString();
+            if (!className.equals(model.getClass().getName())) {
+                throw new IOException("The model file " + filePath + " was written by " + className
+                        + ", not by " + model.getClass().getName());
+            }
+            while (input.position() < input.size()) {
+                String fieldName = input.getString();
+                long length = input.getLong();
+                long end = input.position() + length;
+                Field field = findField(model.getClass(), fieldName);
+                if (field == null || Modifier.isFinal(field.getModifiers())) {
+                    input.seek(end);
+                    continue;
+                }
+                set(model, field, readValue(input, field.getType()));
+                if (input.position() != end) {
+                    throw new IOException("Corrupted chunk " + fieldName + " in " + filePath);
+                }
+                fieldNames.add(fieldName);
+            }
+        }
+        return fieldNames;
+    }
+
+    private static Field findField(Class<?> modelClass, String fieldName) {
+        for (Class<?> clazz = modelClass; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+            try {
+                Field field = clazz.getDeclaredField(fieldName);
+                field.setAccessible(true);
+                return field;
+            } catch (NoSuchFieldException e) {
+                // look up the super class
+            }
+        }
+        return null;
+    }
+
+    private static Object get(Object model, Field field) throws IOException {
+        try {
+            return field.get(model);
+        } catch (IllegalAccessException e) {
+            throw new IOException("Can not read field " + field.getName(), e);
+        }
+    }
+
+    private static void set(Object model, Field field, Object value) throws IOException {
+        try {
+            field.set(model, value);
+        } catch (IllegalAccessException | IllegalArgumentException e) {
+            throw new IOException("Can not set field " + field.getName(), e);
+        }
+    }
+
+    private static void writeValue(ChunkOutput output, Object value) throws IOException {
+        if (value == null) {
+            output.putByte(TYPE_NULL);
+        } else if (value instanceof Boolean) {
+            output.putByte(TYPE_BOOLEAN);
+            output.putByte((byte) ((Boolean) value ? 1 : 0));
+        } else if (value instanceof Integer) {
+            output.putByte(TYPE_INT);
+            output.putInt((Integer) value);
+        } else if (value instanceof Long) {
+            output.putByte(TYPE_LONG);
+            output.putLong((Long) value);
+        } else if (value instanceof Float) {
+            output.putByte(TYPE_FLOAT);
+            output.putInt(Float.floatToRawIntBits((Float) value));
+        } else if (value instanceof Double) {
+            output.putByte(TYPE_DOUBLE);
+            output.putDouble((Double) value);
+        } else if (value instanceof String) {
+            output.putByte(TYPE_STRING);
+            output.putString((String) value);
+        } else if (value instanceof DenseMatrix) {
+            DenseMatrix matrix = (DenseMatrix) value;
+            output.putByte(TYPE_DENSE_MATRIX);
+            output.putInt(matrix.rowSize());
+            output.putInt(matrix.columnSize());
+            for (double[] row : matrix.getValues()) {
+                output.putDoubles(row);
+            }
+        } else if (value instanceof DenseVector) {
+            DenseVector vector = (DenseVector) value;
+            output.putByte(TYPE_DENSE_VECTOR);
+            output.putInt(vector.cardinality());
+            output.putDoubles(vector.getValues());
+        } else if (value instanceof SequentialAccessSparseMatrix) {
+            writeSparseMatrix(output, (SequentialAccessSparseMatrix) value);
+        } else if (value instanceof SymmMatrix) {
+            SymmMatrix matrix = (SymmMatrix) value;
+            Table<Integer, Integer, Double> data = matrix.getData();
+            output.putByte(TYPE_SYMM_MATRIX);
+            output.putInt(matrix.getDim());
+            output.putInt(data.size());
+            for (Table.Cell<Integer, Integer, Double> cell : data.cellSet()) {
+                output.putInt(cell.getRowKey());
+                output.putInt(cell.getColumnKey());
+                output.putDouble(cell.getValue());
+            }
+        } else if (value instanceof BiMap && isStringIndexMap((BiMap<?, ?>) value)) {
+            BiMap<?, ?> map = (BiMap<?, ?>) value;
+            output.putByte(TYPE_BIMAP);
+            output.putInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                output.putString((String) entry.getKey());
+                output.putInt((Integer) entry.getValue());
+            }
+        } else if (value instanceof double[]) {
+            output.putByte(TYPE_DOUBLE_ARRAY);
+            output.putInt(((double[]) value).length);
+            output.putDoubles((double[]) value);
+        } else if (value instanceof float[]) {
+            float[] array = (float[]) value;
+            output.putByte(TYPE_FLOAT_ARRAY);
+            output.putInt(array.length);
+            for (float element : array) {
+                output.putInt(Float.floatToRawIntBits(element));
+            }
+        } else if (value instanceof int[]) {
+            output.putByte(TYPE_INT_ARRAY);
+            output.putInt(((int[]) value).length);
+            output.putInts((int[]) value);
+        } else if (value instanceof long[]) {
+            long[] array = (long[]) value;
+            output.putByte(TYPE_LONG_ARRAY);
+            output.putInt(array.length);
+            for (long element : array) {
+                output.putLong(element);
+            }
+        } else if (value instanceof boolean[]) {
+            boolean[] array = (boolean[]) value;
+            output.putByte(TYPE_BOOLEAN_ARRAY);
+            output.putInt(array.length);
+            for (boolean element : array) {
+                output.putByte((byte) (element ? 1 : 0));
+            }
+        } else if (value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            output.putByte(TYPE_OBJECT_ARRAY);
+            output.putInt(array.length);
+            for (Object element : array) {
+                writeValue(output, element);
+            }
+        } else if (value instanceof Serializable) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream objectOutput = new ObjectOutputStream(bytes)) {
+                objectOutput.writeObject(value);
+            }
+            output.putByte(TYPE_SERIALIZED);
+            output.putInt(bytes.size());
+            output.putBytes(bytes.toByteArray());
+        } else {
+            throw new IOException("Unsupported model data type " + value.getClass().getName());
+        }
+    }
+
+    private static void writeSparseMatrix(ChunkOutput output, SequentialAccessSparseMatrix matrix) throws IOException {
+        int numRows = matrix.rowSize();
+        output.putByte(TYPE_SPARSE_MATRIX);
+        output.putInt(numRows);
+        output.putInt(matrix.columnSize());
+        int[] rowSizes = new int[numRows];
+        for (int rowIndex = 0; rowIndex < numRows; rowIndex++) {
+            rowSizes[rowIndex] = matrix.row(rowIndex).getNumEntries();
+        }
+        output.putInts(rowSizes);
+        for (int rowIndex = 0; rowIndex < numRows; rowIndex++) {
+            SequentialSparseVector row = matrix.row(rowIndex);
+            for (int position = 0; position < rowSizes[rowIndex]; position++) {
+                output.putInt(row.getIndexAtPosition(position));
+            }
+        }
+        for (int rowIndex = 0; rowIndex < numRows; rowIndex++) {
+            SequentialSparseVector row = matrix.row(rowIndex);
+            for (int position = 0; position < rowSizes[rowIndex]; position++) {
+                output.putDouble(row.getAtPosition(position));
+            }
+        }
+    }
+
+    private static Object readValue(MappedInput input, Class<?> type) throws IOException {
+        byte code = input.getByte();
+        switch (code) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_BOOLEAN:
+                return input.getByte() != 0;
+            case TYPE_INT:
+                return input.getInt();
+            case TYPE_LONG:
+                return input.getLong();
+            case TYPE_FLOAT:
+                return Float.intBitsToFloat(input.getInt());
+            case TYPE_DOUBLE:
+                return input.getDouble();
+            case TYPE_STRING:
+                return input.getString();
+            case TYPE_DENSE_MATRIX: {
+                int numRows = input.getInt();
+                int numColumns = input.getInt();
+                double[][] values = new double[numRows][numColumns];
+                for (double[] row : values) {
+                    input.getDoubles(row);
+                }
+                return numRows == 0 ? new DenseMatrix(0, numColumns) : new DenseMatrix(values, true);
+            }
+            case TYPE_DENSE_VECTOR: {
+                double[] values = new double[input.getInt()];
+                input.getDoubles(values);
+                return new VectorBasedDenseVector(values, true);
+            }
+            case TYPE_SPARSE_MATRIX:
+                return readSparseMatrix(input);
+            case TYPE_SYMM_MATRIX: {
+                SymmMatrix matrix = new SymmMatrix(input.getInt());
+                for (int entry = 0, numEntries = input.getInt(); entry < numEntries; entry++) {
+                    int row = input.getInt();
+                    int column = input.getInt();
+                    matrix.set(row, column, input.getDouble());
+                }
+                return matrix;
+            }
+            case TYPE_BIMAP: {
+                int size = input.getInt();
+                BiMap<String, Integer> map = HashBiMap.create(size);
+                for (int entry = 0; entry < size; entry++) {
+                    String key = input.getString();
+                    map.put(key, input.getInt());
+                }
+                return map;
+            }
+            case TYPE_DOUBLE_ARRAY: {
+                double[] array = new double[input.getInt()];
+                input.getDoubles(array);
+                return array;
+            }
+            case TYPE_FLOAT_ARRAY: {
+                float[] array = new float[input.getInt()];
+                for (int index = 0; index < array.length; index++) {
+                    array[index] = Float.intBitsToFloat(input.getInt());
+                }
+                return array;
+            }
+            case TYPE_INT_ARRAY: {
+                int[] array = new int[input.getInt()];
+                input.getInts(array);
+                return array;
+            }
+            case TYPE_LONG_ARRAY: {
+                long[] array = new long[input.getInt()];
+                for (int index = 0; index < array.length; index++) {
+                    array[index] = input.getLong();
+                }
+                return array;
+            }
+            case TYPE_BOOLEAN_ARRAY: {
+                boolean[] array = new boolean[input.getInt()];
+                for (int index = 0; index < array.length; index++) {
+                    array[index] = input.getByte() != 0;
+                }
+                return array;
+            }
+            case TYPE_OBJECT_ARRAY: {
+                Class<?> componentType = type.isArray() ? type.getComponentType() : Object.class;
+                Object array = Array.newInstance(componentType, input.getInt());
+                for (int index = 0; index < Array.getLength(array); index++) {
+                    Array.set(array, index, readValue(input, componentType));
+                }
+                return array;
+            }
+            case TYPE_SERIALIZED: {
+                byte[] bytes = new byte[input.getInt()];
+                input.getBytes(bytes);
+                try (ObjectInputStream objectInput = new ModelDataInputStream(new ByteArrayInputStream(bytes))) {
+                    return objectInput.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException(e);
+                }
+            }
+            default:
+                throw new IOException("Unknown model data type " + code);
+        }
+    }
+
+    private static SequentialAccessSparseMatrix readSparseMatrix(MappedInput input) throws IOException {
+        int numRows = input.getInt();
+        int numColumns = input.getInt();
+        int[] rowSizes = new int[numRows];
+        input.getInts(rowSizes);
+        int[][] indices = new int[numRows][];
+        for (int rowIndex = 0; rowIndex < numRows; rowIndex++) {
+            indices[rowIndex] = new int[rowSizes[rowIndex]];
+            input.getInts(indices[rowIndex]);
+        }
+        VectorBasedSequentialSparseVector[] rowVectors = new VectorBasedSequentialSparseVector[numRows];
+        for (int rowIndex = 0; rowIndex < numRows; rowIndex++) {
+            double[] values = new double[rowSizes[rowIndex]];
+            input.getDoubles(values);
+            rowVectors[rowIndex] = new VectorBasedSequentialSparseVector(numColumns, indices[rowIndex], values);
+        }
+        return new SequentialAccessSparseMatrix(numRows, numColumns, rowVectors);
+    }
+
+    private static boolean isStringIndexMap(BiMap<?, ?> map) {
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (!(entry.getKey() instanceof String) || !(entry.getValue() instanceof Integer)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Object input stream resolving only the classes of {@link #SERIALIZED_PACKAGES}.
+     */
+    private static final class ModelDataInputStream extends ObjectInputStream {
+        ModelDataInputStream(InputStream input) throws IOException {
+            super(input);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            String className = desc.getName();
+            // strip the array descriptors, primitive arrays are always allowed
+            String elementName = className.replaceFirst("^\\[+", "");
+            if (elementName.startsWith("L") && elementName.endsWith(";")) {
+                elementName = elementName.substring(1, elementName.length() - 1);
+            } else if (elementName.length() != className.length()) {
+                return super.resolveClass(desc);
+            }
+            // java.lang only without its sub packages, e.g. java.lang.reflect
+            boolean allowed = elementName.startsWith("java.lang.")
+                    ? elementName.indexOf('.', "java.lang.".length()) < 0
+                    : Arrays.stream(SERIALIZED_PACKAGES).anyMatch(elementName::startsWith);
+            if (!allowed) {
+                throw new InvalidClassException(className, "not a model data type");
+            }
+            return super.resolveClass(desc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+            throw new InvalidClassException("Proxy classes are not model data types");
+        }
+    }
+
+    /**
+     * Buffered sequential writer of primitives to a file channel.
+     */
+    private static final class ChunkOutput {
+        private static final int BUFFER_SIZE = 1 << 16;
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        ChunkOutput(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        long position() throws IOException {
+            return channel.position() + buffer.position();
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void ensure(int numBytes) throws IOException {
+            if (buffer.remaining() < numBytes) {
+                flush();
+            }
+        }
+
+        void putByte(byte value) throws IOException {
+            ensure(1);
+            buffer.put(value);
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(Integer.BYTES);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(Long.BYTES);
+            buffer.putLong(value);
+        }
+
+        void putDouble(double value) throws IOException {
+            ensure(Double.BYTES);
+            buffer.putDouble(value);
+        }
+
+        void putString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            putBytes(bytes);
+        }
+
+        void putBytes(byte[] values) throws IOException {
+            for (int from = 0; from < values.length; ) {
+                ensure(1);
+                int length = Math.min(buffer.remaining(), values.length - from);
+                buffer.put(values, from, length);
+                from += length;
+            }
+        }
+
+        void putInts(int[] values) throws IOException {
+            for (int from = 0; from < values.length; ) {
+                ensure(Integer.BYTES);
+                int length = Math.min(buffer.remaining() / Integer.BYTES, values.length - from);
+                buffer.asIntBuffer().put(values, from, length);
+                buffer.position(buffer.position() + length * Integer.BYTES);
+                from += length;
+            }
+        }
+
+        void putDoubles(double[] values) throws IOException {
+            for (int from = 0; from < values.length; ) {
+                ensure(Double.BYTES);
+                int length = Math.min(buffer.remaining() / Double.BYTES, values.length - from);
+                buffer.asDoubleBuffer().put(values, from, length);
+                buffer.position(buffer.position() + length * Double.BYTES);
+                from += length;
+            }
+        }
+    }
+
+    /**
+     * Sequential reader of primitives from a memory-mapped file channel. The
+     * file is mapped in windows, so models larger than 2GB can be read.
+     */
+    private static final class MappedInput {
+        private static final long WINDOW_SIZE = 1L << 30;
+
+        private final FileChannel channel;
+        private final long size;
+        private long windowStart;
+        private MappedByteBuffer window;
+
+        MappedInput(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            map(0L);
+        }
+
+        long size() {
+            return size;
+        }
+
+        long position() {
+            return windowStart + window.position();
+        }
+
+        void seek(long position) throws IOException {
+            if (position > size) {
+                throw new EOFException();
+            }
+            if (position >= windowStart && position - windowStart <= window.limit()) {
+                window.position((int) (position - windowStart));
+            } else {
+                map(position);
+            }
+        }
+
+        private void map(long position) throws IOException {
+            windowStart = position;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, size - position));
+        }
+
+        private void ensure(int numBytes) throws IOException {
+            if (window.remaining() < numBytes) {
+                long position = position();
+                if (position + numBytes > size) {
+                    throw new EOFException();
+                }
+                map(position);
+            }
+        }
+
+        byte getByte() throws IOException {
+            ensure(1);
+            return window.get();
+        }
+
+        int getInt() throws IOException {
+            ensure(Integer.BYTES);
+            return window.getInt();
+        }
+
+        long getLong() throws IOException {
+            ensure(Long.BYTES);
+            return window.getLong();
+        }
+
+        double getDouble() throws IOException {
+            ensure(Double.BYTES);
+            return window.getDouble();
+        }
+
+        String getString() throws IOException {
+            byte[] bytes = new byte[getInt()];
+            getBytes(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        void getBytes(byte[] values) throws IOException {
+            for (int from = 0; from < values.length; ) {
+                ensure(1);
+                int length = Math.min(window.remaining(), values.length - from);
+                window.get(values, from, length);
+                from += length;
+            }
+        }
+
+        void getInts(int[] values) throws IOException {
+            for (int from = 0; from < values.length; ) {
+                ensure(Integer.BYTES);
+                int length = Math.min(window.remaining() / Integer.BYTES, values.length - from);
+                window.asIntBuffer().get(values, from, length);
+                window.position(window.position() + length * Integer.BYTES);
+                from += length;
+            }
+        }
+
+        void getDoubles(double[] values) throws IOException {
+            for (int from = 0; from < values.length; ) {
+                ensure(Double.BYTES);
+                int length = Math.min(window.remaining() / Double.BYTES, values.length - from);
+                window.asDoubleBuffer().get(values, from, length);
+                window.position(window.position() + length * Double.BYTES);
+                from += length;
+            }
+        }
+    }
+}
@@ -21,6 +21,7 @@ import net.librec.common.LibrecException;
 import net.librec.data.DataModel;
 import net.librec.data.structure.AbstractBaseDataEntry;
 import net.librec.data.structure.LibrecDataList;
+import net.librec.eval.EvalStatistics;
 import net.librec.math.structure.DataSet;
 import net.librec.recommender.item.RecommendedItem;
 import net.librec.recommender.item.RecommendedList;
@@ -84,4 +85,11 @@ public interface Recommender {
      * @param context recommender context
      */
     void setContext(RecommenderContext context);
+
+    /**
+     * get the statistics of the current fold for the evaluators
+     *
+     * @return evaluation statistics, null if not available
+     */
+    EvalStatistics getEvalStatistics();
 }
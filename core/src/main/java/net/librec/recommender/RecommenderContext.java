@@ -20,6 +20,7 @@ package net.librec.recommender;
 import net.librec.common.AbstractContext;
 import net.librec.conf.Configuration;
 import net.librec.data.DataModel;
+import net.librec.eval.EvalStatistics;
 import net.librec.similarity.RecommenderSimilarity;
 
 import java.util.HashMap;
@@ -38,6 +39,8 @@ public class RecommenderContext extends AbstractContext {
 
     protected Map<String, RecommenderSimilarity> similarities;
 
+    protected EvalStatistics evalStatistics;
+
     public RecommenderContext(Configuration conf) {
         this.conf = conf;
     }
@@ -87,4 +90,18 @@ public class RecommenderContext extends AbstractContext {
         this.similarities.put(similarityKey, similarity);
     }
 
+    /**
+     * @return the statistics of the current fold for the evaluators
+     */
+    public EvalStatistics getEvalStatistics() {
+        return evalStatistics;
+    }
+
+    /**
+     * @param evalStatistics the statistics of the current fold for the evaluators
+     */
+    public void setEvalStatistics(EvalStatistics evalStatistics) {
+        this.evalStatistics = evalStatistics;
+    }
+
 }
@@ -19,6 +19,7 @@ package net.librec.recommender;
 
 import net.librec.common.LibrecException;
 import net.librec.data.structure.*;
+import net.librec.eval.EvalStatistics;
 import net.librec.job.progress.ProgressBar;
 import net.librec.math.structure.DataSet;
 import net.librec.math.structure.SequentialAccessSparseMatrix;
@@ -173,27 +174,19 @@ public abstract class TensorRecommender extends AbstractRecommender {
 
 
 
-        int[] numDroppedItemsArray = new int[numUsers]; // for AUCEvaluator
         int maxNumTestItemsByUser = 0; //for idcg
         for (int userIdx = 0; userIdx < numUsers; ++userIdx) {
-            numDroppedItemsArray[userIdx] = numItems - trainMatrix.row(userIdx).getNumEntries();
             int numTestItemsByUser = testMatrix.row(userIdx).getNumEntries();
             maxNumTestItemsByUser = maxNumTestItemsByUser < numTestItemsByUser ? numTestItemsByUser : maxNumTestItemsByUser;
         }
 
-        int[] itemPurchasedCount = new int[numItems]; // for NoveltyEvaluator
-        for (int itemIdx = 0; itemIdx < numItems; ++itemIdx) {
-            itemPurchasedCount[itemIdx] = trainMatrix.column(itemIdx).getNumEntries()
-                    + testMatrix.column(itemIdx).getNumEntries();
-        }
-
-        conf.setInts("rec.eval.auc.dropped.num", numDroppedItemsArray);
+        // for AUCEvaluator and NoveltyEvaluator, computed when first evaluated
+        context.setEvalStatistics(new EvalStatistics(trainMatrix, testMatrix, numItems));
         conf.setInt("rec.eval.key.test.max.num", maxNumTestItemsByUser); //for nDCGEvaluator
         conf.setInt("rec.eval.item.num", testMatrix.columnSize()); // for EntropyEvaluator
-        conf.setInts("rec.eval.item.purchase.num", itemPurchasedCount); // for NoveltyEvaluator
 
         /**
-         * if you want to use and AUCEvaluator and nDCGEvaluator, please set rec.eval.auc.dropped.num arrays and rec.eval.key.test.max.num value like as AbstractRecommender.
+         * if you want to use and AUCEvaluator and nDCGEvaluator, please set the evaluation statistics and rec.eval.key.test.max.num value like as AbstractRecommender.
          */
     }
 
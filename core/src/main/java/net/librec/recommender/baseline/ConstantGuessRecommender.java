@@ -21,6 +21,8 @@ package net.librec.recommender.baseline;
 import net.librec.common.LibrecException;
 import net.librec.recommender.MatrixRecommender;
 
+import java.util.Arrays;
+
 /**
  * Baseline: predict by a constant rating
  */
@@ -48,4 +50,11 @@ public class ConstantGuessRecommender extends MatrixRecommender {
         return constant;
     }
 
+    @Override
+    protected double[] getGlobalItemScores() {
+        double[] itemScores = new double[numItems];
+        Arrays.fill(itemScores, constant);
+        return itemScores;
+    }
+
 }
@@ -21,6 +21,8 @@ package net.librec.recommender.baseline;
 import net.librec.common.LibrecException;
 import net.librec.recommender.MatrixRecommender;
 
+import java.util.Arrays;
+
 /**
  * Baseline: predict by average rating of all users
  */
@@ -44,4 +46,11 @@ public class GlobalAverageRecommender extends MatrixRecommender {
     protected double predict(int userIdx, int itemIdx) throws LibrecException {
         return globalMean;
     }
+
+    @Override
+    protected double[] getGlobalItemScores() {
+        double[] itemScores = new double[numItems];
+        Arrays.fill(itemScores, globalMean);
+        return itemScores;
+    }
 }
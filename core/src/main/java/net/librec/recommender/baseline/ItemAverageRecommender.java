@@ -22,9 +22,6 @@ import net.librec.common.LibrecException;
 import net.librec.math.structure.SequentialSparseVector;
 import net.librec.recommender.MatrixRecommender;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * Baseline: predict by the average of target item's ratings
  */
@@ -33,16 +30,15 @@ public class ItemAverageRecommender extends MatrixRecommender {
     /**
      * the item ratings average
      */
-    private Map<Integer, Double> itemMeans;
-
-    @Override
-    protected void setup() throws LibrecException {
-        super.setup();
-        itemMeans = new HashMap<>();
-    }
+    private double[] itemMeans;
 
     @Override
     protected void trainModel() throws LibrecException {
+        itemMeans = new double[numItems];
+        for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+            SequentialSparseVector itemRatingsVector = trainMatrix.column(itemIdx);
+            itemMeans[itemIdx] = itemRatingsVector.getNumEntries() > 0 ? itemRatingsVector.mean() : globalMean;
+        }
     }
 
     /**
@@ -55,12 +51,11 @@ public class ItemAverageRecommender extends MatrixRecommender {
      */
     @Override
     protected double predict(int userIdx, int itemIdx) throws LibrecException {
-        if (!itemMeans.containsKey(itemIdx)) {
-            SequentialSparseVector itemRatingsVector = trainMatrix.column(itemIdx);
-            double mean = itemRatingsVector.getNumEntries() > 0 ? itemRatingsVector.mean() : globalMean;
-            itemMeans.put(itemIdx, mean);
-        }
+        return itemMeans[itemIdx];
+    }
 
-        return itemMeans.get(itemIdx);
+    @Override
+    protected double[] getGlobalItemScores() {
+        return itemMeans;
     }
 }
@@ -18,13 +18,9 @@
 
 package net.librec.recommender.baseline;
 
-import com.google.common.collect.Maps;
 import net.librec.common.LibrecException;
 import net.librec.recommender.MatrixRecommender;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * Baseline: items are weighted by the number of ratings they received.
  */
@@ -33,17 +29,14 @@ public class MostPopularRecommender extends MatrixRecommender {
     /**
      * most popular items
      */
-    private Map<Integer, Integer> itemPops;
-
-    @Override
-    protected void setup() throws LibrecException {
-        super.setup();
-        itemPops = Maps.newConcurrentMap();
-    }
+    private double[] itemPops;
 
     @Override
     protected void trainModel() throws LibrecException {
-
+        itemPops = new double[numItems];
+        for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+            itemPops[itemIdx] = trainMatrix.column(itemIdx).getNumEntries();
+        }
     }
 
     /**
@@ -56,10 +49,11 @@ public class MostPopularRecommender extends MatrixRecommender {
      */
     @Override
     protected double predict(int userIdx, int itemIdx) throws LibrecException {
+        return itemPops[itemIdx];
+    }
 
-        if (!itemPops.containsKey(itemIdx))
-            itemPops.put(itemIdx, trainMatrix.column(itemIdx).size());
-
-        return itemPops.get(itemIdx);
+    @Override
+    protected double[] getGlobalItemScores() {
+        return itemPops;
     }
 }
@@ -110,4 +110,12 @@ public class BPRRecommender extends MatrixFactorizationRecommender {
         }
         return tempUserItemsSet;
     }
+
+    /**
+     * @return true, the prediction is the inner product of the user and item factors
+     */
+    @Override
+    protected boolean isInnerProductModel() {
+        return true;
+    }
 }
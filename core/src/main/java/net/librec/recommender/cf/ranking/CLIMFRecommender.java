@@ -20,24 +20,25 @@ package net.librec.recommender.cf.ranking;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.algorithm.Maths;
-import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.math.structure.SequentialSparseVector;
 import net.librec.recommender.MatrixFactorizationRecommender;
-import org.apache.commons.lang.ArrayUtils;
-
-import java.util.*;
+import net.librec.util.RangeExecutor;
 
 /**
  * Shi et al., <strong>Climf: learning to maximize reciprocal rank with collaborative less-is-more filtering.</strong>,
  * RecSys 2012.
+ * <p>
+ * Each user computes the scores of its items and their pairwise logistic terms
+ * once, then updates its factors and the factors of its items. The users are
+ * trained one by one, unless rec.thread.count is greater than 1: then they are
+ * trained in parallel, in the lock-free way of Hogwild!, sharing the item
+ * factors, so that the training is no longer reproducible with rec.random.seed.
  *
  * @author Guibing Guo, Chen Ma and Keqiang Wang
  */
 @ModelData({"isRanking", "climf", "userFactors", "itemFactors"})
 public class CLIMFRecommender extends MatrixFactorizationRecommender {
 
-    private List<Set<Integer>> userItemsSet;
-
-
     @Override
     protected void setup() throws LibrecException {
         super.setup();
@@ -45,119 +46,111 @@ public class CLIMFRecommender extends MatrixFactorizationRecommender {
 
     @Override
     protected void trainModel() throws LibrecException {
-        userItemsSet = getUserItemsSet(trainMatrix);
-
-        for (int iter = 1; iter <= numIterations; iter++) {
-
-            loss = 0.0f;
-            for (int userIdx = 0; userIdx < numUsers; userIdx++) {
-
-                Set<Integer> itemSet = userItemsSet.get(userIdx);
-                double[] sgds = new double[numFactors];
-
-                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-
-                    double sgd = -regUser * userFactors.get(userIdx, factorIdx);
-
-                    for (int itemIdx : itemSet) {
-                        double predictValue = predict(userIdx, itemIdx);
-                        double itemFactorValue = itemFactors.get(itemIdx, factorIdx);
-
-                        sgd += Maths.logistic(-predictValue) * itemFactorValue;
-
-                        for (int compareItemIdx : itemSet) {
-                            if (compareItemIdx == itemIdx) {
-                                continue;
-                            }
-
-                            double compPredictValue = predict(userIdx, compareItemIdx);
-                            double compItemFactorValue = itemFactors.get(compareItemIdx, factorIdx);
-
-                            double diffValue = compPredictValue - predictValue;
-
-                            sgd += Maths.logisticGradientValue(diffValue) / (1 - Maths.logistic(diffValue)) * (itemFactorValue - compItemFactorValue);
-                        }
-                    }
-
-                    sgds[factorIdx] = sgd;
-                }
-
-                Map<Integer, List<Double>> itemsSgds = new HashMap<>();
-                for (int itemIdx : itemSet) {
-                    double predictValue = predict(userIdx, itemIdx);
-                    List<Double> itemSgds = new ArrayList<>();
-                    for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                        double userFactorValue = userFactors.get(userIdx, factorIdx);
-                        double itemFactorValue = itemFactors.get(itemIdx, factorIdx);
-
-                        double judgeValue = 1.0d;
-                        double sgd = judgeValue * Maths.logistic(-predictValue) * userFactorValue - regItem * itemFactorValue;
-
-                        for (int compItemIdx : itemSet) {
-                            if (compItemIdx == itemIdx) {
-                                continue;
-                            }
-
-                            double compPredictValue = predict(userIdx, compItemIdx);
-                            double diffValue = compPredictValue - predictValue;
+        double[][] userValues = userFactors.getValues();
+        double[][] itemValues = itemFactors.getValues();
+        double[] userLosses = new double[numUsers];
 
-                            sgd += Maths.logisticGradientValue(-diffValue) * (1.0d / (1 - Maths.logistic(diffValue)) -
-                                    1.0d / (1 - Maths.logistic(-diffValue))) * userFactorValue;
-                        }
+        try (RangeExecutor rangeExecutor = new RangeExecutor(conf.getInt("rec.thread.count", 1))) {
+            for (int iter = 1; iter <= numIterations; iter++) {
 
-                        itemSgds.add(sgd);
+                rangeExecutor.run(numUsers, (fromUser, toUser) -> {
+                    for (int userIdx = fromUser; userIdx < toUser; userIdx++) {
+                        userLosses[userIdx] = trainUser(userIdx, userValues[userIdx], itemValues);
                     }
+                });
 
-                    itemsSgds.put(itemIdx, itemSgds);
+                loss = 0.0f;
+                for (double userLoss : userLosses) {
+                    loss += userLoss;
                 }
+                // regularization of every user with every item
+                loss += -0.5 * (numItems * regUser * sumOfSquares(userValues) + numUsers * regItem * sumOfSquares(itemValues));
 
-                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    userFactors.plus(userIdx, factorIdx, learnRate * sgds[factorIdx]);
+                if (isConverged(iter) && earlyStop) {
+                    break;
                 }
+                updateLRate(iter);
+            }
+        }
+    }
 
-                for (int itemIdx : itemSet) {
-                    List<Double> itemSgds = itemsSgds.get(itemIdx);
-                    for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                        itemFactors.plus(itemIdx, factorIdx, learnRate * itemSgds.get(factorIdx));
-                    }
-                }
-
-                for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
-                    if (itemSet.contains(itemIdx)) {
-                        double predictValue = predict(userIdx, itemIdx);
-
-                        loss += Math.log(Maths.logistic(predictValue));
-
-                        for (int compItemIdx : itemSet) {
-                            double compPredictValue = predict(userIdx, compItemIdx);
-                            loss += Math.log(1 - Maths.logistic(compPredictValue - predictValue));
-                        }
-                    }
+    /**
+     * Update the factors of a user and of its items.
+     * <p>
+     * With d = s_k - s_i the difference of the scores of two items of the user,
+     * the gradients of the user and of the item i share the coefficient
+     * g(-s_i) + sum_k (g(d) - g(-d)) of the logistic function g, since
+     * g'(d) / (1 - g(d)) = g(d) and g'(-d) * (1 / (1 - g(d)) - 1 / (1 - g(-d))) = g(d) - g(-d).
+     *
+     * @param userIdx    user index
+     * @param userVector the factors of the user
+     * @param itemValues the factors of the items
+     * @return the loss of the items of the user, with the factors before the update
+     */
+    private double trainUser(int userIdx, double[] userVector, double[][] itemValues) {
+        SequentialSparseVector itemsVector = trainMatrix.row(userIdx);
+        int numUserItems = itemsVector.getNumEntries();
+        int[] items = itemsVector.getIndices();
+
+        double[] scores = new double[numUserItems];
+        for (int position = 0; position < numUserItems; position++) {
+            scores[position] = dot(userVector, itemValues[items[position]]);
+        }
 
-                    for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                        double userFactorValue = userFactors.get(userIdx, factorIdx);
-                        double itemFactorValue = itemFactors.get(itemIdx, factorIdx);
+        // sum over the other items k of g(s_k - s_i) - g(s_i - s_k)
+        double[] coefficients = new double[numUserItems];
+        double userLoss = 0.0d;
+        for (int position = 0; position < numUserItems; position++) {
+            for (int compPosition = position + 1; compPosition < numUserItems; compPosition++) {
+                double logisticValue = Maths.logistic(scores[compPosition] - scores[position]);
+                coefficients[position] += 2 * logisticValue - 1;
+                coefficients[compPosition] += 1 - 2 * logisticValue;
+                userLoss += Math.log(logisticValue * (1 - logisticValue));
+            }
+            coefficients[position] += Maths.logistic(-scores[position]);
+            userLoss += Math.log(Maths.logistic(scores[position])) + Math.log(0.5);
+        }
 
-                        loss += -0.5 * (regUser * userFactorValue * userFactorValue + regItem * itemFactorValue * itemFactorValue);
-                    }
-                }
+        double[] userGradients = new double[numFactors];
+        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+            userGradients[factorIdx] = -regUser * userVector[factorIdx];
+        }
+        for (int position = 0; position < numUserItems; position++) {
+            double[] itemVector = itemValues[items[position]];
+            double coefficient = coefficients[position];
+            for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                userGradients[factorIdx] += coefficient * itemVector[factorIdx];
             }
+        }
 
-            if (isConverged(iter) && earlyStop) {
-                break;
+        for (int position = 0; position < numUserItems; position++) {
+            double[] itemVector = itemValues[items[position]];
+            double coefficient = coefficients[position];
+            for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                itemVector[factorIdx] += learnRate * (coefficient * userVector[factorIdx] - regItem * itemVector[factorIdx]);
             }
-            updateLRate(iter);
         }
+        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+            userVector[factorIdx] += learnRate * userGradients[factorIdx];
+        }
+        return userLoss;
     }
 
-    private List<Set<Integer>> getUserItemsSet(SequentialAccessSparseMatrix sparseMatrix) {
-        List<Set<Integer>> userItemsSet = new ArrayList<>();
-        for (int userIdx = 0; userIdx < numUsers; ++userIdx) {
-            int[] itemIndexes = sparseMatrix.row(userIdx).getIndices();
-            Integer[] inputBoxed = ArrayUtils.toObject(itemIndexes);
-            List<Integer> itemList = Arrays.asList(inputBoxed);
-            userItemsSet.add(new HashSet(itemList));
+    private double dot(double[] userVector, double[] itemVector) {
+        double value = 0.0d;
+        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+            value += userVector[factorIdx] * itemVector[factorIdx];
+        }
+        return value;
+    }
+
+    private double sumOfSquares(double[][] values) {
+        double sum = 0.0d;
+        for (double[] vector : values) {
+            for (double value : vector) {
+                sum += value * value;
+            }
         }
-        return userItemsSet;
+        return sum;
     }
 }
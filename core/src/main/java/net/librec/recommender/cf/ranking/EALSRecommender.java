@@ -3,13 +3,15 @@ package net.librec.recommender.cf.ranking;
 import it.unimi.dsi.fastutil.doubles.Double2DoubleOpenHashMap;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
+import net.librec.math.structure.DenseKernels;
 import net.librec.math.structure.DenseMatrix;
 import net.librec.math.structure.MatrixEntry;
 import net.librec.math.structure.SequentialSparseVector;
-import net.librec.math.structure.Vector;
 import net.librec.recommender.MatrixFactorizationRecommender;
 
+import java.util.Arrays;
 import java.util.Date;
+import java.util.stream.IntStream;
 
 /**
  * <h3>EALS: efficient Alternating Least Square for Weighted Regularized Matrix Factorization.</h3>
@@ -108,106 +110,154 @@ public class EALSRecommender extends MatrixFactorizationRecommender {
 
     @Override
     protected void trainModel() throws LibrecException {
-        double[] usersPredictions = new double[numUsers];
-        double[] itemsPredictions = new double[numItems];
-        double weight;
-
-        // Init item factors cache Sq
-        DenseMatrix itemFactorsCache = new DenseMatrix(numFactors, numFactors);
-        //Init user factors cache Sp
-        DenseMatrix userFactorsCache;
-
         userFactors = new DenseMatrix(numUsers, numFactors);
+        double[][] userValues = userFactors.getValues();
+        double[][] itemValues = itemFactors.getValues();
+
         for (int iter = 1; iter <= numIterations; iter++) {
             // Update the Sq cache
-            for (int factorIdx1 = 0; factorIdx1 < numFactors; factorIdx1++) {
-                for (int factorIdx2 = 0; factorIdx2 <= factorIdx1; factorIdx2++) {
-                    double value = 0;
-                    for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
-                        value += confidences[itemIdx] * itemFactors.get(itemIdx, factorIdx1) * itemFactors.get(itemIdx, factorIdx2);
-                    }
-                    itemFactorsCache.set(factorIdx1, factorIdx2, value);
-                    itemFactorsCache.set(factorIdx2, factorIdx1, value);
-                }
-            }
-            // Step 1: update user factors;
-            for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            double[][] itemFactorsCache = itemFactors.gram(confidences).getValues();
+            // Step 1: update user factors, users are independent given Sq
+            IntStream.range(0, numUsers).parallel().forEach(userIdx -> {
                 SequentialSparseVector itemVector = trainMatrix.row(userIdx);
-                int itemIdx;
-                for (Vector.VectorEntry vectorEntry : itemVector) {
-                    itemIdx = vectorEntry.index();
-                    itemsPredictions[itemIdx] = userFactors.row(userIdx).dot(itemFactors.row(itemIdx));
-                }
+                updateUserFactors(userValues[userIdx], itemVector, itemValues, itemFactorsCache);
+            });
+            // Update the Sp cache
+            double[][] userFactorsCache = userFactors.gram().getValues();
+            // Step 2: update item factors, items are independent given Sp
+            IntStream.range(0, numItems).parallel().forEach(itemIdx -> {
+                SequentialSparseVector userVector = trainMatrix.column(itemIdx);
+                updateItemFactors(itemValues[itemIdx], confidences[itemIdx], userVector, userValues, userFactorsCache);
+            });
+            if (verbose) {
+                LOG.info(getClass() + " runs at iteration = " + iter + " " + new Date());
+            }
+        }
+    }
+
+    /**
+     * Coordinate descent on the factors of one user, each rated item weighted
+     * by its own confidence.
+     *
+     * @param factors          the factors of the user
+     * @param itemVector       the weights of the rated items
+     * @param itemValues       the factors of the items
+     * @param itemFactorsCache the Gram cache of the item factors weighted by their confidences
+     */
+    private void updateUserFactors(double[] factors, SequentialSparseVector itemVector, double[][] itemValues,
+                                   double[][] itemFactorsCache) {
+        Scratch scratch = loadScratch(factors, itemVector, itemValues);
+        for (int position = 0; position < itemVector.getNumEntries(); position++) {
+            scratch.confidences[position] = confidences[scratch.indices[position]];
+        }
+        updateFactors(factors, scratch, itemVector.getNumEntries(), itemValues, itemFactorsCache, regUser, 1.0d);
+    }
 
-                for (int factorCacheIdx = 0; factorCacheIdx < numFactors; factorCacheIdx++) {
-                    double numer = 0, denom = regUser + itemFactorsCache.get(factorCacheIdx, factorCacheIdx);
-
-                    for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                        if (factorCacheIdx != factorIdx) {
-                            numer -= userFactors.get(userIdx, factorIdx) * itemFactorsCache.get(factorCacheIdx, factorIdx);
-                        }
-                    }
-
-                    for (Vector.VectorEntry vectorEntry : itemVector) {
-                        itemIdx = vectorEntry.index();
-                        weight = vectorEntry.get();
-                        itemsPredictions[itemIdx] -= userFactors.get(userIdx, factorCacheIdx) * itemFactors.get(itemIdx, factorCacheIdx);
-                        numer += (weight - (weight - confidences[itemIdx]) * itemsPredictions[itemIdx])
-                                * itemFactors.get(itemIdx, factorCacheIdx);
-                        denom += (weight - confidences[itemIdx]) * itemFactors.get(itemIdx, factorCacheIdx)
-                                * itemFactors.get(itemIdx, factorCacheIdx);
-                    }
-
-                    //update puf
-                    userFactors.set(userIdx, factorCacheIdx, numer / denom);
-                    for (Vector.VectorEntry vectorEntry : itemVector) {
-                        itemIdx = vectorEntry.index();
-                        itemsPredictions[itemIdx] += userFactors.get(userIdx, factorCacheIdx) * itemFactors.get(itemIdx, factorCacheIdx);
-                    }
+    /**
+     * Coordinate descent on the factors of one item, the rating users all
+     * weighted by the confidence of the item.
+     *
+     * @param factors          the factors of the item
+     * @param confidence       the confidence of the item
+     * @param userVector       the weights of the rating users
+     * @param userValues       the factors of the users
+     * @param userFactorsCache the Gram cache of the user factors
+     */
+    private void updateItemFactors(double[] factors, double confidence, SequentialSparseVector userVector,
+                                   double[][] userValues, double[][] userFactorsCache) {
+        Scratch scratch = loadScratch(factors, userVector, userValues);
+        Arrays.fill(scratch.confidences, 0, userVector.getNumEntries(), confidence);
+        updateFactors(factors, scratch, userVector.getNumEntries(), userValues, userFactorsCache, regItem, confidence);
+    }
+
+    /**
+     * Load the rated entries of one user (or item) and their predictions into
+     * the scratch arrays of the thread, all but the confidences.
+     *
+     * @param factors      the factors of the user (or item)
+     * @param ratingVector the weights of the rated items (or users)
+     * @param otherFactors the factors of the items (or users)
+     * @return the scratch arrays
+     */
+    private Scratch loadScratch(double[] factors, SequentialSparseVector ratingVector, double[][] otherFactors) {
+        int numEntries = ratingVector.getNumEntries();
+        Scratch scratch = SCRATCH.get().ensure(numEntries);
+        for (int position = 0; position < numEntries; position++) {
+            int otherIdx = ratingVector.getIndexAtPosition(position);
+            scratch.indices[position] = otherIdx;
+            scratch.weights[position] = ratingVector.getAtPosition(position);
+            scratch.predictions[position] = DenseKernels.dot(factors, otherFactors[otherIdx], numFactors);
+        }
+        return scratch;
+    }
+
+    /**
+     * Coordinate descent on the factors of one user (or item), over the rated
+     * entries loaded in the scratch arrays.
+     *
+     * @param factors      the factors to update
+     * @param scratch      the rated entries, with their confidences
+     * @param numEntries   the number of the rated entries
+     * @param otherFactors the factors of the items (or users)
+     * @param factorsCache the Gram cache of otherFactors
+     * @param reg          the regularization
+     * @param cacheWeight  the weight of the Gram cache
+     */
+    private void updateFactors(double[] factors, Scratch scratch, int numEntries, double[][] otherFactors,
+                               double[][] factorsCache, double reg, double cacheWeight) {
+        int[] indices = scratch.indices;
+        double[] weights = scratch.weights;
+        double[] entryConfidences = scratch.confidences;
+        double[] predictions = scratch.predictions;
+
+        for (int factorCacheIdx = 0; factorCacheIdx < numFactors; factorCacheIdx++) {
+            double[] cacheRow = factorsCache[factorCacheIdx];
+            double numer = 0, denom = cacheWeight * cacheRow[factorCacheIdx] + reg;
+            for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                if (factorCacheIdx != factorIdx) {
+                    numer -= factors[factorIdx] * cacheRow[factorIdx];
                 }
             }
-            // Update the Sp cache
-            userFactorsCache = userFactors.transpose().times(userFactors);
-            // Step 2: update item factors;
-            for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
-                SequentialSparseVector userVector = trainMatrix.viewColumn(itemIdx);
-                int userIdx;
-                for (Vector.VectorEntry vectorEntry : userVector) {
-                    userIdx = vectorEntry.index();
-                    usersPredictions[userIdx] = userFactors.row(userIdx).dot(itemFactors.row(itemIdx));
-                }
+            numer *= cacheWeight;
 
-                for (int factorCacheIdx = 0; factorCacheIdx < numFactors; factorCacheIdx++) {
-                    double numer = 0, denom = confidences[itemIdx] * userFactorsCache.get(factorCacheIdx, factorCacheIdx) + regItem;
-
-                    for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                        if (factorCacheIdx != factorIdx) {
-                            numer -= itemFactors.get(itemIdx, factorIdx) * userFactorsCache.get(factorIdx, factorCacheIdx);
-                        }
-                    }
-                    numer *= confidences[itemIdx];
-
-                    for (Vector.VectorEntry vectorEntry : userVector) {
-                        userIdx = vectorEntry.index();
-                        weight = vectorEntry.get();
-                        usersPredictions[userIdx] -= userFactors.get(userIdx, factorCacheIdx) * itemFactors.get(itemIdx, factorCacheIdx);
-                        numer += (weight - (weight - confidences[itemIdx]) * usersPredictions[userIdx])
-                                * userFactors.get(userIdx, factorCacheIdx);
-                        denom += (weight - confidences[itemIdx]) * userFactors.get(userIdx, factorCacheIdx)
-                                * userFactors.get(userIdx, factorCacheIdx);
-                    }
-
-                    //update qif
-                    itemFactors.set(itemIdx, factorCacheIdx, numer / denom);
-                    for (Vector.VectorEntry vectorEntry : userVector) {
-                        userIdx = vectorEntry.index();
-                        usersPredictions[userIdx] += userFactors.get(userIdx, factorCacheIdx) * itemFactors.get(itemIdx, factorCacheIdx);
-                    }
-                }
+            double factor = factors[factorCacheIdx];
+            for (int position = 0; position < numEntries; position++) {
+                double otherFactor = otherFactors[indices[position]][factorCacheIdx];
+                double weight = weights[position];
+                predictions[position] -= factor * otherFactor;
+                numer += (weight - (weight - entryConfidences[position]) * predictions[position]) * otherFactor;
+                denom += (weight - entryConfidences[position]) * otherFactor * otherFactor;
             }
-            if (verbose) {
-                LOG.info(getClass() + " runs at iteration = " + iter + " " + new Date());
+
+            //update puf (qif)
+            factor = numer / denom;
+            factors[factorCacheIdx] = factor;
+            for (int position = 0; position < numEntries; position++) {
+                predictions[position] += factor * otherFactors[indices[position]][factorCacheIdx];
             }
         }
     }
+
+    /**
+     * Per-thread scratch arrays of the rated entries of one user (or item).
+     */
+    private static final class Scratch {
+        int[] indices = new int[0];
+        double[] weights = new double[0];
+        double[] confidences = new double[0];
+        double[] predictions = new double[0];
+
+        Scratch ensure(int size) {
+            if (indices.length < size) {
+                int capacity = Math.max(size, indices.length * 2);
+                indices = new int[capacity];
+                weights = new double[capacity];
+                confidences = new double[capacity];
+                predictions = new double[capacity];
+            }
+            return this;
+        }
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
 }
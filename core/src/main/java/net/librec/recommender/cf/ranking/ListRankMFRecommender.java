@@ -3,8 +3,8 @@ package net.librec.recommender.cf.ranking;
 import net.librec.common.LibrecException;
 import net.librec.math.algorithm.Maths;
 import net.librec.math.structure.DenseMatrix;
-import net.librec.math.structure.DenseVector;
 import net.librec.math.structure.MatrixEntry;
+import net.librec.math.structure.SequentialSparseVector;
 import net.librec.math.structure.Vector.VectorEntry;
 import net.librec.math.structure.VectorBasedDenseVector;
 import net.librec.recommender.MatrixFactorizationRecommender;
@@ -13,6 +13,7 @@ import org.apache.commons.lang.ArrayUtils;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.stream.IntStream;
 
 /**
  * Shi et al., <strong>List-wise learning to rank with matrix factorization for
@@ -40,54 +41,98 @@ public class ListRankMFRecommender extends MatrixFactorizationRecommender {
         }
     }
 
+    /**
+     * Alternate a pass over the users and a pass over the items, both in
+     * parallel: each user, or item, computes its scores and their list-wise
+     * errors once, then applies the sum of its gradients.
+     *
+     * @throws LibrecException if the loss is not a number
+     */
     @Override
     protected void trainModel() throws LibrecException {
+        double[][] userValues = userFactors.getValues();
+        double[][] itemValues = itemFactors.getValues();
+        double[] userLosses = new double[numUsers];
+
         for (int iter = 1; iter <= numIterations; iter++) {
-            loss = 0;
-            for(int u=0;u<numUsers;u++){
-                double uexp = 0;
-                int[] items = trainMatrix.row(u).getIndices();
-                DenseVector userEmbed = userFactors.row(u);
-                for (int itemIdx : items) {
-                    DenseVector itemEmbed = itemFactors.row(itemIdx);
-                    uexp += Math.exp(Maths.logistic(userEmbed.dot(itemEmbed)));
-                }
-
-                DenseVector tempvector = new VectorBasedDenseVector(numFactors);
-                for (int itemIdx : items) {
-                    DenseVector qj=itemFactors.row(itemIdx);
-                    double prui=userEmbed.dot(qj);
-                    double  tempvalue=Math.exp(Maths.logistic(prui)) / uexp-Math.exp(trainMatrix.get(u, itemIdx)) / userExp.get(u);
-                    tempvector=qj.times(Maths.logisticGradientValue(prui)*tempvalue);
-
-                }
-                DenseVector delta_u = tempvector.plus(userEmbed.times(regUser)).times(learnRate);
-                userEmbed=userEmbed.minus(delta_u);
-                userFactors.set(u, userEmbed);
+            IntStream.range(0, numUsers).parallel().forEach(userIdx ->
+                    userLosses[userIdx] = updateFactors(trainMatrix.row(userIdx), userIdx, userValues[userIdx], itemValues, regUser, true));
+            IntStream.range(0, numItems).parallel().forEach(itemIdx ->
+                    updateFactors(trainMatrix.column(itemIdx), itemIdx, itemValues[itemIdx], userValues, regItem, false));
+
+            loss = 0.0d;
+            for (double userLoss : userLosses) {
+                loss += userLoss;
             }
+            loss += 0.5 * (regUser * sumOfSquares(userValues) + regItem * sumOfSquares(itemValues));
 
-            for(int j=0;j<numItems;j++){
-                double iexp = 0;
-                int[] users = trainMatrix.column(j).getIndices();
-                DenseVector itemEmbed = itemFactors.row(j);
-                for (int userIdx : users) {
-                    DenseVector userEmbed = userFactors.row(userIdx);
-                    iexp += Math.exp(Maths.logistic(itemEmbed.dot(userEmbed)));
-                }
-                DenseVector tempvector = new VectorBasedDenseVector(numFactors);
-                for (int userIdx : users) {
-                    DenseVector pu = userFactors.row(userIdx);
-                    double prui = pu.dot(itemEmbed);
-                    double  tempvalue = Math.exp(Maths.logistic(prui)) / iexp - Math.exp(trainMatrix.get(userIdx, j)) / userExp.get(userIdx);
-                    tempvector = pu.times(Maths.logisticGradientValue(prui)*tempvalue);
-                }
-                DenseVector delta_j = tempvector.plus(itemEmbed.times(regItem)).times(learnRate);
-                itemEmbed = itemEmbed.minus(delta_j);
-                itemFactors.set(j,itemEmbed);
+            if (isConverged(iter) && earlyStop) {
+                break;
             }
         }// end of training
     }
 
+    /**
+     * Update the factors of a user, or of an item, with the sum of the
+     * gradients of its ratings.
+     *
+     * @param ratingsVector  the ratings of the user, or of the item
+     * @param index          the index of the user, or of the item
+     * @param vector         the factors of the user, or of the item
+     * @param otherValues    the factors of the items, or of the users
+     * @param regularization the regularization of the factors
+     * @param isUser         whether the factors are the factors of a user
+     * @return the cross entropy of the ratings, with the factors before the update
+     */
+    private double updateFactors(SequentialSparseVector ratingsVector, int index, double[] vector, double[][] otherValues,
+                                 double regularization, boolean isUser) {
+        int numRatings = ratingsVector.getNumEntries();
+        int[] indices = ratingsVector.getIndices();
+
+        double[] scores = new double[numRatings];
+        double[] expScores = new double[numRatings];
+        double sumExp = 0.0d;
+        for (int position = 0; position < numRatings; position++) {
+            double[] otherVector = otherValues[indices[position]];
+            double score = 0.0d;
+            for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                score += vector[factorIdx] * otherVector[factorIdx];
+            }
+            scores[position] = score;
+            expScores[position] = Math.exp(Maths.logistic(score));
+            sumExp += expScores[position];
+        }
+
+        double[] gradients = new double[numFactors];
+        double crossEntropy = 0.0d;
+        for (int position = 0; position < numRatings; position++) {
+            int userIdx = isUser ? index : indices[position];
+            double realProbability = Math.exp(ratingsVector.getAtPosition(position) / maxRate) / userExp.get(userIdx);
+            double predictProbability = expScores[position] / sumExp;
+            double error = Maths.logisticGradientValue(scores[position]) * (predictProbability - realProbability);
+            double[] otherVector = otherValues[indices[position]];
+            for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                gradients[factorIdx] += error * otherVector[factorIdx];
+            }
+            crossEntropy -= realProbability * Math.log(predictProbability);
+        }
+
+        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+            vector[factorIdx] -= learnRate * (gradients[factorIdx] + regularization * vector[factorIdx]);
+        }
+        return crossEntropy;
+    }
+
+    private double sumOfSquares(double[][] values) {
+        double sum = 0.0d;
+        for (double[] vector : values) {
+            for (double value : vector) {
+                sum += value * value;
+            }
+        }
+        return sum;
+    }
+
 //    @Override
 //    protected void trainModel() throws LibrecException {
 //        DenseMatrix lastUserFactors;
@@ -23,9 +23,8 @@ import net.librec.common.LibrecException;
 import net.librec.math.structure.*;
 import net.librec.recommender.MatrixFactorizationRecommender;
 
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.List;
+import java.util.stream.IntStream;
 
 /**
  * <h3>WRMF: Weighted Regularized Matrix Factorization.</h3>
@@ -76,97 +75,21 @@ public class WRMFRecommender extends MatrixFactorizationRecommender {
         // To be consistent with the symbols in the paper
         DenseMatrix X = userFactors, Y = itemFactors;
 
-//        DenseMatrix factorMatrix = new DenseMatrix(numFactors, numFactors);
-//        DenseVector userFactorVector;
-//        DenseVector itemFactorVector;
-
-        List<Integer> userList = new ArrayList<>(numUsers);
-        List<Integer> itemList = new ArrayList<>(numItems);
-        for (int userIndex=0; userIndex <  numUsers; userIndex++){
-            userList.add(userIndex);
-        }
-
-        for (int itemIndex=0; itemIndex <  numItems; itemIndex++){
-            itemList.add(itemIndex);
-        }
-
         for (int iter = 1; iter <= numIterations; iter++) {
             // Step 1: update user factors;
-            DenseMatrix YtY = Y.transpose().times(Y);
-            userList.parallelStream().forEach(userIndex->{
-//            for (int userIndex = 0; userIndex < numUsers; userIndex++) {
-                DenseVector itemFactorVector;
-                SequentialSparseVector itemRatingVector = trainMatrix.row(userIndex);
-                DenseMatrix factorMatrix = new DenseMatrix(numFactors, numFactors);
-
-                DenseVector YtCuPu = new VectorBasedDenseVector(numFactors);
-                for (Vector.VectorEntry vectorEntry : itemRatingVector) {
-                    int itemIndex = vectorEntry.index();
-                    double weight = vectorEntry.get() + 1.0D;
-                    itemFactorVector = itemFactors.row(itemIndex);
-                    for (int factorIndex = 0; factorIndex < numFactors; factorIndex++) {
-                        YtCuPu.plus(factorIndex, itemFactorVector.get(factorIndex) * weight);
-                    }
-                }
-
-                factorMatrix.assign((rowIndex, columnIndex, value) -> YtY.get(rowIndex, columnIndex) + regUser);
-
-                for (Vector.VectorEntry vectorEntry : itemRatingVector) {
-                    int itemIndex = vectorEntry.index();
-                    double weight = vectorEntry.get();
-                    itemFactorVector = itemFactors.row(itemIndex);
-                    for (int rowIndex = 0; rowIndex < numFactors; rowIndex++) {
-                        double temp = itemFactorVector.get(rowIndex) * weight;
-                        for (int columnIndex = 0; columnIndex < numFactors; columnIndex++) {
-                            factorMatrix.plus(rowIndex, columnIndex, temp * itemFactorVector.get(columnIndex));
-                        }
-                    }
-                }
-
-                DenseMatrix Wu = factorMatrix.inverse();
-                DenseVector xu = Wu.times(YtCuPu);
+            DenseMatrix YtY = Y.gram();
+            IntStream.range(0, numUsers).parallel().forEach(userIndex -> {
+                DenseVector xu = solveFactors(YtY, regUser, trainMatrix.row(userIndex), Y);
                 // udpate user factors
-                X.set(userIndex, xu);
+                System.arraycopy(xu.getValues(), 0, X.getValues()[userIndex], 0, numFactors);
             });
 
             // Step 2: update item factors;
-            DenseMatrix XtX = X.transpose().times(X);
-
-            itemList.parallelStream().forEach(itemIndex->{
-//            for (int itemIndex = 0; itemIndex < numItems; itemIndex++) {
-
-                SequentialSparseVector userRatingVector = trainMatrix.viewColumn(itemIndex);
-                DenseVector XtCiPu = new VectorBasedDenseVector(numFactors);
-                DenseMatrix factorMatrix = new DenseMatrix(numFactors, numFactors);
-                DenseVector userFactorVector;
-                for (Vector.VectorEntry vectorEntry : userRatingVector) {
-                    int userIndex = vectorEntry.index();
-                    double weight = vectorEntry.get() + 1.0D;
-                    userFactorVector = userFactors.row(userIndex);
-                    for (int factorIndex = 0; factorIndex < numFactors; factorIndex++) {
-                        XtCiPu.plus(factorIndex, userFactorVector.get(factorIndex) * weight);
-                    }
-                }
-
-                factorMatrix.assign((rowIndex, columnIndex, value) -> XtX.get(rowIndex, columnIndex) + regItem);
-
-                for (Vector.VectorEntry vectorEntry : userRatingVector) {
-                    int userIndex = vectorEntry.index();
-                    double weight = vectorEntry.get();
-                    userFactorVector = userFactors.row(userIndex);
-                    for (int rowIndex = 0; rowIndex < numFactors; rowIndex++) {
-                        double temp = userFactorVector.get(rowIndex) * weight;
-                        for (int columnIndex = 0; columnIndex < numFactors; columnIndex++) {
-                            factorMatrix.plus(rowIndex, columnIndex, temp * userFactorVector.get(columnIndex));
-                        }
-                    }
-                }
-
-                DenseMatrix Wi = factorMatrix.inverse();
-
-                DenseVector yi = Wi.times(XtCiPu);
+            DenseMatrix XtX = X.gram();
+            IntStream.range(0, numItems).parallel().forEach(itemIndex -> {
+                DenseVector yi = solveFactors(XtX, regItem, trainMatrix.column(itemIndex), X);
                 // udpate item factors
-                Y.set(itemIndex, yi);
+                System.arraycopy(yi.getValues(), 0, Y.getValues()[itemIndex], 0, numFactors);
             });
 
             if (verbose) {
@@ -174,4 +97,48 @@ public class WRMFRecommender extends MatrixFactorizationRecommender {
             }
         }
     }
+
+    /**
+     * Solve the least squares problem of one user (or item):
+     * {@code (YtY + reg + Yt(Cu - I)Y) xu = YtCuPu}.
+     *
+     * @param gram         the Gram matrix of the other factors
+     * @param reg          the regularization
+     * @param ratingVector the confidence weights of the user (or item)
+     * @param otherFactors the factors of the items (or users)
+     * @return the new factors of the user (or item)
+     */
+    private DenseVector solveFactors(DenseMatrix gram, double reg, SequentialSparseVector ratingVector,
+                                     DenseMatrix otherFactors) {
+        double[][] gramValues = gram.getValues();
+        double[][] otherValues = otherFactors.getValues();
+        DenseMatrix factorMatrix = new DenseMatrix(numFactors, numFactors);
+        double[][] factorValues = factorMatrix.getValues();
+        for (int rowIndex = 0; rowIndex < numFactors; rowIndex++) {
+            for (int columnIndex = 0; columnIndex < numFactors; columnIndex++) {
+                factorValues[rowIndex][columnIndex] = gramValues[rowIndex][columnIndex] + reg;
+            }
+        }
+
+        VectorBasedDenseVector YtCuPu = new VectorBasedDenseVector(numFactors);
+        double[] YtCuPuValues = YtCuPu.getValues();
+        for (Vector.VectorEntry vectorEntry : ratingVector) {
+            double[] factorVector = otherValues[vectorEntry.index()];
+            double weight = vectorEntry.get();
+            DenseKernels.axpy(weight + 1.0D, factorVector, YtCuPuValues, numFactors);
+            for (int rowIndex = 0; rowIndex < numFactors; rowIndex++) {
+                DenseKernels.axpy(factorVector[rowIndex] * weight, factorVector, factorValues[rowIndex], numFactors);
+            }
+        }
+
+        return factorMatrix.solveSymmetric(YtCuPu);
+    }
+
+    /**
+     * @return true, the prediction is the inner product of the user and item factors
+     */
+    @Override
+    protected boolean isInnerProductModel() {
+        return true;
+    }
 }
@@ -151,4 +151,12 @@ public class ASVDPlusPlusRecommender extends BiasedMFRecommender {
         }
         return userItemsList;
     }
+
+    /**
+     * @return false, the prediction is not the inner product of the user and item factors
+     */
+    @Override
+    protected boolean isInnerProductModel() {
+        return false;
+    }
 }
\ No newline at end of file
@@ -227,12 +227,12 @@ public class BPMFRecommender extends MatrixFactorizationRecommender {
         int index = 0;
         for (int j : ratings.getIndices()) {
             ratingsReg.set(index, ratings.get(j) - globalMean);
-            XX.row(index).assign((index1, value) -> factors.row(j).get(index1));
+            System.arraycopy(factors.getValues()[j], 0, XX.getValues()[index], 0, numFactors);
             index++;
         }
 
-        DenseMatrix covar = hyperParameters.variance.plus((XX.transpose().times(XX)).times(ratingSigma)).inverse();
-        DenseVector mu = XX.transpose().times(ratingsReg).times(ratingSigma);
+        DenseMatrix covar = hyperParameters.variance.plus(XX.gram().times(ratingSigma)).inverse();
+        DenseVector mu = XX.transposeTimes(ratingsReg).times(ratingSigma);
         DenseVector result = mu.plus(hyperParameters.variance.times(hyperParameters.mu));
         mu.assign((index1, value) -> result.get(index1));
         mu = covar.times(mu);
@@ -118,4 +118,21 @@ public class BiasedMFRecommender extends MatrixFactorizationRecommender {
     protected double predict(int userIdx, int itemIdx) throws LibrecException {
         return userFactors.row(userIdx).dot(itemFactors.row(itemIdx)) + userBiases.get(userIdx) + itemBiases.get(itemIdx) + globalMean;
     }
+
+    /**
+     * @return true, the prediction is the inner product of the user and item factors
+     * plus the item bias and a term of the user
+     */
+    @Override
+    protected boolean isInnerProductModel() {
+        return true;
+    }
+
+    /**
+     * @return the item biases
+     */
+    @Override
+    protected double[] getItemScoreOffsets() {
+        return itemBiases.getValues();
+    }
 }
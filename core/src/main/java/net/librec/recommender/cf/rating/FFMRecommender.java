@@ -21,13 +21,8 @@ package net.librec.recommender.cf.rating;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.structure.DenseMatrix;
-import net.librec.math.structure.TensorEntry;
-import net.librec.math.structure.Vector.VectorEntry;
-import net.librec.math.structure.VectorBasedSequentialSparseVector;
 import net.librec.recommender.FactorizationMachineRecommender;
 
-import java.util.HashMap;
-
 /**
  * Field-aware Factorization Machines
  * Yuchin Juan, "Field Aware Factorization Machines for CTR Prediction", 10th ACM Conference on Recommender Systems, 2016
@@ -42,10 +37,6 @@ public class FFMRecommender extends FactorizationMachineRecommender {
      * learning rate of stochastic gradient descent
      */
     private double learnRate;
-    /**
-     * record the <feature: filed>
-     */
-    private HashMap<Integer, Integer> map = new HashMap<Integer, Integer>();
 
     @Override
     protected void setup() throws LibrecException {
@@ -56,16 +47,6 @@ public class FFMRecommender extends FactorizationMachineRecommender {
         // init factors with small value
         V.init(0, 0.1);
 
-
-        //init the map for feature of filed
-        int colindex = 0;
-        for (int dim = 0; dim < trainTensor.numDimensions; dim++) {
-            for (int index = 0; index < trainTensor.dimensions[dim]; index++) {
-                map.put(colindex + index, dim);
-            }
-            colindex += trainTensor.dimensions[dim];
-        }
-
         learnRate = conf.getDouble("rec.iterator.learnRate");
     }
 
@@ -78,58 +59,7 @@ public class FFMRecommender extends FactorizationMachineRecommender {
 
     private void buildRatingModel() throws LibrecException {
         for (int iter = 0; iter < numIterations; iter++) {
-            loss = 0.0;
-
-            int userDimension = trainTensor.getUserDimension();
-            int itemDimension = trainTensor.getItemDimension();
-            for (TensorEntry me : trainTensor) {
-                int[] entryKeys = me.keys();
-                VectorBasedSequentialSparseVector vector = tenserKeysToFeatureVector(entryKeys);
-
-                double rate = me.get();
-                double pred = predict(entryKeys[userDimension], entryKeys[itemDimension], vector);
-
-                double err = pred - rate;
-                loss += err * err;
-                double gradLoss = err;
-
-                // global bias
-                loss += regW0 * w0 * w0;
-
-                double hW0 = 1;
-                double gradW0 = gradLoss * hW0 + regW0 * w0;
-
-                // update w0
-                w0 += -learnRate * gradW0;
-
-                // 1-way interactions
-                for (VectorEntry ve : vector) {
-                    int l = ve.index();
-                    double oldWl = W.get(l);
-                    double hWl = ve.get();
-                    double gradWl = gradLoss * hWl + regW * oldWl;
-                    W.plus(l, -learnRate * gradWl);
-
-                    loss += regW * oldWl * oldWl;
-
-                    // 2-way interactions
-                    for (int f = 0; f < k; f++) {
-                        double oldVlf = V.get(l, map.get(l) + f);
-                        double hVlf = 0;
-                        double xl = ve.get();
-                        for (VectorEntry ve2 : vector) {
-                            int j = ve2.index();
-                            if (j != l) {
-                                hVlf += xl * V.get(j, f) * ve2.get();
-                            }
-                        }
-                        double gradVlf = gradLoss * hVlf + regF * oldVlf;
-                        V.plus(l, map.get(l) + f, -learnRate * gradVlf);
-                        loss += regF * oldVlf * oldVlf;
-                    }
-
-                }
-            }
+            loss = iterateRows(this::updateRows);
 
             loss *= 0.5;
 
@@ -140,30 +70,108 @@ public class FFMRecommender extends FactorizationMachineRecommender {
         }
     }
 
-    protected double predict(int userId, int itemId, VectorBasedSequentialSparseVector x) throws LibrecException {
+    /**
+     * SGD updates with the ratings in {@code [fromRow, toRow)} of trainFeatureMatrix.
+     *
+     * @param fromRow the first row, inclusive
+     * @param toRow   the last row, exclusive
+     * @return the loss of the rows
+     */
+    private double updateRows(int fromRow, int toRow) {
+        int[] features = trainFeatureMatrix.getFeatures();
+        int[] fields = trainFeatureMatrix.getFields();
+        double[] values = trainFeatureMatrix.getValues();
+        double[] weights = W.getValues();
+        double[][] factors = V.getValues();
+        double rowsLoss = 0.0;
+
+        for (int row = fromRow; row < toRow; row++) {
+            int from = trainFeatureMatrix.getRowStart(row);
+            int to = trainFeatureMatrix.getRowEnd(row);
+
+            double rate = trainRatings[row];
+            double pred = predict(features, fields, values, from, to);
+
+            double err = pred - rate;
+            rowsLoss += err * err;
+            double gradLoss = err;
+
+            // global bias
+            rowsLoss += regW0 * w0 * w0;
+
+            double hW0 = 1;
+            double gradW0 = gradLoss * hW0 + regW0 * w0;
+
+            // update w0
+            w0 += -learnRate * gradW0;
+
+            // 1-way interactions
+            for (int position = from; position < to; position++) {
+                int l = features[position];
+                double oldWl = weights[l];
+                double hWl = values == null ? 1.0D : values[position];
+                double gradWl = gradLoss * hWl + regW * oldWl;
+                weights[l] += -learnRate * gradWl;
+
+                rowsLoss += regW * oldWl * oldWl;
+
+                // 2-way interactions
+                double[] factorsL = factors[l];
+                int field = fields[position];
+                for (int f = 0; f < k; f++) {
+                    double oldVlf = factorsL[field + f];
+                    double hVlf = 0;
+                    double xl = hWl;
+                    for (int position2 = from; position2 < to; position2++) {
+                        int j = features[position2];
+                        if (j != l) {
+                            hVlf += xl * factors[j][f] * (values == null ? 1.0D : values[position2]);
+                        }
+                    }
+                    double gradVlf = gradLoss * hVlf + regF * oldVlf;
+                    factorsL[field + f] += -learnRate * gradVlf;
+                    rowsLoss += regF * oldVlf * oldVlf;
+                }
+            }
+        }
+        return rowsLoss;
+    }
+
+    /**
+     * Field-aware prediction given the features in {@code [from, to)} of a feature array.
+     *
+     * @param features the feature indices
+     * @param fields   the field of each feature
+     * @param values   the feature values, or {@code null} if all the values are 1
+     * @param from     the first position, inclusive
+     * @param to       the last position, exclusive
+     * @return predicted rating
+     */
+    protected double predict(int[] features, int[] fields, double[] values, int from, int to) {
+        double[] weights = W.getValues();
+        double[][] factors = V.getValues();
         double res = 0;
         // global bias
         res += w0;
 
         // 1-way interaction
-        for (VectorEntry ve : x) {
-            double val = ve.get();
-            int ind = ve.index();
-            res += val * W.get(ind);
+        for (int position = from; position < to; position++) {
+            double val = values == null ? 1.0D : values[position];
+            res += val * weights[features[position]];
         }
 
         // 2-way interaction
         for (int f = 0; f < k; f++) {
             double sum = 0;
-            for (VectorEntry vi : x) {
-                for (VectorEntry vj : x) {
-                    double xi = vi.get();
-                    double xj = vj.get();
-                    int i = vi.index();
-                    int j = vj.index();
+            for (int positionI = from; positionI < to; positionI++) {
+                for (int positionJ = from; positionJ < to; positionJ++) {
+                    double xi = values == null ? 1.0D : values[positionI];
+                    double xj = values == null ? 1.0D : values[positionJ];
+                    int i = features[positionI];
+                    int j = features[positionJ];
                     if (i == j) continue;
-                    double vifj = V.get(i, map.get(j) + f);
-                    double vjfi = V.get(j, map.get(i) + f);
+                    double vifj = factors[i][fields[positionJ] + f];
+                    double vjfi = factors[j][fields[positionI] + f];
                     sum += vifj * vjfi * xi * xj;
                 }
             }
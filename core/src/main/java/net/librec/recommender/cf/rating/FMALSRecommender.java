@@ -17,16 +17,11 @@
  */
 package net.librec.recommender.cf.rating;
 
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Table;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.structure.*;
-import net.librec.math.structure.Vector.VectorEntry;
 import net.librec.recommender.FactorizationMachineRecommender;
 
-import java.util.Iterator;
-
 /**
  * Factorization Machine Recommender via Alternating Least Square
  *
@@ -40,9 +35,9 @@ public class FMALSRecommender extends FactorizationMachineRecommender {
      */
     private DenseMatrix Q; //  n x k
     /**
-     * train appender matrix
+     * the transpose of trainFeatureMatrix, one row per feature holding the ratings it occurs in
      */
-    private SequentialAccessSparseMatrix trainFeatureMatrix;
+    private FeatureMatrix trainFeatureColumns;
 
     @Override
     protected void setup() throws LibrecException {
@@ -51,45 +46,39 @@ public class FMALSRecommender extends FactorizationMachineRecommender {
         // init Q
         Q = new DenseMatrix(n, k);
 
-        // construct training appender matrix
-        Table<Integer, Integer, Double> trainTable = HashBasedTable.create();
-        for (int i = 0; i < n; i++) {
-            int[] ratingKeys = trainTensor.keys(i);
-            int colPrefix = 0;
-            for (int j = 0; j < ratingKeys.length; j++) {
-                int indexOfFeatureVector = colPrefix + ratingKeys[j];
-                colPrefix += trainTensor.dimensions[j];
-                trainTable.put(i, indexOfFeatureVector, 1.0);
-            }
-        }
-        trainFeatureMatrix = new SequentialAccessSparseMatrix(n, p, trainTable);
+        trainFeatureColumns = trainFeatureMatrix.transpose();
     }
 
     @Override
     protected void trainModel() throws LibrecException {
+        int[] features = trainFeatureMatrix.getFeatures();
+        double[] values = trainFeatureMatrix.getValues();
+        int[] columnRows = trainFeatureColumns.getFeatures();
+        double[] columnValues = trainFeatureColumns.getValues();
+        double[] weights = W.getValues();
+        double[][] factors = V.getValues();
+        double[][] q = Q.getValues();
+
         // precomputing Q and errors, for efficiency
-        VectorBasedDenseVector errors = new VectorBasedDenseVector(n);
-        int ind = 0;
-        for (TensorEntry me : trainTensor) {
-            int[] entryKeys = me.keys();
-            VectorBasedSequentialSparseVector x = tenserKeysToFeatureVector(entryKeys);
+        double[] errors = new double[n];
+        for (int ind = 0; ind < n; ind++) {
+            int from = trainFeatureMatrix.getRowStart(ind);
+            int to = trainFeatureMatrix.getRowEnd(ind);
 
-            double rate = me.get();
-            double pred = predict(entryKeys);
+            double rate = trainRatings[ind];
+            double pred = predict(features, values, from, to);
 
             double err = rate - pred;
-            errors.set(ind, err);
+            errors[ind] = err;
 
             for (int f = 0; f < k; f++) {
                 double sum_q = 0;
-                for (VectorEntry ve : x) {
-                    int l = ve.index();
-                    double x_val = ve.get();
-                    sum_q += V.get(l, f) * x_val;
+                for (int position = from; position < to; position++) {
+                    double x_val = values == null ? 1.0D : values[position];
+                    sum_q += factors[features[position]][f] * x_val;
                 }
-                Q.set(ind, f, sum_q);
+                q[ind][f] = sum_q;
             }
-            ind++;
         }
 
         /**
@@ -106,19 +95,17 @@ public class FMALSRecommender extends FactorizationMachineRecommender {
             double denominator = 0;
             for (int i = 0; i < n; i++) {
                 double h_theta = 1;
-                numerator += w0 * h_theta * h_theta + h_theta * errors.get(i);
+                numerator += w0 * h_theta * h_theta + h_theta * errors[i];
                 denominator += h_theta;
             }
             denominator += regW0;
             double newW0 = numerator / denominator;
 
-            // System.out.println("original:" + errors.sum());
-
             // update errors
             for (int i = 0; i < n; i++) {
-                double oldErr = errors.get(i);
+                double oldErr = errors[i];
                 double newErr = oldErr + (w0 - newW0);
-                errors.set(i, newErr);
+                errors[i] = newErr;
 
                 loss += oldErr * oldErr;
             }
@@ -128,100 +115,81 @@ public class FMALSRecommender extends FactorizationMachineRecommender {
 
             loss += regW0 * w0 * w0;
 
-            // System.out.println("after 0-way:" + errors.sum());
-
             // 1-way interactions
             for (int l = 0; l < p; l++) {
-                double oldWl = W.get(l);
+                int from = trainFeatureColumns.getRowStart(l);
+                int to = trainFeatureColumns.getRowEnd(l);
+                double oldWl = weights[l];
                 numerator = 0;
                 denominator = 0;
 
-                Iterator<VectorEntry> iterator = trainFeatureMatrix.column(l).iterator();
-                while (iterator.hasNext()) {
-                    VectorEntry vectorEntry = iterator.next();
-                    double h_theta = vectorEntry.get();
-                    int i = vectorEntry.index();
-                    numerator += oldWl * h_theta * h_theta + h_theta * errors.get(i);
+                for (int position = from; position < to; position++) {
+                    double h_theta = columnValues == null ? 1.0D : columnValues[position];
+                    int i = columnRows[position];
+                    numerator += oldWl * h_theta * h_theta + h_theta * errors[i];
                     denominator += h_theta * h_theta;
-
                 }
 
                 denominator += regW;
                 double newWl = numerator / denominator;
 
-
                 // update errors
-                iterator = trainFeatureMatrix.column(l).iterator();
-                while (iterator.hasNext()) {
-                    VectorEntry vectorEntry = iterator.next();
-                    int i = vectorEntry.index();
-
-                    double oldErr = errors.get(i);
-                    double newErr = oldErr + (oldWl - newWl) * vectorEntry.get();
-                    errors.set(i, newErr);
-
+                for (int position = from; position < to; position++) {
+                    int i = columnRows[position];
+                    double x_val = columnValues == null ? 1.0D : columnValues[position];
+                    errors[i] = errors[i] + (oldWl - newWl) * x_val;
                 }
 
                 // update W
-                W.set(l, newWl);
+                weights[l] = newWl;
 
                 loss += regW * oldWl * oldWl;
             }
 
-            // System.out.println("after 1-way:" + errors.sum());
-
             // 2-way interactions
             for (int f = 0; f < k; f++) {
                 for (int l = 0; l < p; l++) {
-                    double oldVlf = V.get(l, f);
+                    int from = trainFeatureColumns.getRowStart(l);
+                    int to = trainFeatureColumns.getRowEnd(l);
+                    double oldVlf = factors[l][f];
                     numerator = 0;
                     denominator = 0;
-                    Iterator<VectorEntry> rowIter = trainFeatureMatrix.column(l).iterator();
-                    while (rowIter.hasNext()) {
-                        VectorEntry vectorEntry = rowIter.next();
-                        int i = vectorEntry.index();
-                        double x_val = vectorEntry.get();
-                        double h_theta = x_val * (Q.get(i, f) - oldVlf * x_val);
-                        numerator += oldVlf * h_theta * h_theta + h_theta * errors.get(i);
+                    for (int position = from; position < to; position++) {
+                        int i = columnRows[position];
+                        double x_val = columnValues == null ? 1.0D : columnValues[position];
+                        double h_theta = x_val * (q[i][f] - oldVlf * x_val);
+                        numerator += oldVlf * h_theta * h_theta + h_theta * errors[i];
                         denominator += h_theta * h_theta;
-
                     }
                     denominator += regF;
                     double newVlf = numerator / denominator;
 
                     // update errors and Q
-                    rowIter = trainFeatureMatrix.column(l).iterator();
-                    while (rowIter.hasNext()) {
-                        VectorEntry vectorEntry = rowIter.next();
-                        int i = vectorEntry.index();
-                        double x_val = vectorEntry.get();
+                    for (int position = from; position < to; position++) {
+                        int i = columnRows[position];
+                        double x_val = columnValues == null ? 1.0D : columnValues[position];
 
-                        double oldQif = Q.get(i, f);
+                        double oldQif = q[i][f];
                         double update = (newVlf - oldVlf) * x_val;
                         double newQif = oldQif + update;
 
                         double h_theta_old = x_val * (oldQif - oldVlf * x_val);
                         double h_theta_new = x_val * (newQif - newVlf * x_val);
 
-                        double oldErr = errors.get(i);
+                        double oldErr = errors[i];
                         double newErr = oldErr + oldVlf * h_theta_old - newVlf * h_theta_new;
 
-                        errors.set(i, newErr);
-                        Q.set(i, f, newQif);
+                        errors[i] = newErr;
+                        q[i][f] = newQif;
                     }
 
-
                     // update V
-                    V.set(l, f, newVlf);
+                    factors[l][f] = newVlf;
 
-//                    VectorBasedDenseVector errorGround = computeGroundError();
-//                    errors = errorGround;
                     loss += regF * oldVlf * oldVlf;
                 }
-                //System.out.println("temp:" + errors.sum());
             }
 
-            // System.out.println("after 2-way:" + errors.sum());
             if (isConverged(iter) && earlyStop){
 
                 break;
@@ -31,6 +31,13 @@ public class FMFTRLRecommender extends FactorizationMachineRecommender {
     private double alpha;
     private double beta;
 
+    /**
+     *  the FTRL accumulators z and n of w0, W and V
+     */
+    private double zW0, nW0;
+    private double[] zW, nW;
+    private double[][] zV, nV;
+
     @Override
     protected void setup() throws LibrecException {
         super.setup();
@@ -51,110 +58,111 @@ public class FMFTRLRecommender extends FactorizationMachineRecommender {
     }
 
     private void buildRatingModel() throws LibrecException {
-        double zW0 = 0;
-        VectorBasedDenseVector zW = new VectorBasedDenseVector(p);
-        DenseMatrix zV = new DenseMatrix(p, k);
-        zW.init(0);
-        zV.init(0);
+        zW0 = 0;
+        zW = new double[p];
+        zV = new double[p][k];
 
-        double nW0 = 0;
-        VectorBasedDenseVector nW = new VectorBasedDenseVector(p);
-        DenseMatrix nV = new DenseMatrix(p, k);
-        nW.init(0);
-        nV.init(0);
+        nW0 = 0;
+        nW = new double[p];
+        nV = new double[p][k];
 
-        double gW0, thetaW0;
+        for (int iter=0; iter < numIterations; ++iter){
+            loss = iterateRows(this::updateRows);
 
-        VectorBasedDenseVector gW = new VectorBasedDenseVector(p);
-        VectorBasedDenseVector thetaW = new VectorBasedDenseVector(p);
+            loss *= 0.5;
 
-        DenseMatrix gV = new DenseMatrix(p, k);
-        DenseMatrix thetaV = new DenseMatrix(p, k);
+            if (isConverged(iter)  && earlyStop)
+                break;
+        }
+    }
 
-        for (int iter=0; iter < numIterations; ++iter){
-            loss = 0.0;
-//            int userDimension = trainTensor.getUserDimension();
-//            int itemDimension = trainTensor.getItemDimension();
-            for (TensorEntry me: trainTensor) {
-                int[] entryKeys = me.keys();
-                SequentialSparseVector x = tenserKeysToFeatureVector(entryKeys);
-                double rate = me.get();
-
-                // compute rating value
-                double pred = predict(x);
-
-                double err = pred - rate;
-                loss += err * err;
-
-                // loss gradient, loss = 1/2 * (yhat - y)^2
-                double gradLoss = err;
-
-                // compute w0 gradient
-                double hW0 = 1;
-                gW0 = gradLoss * hW0;
-                thetaW0 = 1 / alpha * (Math.sqrt(nW0 + Math.pow(gW0, 2)) - Math.sqrt(nW0));
-                zW0 += gW0 - thetaW0 * w0;
-                nW0 += Math.pow(gW0, 2);
-
-                // update w0
-                if (Math.abs(zW0) <= lambda1) {
-                    w0 = 0;
+    /**
+     * FTRL updates with the ratings in {@code [fromRow, toRow)} of trainFeatureMatrix.
+     *
+     * @param fromRow the first row, inclusive
+     * @param toRow   the last row, exclusive
+     * @return the loss of the rows
+     */
+    private double updateRows(int fromRow, int toRow) {
+        int[] features = trainFeatureMatrix.getFeatures();
+        double[] values = trainFeatureMatrix.getValues();
+        double[] weights = W.getValues();
+        double[][] factors = V.getValues();
+        double rowsLoss = 0.0;
+
+        for (int row = fromRow; row < toRow; row++) {
+            int from = trainFeatureMatrix.getRowStart(row);
+            int to = trainFeatureMatrix.getRowEnd(row);
+            double rate = trainRatings[row];
+
+            // compute rating value
+            double pred = predict(features, values, from, to);
+
+            double err = pred - rate;
+            rowsLoss += err * err;
+
+            // loss gradient, loss = 1/2 * (yhat - y)^2
+            double gradLoss = err;
+
+            // compute w0 gradient
+            double hW0 = 1;
+            double gW0 = gradLoss * hW0;
+            double thetaW0 = 1 / alpha * (Math.sqrt(nW0 + Math.pow(gW0, 2)) - Math.sqrt(nW0));
+            zW0 += gW0 - thetaW0 * w0;
+            nW0 += Math.pow(gW0, 2);
+
+            // update w0
+            if (Math.abs(zW0) <= lambda1) {
+                w0 = 0;
+            } else {
+                w0 = -1 / ((beta + Math.sqrt(nW0)) / alpha + lambda2) * (zW0 - sgn(zW0) * lambda1);
+            }
+
+            for (int position = from; position < to; position++) {
+                int l = features[position];
+                // compute W gradient
+                double hWl = values == null ? 1.0D : values[position];
+                double gWl = gradLoss * hWl;
+                double thetaWl = 1 / alpha * (Math.sqrt(nW[l] + Math.pow(gWl, 2)) - Math.sqrt(nW[l]));
+                zW[l] += gWl - thetaWl * weights[l];
+                nW[l] += Math.pow(gWl, 2);
+
+                // update W
+                if (Math.abs(zW[l]) <= lambda1) {
+                    weights[l] = 0;
                 } else {
-                    w0 = -1 / ((beta + Math.sqrt(nW0)) / alpha + lambda2) * (zW0 - sgn(zW0) * lambda1);
+                    weights[l] = -1 / ((beta + Math.sqrt(nW[l])) / alpha + lambda2) * (zW[l] - sgn(zW[l]) * lambda1);
                 }
 
-                for(Vector.VectorEntry ve: x){
-                    int l = ve.index();
-                    // compute W gradient
-                    double hWl = ve.get();
-                    gW.set(l, gradLoss * hWl);
-                    thetaW.set(l, 1 / alpha * (Math.sqrt(nW.get(l) + Math.pow(gW.get(l), 2)) - Math.sqrt(nW.get(l))));
-                    zW.plus(l, gW.get(l) - thetaW.get(l) * W.get(l));
-                    nW.plus(l, Math.pow(gW.get(l), 2));
-
-                    // update W
-                    if (Math.abs(zW.get(l)) <= lambda1) {
-                        W.set(l, 0);
-                    } else {
-                        double value = -1 / ((beta + Math.sqrt(nW.get(l))) / alpha + lambda2) * (zW.get(l) - sgn(zW.get(l)) * lambda1);
-                        W.set(l, value);
-                    }
-
-                    for (int f = 0; f < k; ++f) {
-                        double hVlf = 0;
-                        double xl =ve.get();
-                        for (Vector.VectorEntry ve2: x){
-                            int j = ve2.index();
-                            if(j!=l){
-                                hVlf += xl * V.get(j, f) * ve2.get();
-                            }
+                double[] factorsL = factors[l];
+                double[] zVl = zV[l];
+                double[] nVl = nV[l];
+                for (int f = 0; f < k; ++f) {
+                    double hVlf = 0;
+                    double xl = hWl;
+                    for (int position2 = from; position2 < to; position2++) {
+                        int j = features[position2];
+                        if (j != l) {
+                            hVlf += xl * factors[j][f] * (values == null ? 1.0D : values[position2]);
                         }
+                    }
 
-                        // compute V gradient
-                        double gradVlf = gradLoss * hVlf;
-
-                        gV.set(l, f, gradVlf);
-                        thetaV.set(l, f, 1 / alpha * (Math.sqrt(nV.get(l, f) + Math.pow(gV.get(l, f), 2)) - Math.sqrt(nV.get(l, f))));
-                        zV.plus(l, f, gV.get(l, f) - thetaV.get(l, f) * V.get(l, f));
-                        nV.plus(l, f, Math.pow(gV.get(l, f), 2));
+                    // compute V gradient
+                    double gVlf = gradLoss * hVlf;
+                    double thetaVlf = 1 / alpha * (Math.sqrt(nVl[f] + Math.pow(gVlf, 2)) - Math.sqrt(nVl[f]));
+                    zVl[f] += gVlf - thetaVlf * factorsL[f];
+                    nVl[f] += Math.pow(gVlf, 2);
 
-                        // update V
-                        if (Math.abs(zV.get(l, f)) <= lambda1) {
-                            V.set(l, f, 0);
-                        } else {
-                            double value = -1 / ((beta + Math.sqrt(nV.get(l, f))) / alpha + lambda2) * (zV.get(l, f) - sgn(zV.get(l, f)) * lambda1);
-                            V.set(l, f, value);
-                        }
+                    // update V
+                    if (Math.abs(zVl[f]) <= lambda1) {
+                        factorsL[f] = 0;
+                    } else {
+                        factorsL[f] = -1 / ((beta + Math.sqrt(nVl[f])) / alpha + lambda2) * (zVl[f] - sgn(zVl[f]) * lambda1);
                     }
                 }
-
             }
-
-            loss *= 0.5;
-
-            if (isConverged(iter)  && earlyStop)
-                break;
         }
+        return rowsLoss;
     }
 
     private int sgn(double value){
@@ -20,9 +20,6 @@ package net.librec.recommender.cf.rating;
 
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
-import net.librec.math.structure.TensorEntry;
-import net.librec.math.structure.Vector.VectorEntry;
-import net.librec.math.structure.VectorBasedSequentialSparseVector;
 import net.librec.recommender.FactorizationMachineRecommender;
 
 
@@ -56,57 +53,7 @@ public class FMSGDRecommender extends FactorizationMachineRecommender {
 
     private void buildRatingModel() throws LibrecException {
         for (int iter = 0; iter < numIterations; iter++) {
-            loss = 0.0;
-
-            for (TensorEntry me : trainTensor) {
-                int[] entryKeys = me.keys();
-                VectorBasedSequentialSparseVector vector = tenserKeysToFeatureVector(entryKeys);
-
-                double rate = me.get();
-                double pred = predict(entryKeys);
-
-                double err = pred - rate;
-                loss += err * err;
-                double gradLoss = err;
-
-                // global bias
-                loss += regW0 * w0 * w0;
-
-                double hW0 = 1;
-                double gradW0 = gradLoss * hW0 + regW0 * w0;
-
-                // update w0
-                w0 += -learnRate * gradW0;
-
-                // 1-way interactions
-                for (VectorEntry ve : vector) {
-                    int l = ve.index();
-                    double oldWl = W.get(l);
-                    double hWl = ve.get();
-                    double gradWl = gradLoss * hWl + regW * oldWl;
-                    W.plus(l, -learnRate * gradWl);
-
-                    loss += regW * oldWl * oldWl;
-
-                    // 2-way interactions
-                    for (int f = 0; f < k; f++) {
-                        double oldVlf = V.get(l, f);
-                        double hVlf = 0;
-                        double xl = ve.get();
-                        for (VectorEntry ve2 : vector) {
-                            int j = ve2.index();
-                            if (j != l) {
-                                hVlf += xl * V.get(j, f) * ve2.get();
-                            }
-                        }
-
-                        double gradVlf = gradLoss * hVlf + regF * oldVlf;
-                        V.plus(l, f, -learnRate * gradVlf);
-                        loss += regF * oldVlf * oldVlf;
-                    }
-                }
-
-            }
+            loss = iterateRows(this::updateRows);
 
             loss *= 0.5;
 
@@ -116,4 +63,70 @@ public class FMSGDRecommender extends FactorizationMachineRecommender {
             lastLoss = loss;
         }
     }
+
+    /**
+     * SGD updates with the ratings in {@code [fromRow, toRow)} of trainFeatureMatrix.
+     *
+     * @param fromRow the first row, inclusive
+     * @param toRow   the last row, exclusive
+     * @return the loss of the rows
+     */
+    private double updateRows(int fromRow, int toRow) {
+        int[] features = trainFeatureMatrix.getFeatures();
+        double[] values = trainFeatureMatrix.getValues();
+        double[] weights = W.getValues();
+        double[][] factors = V.getValues();
+        double rowsLoss = 0.0;
+
+        for (int row = fromRow; row < toRow; row++) {
+            int from = trainFeatureMatrix.getRowStart(row);
+            int to = trainFeatureMatrix.getRowEnd(row);
+
+            double rate = trainRatings[row];
+            double pred = predict(features, values, from, to);
+
+            double err = pred - rate;
+            rowsLoss += err * err;
+            double gradLoss = err;
+
+            // global bias
+            rowsLoss += regW0 * w0 * w0;
+
+            double hW0 = 1;
+            double gradW0 = gradLoss * hW0 + regW0 * w0;
+
+            // update w0
+            w0 += -learnRate * gradW0;
+
+            // 1-way interactions
+            for (int position = from; position < to; position++) {
+                int l = features[position];
+                double oldWl = weights[l];
+                double hWl = values == null ? 1.0D : values[position];
+                double gradWl = gradLoss * hWl + regW * oldWl;
+                weights[l] += -learnRate * gradWl;
+
+                rowsLoss += regW * oldWl * oldWl;
+
+                // 2-way interactions
+                double[] factorsL = factors[l];
+                for (int f = 0; f < k; f++) {
+                    double oldVlf = factorsL[f];
+                    double hVlf = 0;
+                    double xl = hWl;
+                    for (int position2 = from; position2 < to; position2++) {
+                        int j = features[position2];
+                        if (j != l) {
+                            hVlf += xl * factors[j][f] * (values == null ? 1.0D : values[position2]);
+                        }
+                    }
+
+                    double gradVlf = gradLoss * hVlf + regF * oldVlf;
+                    factorsL[f] += -learnRate * gradVlf;
+                    rowsLoss += regF * oldVlf * oldVlf;
+                }
+            }
+        }
+        return rowsLoss;
+    }
 }
@@ -145,4 +145,12 @@ public class SVDPlusPlusRecommender extends BiasedMFRecommender {
         }
         return predict(userIndex, itemIndex, factorVector);
     }
+
+    /**
+     * @return false, the prediction is not the inner product of the user and item factors
+     */
+    @Override
+    protected boolean isInnerProductModel() {
+        return false;
+    }
 }
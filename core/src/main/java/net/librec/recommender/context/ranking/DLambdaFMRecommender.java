@@ -23,7 +23,6 @@ import net.librec.common.LibrecException;
 import net.librec.math.algorithm.Maths;
 import net.librec.math.algorithm.Randoms;
 import net.librec.math.structure.*;
-import net.librec.math.structure.Vector;
 import net.librec.recommender.FactorizationMachineRecommender;
 
 import java.util.*;
@@ -76,8 +75,8 @@ public class DLambdaFMRecommender extends FactorizationMachineRecommender {
     protected void trainModel() throws LibrecException {
         DenseVector grad = new VectorBasedDenseVector(p);
         DenseVector grad_visited = new VectorBasedDenseVector(p);
-        SequentialSparseVector x_i;
-        SequentialSparseVector x_j;
+        int[] x_i;
+        int[] x_j;
         for (int iter = 1; iter <= numIterations; iter++) {
             loss = 0;
             for (int s = 0, smax = numUsers * 300; s < smax; s++) {
@@ -107,11 +106,12 @@ public class DLambdaFMRecommender extends FactorizationMachineRecommender {
                 int feature_i = itemFeatureMapping.get(i);
                 int feature_j = itemFeatureMapping.get(j);
 
-                x_i = tenserKeysToFeatureVector(new int[]{u, i, feature_i});
-                x_j = tenserKeysToFeatureVector(new int[]{u, j, feature_j});
+                // one-hot features, all the values are 1
+                x_i = tenserKeysToFeatures(new int[]{u, i, feature_i});
+                x_j = tenserKeysToFeatures(new int[]{u, j, feature_j});
 
-                int[] i_index_List = x_i.getIndices();
-                int[] j_index_List = x_j.getIndices();
+                int[] i_index_List = x_i;
+                int[] j_index_List = x_j;
 
                 double si = 1.0;
                 double sj = 0.0;
@@ -119,12 +119,8 @@ public class DLambdaFMRecommender extends FactorizationMachineRecommender {
 
                 double xui = 0.0;
                 double xuj = 0.0;
-                try {
-                    xui = predict(x_i);
-                    xuj = predict(x_j);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+                xui = predict(x_i, null, 0, x_i.length);
+                xuj = predict(x_j, null, 0, x_j.length);
                 DenseVector sum_pos = sum(x_i); // should be calculated by predict(x_i) to save time
                 DenseVector sum_neg = sum(x_j); // should be calculated by predict(x_j)  to save time
                 double xuij = xui - xuj;
@@ -144,11 +140,11 @@ public class DLambdaFMRecommender extends FactorizationMachineRecommender {
                     grad.set(idx, 0);
                     grad_visited.set(idx, 0);
                 }
-                for (Vector.VectorEntry ve : x_i) {
-                    grad.plus(ve.index(), ve.get());
+                for (int idx : x_i) {
+                    grad.plus(idx, 1.0);
                 }
-                for (Vector.VectorEntry ve : x_j) {
-                    grad.plus(ve.index(), -ve.get());
+                for (int idx : x_j) {
+                    grad.plus(idx, -1.0);
                 }
 
                 // Update the weight matrix for every positive and negative item
@@ -175,14 +171,12 @@ public class DLambdaFMRecommender extends FactorizationMachineRecommender {
                         grad.set(idx, 0);
                         grad_visited.set(idx, 0);
                     }
-                    for (Vector.VectorEntry ve : x_i) {
-                        int idx = ve.index();
-                        double value = ve.get();
+                    for (int idx : x_i) {
+                        double value = 1.0;
                         grad.plus(idx,sum_pos.get(f) * value - V.get(idx, f) * value * value);
                     }
-                    for (Vector.VectorEntry ve : x_j) {
-                        int idx = ve.index();
-                        double value = ve.get();
+                    for (int idx : x_j) {
+                        double value = 1.0;
                         grad.plus(idx, -(sum_neg.get(f) * value - V.get(idx, f) * value * value));
                     }
 
@@ -208,17 +202,15 @@ public class DLambdaFMRecommender extends FactorizationMachineRecommender {
         }
     }
 
-    private DenseVector sum(SequentialSparseVector x) {
+    private DenseVector sum(int[] x) {
         DenseVector sum = new VectorBasedDenseVector(numFactors);
+        double[][] factors = V.getValues();
         for (int f = 0; f < numFactors; f++) {
             double sum_f = 0;
-            sum.set(f, 0);
-            for (Vector.VectorEntry ve : x) {
-                int idx = ve.index();
-                double d = V.get(idx, f) * ve.get();
-                sum_f += d;
-                sum.set(f, sum_f);
+            for (int idx : x) {
+                sum_f += factors[idx][f];
             }
+            sum.set(f, sum_f);
         }
         return sum;
     }
@@ -23,9 +23,7 @@ import net.librec.math.structure.*;
 import net.librec.math.structure.Vector.VectorEntry;
 import net.librec.recommender.cf.rating.BiasedMFRecommender;
 
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -70,32 +68,44 @@ public class TimeSVDRecommender extends BiasedMFRecommender {
      */
     private DenseMatrix itemSectionBiases;
     /**
-     * {user, day, bias} table
+     * the user-days of user u are {@code userDayOffsets[u]} to {@code userDayOffsets[u + 1] - 1}
      */
-    private  DenseMatrix userDayBiases;
-//    private Table<Integer, Integer, Double> userDayBiases;
+    private int[] userDayOffsets;
+    /**
+     * {user-day, day}, the distinct days of each user in the train and test sets in ascending order
+     */
+    private int[] userDays;
+    /**
+     * {user-day, bias}
+     */
+    private double[] userDayBiases;
     /**
      * user bias weight parameters
      */
     private DenseVector userBiasWeights;
     /**
-     * {user, {appender, day, value} } map
+     * {user-day, factors}, numFactors values per user-day
      */
-//    private Table<Integer, Integer, double[]> userDayFactors;
-    private Map<Integer, double[]>[] userDayFactors;
+    private double[] userDayFactors;
 
     /**
      * {user, user scaling stable part}
      */
     private DenseVector userScales;
     /**
-     * {user, day, day-specific scaling part}
+     * {user-day, day-specific scaling part}
      */
-    private DenseMatrix userDayScales;
+    private double[] userDayScales;
 
     private double beta = 0.4;
 
-    private RowSequentialAccessSparseMatrix trainTimeMatrix, testTimeMatrix;
+    /**
+     * the user-day, bin and time deviation of each train rating, in the order of the rows of trainMatrix
+     */
+    private int[] trainUserDays, trainSections;
+    private double[] trainDeviations;
+
+    private RowSequentialAccessSparseMatrix testTimeMatrix;
 
     /**
      * get the number of days for a given time difference
@@ -143,71 +153,106 @@ public class TimeSVDRecommender extends BiasedMFRecommender {
         userImplicitFactors = new DenseMatrix(numUsers, numFactors);
         userImplicitFactors.init(initMean, initStd);
 
-        userDayBiases = new DenseMatrix(numUsers, numDays);
-
-        userDayFactors = new Map[numUsers];
-        for(int userIndex=0; userIndex< numUsers;userIndex++){
-            userDayFactors[userIndex] = new HashMap<>();
-        }
-
         userScales = new VectorBasedDenseVector(numUsers);
         userScales.init(initMean, initStd);
 
-        userDayScales = new DenseMatrix(numUsers, numDays);
-        userDayScales.init(initMean, initStd);
-
         userExplicitFactors = new DenseMatrix(numUsers, numFactors);
         userExplicitFactors.init(initMean, initStd);
 
         itemExplicitFactors = new DenseMatrix(numItems, numFactors);
         itemExplicitFactors.init(initMean, initStd);
 
-        // global average date
-        double mean;
-        double sum = 0D;
-        int count = 0;
-        trainTimeMatrix = new RowSequentialAccessSparseMatrix(trainMatrix, true);
-
-        for (MatrixEntry matrixEntry : trainTimeMatrix) {
-            int userIndex = matrixEntry.row();
-            int itemIndex = matrixEntry.column();
-            int tempDay = days((long) instantMatrix.get(userIndex, itemIndex), minTimestamp);
-            matrixEntry.set(tempDay);
-            sum += tempDay;
-            double[] dayFactors = new double[numFactors];
-            for (int factorIndex = 0; factorIndex < numFactors; factorIndex++) {
-                dayFactors[factorIndex] = Randoms.uniform(initMean, initStd);
+        testTimeMatrix = new RowSequentialAccessSparseMatrix(testMatrix, true);
+        for (MatrixEntry matrixEntry : testTimeMatrix) {
+            matrixEntry.set(days((long) instantMatrix.get(matrixEntry.row(), matrixEntry.column()), minTimestamp));
+        }
+
+        // index the distinct train and test days of each user
+        int[] trainDays = new int[trainMatrix.size()];
+        int[][] distinctDays = new int[numUsers][];
+        userDayOffsets = new int[numUsers + 1];
+        int position = 0;
+        for (int userIndex = 0; userIndex < numUsers; userIndex++) {
+            SequentialSparseVector userVector = trainMatrix.row(userIndex);
+            SequentialSparseVector testTimeVector = testTimeMatrix.row(userIndex);
+            int[] days = new int[userVector.size() + testTimeVector.size()];
+            int dayIndex = 0;
+            for (VectorEntry vectorEntry : userVector) {
+                int day = days((long) instantMatrix.get(userIndex, vectorEntry.index()), minTimestamp);
+                trainDays[position++] = day;
+                days[dayIndex++] = day;
+            }
+            for (VectorEntry vectorEntry : testTimeVector) {
+                days[dayIndex++] = (int) vectorEntry.get();
+            }
+            Arrays.sort(days);
+            int numDistinctDays = 0;
+            for (int index = 0; index < days.length; index++) {
+                if (index == 0 || days[index] != days[index - 1]) {
+                    days[numDistinctDays++] = days[index];
+                }
             }
-            userDayFactors[userIndex].put(tempDay, dayFactors);
-            userDayBiases.set(userIndex, tempDay, Randoms.uniform(initMean, initStd));
-            count++;
+            distinctDays[userIndex] = Arrays.copyOf(days, numDistinctDays);
+            userDayOffsets[userIndex + 1] = userDayOffsets[userIndex] + numDistinctDays;
+        }
+        int numUserDays = userDayOffsets[numUsers];
+        userDays = new int[numUserDays];
+        for (int userIndex = 0; userIndex < numUsers; userIndex++) {
+            System.arraycopy(distinctDays[userIndex], 0, userDays, userDayOffsets[userIndex],
+                    distinctDays[userIndex].length);
         }
 
-        double[] dayFactors = new double[numFactors];
-        testTimeMatrix = new RowSequentialAccessSparseMatrix(testMatrix, true);
+        // days only seen in the test set keep zero biases and factors
+        userDayBiases = new double[numUserDays];
+        userDayFactors = new double[numUserDays * numFactors];
+        userDayScales = new double[numUserDays];
+        for (int userDay = 0; userDay < numUserDays; userDay++) {
+            userDayScales[userDay] = Randoms.gaussian(initMean, initStd);
+        }
 
-        for (MatrixEntry matrixEntry : testTimeMatrix) {
-            int userIndex = matrixEntry.row();
-            int itemIndex = matrixEntry.column();
-            int tempDay = days((long) instantMatrix.get(userIndex, itemIndex), minTimestamp);
-            matrixEntry.set(tempDay);
-            if (!userDayFactors[userIndex].containsKey(tempDay)){
-                userDayFactors[userIndex].put(tempDay, dayFactors);
+        // global average date
+        double mean;
+        double sum = 0D;
+        int count = 0;
+        trainUserDays = new int[trainDays.length];
+        trainSections = new int[trainDays.length];
+        boolean[] initialized = new boolean[numUserDays];
+        position = 0;
+        for (int userIndex = 0; userIndex < numUsers; userIndex++) {
+            int size = trainMatrix.row(userIndex).size();
+            for (int index = 0; index < size; index++, position++) {
+                int tempDay = trainDays[position];
+                int userDay = userDay(userIndex, tempDay);
+                trainUserDays[position] = userDay;
+                trainSections[position] = section(tempDay);
+                sum += tempDay;
+                if (!initialized[userDay]) {
+                    for (int factorIndex = 0; factorIndex < numFactors; factorIndex++) {
+                        userDayFactors[userDay * numFactors + factorIndex] = Randoms.uniform(initMean, initStd);
+                    }
+                    userDayBiases[userDay] = Randoms.uniform(initMean, initStd);
+                    initialized[userDay] = true;
+                }
+                count++;
             }
         }
-        System.gc();
 
         double globalMeanDays = sum / count;
         // compute user's mean of rating timestamps
         userMeanDays = new VectorBasedDenseVector(numUsers);
+        trainDeviations = new double[trainDays.length];
+        position = 0;
         for (int userIndex = 0; userIndex < numUsers; userIndex++) {
+            int size = trainMatrix.row(userIndex).size();
             sum = 0D;
-            SequentialSparseVector userVector = trainTimeMatrix.row(userIndex);
-            for (VectorEntry vectorEntry: userVector) {
-                sum += days((long) vectorEntry.get(), minTimestamp);
+            for (int index = 0; index < size; index++) {
+                sum += trainDays[position + index];
             }
-            mean = (userVector.size() > 0) ? (sum + 0D) / userVector.size() : globalMeanDays;
+            mean = (size > 0) ? (sum + 0D) / size : globalMeanDays;
             userMeanDays.set(userIndex, mean);
+            for (int index = 0; index < size; index++, position++) {
+                trainDeviations[position] = deviation(userIndex, trainDays[position]);
+            }
         }
     }
 
@@ -216,13 +261,15 @@ public class TimeSVDRecommender extends BiasedMFRecommender {
 
         for (int iterationStep = 1; iterationStep <= numIterations; iterationStep++) {
             loss = 0D;
+            int userPosition = 0;
             for (int userIndex = 0; userIndex < numUsers; userIndex++) {
                 SequentialSparseVector rateVector = trainMatrix.row(userIndex);
-                SequentialSparseVector timeVector = trainTimeMatrix.row(userIndex);
                 int size = rateVector.size();
                 if (size == 0) {
                     continue;
                 }
+                int offset = userPosition;
+                userPosition += size;
 
                 double[] step = new double[numFactors];
 
@@ -235,17 +282,17 @@ public class TimeSVDRecommender extends BiasedMFRecommender {
                 for (VectorEntry vectorEntry : rateVector) {
                     int itemExplicitIndex = vectorEntry.index();
                     double rate = vectorEntry.get();
-                    int days = (int) timeVector.getAtPosition(vectorEntry.position());
                     // day t
-                    int section = section(days);
-                    double deviation = deviation(userIndex, days);
+                    int position = offset + vectorEntry.position();
+                    int userDay = trainUserDays[position];
+                    int section = trainSections[position];
+                    double deviation = trainDeviations[position];
                     double userBias = userBiases.get(userIndex);
                     double itemBias = itemBiases.get(itemExplicitIndex);
 
                     double userScale = userScales.get(userIndex);
-                    double dayScale = userDayScales.get(userIndex, days);
-                    // lazy initialization
-                    double userDayBias = userDayBiases.get(userIndex, days);
+                    double dayScale = userDayScales[userDay];
+                    double userDayBias = userDayBiases[userDay];
                     double itemSectionBias = itemSectionBiases.get(itemExplicitIndex, section);
                     // alpha_u
                     double userWeight = userBiasWeights.get(userIndex);
@@ -258,11 +305,10 @@ public class TimeSVDRecommender extends BiasedMFRecommender {
                     double sum = factorVector.dot(itemExplicitVector);
                     predict += sum;
                     // qi * pu(t)
-                    double[] dayFactors = userDayFactors[userIndex].get(days);
-//
+                    int dayFactorOffset = userDay * numFactors;
                     for (int factorIndex = 0; factorIndex < numFactors; factorIndex++) {
                         double qik = itemExplicitFactors.get(itemExplicitIndex, factorIndex);
-                        double puk = userExplicitFactors.get(userIndex, factorIndex) + userImplicitFactors.get(userIndex, factorIndex) * deviation + dayFactors[factorIndex];
+                        double puk = userExplicitFactors.get(userIndex, factorIndex) + userImplicitFactors.get(userIndex, factorIndex) * deviation + userDayFactors[dayFactorOffset + factorIndex];
                         predict += puk * qik;
                     }
                     double error = predict - rate;
@@ -285,7 +331,7 @@ public class TimeSVDRecommender extends BiasedMFRecommender {
 
                     // update cut
                     sgd = error * (itemBias + itemSectionBias) + regBias * dayScale;
-                    userDayScales.plus(userIndex, days, -learnRate * sgd);
+                    userDayScales[userDay] -= learnRate * sgd;
                     loss += regBias * dayScale * dayScale;
 
                     // update bu
@@ -301,15 +347,14 @@ public class TimeSVDRecommender extends BiasedMFRecommender {
                     // update but
                     sgd = error + regBias * userDayBias;
                     double delta = userDayBias - learnRate * sgd;
-//
-                    userDayBiases.set(userIndex, days, delta);
+                    userDayBiases[userDay] = delta;
                     loss += regBias * userDayBias * userDayBias;
 
                     for (int factorIndex = 0; factorIndex < numFactors; factorIndex++) {
                         double userExplicitFactor = userExplicitFactors.get(userIndex, factorIndex);
                         double itemExplicitFactor = itemExplicitFactors.get(itemExplicitIndex, factorIndex);
                         double userImplicitFactor = userImplicitFactors.get(userIndex, factorIndex);
-                        delta = dayFactors[factorIndex];
+                        delta = userDayFactors[dayFactorOffset + factorIndex];
 
                         sum = 0D;
                         // update userExplicitFactor
@@ -335,7 +380,7 @@ public class TimeSVDRecommender extends BiasedMFRecommender {
                         sgd = error * itemExplicitFactor + regUser * delta;
                         loss += regUser * delta * delta;
                         delta = delta - learnRate * sgd;
-                        dayFactors[factorIndex] = delta;
+                        userDayFactors[dayFactorOffset + factorIndex] = delta;
 
                         step[factorIndex] += error * scale * itemExplicitFactor;
 
@@ -374,15 +419,15 @@ public class TimeSVDRecommender extends BiasedMFRecommender {
     protected double predict(int userIndex, int itemIndex) {
         // retrieve the test rating timestamp
         int days = (int) testTimeMatrix.get(userIndex, itemIndex);
-//        int days = days(instant, minTimestamp);
+        int userDay = userDay(userIndex, days);
         int section = section(days);
         double deviation = deviation(userIndex, days);
         double value = globalMean;
 
         // bi(t): eq. (12)
-        value += (itemBiases.get(itemIndex) + itemSectionBiases.get(itemIndex, section)) * (userScales.get(userIndex) + userDayScales.get(userIndex, days));
+        value += (itemBiases.get(itemIndex) + itemSectionBiases.get(itemIndex, section)) * (userScales.get(userIndex) + (userDay >= 0 ? userDayScales[userDay] : 0D));
         // bu(t): eq. (9)
-        value += (userBiases.get(userIndex) + userBiasWeights.get(userIndex) * deviation + userDayBiases.get(userIndex, days));
+        value += (userBiases.get(userIndex) + userBiasWeights.get(userIndex) * deviation + (userDay >= 0 ? userDayBiases[userDay] : 0D));
         // qi * yj
         SequentialSparseVector userVector = trainMatrix.row(userIndex);
 
@@ -396,13 +441,13 @@ public class TimeSVDRecommender extends BiasedMFRecommender {
         value += sum * weight;
 
         // qi * pu(t)
-        double[] dayFactors = userDayFactors[userIndex].get(days);
-
         for (int factorIndex = 0; factorIndex < numFactors; factorIndex++) {
             double itemExplicitFactor = itemExplicitFactors.get(itemIndex, factorIndex);
             // eq. (13)
             double userExplicitFactor = userExplicitFactors.get(userIndex, factorIndex) + userImplicitFactors.get(userIndex, factorIndex) * deviation;
-            userExplicitFactor += dayFactors[factorIndex];
+            if (userDay >= 0) {
+                userExplicitFactor += userDayFactors[userDay * numFactors + factorIndex];
+            }
             value += userExplicitFactor * itemExplicitFactor;
         }
         return value;
@@ -423,6 +468,19 @@ public class TimeSVDRecommender extends BiasedMFRecommender {
         return Math.signum(deviation) * Math.pow(Math.abs(deviation), beta);
     }
 
+    /**
+     * get the user-day of a user on a specific day
+     *
+     * @param userIndex the inner id of a user
+     * @param days      the day
+     * @return the index of the user-day in the user-day parameters, or -1 if
+     * the user has no rating on that day
+     */
+    private int userDay(int userIndex, int days) {
+        int userDay = Arrays.binarySearch(userDays, userDayOffsets[userIndex], userDayOffsets[userIndex + 1], days);
+        return userDay >= 0 ? userDay : -1;
+    }
+
     /**
      * get the bin number for a specific time stamp
      *
@@ -452,4 +510,12 @@ public class TimeSVDRecommender extends BiasedMFRecommender {
             }
         }
     }
+
+    /**
+     * @return false, the prediction is not the inner product of the user and item factors
+     */
+    @Override
+    protected boolean isInnerProductModel() {
+        return false;
+    }
 }
@@ -17,26 +17,22 @@
  */
 package net.librec.recommender.ext;
 
-import com.clearspring.analytics.util.Lists;
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Table;
 import net.librec.common.LibrecException;
-import net.librec.math.structure.*;
-import net.librec.recommender.AbstractRecommender;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.math.structure.SequentialSparseVector;
+import net.librec.math.structure.VectorBasedSequentialSparseVector;
 import net.librec.recommender.MatrixRecommender;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.stream.IntStream;
 
 /**
  * Choonho Kim and Juntae Kim, <strong>A Recommendation Algorithm Using Multi-Level Association Rules</strong>, WI 2003.
  * <p>
  * Simple Association Rule Recommender: we do not consider the item categories (or multi levels) used in the original
- * paper. Besides, we consider all association rules without ruling out weak ones (by setting high support and
- * confidence threshold).
+ * paper. By default, we consider all association rules without ruling out weak ones; the minimum support (the number
+ * of co-occurring transactions), the minimum confidence and the maximum number of rules of an antecedent item can be
+ * configured.
  *
  * @author guoguibing and wangkeqiang
  */
@@ -47,17 +43,20 @@ public class AssociationRuleRecommender extends MatrixRecommender {
      */
     private SequentialAccessSparseMatrix associations;
 
-    private DenseMatrix userItemRates;
+    /**
+     * minimum number of transactions containing both items of a rule
+     */
+    private int minSupport;
 
-    // /**
-    // * user-vector cache, item-vector cache
-    // */
-    // protected LoadingCache<Integer, SparseVector> userCache;
+    /**
+     * minimum confidence of a rule
+     */
+    private double minConfidence;
 
-    // /**
-    // * Guava cache configuration
-    // */
-    // protected static String cacheSpec;
+    /**
+     * maximum number of rules of an antecedent item, all of them if not positive
+     */
+    private int maxRules;
 
     /**
      * setup
@@ -67,56 +66,29 @@ public class AssociationRuleRecommender extends MatrixRecommender {
     @Override
     protected void setup() throws LibrecException {
         super.setup();
-        // cacheSpec = conf.get("guava.cache.spec",
-        // "maximumSize=200,expireAfterAccess=2m");
 
-        userItemRates = new DenseMatrix(trainMatrix.rowSize(), trainMatrix.columnSize());
-        for (MatrixEntry entry : trainMatrix) {
-            userItemRates.set(entry.row(), entry.column(), entry.get());
-        }
-        // userCache = trainMatrix.rowCache(cacheSpec);
+        minSupport = conf.getInt("rec.association.minsupport", 1);
+        minConfidence = conf.getDouble("rec.association.minconfidence", 0.0);
+        maxRules = conf.getInt("rec.association.maxrules", 0);
     }
 
     @Override
     protected void trainModel() throws LibrecException {
-        // plus to adapt to 3.0
-        List<Map<Integer, Integer>> userItemsPosList = Lists.newArrayList();
-        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
-            Map<Integer, Integer> itemIndexPosMap = Maps.newHashMap();
-            int[] itemIndices = trainMatrix.row(userIdx).getIndices();
-            for (int i = 0; i < itemIndices.length; i++) {
-                itemIndexPosMap.put(itemIndices[i], i);
-            }
-            userItemsPosList.add(itemIndexPosMap);
-        }
-
         // simple rule: X => Y, given that each user vector is regarded as a
         // transaction
-        Table<Integer, Integer, Double> associationTable = HashBasedTable.create(numItems, numItems);
-        for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+        VectorBasedSequentialSparseVector[] rules = new VectorBasedSequentialSparseVector[numItems];
+        ThreadLocal<RuleCounter> counters = ThreadLocal.withInitial(() -> new RuleCounter(numItems));
+        IntStream.range(0, numItems).parallel().forEach(itemIdx -> {
             // all transactions for item itemIdx
             SequentialSparseVector userRatingsVector = trainMatrix.column(itemIdx);
-            int userCount = userRatingsVector.size();
-
-            for (int assoItemIdx = 0; assoItemIdx < numItems; assoItemIdx++) {
-                // compute confidence where containing item assoItemIdx among
-                // userRatingsVector
-                int count = 0;
-                for (Vector.VectorEntry vectorEntry : userRatingsVector) {
-                    int userIdx = vectorEntry.index();
-                    Map<Integer, Integer> currItemIndexPosMap = userItemsPosList.get(userIdx);
-                    if (currItemIndexPosMap.get(assoItemIdx) != null) {
-                        count++;
-                    }
-                }
-
-                if (count > 0) {
-                    double confidence = (count + 0.0) / userCount;
-                    associationTable.put(itemIdx, assoItemIdx, confidence);
-                }
+            RuleCounter counter = counters.get();
+            for (int userIdx : userRatingsVector.getIndices()) {
+                counter.add(trainMatrix.row(userIdx), itemIdx);
             }
-        }
-        associations = new SequentialAccessSparseMatrix(numItems, numItems, associationTable);
+            rules[itemIdx] = counter.flush(userRatingsVector.getNumEntries());
+        });
+        associations = new SequentialAccessSparseMatrix(numItems, numItems, rules);
+        LOG.info("association rules: " + associations.size());
     }
 
     /**
@@ -129,15 +101,92 @@ public class AssociationRuleRecommender extends MatrixRecommender {
      */
     @Override
     protected double predict(int userIdx, int itemIdx) throws LibrecException {
+        // rules X => itemIdx of the items X rated by the user, both sorted by X
+        SequentialSparseVector ruleVector = associations.column(itemIdx);
+        SequentialSparseVector itemRatingsVector = trainMatrix.row(userIdx);
+        int numRules = ruleVector.getNumEntries(), numRatings = itemRatingsVector.getNumEntries();
 
         double predictRatings = 0;
-        for (Vector.VectorEntry mapEntry : associations.column(itemIdx)) {
-            int assoItemIdx = mapEntry.index();
-            double support = mapEntry.get();
-            double value = userItemRates.get(userIdx, assoItemIdx);
-            predictRatings += value * support;
+        for (int rulePosition = 0, ratingPosition = 0; rulePosition < numRules && ratingPosition < numRatings; ) {
+            int assoItemIdx = ruleVector.getIndexAtPosition(rulePosition);
+            int ratedItemIdx = itemRatingsVector.getIndexAtPosition(ratingPosition);
+            if (assoItemIdx < ratedItemIdx) {
+                rulePosition++;
+            } else if (assoItemIdx > ratedItemIdx) {
+                ratingPosition++;
+            } else {
+                predictRatings += itemRatingsVector.getAtPosition(ratingPosition) * ruleVector.getAtPosition(rulePosition);
+                rulePosition++;
+                ratingPosition++;
+            }
         }
 
         return predictRatings;
     }
+
+    /**
+     * Per-thread counter of the transactions containing an antecedent item and each other item.
+     */
+    private final class RuleCounter {
+        final int[] counts;
+        final int[] touched;
+        int numTouched;
+
+        RuleCounter(int numItems) {
+            counts = new int[numItems];
+            touched = new int[numItems];
+        }
+
+        void add(SequentialSparseVector transaction, int itemIdx) {
+            for (int position = 0, numEntries = transaction.getNumEntries(); position < numEntries; position++) {
+                int assoItemIdx = transaction.getIndexAtPosition(position);
+                if (assoItemIdx != itemIdx && counts[assoItemIdx]++ == 0) {
+                    touched[numTouched++] = assoItemIdx;
+                }
+            }
+        }
+
+        /**
+         * Turn the counts into the confidences of the kept rules and reset them.
+         */
+        VectorBasedSequentialSparseVector flush(int userCount) {
+            int numRules = 0;
+            for (int index = 0; index < numTouched; index++) {
+                int assoItemIdx = touched[index];
+                int count = counts[assoItemIdx];
+                if (count >= minSupport && (count + 0.0) / userCount >= minConfidence) {
+                    touched[numRules++] = assoItemIdx;
+                } else {
+                    counts[assoItemIdx] = 0;
+                }
+            }
+            if (maxRules > 0 && numRules > maxRules) {
+                // keep the rules of the highest confidences, i.e. the highest counts
+                long[] orderedRules = new long[numRules];
+                for (int index = 0; index < numRules; index++) {
+                    orderedRules[index] = ((long) -counts[touched[index]] << 32) | touched[index];
+                }
+                Arrays.sort(orderedRules);
+                for (int index = maxRules; index < numRules; index++) {
+                    counts[(int) orderedRules[index]] = 0;
+                }
+                for (int index = 0; index < maxRules; index++) {
+                    touched[index] = (int) orderedRules[index];
+                }
+                numRules = maxRules;
+            }
+            Arrays.sort(touched, 0, numRules);
+
+            int[] indices = new int[numRules];
+            double[] confidences = new double[numRules];
+            for (int index = 0; index < numRules; index++) {
+                int assoItemIdx = touched[index];
+                indices[index] = assoItemIdx;
+                confidences[index] = (counts[assoItemIdx] + 0.0) / userCount;
+                counts[assoItemIdx] = 0;
+            }
+            numTouched = 0;
+            return new VectorBasedSequentialSparseVector(numItems, indices, confidences);
+        }
+    }
 }
@@ -1,9 +1,7 @@
 package net.librec.recommender.ext;
 
 import net.librec.common.LibrecException;
-import net.librec.math.structure.DenseMatrix;
 import net.librec.math.structure.SequentialSparseVector;
-import net.librec.math.structure.Vector;
 import net.librec.recommender.MatrixRecommender;
 
 /**
@@ -16,9 +14,14 @@ import net.librec.recommender.MatrixRecommender;
  */
 public class BipolarSlopeOneRecommender extends MatrixRecommender {
     /**
-     * matrices for item-item differences with number of occurrences/cardinality
+     * item-item differences with number of occurrences/cardinality of the liked and the disliked items
      */
-    private DenseMatrix likeDevMatrix, dislikeDevMatrix, likeCardMatrix, dislikeCardMatrix;
+    private SlopeOneDeviations likeDeviations, dislikeDeviations;
+
+    /**
+     * minimum number of occurrences of the kept item pairs
+     */
+    private int minSupport;
 
     /**
      * the user rating average, use int value can get high accuracy
@@ -34,12 +37,7 @@ public class BipolarSlopeOneRecommender extends MatrixRecommender {
     protected void setup() throws LibrecException {
         super.setup();
 
-        likeDevMatrix = new DenseMatrix(numItems, numItems);
-        likeCardMatrix = new DenseMatrix(numItems, numItems);
-
-        dislikeDevMatrix = new DenseMatrix(numItems, numItems);
-        dislikeCardMatrix = new DenseMatrix(numItems, numItems);
-
+        minSupport = conf.getInt("rec.slopeone.minsupport", 1);
         averageRating = new int[numUsers];
     }
 
@@ -50,47 +48,16 @@ public class BipolarSlopeOneRecommender extends MatrixRecommender {
      */
     @Override
     protected void trainModel() throws LibrecException {
-
-        // compute items' differences
         for (int userIdx = 0; userIdx < numUsers; userIdx++) {
-            SequentialSparseVector itemRatingsVector = trainMatrix.row(userIdx);
-            averageRating[userIdx] = (int) itemRatingsVector.mean();
-
-            for (Vector.VectorEntry itemIdxRating : itemRatingsVector) {
-                int itemIdx = itemIdxRating.index();
-                double userItemRating = itemIdxRating.get();
-                for (Vector.VectorEntry comparedItemIdxRating : itemRatingsVector) {
-                    int comparedItemIdx = comparedItemIdxRating.index();
-                    if (itemIdx != comparedItemIdx) {
-                        double comparedRating = comparedItemIdxRating.get();
-                        if (userItemRating >= averageRating[userIdx] && comparedRating >= averageRating[userIdx]) {
-                            likeDevMatrix.set(itemIdx, comparedItemIdx, userItemRating - comparedRating);
-                            likeCardMatrix.set(itemIdx, comparedItemIdx, 1);
-                        } else if (userItemRating < averageRating[userIdx] && comparedRating < averageRating[userIdx]) {
-                            dislikeDevMatrix.set(itemIdx, comparedItemIdx, userItemRating - comparedRating);
-                            dislikeCardMatrix.set(itemIdx, comparedItemIdx, 1);
-                        }
-                    }
-                }
-            }
+            averageRating[userIdx] = (int) trainMatrix.row(userIdx).mean();
         }
 
-        // normalize differences
-        for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
-            for (int comparedItemIdx = 0; comparedItemIdx < numItems; comparedItemIdx++) {
-                double card = likeCardMatrix.get(itemIdx, comparedItemIdx);
-                if (card > 0) {
-                    double sum = likeDevMatrix.get(itemIdx, comparedItemIdx);
-                    likeDevMatrix.set(itemIdx, comparedItemIdx, sum / card);
-                }
-
-                card = dislikeCardMatrix.get(itemIdx, comparedItemIdx);
-                if (card > 0) {
-                    double sum = dislikeDevMatrix.get(itemIdx, comparedItemIdx);
-                    dislikeCardMatrix.set(itemIdx, comparedItemIdx, sum / card);
-                }
-            }
-        }
+        // compute items' differences
+        likeDeviations = SlopeOneDeviations.build(trainMatrix, minSupport, (userIdx, rating, comparedRating) ->
+                rating >= averageRating[userIdx] && comparedRating >= averageRating[userIdx]);
+        dislikeDeviations = SlopeOneDeviations.build(trainMatrix, minSupport, (userIdx, rating, comparedRating) ->
+                rating < averageRating[userIdx] && comparedRating < averageRating[userIdx]);
+        LOG.info("like item pairs: " + likeDeviations.size() + ", dislike item pairs: " + dislikeDeviations.size());
     }
 
 
@@ -105,27 +72,11 @@ public class BipolarSlopeOneRecommender extends MatrixRecommender {
     @Override
     protected double predict(int userIdx, int itemIdx) throws LibrecException {
         SequentialSparseVector itemRatingsVector = trainMatrix.row(userIdx);
-        double predictRatings = 0, cardinaryValues = 0;
+        double[] terms = new double[2];
+        likeDeviations.accumulate(itemIdx, itemRatingsVector, terms);
+        dislikeDeviations.accumulate(itemIdx, itemRatingsVector, terms);
+        double predictRatings = terms[0], cardinaryValues = terms[1];
 
-        for (Vector.VectorEntry comparedItemIdxRating : itemRatingsVector) {
-            int comparedItemIdx = comparedItemIdxRating.index();
-            if (comparedItemIdx == itemIdx) {
-                continue;
-            }
-            double comparedRating = comparedItemIdxRating.get();
-            double cardinaryValue = likeCardMatrix.get(itemIdx, comparedItemIdx);
-            if (cardinaryValue > 0) {
-                predictRatings += (likeDevMatrix.get(itemIdx, comparedItemIdx) + comparedRating) * cardinaryValue;
-                cardinaryValues += cardinaryValue;
-            }
-
-            cardinaryValue = dislikeCardMatrix.get(itemIdx, comparedItemIdx);
-            if (cardinaryValue > 0) {
-                predictRatings += (dislikeDevMatrix.get(itemIdx, comparedItemIdx) + comparedRating) * cardinaryValue;
-                cardinaryValues += cardinaryValue;
-            }
-
-        }
         return cardinaryValues > 0 ? predictRatings / cardinaryValues : globalMean;
     }
 }
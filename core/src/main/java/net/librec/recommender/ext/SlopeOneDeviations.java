@@ -0,0 +1,184 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.ext;
+
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.math.structure.SequentialSparseVector;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Sparse symmetric store of the Slope One deviations of the co-rated item pairs.
+ * <p>
+ * Only the pairs (item, comparedItem) with item &lt; comparedItem are kept, in a row
+ * per item sorted by the compared item, with the mean deviation
+ * rating(item) - rating(comparedItem) as a float and the number of co-ratings as an int;
+ * the deviation of the reversed pair is the negated one.
+ */
+final class SlopeOneDeviations implements Serializable {
+    private static final long serialVersionUID = 3650281375452103541L;
+
+    /**
+     * filter of the rating pairs of a user accumulated into the deviations
+     */
+    interface RatingPairFilter {
+        boolean accept(int userIdx, double rating, double comparedRating);
+    }
+
+    private final int[][] comparedItems;
+
+    private final float[][] deviations;
+
+    private final int[][] counts;
+
+    private SlopeOneDeviations(int numItems) {
+        comparedItems = new int[numItems][];
+        deviations = new float[numItems][];
+        counts = new int[numItems][];
+    }
+
+    /**
+     * Accumulate the deviations of the item pairs co-rated in a train matrix, in
+     * parallel over the items.
+     *
+     * @param trainMatrix the user-item train matrix
+     * @param minSupport  the minimum number of co-ratings of a kept pair
+     * @param filter      the filter of the rating pairs, null to accept all of them
+     * @return the deviations
+     */
+    static SlopeOneDeviations build(SequentialAccessSparseMatrix trainMatrix, int minSupport,
+                                    RatingPairFilter filter) {
+        int numItems = trainMatrix.columnSize();
+        SlopeOneDeviations store = new SlopeOneDeviations(numItems);
+        ThreadLocal<Accumulator> accumulators = ThreadLocal.withInitial(() -> new Accumulator(numItems));
+        IntStream.range(0, numItems).parallel().forEach(itemIdx -> {
+            Accumulator accumulator = accumulators.get();
+            SequentialSparseVector userRatingsVector = trainMatrix.column(itemIdx);
+            for (int position = 0, numEntries = userRatingsVector.getNumEntries(); position < numEntries; position++) {
+                int userIdx = userRatingsVector.getIndexAtPosition(position);
+                double rating = userRatingsVector.getAtPosition(position);
+                SequentialSparseVector itemRatingsVector = trainMatrix.row(userIdx);
+                for (int comparedPosition = itemRatingsVector.getNumEntries() - 1; comparedPosition >= 0; comparedPosition--) {
+                    int comparedItemIdx = itemRatingsVector.getIndexAtPosition(comparedPosition);
+                    if (comparedItemIdx <= itemIdx) {
+                        break;
+                    }
+                    double comparedRating = itemRatingsVector.getAtPosition(comparedPosition);
+                    if (filter == null || filter.accept(userIdx, rating, comparedRating)) {
+                        accumulator.add(comparedItemIdx, rating - comparedRating);
+                    }
+                }
+            }
+            accumulator.flush(store, itemIdx, minSupport);
+        });
+        return store;
+    }
+
+    /**
+     * Accumulate the terms of the weighted Slope One prediction of an item from the
+     * ratings of a user.
+     *
+     * @param itemIdx           the item to predict
+     * @param itemRatingsVector the ratings of the user
+     * @param terms             terms[0] += (deviation + rating) * count and terms[1] += count
+     *                          over the rated items co-rated with the item
+     */
+    void accumulate(int itemIdx, SequentialSparseVector itemRatingsVector, double[] terms) {
+        for (int position = 0, numEntries = itemRatingsVector.getNumEntries(); position < numEntries; position++) {
+            int comparedItemIdx = itemRatingsVector.getIndexAtPosition(position);
+            if (comparedItemIdx == itemIdx) {
+                continue;
+            }
+            int row = Math.min(itemIdx, comparedItemIdx);
+            int pairPosition = Arrays.binarySearch(comparedItems[row], Math.max(itemIdx, comparedItemIdx));
+            if (pairPosition >= 0) {
+                double deviation = deviations[row][pairPosition];
+                int count = counts[row][pairPosition];
+                terms[0] += ((itemIdx < comparedItemIdx ? deviation : -deviation)
+                        + itemRatingsVector.getAtPosition(position)) * count;
+                terms[1] += count;
+            }
+        }
+    }
+
+    /**
+     * @return the number of the kept item pairs
+     */
+    long size() {
+        long size = 0;
+        for (int[] row : comparedItems) {
+            size += row.length;
+        }
+        return size;
+    }
+
+    /**
+     * Per-thread dense accumulator of the deviations of an item.
+     */
+    private static final class Accumulator {
+        final double[] sums;
+        final int[] counts;
+        final int[] touched;
+        int numTouched;
+
+        Accumulator(int numItems) {
+            sums = new double[numItems];
+            counts = new int[numItems];
+            touched = new int[numItems];
+        }
+
+        void add(int comparedItemIdx, double deviation) {
+            if (counts[comparedItemIdx] == 0) {
+                touched[numTouched++] = comparedItemIdx;
+            }
+            sums[comparedItemIdx] += deviation;
+            counts[comparedItemIdx]++;
+        }
+
+        void flush(SlopeOneDeviations store, int itemIdx, int minSupport) {
+            Arrays.sort(touched, 0, numTouched);
+            int size = 0;
+            for (int index = 0; index < numTouched; index++) {
+                if (counts[touched[index]] >= minSupport) {
+                    size++;
+                }
+            }
+            int[] rowItems = new int[size];
+            float[] rowDeviations = new float[size];
+            int[] rowCounts = new int[size];
+            for (int index = 0, position = 0; index < numTouched; index++) {
+                int comparedItemIdx = touched[index];
+                int count = counts[comparedItemIdx];
+                if (count >= minSupport) {
+                    rowItems[position] = comparedItemIdx;
+                    rowDeviations[position] = (float) (sums[comparedItemIdx] / count);
+                    rowCounts[position] = count;
+                    position++;
+                }
+                sums[comparedItemIdx] = 0.0;
+                counts[comparedItemIdx] = 0;
+            }
+            numTouched = 0;
+            store.comparedItems[itemIdx] = rowItems;
+            store.deviations[itemIdx] = rowDeviations;
+            store.counts[itemIdx] = rowCounts;
+        }
+    }
+}
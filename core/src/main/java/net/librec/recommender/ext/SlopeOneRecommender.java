@@ -19,9 +19,6 @@ package net.librec.recommender.ext;
 
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
-import net.librec.math.structure.DenseMatrix;
-import net.librec.math.structure.SequentialSparseVector;
-import net.librec.math.structure.Vector;
 import net.librec.recommender.MatrixRecommender;
 
 /**
@@ -32,12 +29,17 @@ import net.librec.recommender.MatrixRecommender;
  *
  * @author GuoGuibing and Keqiang Wang
  */
-@ModelData({"isRating", "slopeone", "devMatrix", "cardMatrix", "trainMatrix"})
+@ModelData({"isRating", "slopeone", "deviations", "trainMatrix"})
 public class SlopeOneRecommender extends MatrixRecommender {
     /**
-     * matrices for item-item differences with number of occurrences/cardinary
+     * item-item differences with number of occurrences/cardinary of the co-rated items
      */
-    private DenseMatrix devMatrix, cardMatrix;
+    private SlopeOneDeviations deviations;
+
+    /**
+     * minimum number of occurrences of the kept item pairs
+     */
+    private int minSupport;
 
     /**
      * initialization
@@ -48,8 +50,7 @@ public class SlopeOneRecommender extends MatrixRecommender {
     protected void setup() throws LibrecException {
         super.setup();
 
-        devMatrix = new DenseMatrix(numItems, numItems);
-        cardMatrix = new DenseMatrix(numItems, numItems);
+        minSupport = conf.getInt("rec.slopeone.minsupport", 1);
     }
 
     /**
@@ -60,32 +61,8 @@ public class SlopeOneRecommender extends MatrixRecommender {
     @Override
     protected void trainModel() throws LibrecException {
         // compute items' differences
-        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
-            SequentialSparseVector itemRatingsVector = trainMatrix.row(userIdx);
-            for (Vector.VectorEntry itemIdxRating : itemRatingsVector) {
-                int itemIdx = itemIdxRating.index();
-                double userItemRating = itemIdxRating.get();
-                for (Vector.VectorEntry comparedItemIdxRating : itemRatingsVector) {
-                    int comparedItemIdx = comparedItemIdxRating.index();
-                    if (itemIdx != comparedItemIdx) {
-                        double comparedRating = comparedItemIdxRating.get();
-                        devMatrix.set(itemIdx, comparedItemIdx, userItemRating - comparedRating);
-                        cardMatrix.set(itemIdx, comparedItemIdx, 1);
-                    }
-                }
-            }
-        }
-
-        // normalize differences
-        for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
-            for (int comparedItemIdx = 0; comparedItemIdx < numItems; comparedItemIdx++) {
-                double card = cardMatrix.get(itemIdx, comparedItemIdx);
-                if (card > 0) {
-                    double sum = devMatrix.get(itemIdx, comparedItemIdx);
-                    devMatrix.set(itemIdx, comparedItemIdx, sum / card);
-                }
-            }
-        }
+        deviations = SlopeOneDeviations.build(trainMatrix, minSupport, null);
+        LOG.info("item pairs: " + deviations.size());
     }
 
 
@@ -99,20 +76,9 @@ public class SlopeOneRecommender extends MatrixRecommender {
      */
     @Override
     protected double predict(int userIdx, int itemIdx) throws LibrecException {
-        SequentialSparseVector itemRatingsVector = trainMatrix.row(userIdx);
-        double predictRatings = 0, cardinaryValues = 0;
-        for (Vector.VectorEntry itemIdxRating : itemRatingsVector) {
-            int comparedItemIdx = itemIdxRating.index();
-            if (comparedItemIdx == itemIdx) {
-                continue;
-            }
-            double userItemRating = itemIdxRating.get();
-            double cardinaryValue = cardMatrix.get(itemIdx, comparedItemIdx);
-            if (cardinaryValue > 0) {
-                predictRatings += (devMatrix.get(itemIdx, comparedItemIdx) + userItemRating) * cardinaryValue;
-                cardinaryValues += cardinaryValue;
-            }
-        }
+        double[] terms = new double[2];
+        deviations.accumulate(itemIdx, trainMatrix.row(userIdx), terms);
+        double predictRatings = terms[0], cardinaryValues = terms[1];
 
         return cardinaryValues > 0 ? predictRatings / cardinaryValues : globalMean;
     }
@@ -17,30 +17,36 @@
  */
 package net.librec.recommender.hybrid;
 
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Sets;
-import com.google.common.collect.Table;
-import com.google.common.collect.Tables;
 import net.librec.common.LibrecException;
 import net.librec.math.structure.SequentialSparseVector;
-import net.librec.math.structure.Vector;
 import net.librec.recommender.MatrixRecommender;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
+import java.util.Arrays;
 
 /**
  * Zhou et al., <strong>Solving the apparent diversity-accuracy dilemma of recommender systems</strong>, Proceedings of
  * the National Academy of Sciences, 2010.
+ * <p>
+ * The scores of all the items for a user are computed at once by spreading the resources of the rated items to
+ * the users who rated them and back to the items, over the rows and the columns of the train matrix. Each thread
+ * keeps the scores of its last user, so that ranking users in parallel needs no lock.
  *
  * @author guoguibing and Keqiang Wang
  */
 public class HybridRecommender extends MatrixRecommender {
-    Table<Integer, Integer, Double> userItemRanks = HashBasedTable.create();
     protected float lambda;
 
-    Map<Integer, Integer> itemDegrees = new HashMap<>();
+    /**
+     * resource each user receives from an item: degree^(-lambda)
+     */
+    private double[] itemResources;
+
+    /**
+     * denominator of the score of each item: degree^(1-lambda)
+     */
+    private double[] itemScoreDenominators;
+
+    private ThreadLocal<UserScores> userScores;
 
     /**
      * initialization
@@ -53,9 +59,14 @@ public class HybridRecommender extends MatrixRecommender {
 
         lambda = conf.getFloat("rec.hybrid.lambda");
 
+        itemResources = new double[numItems];
+        itemScoreDenominators = new double[numItems];
         for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
-            itemDegrees.put(itemIdx, trainMatrix.column(itemIdx).size());
+            int itemDegree = trainMatrix.column(itemIdx).getNumEntries();
+            itemResources[itemIdx] = 1.0 / Math.pow(itemDegree, lambda);
+            itemScoreDenominators[itemIdx] = Math.pow(itemDegree, 1 - lambda);
         }
+        userScores = ThreadLocal.withInitial(UserScores::new);
     }
 
     /**
@@ -70,51 +81,61 @@ public class HybridRecommender extends MatrixRecommender {
 
 
     @Override
-    protected synchronized double predict(int userIdx, int itemIdx) throws LibrecException {
+    protected double predict(int userIdx, int itemIdx) throws LibrecException {
         // Note that in ranking, we first check a user u, and then check the
         // ranking score of each candidate items
-        if (!userItemRanks.containsRow(userIdx)) {
-            // new user
-            userItemRanks.clear();
+        UserScores scores = userScores.get();
+        if (scores.userIdx != userIdx) {
+            scores.compute(userIdx);
+        }
+        return scores.itemScores[itemIdx];
+    }
+
+    /**
+     * Scores of all the items for the last user of a thread.
+     */
+    private final class UserScores {
+        int userIdx = -1;
+        final double[] userResources = new double[numUsers];
+        final double[] itemScores = new double[numItems];
+        final boolean[] ratedItems = new boolean[numItems];
+
+        void compute(int userIdx) {
+            Arrays.fill(userResources, 0.0);
+            Arrays.fill(itemScores, 0.0);
+            Arrays.fill(ratedItems, false);
 
+            // distribute resources to users, including user u
             SequentialSparseVector itemRatingsVector = trainMatrix.row(userIdx);
-            Set<Integer> itemsSet = Sets.newHashSetWithExpectedSize((int) (itemRatingsVector.size() * 1.5));
-            for (Vector.VectorEntry vectorEntry : itemRatingsVector) {
-                if (vectorEntry.get() != 0.0) {
-                    itemsSet.add(vectorEntry.index());
+            for (int position = 0, numEntries = itemRatingsVector.getNumEntries(); position < numEntries; position++) {
+                if (itemRatingsVector.getAtPosition(position) == 0.0) {
+                    continue;
+                }
+                int ratedItemIdx = itemRatingsVector.getIndexAtPosition(position);
+                ratedItems[ratedItemIdx] = true;
+                double itemResource = itemResources[ratedItemIdx];
+                for (int tempUserIdx : trainMatrix.column(ratedItemIdx).getIndices()) {
+                    userResources[tempUserIdx] += itemResource;
                 }
             }
 
-            // distribute resources to users, including user u
-            Map<Integer, Double> userResources = new HashMap<>();
+            // redistribute resources to items
             for (int tempUserIdx = 0; tempUserIdx < numUsers; tempUserIdx++) {
+                if (userResources[tempUserIdx] == 0.0) {
+                    continue;
+                }
                 SequentialSparseVector tempItemRatingsVector = trainMatrix.row(tempUserIdx);
-                double sum = 0;
-                int tempItemsCount = tempItemRatingsVector.size();
+                double userResource = userResources[tempUserIdx] / tempItemRatingsVector.getNumEntries();
                 for (int tempItemIdx : tempItemRatingsVector.getIndices()) {
-                    if (itemsSet.contains(tempItemIdx))
-                        sum += 1.0 / Math.pow(itemDegrees.get(tempItemIdx), lambda);
+                    itemScores[tempItemIdx] += userResource;
                 }
-
-                if (tempItemsCount > 0)
-                    userResources.put(tempUserIdx, sum / tempItemsCount);
             }
 
-            // redistribute resources to items
             for (int tempItemIdx = 0; tempItemIdx < numItems; tempItemIdx++) {
-                if (itemsSet.contains(tempItemIdx))
-                    continue;
-
-                SequentialSparseVector tempUserRatingsVector = trainMatrix.column(tempItemIdx);
-                double sum = 0;
-                for (int tempUserIdx : tempUserRatingsVector.getIndices())
-                    sum += userResources.containsKey(tempUserIdx) ? userResources.get(tempUserIdx) : 0.0;
-
-                double score = sum / Math.pow(itemDegrees.get(tempItemIdx), 1 - lambda);
-                userItemRanks.put(userIdx, tempItemIdx, score);
+                itemScores[tempItemIdx] = ratedItems[tempItemIdx] ? 0.0
+                        : itemScores[tempItemIdx] / itemScoreDenominators[tempItemIdx];
             }
+            this.userIdx = userIdx;
         }
-
-        return userItemRanks.contains(userIdx, itemIdx) ? userItemRanks.get(userIdx, itemIdx) : 0.0;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,363 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.item;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.ints.Int2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.librec.conf.Configuration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntPredicate;
+
+/**
+ * Bounded cache of the ranked items of the users.
+ * <p>
+ * The top rec.cache.topn items of a user, without filter, are kept as an array
+ * of item indices and an array of scores. A request of n items with a filter
+ * is answered from the cached items as long as n of them are accepted, or if
+ * the cached items are all the candidate items of the user.
+ * <p>
+ * The users are striped over rec.cache.segments segments, each with its own
+ * lock, so that concurrent requests of different users rarely wait for each
+ * other. Each segment holds its share of rec.cache.users users and
+ * rec.cache.bytes bytes, beyond which its least recently used users are
+ * evicted.
+ * <p>
+ * The cached items are bound to the version of the model, which
+ * {@link #invalidateAll()} increments when the model is retrained. Incremental
+ * updates invalidate the users they concern, and the users whose cached items
+ * contain an updated item; the other users keep their items until the next
+ * version, even if an updated item would now enter them. A result computed
+ * while an invalidation of the segment of its user happens is not cached.
+ */
+public class RecommendedResultCache {
+
+    /**
+     * estimated size in bytes of an entry besides its arrays
+     */
+    private static final long ENTRY_OVERHEAD = 80L;
+
+    private final int topN;
+
+    private final Segment[] segments;
+
+    private final AtomicLong modelVersion = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private static final class Entry {
+        final long modelVersion;
+        final int[] items;
+        final double[] scores;
+        /**
+         * whether the items are all the candidate items of the user
+         */
+        final boolean complete;
+
+        Entry(long modelVersion, int[] items, double[] scores, boolean complete) {
+            this.modelVersion = modelVersion;
+            this.items = items;
+            this.scores = scores;
+            this.complete = complete;
+        }
+
+        long bytes() {
+            return ENTRY_OVERHEAD + 12L * items.length;
+        }
+    }
+
+    /**
+     * Users of a stripe, guarded by the lock of the segment.
+     */
+    private static final class Segment {
+        final int maxUsers;
+
+        final long maxBytes;
+
+        /**
+         * entries by user index, in the order of their last access
+         */
+        final Int2ObjectLinkedOpenHashMap<Entry> entries = new Int2ObjectLinkedOpenHashMap<>();
+
+        long bytes;
+
+        /**
+         * number of invalidations, a result computed before the last one is not cached
+         */
+        long generation;
+
+        Segment(int maxUsers, long maxBytes) {
+            this.maxUsers = maxUsers;
+            this.maxBytes = maxBytes;
+        }
+
+        void remove(int userIdx) {
+            Entry entry = entries.remove(userIdx);
+            if (entry != null) {
+                bytes -= entry.bytes();
+            }
+        }
+    }
+
+    /**
+     * A cache of a single segment, evicting the least recently used users of all.
+     *
+     * @param maxUsers the maximum number of cached users
+     * @param maxBytes the maximum estimated size in bytes of the cache
+     * @param topN     the number of items cached by user
+     */
+    public RecommendedResultCache(int maxUsers, long maxBytes, int topN) {
+        this(maxUsers, maxBytes, topN, 1);
+    }
+
+    /**
+     * @param maxUsers    the maximum number of cached users
+     * @param maxBytes    the maximum estimated size in bytes of the cache
+     * @param topN        the number of items cached by user
+     * @param numSegments the number of segments, rounded up to a power of two
+     */
+    public RecommendedResultCache(int maxUsers, long maxBytes, int topN, int numSegments) {
+        this.topN = topN;
+        int size = HashCommon.nextPowerOfTwo(Math.max(1, numSegments));
+        segments = new Segment[size];
+        for (int index = 0; index < size; index++) {
+            segments[index] = new Segment((maxUsers + size - 1) / size, maxBytes / size);
+        }
+    }
+
+    /**
+     * Build the cache of the configuration.
+     *
+     * @param conf configuration
+     * @return the cache, or null if rec.cache.enable is not set
+     */
+    public static RecommendedResultCache build(Configuration conf) {
+        if (!conf.getBoolean("rec.cache.enable", false)) {
+            return null;
+        }
+        return new RecommendedResultCache(conf.getInt("rec.cache.users", 100000),
+                conf.getLong("rec.cache.bytes", 64L << 20),
+                conf.getInt("rec.cache.topn", conf.getInt("rec.recommender.ranking.topn", 10)),
+                conf.getInt("rec.cache.segments", 16));
+    }
+
+    private Segment segmentOf(int userIdx) {
+        return segments[HashCommon.mix(userIdx) & (segments.length - 1)];
+    }
+
+    /**
+     * @return the number of items cached by user
+     */
+    public int getTopN() {
+        return topN;
+    }
+
+    /**
+     * @return the version of the model of the cached items
+     */
+    public long getModelVersion() {
+        return modelVersion.get();
+    }
+
+    /**
+     * @param userIdx user index
+     * @return the number of invalidations of the segment of the user, to pass to
+     * {@link #put} the result computed after
+     */
+    public long getGeneration(int userIdx) {
+        Segment segment = segmentOf(userIdx);
+        synchronized (segment) {
+            return segment.generation;
+        }
+    }
+
+    /**
+     * The top n cached items of a user.
+     *
+     * @param userIdx    user index
+     * @param n          the number of items
+     * @param acceptItem the filter of the items, null to accept all of them
+     * @return the items with their scores by decreasing score, or null if they are not cached
+     */
+    public List<KeyValue<Integer, Double>> get(int userIdx, int n, IntPredicate acceptItem) {
+        Segment segment = segmentOf(userIdx);
+        Entry entry;
+        synchronized (segment) {
+            entry = segment.entries.getAndMoveToLast(userIdx);
+        }
+        if (entry == null || entry.modelVersion != modelVersion.get()) {
+            misses.increment();
+            return null;
+        }
+        List<KeyValue<Integer, Double>> itemValueList = new ArrayList<>(Math.min(n, entry.items.length));
+        for (int position = 0; position < entry.items.length && itemValueList.size() < n; position++) {
+            if (acceptItem == null || acceptItem.test(entry.items[position])) {
+                itemValueList.add(new KeyValue<>(entry.items[position], entry.scores[position]));
+            }
+        }
+        if (itemValueList.size() < n && !entry.complete) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return itemValueList;
+    }
+
+    /**
+     * Cache the items of a user.
+     *
+     * @param userIdx       user index
+     * @param generation    the generation of the segment of the user before the items were computed
+     * @param itemValueList the items with their scores by decreasing score
+     * @param complete      whether the items are all the candidate items of the user
+     * @return whether the items are cached
+     */
+    public boolean put(int userIdx, long generation, List<KeyValue<Integer, Double>> itemValueList, boolean complete) {
+        int size = itemValueList.size();
+        int[] items = new int[size];
+        double[] scores = new double[size];
+        for (int position = 0; position < size; position++) {
+            KeyValue<Integer, Double> itemValue = itemValueList.get(position);
+            items[position] = itemValue.getKey();
+            scores[position] = itemValue.getValue();
+        }
+        Segment segment = segmentOf(userIdx);
+        synchronized (segment) {
+            if (generation != segment.generation) {
+                return false;
+            }
+            Entry entry = new Entry(modelVersion.get(), items, scores, complete);
+            if (entry.bytes() > segment.maxBytes) {
+                return false;
+            }
+            segment.remove(userIdx);
+            segment.entries.putAndMoveToLast(userIdx, entry);
+            segment.bytes += entry.bytes();
+            while (segment.entries.size() > segment.maxUsers || segment.bytes > segment.maxBytes) {
+                segment.bytes -= segment.entries.removeFirst().bytes();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Invalidate the cached items of a user.
+     *
+     * @param userIdx user index
+     */
+    public void invalidateUser(int userIdx) {
+        Segment segment = segmentOf(userIdx);
+        synchronized (segment) {
+            segment.generation++;
+            segment.remove(userIdx);
+        }
+    }
+
+    /**
+     * Invalidate the cached items of the users which contain one of the items.
+     *
+     * @param itemIndices item indices
+     */
+    public void invalidateItems(int[] itemIndices) {
+        int[] sortedItems = itemIndices.clone();
+        Arrays.sort(sortedItems);
+        IntArrayList invalidUsers = new IntArrayList();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.generation++;
+                if (sortedItems.length == 0 || segment.entries.isEmpty()) {
+                    continue;
+                }
+                invalidUsers.clear();
+                for (Int2ObjectMap.Entry<Entry> userEntry : segment.entries.int2ObjectEntrySet()) {
+                    for (int itemIdx : userEntry.getValue().items) {
+                        if (Arrays.binarySearch(sortedItems, itemIdx) >= 0) {
+                            invalidUsers.add(userEntry.getIntKey());
+                            break;
+                        }
+                    }
+                }
+                for (int userIdx : invalidUsers) {
+                    segment.remove(userIdx);
+                }
+            }
+        }
+    }
+
+    /**
+     * Invalidate all the cached items for a new version of the model.
+     */
+    public void invalidateAll() {
+        modelVersion.incrementAndGet();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.generation++;
+                segment.entries.clear();
+                segment.bytes = 0L;
+            }
+        }
+    }
+
+    /**
+     * @return the number of cached users
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.entries.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the estimated size in bytes of the cache
+     */
+    public long getBytes() {
+        long bytes = 0L;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                bytes += segment.bytes;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the number of requests answered from the cache
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of requests not answered from the cache
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+}
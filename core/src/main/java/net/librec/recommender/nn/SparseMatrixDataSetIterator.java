@@ -0,0 +1,234 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.nn;
+
+import net.librec.math.algorithm.Randoms;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.math.structure.SequentialSparseVector;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator over mini-batches of the rows (or the columns) of a sparse matrix
+ * for the auto-encoders, e.g. {@link net.librec.recommender.nn.rating.AutoRecRecommender}
+ * and {@link net.librec.recommender.nn.ranking.CDAERecommender}.
+ * <p>
+ * Only the current batch is densified, through a host buffer reused between
+ * batches; the features are also the labels. The index of the row of each
+ * example is kept in the example meta data of the batch. The examples are
+ * shuffled on every reset if a batch does not cover the whole matrix;
+ * otherwise the single batch is built once and returned on every pass.
+ * Wrap the iterator in an {@link org.deeplearning4j.datasets.iterator.AsyncDataSetIterator}
+ * to prefetch the batches.
+ */
+public class SparseMatrixDataSetIterator implements DataSetIterator {
+    private static final long serialVersionUID = -1793474233618359574L;
+
+    private final SequentialAccessSparseMatrix matrix;
+
+    private final boolean byColumn;
+
+    private final int numExamples;
+
+    private final int numInputs;
+
+    private final int batchSize;
+
+    private final boolean shuffle;
+
+    private final int[] order;
+
+    private int cursor;
+
+    private double[] buffer;
+
+    private DataSet wholeBatch;
+
+    private DataSetPreProcessor preProcessor;
+
+    /**
+     * Construct an iterator over the rows or the columns of a matrix.
+     *
+     * @param matrix    the sparse matrix
+     * @param byColumn  true to iterate over the columns, e.g. the items of a user-item matrix
+     * @param batchSize the number of examples of a batch, all the examples if not positive
+     */
+    public SparseMatrixDataSetIterator(SequentialAccessSparseMatrix matrix, boolean byColumn, int batchSize) {
+        this.matrix = matrix;
+        this.byColumn = byColumn;
+        this.numExamples = byColumn ? matrix.columnSize() : matrix.rowSize();
+        this.numInputs = byColumn ? matrix.rowSize() : matrix.columnSize();
+        this.batchSize = batchSize > 0 ? Math.min(batchSize, numExamples) : numExamples;
+        this.shuffle = this.batchSize < numExamples;
+        this.order = new int[numExamples];
+        for (int index = 0; index < numExamples; index++) {
+            order[index] = index;
+        }
+        reset();
+    }
+
+    private INDArray densify(int[] indices, int from, int to, double[] data) {
+        Arrays.fill(data, 0.0D);
+        for (int position = from; position < to; position++) {
+            SequentialSparseVector vector = byColumn ? matrix.column(indices[position]) : matrix.row(indices[position]);
+            int offset = (position - from) * numInputs;
+            for (int entry = 0, numEntries = vector.getNumEntries(); entry < numEntries; entry++) {
+                data[offset + vector.getIndexAtPosition(entry)] = vector.getAtPosition(entry);
+            }
+        }
+        return Nd4j.create(data, new int[]{to - from, numInputs}, 'c');
+    }
+
+    @Override
+    public DataSet next(int num) {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        int from = cursor;
+        int to = Math.min(numExamples, from + num);
+        cursor = to;
+        if (!shuffle && from == 0 && to == numExamples && wholeBatch != null) {
+            return wholeBatch;
+        }
+
+        double[] data = buffer;
+        if (data == null || data.length != (to - from) * numInputs) {
+            data = new double[(to - from) * numInputs];
+            if (to - from == batchSize) {
+                buffer = data;
+            }
+        }
+        INDArray features = densify(order, from, to, data);
+        List<Integer> exampleIndices = new ArrayList<>(to - from);
+        for (int position = from; position < to; position++) {
+            exampleIndices.add(order[position]);
+        }
+
+        DataSet dataSet = new DataSet(features, features);
+        dataSet.setExampleMetaData(exampleIndices);
+        if (preProcessor != null) {
+            preProcessor.preProcess(dataSet);
+        }
+        if (!shuffle && from == 0 && to == numExamples) {
+            wholeBatch = dataSet;
+            buffer = null;
+        }
+        return dataSet;
+    }
+
+    @Override
+    public DataSet next() {
+        return next(batchSize);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return cursor < numExamples;
+    }
+
+    @Override
+    public void reset() {
+        cursor = 0;
+        if (shuffle) {
+            for (int index = numExamples - 1; index > 0; index--) {
+                int swapIndex = Randoms.uniform(index + 1);
+                int swap = order[index];
+                order[index] = order[swapIndex];
+                order[swapIndex] = swap;
+            }
+        }
+    }
+
+    /**
+     * Get the indices of the examples of a batch returned by this iterator.
+     *
+     * @param dataSet a batch
+     * @return the indices of the rows (or the columns) of the examples
+     */
+    public static int[] getExampleIndices(DataSet dataSet) {
+        List<Integer> exampleIndices = dataSet.getExampleMetaData(Integer.class);
+        int[] indices = new int[exampleIndices.size()];
+        for (int position = 0; position < indices.length; position++) {
+            indices[position] = exampleIndices.get(position);
+        }
+        return indices;
+    }
+
+    @Override
+    public int totalExamples() {
+        return numExamples;
+    }
+
+    @Override
+    public int inputColumns() {
+        return numInputs;
+    }
+
+    @Override
+    public int totalOutcomes() {
+        return numInputs;
+    }
+
+    @Override
+    public boolean resetSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean asyncSupported() {
+        return true;
+    }
+
+    @Override
+    public int batch() {
+        return batchSize;
+    }
+
+    @Override
+    public int cursor() {
+        return cursor;
+    }
+
+    @Override
+    public int numExamples() {
+        return numExamples;
+    }
+
+    @Override
+    public void setPreProcessor(DataSetPreProcessor preProcessor) {
+        this.preProcessor = preProcessor;
+    }
+
+    @Override
+    public DataSetPreProcessor getPreProcessor() {
+        return preProcessor;
+    }
+
+    @Override
+    public List<String> getLabels() {
+        return null;
+    }
+}
@@ -35,11 +35,24 @@ import java.util.Arrays;
  * @author Ma Chen
  */
 public class CDAELayerImp extends BaseLayer<CDAELayer> {
+    /**
+     * the users of the rows of the current input, null if the input holds all the users in order
+     */
+    private int[] userIndices;
 
     public CDAELayerImp(NeuralNetConfiguration conf) {
         super(conf);
     }
 
+    /**
+     * Set the users of the rows of the next inputs, e.g. of a mini-batch.
+     *
+     * @param userIndices the user of each row, null if the inputs hold all the users in order
+     */
+    public void setUserIndices(int[] userIndices) {
+        this.userIndices = userIndices;
+    }
+
     @Override
     public INDArray preOutput(INDArray x, boolean training) {
         if (x == null) {
@@ -64,6 +77,9 @@ public class CDAELayerImp extends BaseLayer<CDAELayer> {
         INDArray b = getParam(CDAEParamInitializer.BIAS_KEY);
         INDArray W = getParam(CDAEParamInitializer.WEIGHT_KEY);
         INDArray U = getParam(CDAEParamInitializer.USER_WEIGHT_KEY);
+        if (userIndices != null) {
+            U = U.getRows(userIndices);
+        }
 
         //Input validation:
         if (input.rank() != 2 || input.columns() != W.rows()) {
@@ -122,7 +138,15 @@ public class CDAELayerImp extends BaseLayer<CDAELayer> {
         INDArray weightGrad = gradientViews.get(CDAEParamInitializer.WEIGHT_KEY); //f order
         Nd4j.gemm(input, delta, weightGrad, true, false, 1.0, 0.0);
         INDArray userWeightGrad = gradientViews.get(CDAEParamInitializer.USER_WEIGHT_KEY); //f order
-        userWeightGrad.assign(delta);
+        if (userIndices == null) {
+            userWeightGrad.assign(delta);
+        } else {
+            // only the users of the mini-batch have a gradient
+            userWeightGrad.assign(0);
+            for (int row = 0; row < userIndices.length; row++) {
+                userWeightGrad.putRow(userIndices[row], delta.getRow(row));
+            }
+        }
         INDArray biasGrad = gradientViews.get(CDAEParamInitializer.BIAS_KEY);
         biasGrad.assign(delta.sum(0)); //biasGrad is initialized/zeroed first
 
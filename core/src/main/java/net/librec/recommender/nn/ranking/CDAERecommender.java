@@ -21,6 +21,8 @@ import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.structure.MatrixEntry;
 import net.librec.recommender.MatrixRecommender;
+import net.librec.recommender.nn.SparseMatrixDataSetIterator;
+import org.deeplearning4j.datasets.iterator.AsyncDataSetIterator;
 import org.deeplearning4j.nn.api.OptimizationAlgorithm;
 import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
 import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
@@ -30,6 +32,8 @@ import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
 import org.deeplearning4j.nn.weights.WeightInit;
 import org.nd4j.linalg.activations.Activation;
 import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.lossfunctions.LossFunctions;
 
@@ -80,15 +84,25 @@ public class CDAERecommender extends MatrixRecommender {
      */
     private String outputActivation;
 
+    /**
+     * the number of users in a mini-batch, all the users if not positive
+     */
+    private int batchSize;
+
+    /**
+     * the number of mini-batches prefetched asynchronously
+     */
+    private int prefetchSize;
+
     /**
      * the autorec model
      */
     private MultiLayerNetwork CDAEModel;
 
     /**
-     * the data structure that stores the training data
+     * the mini-batches of the user vectors of the training data
      */
-    private INDArray trainSet;
+    private SparseMatrixDataSetIterator trainIterator;
 
     /**
      * the data structure that stores the predicted data
@@ -106,14 +120,12 @@ public class CDAERecommender extends MatrixRecommender {
         numIterations = conf.getInt("rec.iterator.maximum");
         hiddenActivation = conf.get("rec.hidden.activation");
         outputActivation = conf.get("rec.output.activation");
+        batchSize = conf.getInt("rec.iterator.batchsize", 0);
+        prefetchSize = conf.getInt("rec.iterator.prefetch", 2);
 
-        // transform the sparse matrix to INDArray
         // the sparse training matrix has been binarized
-        int[] matrixShape = {numUsers, numItems};
-        trainSet = Nd4j.zeros(matrixShape);
-        for (MatrixEntry me: trainMatrix) {
-            trainSet.put(me.row(), me.column(), me.get());
-        }
+        // the user vectors are densified one mini-batch at a time
+        trainIterator = new SparseMatrixDataSetIterator(trainMatrix, false, batchSize);
     }
 
     @Override
@@ -142,26 +154,67 @@ public class CDAERecommender extends MatrixRecommender {
         CDAEModel = new MultiLayerNetwork(conf);
         CDAEModel.init();
 
-        for (int iter = 1; iter <= numIterations; iter++) {
-            loss = 0.0d;
-
-            CDAEModel.fit(trainSet, trainSet);
-            loss = CDAEModel.score();
+        CDAELayerImp userLayer = (CDAELayerImp) CDAEModel.getLayer(0);
 
-            if (isConverged(iter) && earlyStop) {
-                break;
+        DataSetIterator batches = trainIterator;
+        if (prefetchSize > 0 && trainIterator.batch() < trainIterator.numExamples()) {
+            batches = new AsyncDataSetIterator(trainIterator, prefetchSize);
+        }
+        try {
+            for (int iter = 1; iter <= numIterations; iter++) {
+                loss = 0.0d;
+
+                batches.reset();
+                while (batches.hasNext()) {
+                    DataSet batch = batches.next();
+                    userLayer.setUserIndices(getUserIndices(batch));
+                    CDAEModel.fit(batch);
+                    loss += CDAEModel.score() * batch.numExamples();
+                }
+                loss /= numUsers;
+
+                if (isConverged(iter) && earlyStop) {
+                    break;
+                }
+
+                lastLoss = loss;
+            }
+        } finally {
+            if (batches instanceof AsyncDataSetIterator) {
+                ((AsyncDataSetIterator) batches).shutdown();
             }
-
-            lastLoss = loss;
         }
 
         // calculate the predicted ratings and filter out the items that appear in training set
-        predictedMatrix = CDAEModel.output(trainSet);
+        predictedMatrix = Nd4j.zeros(numUsers, numItems);
+        trainIterator.reset();
+        while (trainIterator.hasNext()) {
+            DataSet batch = trainIterator.next();
+            int[] userIndices = getUserIndices(batch);
+            userLayer.setUserIndices(userIndices);
+            INDArray output = CDAEModel.output(batch.getFeatures());
+            if (userIndices == null) {
+                predictedMatrix.assign(output);
+            } else {
+                for (int row = 0; row < userIndices.length; row++) {
+                    predictedMatrix.putRow(userIndices[row], output.getRow(row));
+                }
+            }
+        }
+        userLayer.setUserIndices(null);
         for (MatrixEntry me: trainMatrix) {
             predictedMatrix.put(me.row(), me.column(), 0);
         }
     }
 
+    /**
+     * @param batch a mini-batch of user vectors
+     * @return the users of the batch, null if the batch holds all the users in order
+     */
+    private int[] getUserIndices(DataSet batch) {
+        return batch.numExamples() == numUsers ? null : SparseMatrixDataSetIterator.getExampleIndices(batch);
+    }
+
     @Override
     protected double predict(int userIdx, int itemIdx) throws LibrecException {
         return predictedMatrix.getDouble(userIdx, itemIdx);
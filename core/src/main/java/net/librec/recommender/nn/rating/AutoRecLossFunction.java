@@ -29,14 +29,23 @@ import org.nd4j.linalg.primitives.Pair;
  * @author Ma Chen
  */
 public class AutoRecLossFunction implements ILossFunction {
-    public static INDArray trainMask;
+
+    /**
+     * Only the observed ratings, i.e. the non-zero labels, contribute to the loss.
+     *
+     * @param labels the ratings of a batch
+     * @return the indicator matrix of the observed ratings
+     */
+    private INDArray trainMask(INDArray labels) {
+        return labels.neq(0.0D);
+    }
 
     private INDArray scoreArray(INDArray labels, INDArray preOutput, IActivation activationFn, INDArray mask) {
         INDArray scoreArr;
         INDArray output = activationFn.getActivation(preOutput.dup(), true);
         INDArray yMinusyHat = Transforms.abs(labels.sub(output));
         scoreArr = yMinusyHat.mul(yMinusyHat);
-        scoreArr = scoreArr.mul(trainMask);
+        scoreArr = scoreArr.mul(trainMask(labels));
 
         if (mask != null) {
             scoreArr.muliColumnVector(mask);
@@ -69,7 +78,7 @@ public class AutoRecLossFunction implements ILossFunction {
         INDArray dldyhat = yMinusyHat.mul(-2);
 
         INDArray gradients = activationFn.backprop(preOutput.dup(), dldyhat).getFirst();
-        gradients = gradients.mul(trainMask);
+        gradients = gradients.mul(trainMask(labels));
         //multiply with masks, always
         if (mask != null) {
             gradients.muliColumnVector(mask);
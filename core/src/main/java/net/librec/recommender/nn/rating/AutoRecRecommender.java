@@ -19,8 +19,10 @@ package net.librec.recommender.nn.rating;
 
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
-import net.librec.math.structure.MatrixEntry;
+import net.librec.math.structure.Vector;
 import net.librec.recommender.MatrixRecommender;
+import net.librec.recommender.nn.SparseMatrixDataSetIterator;
+import org.deeplearning4j.datasets.iterator.AsyncDataSetIterator;
 import org.deeplearning4j.nn.api.OptimizationAlgorithm;
 import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
 import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
@@ -31,6 +33,8 @@ import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
 import org.deeplearning4j.nn.weights.WeightInit;
 import org.nd4j.linalg.activations.Activation;
 import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
 import org.nd4j.linalg.factory.Nd4j;
 
 /**
@@ -38,7 +42,7 @@ import org.nd4j.linalg.factory.Nd4j;
  *
  * @author Ma Chen
  */
-@ModelData({"isRating", "autorec", "autoRecModel", "trainSet"})
+@ModelData({"isRating", "autorec", "autoRecModel", "trainMatrix"})
 public class AutoRecRecommender extends MatrixRecommender {
     /**
      * the dimension of input units
@@ -81,19 +85,24 @@ public class AutoRecRecommender extends MatrixRecommender {
     private String outputActivation;
 
     /**
-     * the autorec model
+     * the number of items in a mini-batch, all the items if not positive
      */
-    private MultiLayerNetwork autoRecModel;
+    private int batchSize;
 
     /**
-     * the data structure that stores the training data
+     * the number of mini-batches prefetched asynchronously
      */
-    private INDArray trainSet;
+    private int prefetchSize;
+
+    /**
+     * the autorec model
+     */
+    private MultiLayerNetwork autoRecModel;
 
     /**
-     * the data structure that indicates which element in the user-item is non-zero
+     * the mini-batches of the item rating vectors of the training data
      */
-    private INDArray trainSetMask;
+    private SparseMatrixDataSetIterator trainIterator;
 
 
     @Override
@@ -106,15 +115,11 @@ public class AutoRecRecommender extends MatrixRecommender {
         numIterations = conf.getInt("rec.iterator.maximum");
         hiddenActivation = conf.get("rec.hidden.activation");
         outputActivation = conf.get("rec.output.activation");
+        batchSize = conf.getInt("rec.iterator.batchsize", 0);
+        prefetchSize = conf.getInt("rec.iterator.prefetch", 2);
 
-        // transform the sparse matrix to INDArray
-        int[] matrixShape = {numItems, numUsers};
-        trainSet = Nd4j.zeros(matrixShape);
-        trainSetMask = Nd4j.zeros(matrixShape);
-        for (MatrixEntry me: trainMatrix) {
-            trainSet.put(me.column(), me.row(), me.get());
-            trainSetMask.put(me.column(), me.row(), 1);
-        }
+        // the item rating vectors are densified one mini-batch at a time
+        trainIterator = new SparseMatrixDataSetIterator(trainMatrix, true, batchSize);
     }
 
     @Override
@@ -144,23 +149,41 @@ public class AutoRecRecommender extends MatrixRecommender {
         autoRecModel = new MultiLayerNetwork(conf);
         autoRecModel.init();
 
-        for (int iter = 1; iter <= numIterations; iter++) {
-            loss = 0.0d;
-
-            AutoRecLossFunction.trainMask = trainSetMask;
-            autoRecModel.fit(trainSet, trainSet);
-            loss = autoRecModel.score();
-
-            if (isConverged(iter) && earlyStop) {
-                break;
+        DataSetIterator batches = trainIterator;
+        if (prefetchSize > 0 && trainIterator.batch() < trainIterator.numExamples()) {
+            batches = new AsyncDataSetIterator(trainIterator, prefetchSize);
+        }
+        try {
+            for (int iter = 1; iter <= numIterations; iter++) {
+                loss = 0.0d;
+
+                batches.reset();
+                while (batches.hasNext()) {
+                    DataSet batch = batches.next();
+                    autoRecModel.fit(batch);
+                    loss += autoRecModel.score() * batch.numExamples();
+                }
+                loss /= trainIterator.numExamples();
+
+                if (isConverged(iter) && earlyStop) {
+                    break;
+                }
+                lastLoss = loss;
+            }
+        } finally {
+            if (batches instanceof AsyncDataSetIterator) {
+                ((AsyncDataSetIterator) batches).shutdown();
             }
-            lastLoss = loss;
         }
     }
 
     @Override
     protected double predict(int userIdx, int itemIdx) throws LibrecException {
-        INDArray predictedRatingVector = autoRecModel.output(trainSet.getRow(itemIdx));
+        double[] itemRatings = new double[trainMatrix.rowSize()];
+        for (Vector.VectorEntry vectorEntry : trainMatrix.column(itemIdx)) {
+            itemRatings[vectorEntry.index()] = vectorEntry.get();
+        }
+        INDArray predictedRatingVector = autoRecModel.output(Nd4j.create(itemRatings, new int[]{1, itemRatings.length}));
         return predictedRatingVector.getDouble(userIdx);
     }
 }
@@ -8,6 +8,7 @@ import net.librec.common.LibrecException;
 import net.librec.data.convertor.appender.LocationDataAppender;
 import net.librec.data.structure.AbstractBaseDataEntry;
 import net.librec.data.structure.LibrecDataList;
+import net.librec.eval.EvalStatistics;
 import net.librec.math.algorithm.Randoms;
 import net.librec.math.structure.DataSet;
 import net.librec.math.structure.SequentialAccessSparseMatrix;
@@ -118,7 +119,6 @@ public class USGRecommender extends AbstractRecommender {
             int numTestItemsByUser = testMatrix.row(userIdx).getNumEntries();
             maxNumTestItemsByUser = maxNumTestItemsByUser < numTestItemsByUser ? numTestItemsByUser : maxNumTestItemsByUser;
         }
-        conf.setInts("rec.eval.auc.dropped.num", numDroppedItemsArray);
         conf.setInt("rec.eval.key.test.max.num", maxNumTestItemsByUser);
 
         // for EntropyEvaluator
@@ -142,7 +142,7 @@ public class USGRecommender extends AbstractRecommender {
             }
             itemPurchasedCount[itemIdx] = userNum;
         }
-        conf.setInts("rec.eval.item.purchase.num", itemPurchasedCount);
+        context.setEvalStatistics(new EvalStatistics(numDroppedItemsArray, itemPurchasedCount));
     }
 
     @Override
@@ -54,7 +54,18 @@ public abstract class AbstractRecommenderSimilarity implements RecommenderSimila
      */
     @Override
     public void buildSimilarityMatrix(DataModel dataModel) {
-        conf = dataModel.getContext().getConf();
+        buildSimilarityMatrix(dataModel, dataModel.getContext().getConf());
+    }
+
+    /**
+     * Build similarity matrix with trainMatrix in dataModel, with the options
+     * rec.recommender.similarity.key and rec.similarity.shrinkage of conf.
+     *
+     * @param dataModel the input data model
+     * @param conf      the configuration of the similarity
+     */
+    public void buildSimilarityMatrix(DataModel dataModel, Configuration conf) {
+        this.conf = conf;
         String similarityKey = conf.get("rec.recommender.similarity.key", "user");
         if (StringUtils.isNotBlank(similarityKey)) {
             if (StringUtils.equals(similarityKey, "social")) {
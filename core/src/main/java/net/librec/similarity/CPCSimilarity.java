@@ -17,6 +17,7 @@
  */
 package net.librec.similarity;
 
+import net.librec.conf.Configuration;
 import net.librec.data.DataModel;
 import net.librec.math.structure.MatrixEntry;
 import net.librec.math.structure.SequentialAccessSparseMatrix;
@@ -36,8 +37,10 @@ public class CPCSimilarity extends AbstractRecommenderSimilarity {
      * Build social similarity matrix with trainMatrix in dataModel.
      *
      * @param dataModel the input data model
+     * @param conf      the configuration of the similarity
      */
-    public void buildSimilarityMatrix(DataModel dataModel) {
+    @Override
+    public void buildSimilarityMatrix(DataModel dataModel, Configuration conf) {
         SequentialAccessSparseMatrix trainMatrix = dataModel.getDataSplitter().getTrainData();
         double maximum = 0.0;
         double minimum = 100.0;
@@ -51,7 +54,7 @@ public class CPCSimilarity extends AbstractRecommenderSimilarity {
         }
         median = (maximum + minimum) / 2;
 
-        super.buildSimilarityMatrix(dataModel);
+        super.buildSimilarityMatrix(dataModel, conf);
     }
 
     /**
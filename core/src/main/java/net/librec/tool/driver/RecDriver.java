@@ -20,6 +20,7 @@ package net.librec.tool.driver;
 import net.librec.conf.Configuration;
 import net.librec.job.RecommenderJob;
 import net.librec.tool.LibrecTool;
+import net.librec.tool.server.RecommenderServer;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
@@ -49,6 +50,7 @@ public class RecDriver implements LibrecTool {
         options.addOption("load", false, "load model");
         options.addOption("save", false, "save model");
         options.addOption("exec", false, "run job");
+        options.addOption("serve", false, "serve recommendations");
         options.addOption("conf", true, "the path of configuration file");
         options.addOption("jobconf", true, "a specified key-value pair for configuration");
         options.addOption("D", true, "a specified key-value pair for configuration");
@@ -79,6 +81,12 @@ public class RecDriver implements LibrecTool {
                 conf.set(keyValuePair[0], keyValuePair[1]);
             }
         }
+        //serve recommendations until the process is stopped
+        if (cmd.hasOption("serve")) {
+            RecommenderServer server = RecommenderServer.serve(conf);
+            Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+            return 0;
+        }
         //run job
         RecommenderJob job = new RecommenderJob(conf);
         job.runJob();
@@ -94,6 +102,7 @@ public class RecDriver implements LibrecTool {
         options.addOption("load", false, "load model");
         options.addOption("save", false, "save model");
         options.addOption("exec", false, "run job");
+        options.addOption("serve", false, "serve recommendations");
         options.addOption("conf", true, "the path of configuration file");
         options.addOption("jobconf", true, "a specified key-value pair for configuration");
         options.addOption("D", true, "a specified key-value pair for configuration");
@@ -104,7 +113,7 @@ public class RecDriver implements LibrecTool {
         if (cmd.hasOption("build")) {
         } else if (cmd.hasOption("load")) {
         } else if (cmd.hasOption("save")) {
-        } else if (cmd.hasOption("exec")) {
+        } else if (cmd.hasOption("exec") || cmd.hasOption("serve")) {
             tool.run(args);
         }
     }
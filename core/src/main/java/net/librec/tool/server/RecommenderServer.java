@@ -0,0 +1,517 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.tool.server;
+
+import com.google.common.collect.BiMap;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import net.librec.common.LibrecException;
+import net.librec.conf.Configuration;
+import net.librec.data.DataModel;
+import net.librec.data.structure.AbstractBaseDataEntry;
+import net.librec.data.structure.BaseDataList;
+import net.librec.data.structure.BaseRatingDataEntry;
+import net.librec.data.structure.LibrecDataList;
+import net.librec.filter.RankingFilter;
+import net.librec.job.metrics.MetricsRegistry;
+import net.librec.recommender.AbstractRecommender;
+import net.librec.recommender.MatrixRecommender;
+import net.librec.recommender.Recommender;
+import net.librec.recommender.RecommenderContext;
+import net.librec.recommender.item.KeyValue;
+import net.librec.recommender.item.RecommendedList;
+import net.librec.similarity.RecommenderSimilarity;
+import net.librec.util.DriverClassUtil;
+import net.librec.util.ReflectionUtil;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Embedded query server of a trained {@link MatrixRecommender}.
+ * <p>
+ * The requests are queued and dispatched in micro-batches of at most
+ * rec.server.batch.size requests, waiting at most rec.server.batch.delay.ms for
+ * a batch to fill: the score requests of a batch are predicted by one call of
+ * {@link MatrixRecommender#recommendRating(LibrecDataList)} and the top-n
+ * requests are ranked in parallel. The latencies from the enqueuing to the
+ * answer of the requests are recorded in the timers server.topn and server.score.
+ * <p>
+ * The HTTP endpoints answer in JSON:
+ * <ul>
+ * <li>/topn?user=U&amp;n=10&amp;exclude=I1,I2: the top n items of a user, which
+ * are neither in the train set nor excluded</li>
+ * <li>/score?user=U&amp;items=I1,I2: the predicted ratings of items, null if unknown</li>
+ * <li>/metrics: the metrics of the server, with the latency percentiles</li>
+ * </ul>
+ * The server is not authenticated: it listens on the loopback address unless
+ * rec.server.host sets another one.
+ */
+public class RecommenderServer {
+    private static final Log LOG = LogFactory.getLog(RecommenderServer.class);
+
+    private final MatrixRecommender recommender;
+
+    private final BiMap<String, Integer> userMappingData;
+
+    private final BiMap<String, Integer> itemMappingData;
+
+    /**
+     * filter of the users and the items of the configuration, null for none
+     */
+    private final RankingFilter rankingFilter;
+
+    private final int defaultTopN;
+
+    private final int maxBatchSize;
+
+    private final long maxBatchDelay;
+
+    private final int numThreads;
+
+    private final long requestTimeout;
+
+    private final MetricsRegistry metrics = new MetricsRegistry("server");
+
+    private final BlockingQueue<Request> requestQueue = new LinkedBlockingQueue<>();
+
+    private volatile boolean running;
+
+    private Thread dispatcher;
+
+    private HttpServer httpServer;
+
+    private ExecutorService httpExecutor;
+
+    /**
+     * A queued request, a top-n request if itemIndices is null.
+     */
+    private static final class Request {
+        final long startTime = System.nanoTime();
+        final int userIdx;
+        final int n;
+        final int[] itemIndices;
+        final int[] excludedItems;
+        final CompletableFuture<List<KeyValue<String, Double>>> result = new CompletableFuture<>();
+
+        Request(int userIdx, int n, int[] itemIndices, int[] excludedItems) {
+            this.userIdx = userIdx;
+            this.n = n;
+            this.itemIndices = itemIndices;
+            this.excludedItems = excludedItems;
+        }
+    }
+
+    /**
+     * Create a server of a trained recommender.
+     *
+     * @param recommender the trained recommender
+     * @param conf        configuration
+     */
+    public RecommenderServer(MatrixRecommender recommender, Configuration conf) {
+        this.recommender = recommender;
+        userMappingData = recommender.userMappingData;
+        itemMappingData = recommender.itemMappingData;
+        rankingFilter = RankingFilter.build(conf, userMappingData, itemMappingData);
+        defaultTopN = conf.getInt("rec.recommender.ranking.topn", 10);
+        maxBatchSize = Math.max(1, conf.getInt("rec.server.batch.size", 64));
+        maxBatchDelay = TimeUnit.MILLISECONDS.toNanos(conf.getLong("rec.server.batch.delay.ms", 1L));
+        numThreads = Math.max(1, conf.getInt("rec.server.threads", Runtime.getRuntime().availableProcessors()));
+        requestTimeout = conf.getLong("rec.server.timeout.ms", 10000L);
+    }
+
+    /**
+     * Build the data model of the configuration, load the recommender from
+     * rec.server.model.path, or train it if the path is not set, and start its
+     * server on the host rec.server.host, the loopback address by default, and
+     * the port rec.server.port.
+     *
+     * @param conf configuration
+     * @return the started server
+     * @throws LibrecException        if error occurs during loading or training
+     * @throws ClassNotFoundException if a configured class is not found
+     * @throws IOException            if an I/O error occurs
+     */
+    @SuppressWarnings("unchecked")
+    public static RecommenderServer serve(Configuration conf) throws LibrecException, ClassNotFoundException, IOException {
+        DataModel dataModel = ReflectionUtil.newInstance(
+                (Class<DataModel>) DriverClassUtil.getClass(conf.get("data.model.format")), conf);
+        dataModel.buildDataModel();
+        if (dataModel.hasNextFold()) {
+            dataModel.nextFold();
+        }
+        RecommenderContext context = new RecommenderContext(conf, dataModel);
+        String[] similarityKeys = conf.getStrings("rec.recommender.similarities");
+        if (similarityKeys != null && StringUtils.isNotBlank(conf.get("rec.similarity.class"))) {
+            for (int i = 0; i < similarityKeys.length; i++) {
+                RecommenderSimilarity similarity = ReflectionUtil.newInstance(
+                        (Class<RecommenderSimilarity>) DriverClassUtil.getClass(conf.get("rec.similarity.class")), conf);
+                conf.set("rec.recommender.similarity.key", similarityKeys[i]);
+                similarity.buildSimilarityMatrix(dataModel);
+                if (i == 0) {
+                    context.setSimilarity(similarity);
+                }
+                context.addSimilarities(similarityKeys[i], similarity);
+            }
+        }
+
+        Recommender recommender = ReflectionUtil.newInstance(
+                (Class<Recommender>) DriverClassUtil.getClass(conf.get("rec.recommender.class")), conf);
+        if (!(recommender instanceof MatrixRecommender)) {
+            throw new LibrecException("Only a MatrixRecommender can be served: " + recommender.getClass().getName());
+        }
+        String modelPath = conf.get("rec.server.model.path");
+        if (StringUtils.isNotBlank(modelPath)) {
+            ((AbstractRecommender) recommender).loadModel(context, modelPath);
+        } else {
+            recommender.train(context);
+        }
+
+        RecommenderServer server = new RecommenderServer((MatrixRecommender) recommender, conf);
+        String host = conf.get("rec.server.host");
+        server.start(StringUtils.isNotBlank(host) ? new InetSocketAddress(host, conf.getInt("rec.server.port", 8080))
+                : new InetSocketAddress(InetAddress.getLoopbackAddress(), conf.getInt("rec.server.port", 8080)));
+        return server;
+    }
+
+    /**
+     * Start the dispatcher and the HTTP server on the loopback address.
+     *
+     * @param port the port of the HTTP server, 0 for any free port
+     * @throws IOException if the port cannot be bound
+     */
+    public void start(int port) throws IOException {
+        start(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Start the dispatcher and the HTTP server.
+     *
+     * @param address the address of the HTTP server, with the port 0 for any free port
+     * @throws IOException if the address cannot be bound
+     */
+    public synchronized void start(InetSocketAddress address) throws IOException {
+        if (running) {
+            return;
+        }
+        running = true;
+        dispatcher = new Thread(this::dispatch, "librec-server-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+
+        httpServer = HttpServer.create(address, 0);
+        httpExecutor = Executors.newFixedThreadPool(numThreads);
+        httpServer.setExecutor(httpExecutor);
+        httpServer.createContext("/topn", exchange -> handle(exchange, parameters -> {
+            String userId = parameters.get("user");
+            int n = parameters.containsKey("n") ? Integer.parseInt(parameters.get("n")) : defaultTopN;
+            return toJson(userId, topN(userId, n, split(parameters.get("exclude"))));
+        }));
+        httpServer.createContext("/score", exchange -> handle(exchange, parameters -> {
+            String userId = parameters.get("user");
+            return toJson(userId, score(userId, split(parameters.get("items"))));
+        }));
+        httpServer.createContext("/metrics", exchange -> handle(exchange, parameters -> metrics.toJson()));
+        httpServer.start();
+        LOG.info("Recommender server listening on " + httpServer.getAddress());
+    }
+
+    /**
+     * Stop the HTTP server and the dispatcher; the queued requests fail.
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        httpServer.stop(0);
+        httpExecutor.shutdownNow();
+        dispatcher.interrupt();
+        Request request;
+        while ((request = requestQueue.poll()) != null) {
+            request.result.completeExceptionally(new IllegalStateException("The server is stopped"));
+        }
+    }
+
+    /**
+     * @return the port of the HTTP server
+     */
+    public int getPort() {
+        return httpServer.getAddress().getPort();
+    }
+
+    /**
+     * @return the address of the HTTP server
+     */
+    public InetSocketAddress getAddress() {
+        return httpServer.getAddress();
+    }
+
+    /**
+     * @return the metrics of the server
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Request the top n items of a user.
+     *
+     * @param userId          raw user id
+     * @param n               the number of items, at most the number of items
+     * @param excludedItemIds raw ids of the items not to recommend, unknown ones being ignored
+     * @return the items with their scores, by decreasing score
+     */
+    public Future<List<KeyValue<String, Double>>> topN(String userId, int n, Collection<String> excludedItemIds) {
+        Integer userIdx = userId != null ? userMappingData.get(userId) : null;
+        if (userIdx == null || (rankingFilter != null && !rankingFilter.acceptUser(userIdx))) {
+            return failed(new NoSuchElementException("Unknown user " + userId));
+        }
+        int[] excludedItems = excludedItemIds.stream().map(itemMappingData::get).filter(Objects::nonNull)
+                .mapToInt(Integer::intValue).sorted().distinct().toArray();
+        return enqueue(new Request(userIdx, Math.min(Math.max(0, n), itemMappingData.size()), null, excludedItems));
+    }
+
+    /**
+     * Request the predicted ratings of items for a user.
+     *
+     * @param userId  raw user id
+     * @param itemIds raw item ids
+     * @return the items with their scores, in the order of the request, NaN for the unknown items
+     */
+    public Future<List<KeyValue<String, Double>>> score(String userId, List<String> itemIds) {
+        Integer userIdx = userId != null ? userMappingData.get(userId) : null;
+        if (userIdx == null) {
+            return failed(new NoSuchElementException("Unknown user " + userId));
+        }
+        int[] itemIndices = itemIds.stream().map(itemMappingData::get).filter(Objects::nonNull)
+                .mapToInt(Integer::intValue).toArray();
+        Request request = new Request(userIdx, 0, itemIndices, null);
+        return enqueue(request).thenApply(scores -> {
+            Map<String, Double> scoreMap = new HashMap<>();
+            for (KeyValue<String, Double> itemScore : scores) {
+                scoreMap.put(itemScore.getKey(), itemScore.getValue());
+            }
+            List<KeyValue<String, Double>> orderedScores = new ArrayList<>(itemIds.size());
+            for (String itemId : itemIds) {
+                orderedScores.add(new KeyValue<>(itemId, scoreMap.getOrDefault(itemId, Double.NaN)));
+            }
+            return orderedScores;
+        });
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable throwable) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(throwable);
+        return future;
+    }
+
+    private CompletableFuture<List<KeyValue<String, Double>>> enqueue(Request request) {
+        if (!running) {
+            return failed(new IllegalStateException("The server is not started"));
+        }
+        requestQueue.add(request);
+        return request.result;
+    }
+
+    /**
+     * Take the queued requests by micro-batches until the server is stopped.
+     */
+    private void dispatch() {
+        List<Request> batch = new ArrayList<>(maxBatchSize);
+        while (running) {
+            try {
+                Request request = requestQueue.poll(100, TimeUnit.MILLISECONDS);
+                if (request == null) {
+                    continue;
+                }
+                batch.add(request);
+                long deadline = System.nanoTime() + maxBatchDelay;
+                while (batch.size() < maxBatchSize) {
+                    long delay = deadline - System.nanoTime();
+                    request = delay > 0 ? requestQueue.poll(delay, TimeUnit.NANOSECONDS) : requestQueue.poll();
+                    if (request == null) {
+                        break;
+                    }
+                    batch.add(request);
+                }
+                process(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Throwable e) {
+                // fail the batch, not the dispatcher, e.g. on an OutOfMemoryError of a request
+                LOG.error("Failed to process a batch of " + batch.size() + " requests", e);
+                for (Request request : batch) {
+                    request.result.completeExceptionally(e);
+                }
+            } finally {
+                for (Request request : batch) {
+                    request.result.completeExceptionally(new IllegalStateException("The request is not processed"));
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    private void process(List<Request> batch) {
+        long startTime = System.nanoTime();
+        metrics.histogram("server.batch.size").update(batch.size());
+        BiMap<Integer, String> itemMappingInverse = itemMappingData.inverse();
+
+        List<Request> scoreRequests = new ArrayList<>();
+        List<Request> rankRequests = new ArrayList<>();
+        for (Request request : batch) {
+            (request.itemIndices != null ? scoreRequests : rankRequests).add(request);
+        }
+
+        if (!scoreRequests.isEmpty()) {
+            LibrecDataList<AbstractBaseDataEntry> dataList = new BaseDataList<>();
+            for (Request request : scoreRequests) {
+                dataList.addDataEntry(new BaseRatingDataEntry(request.userIdx, request.itemIndices));
+            }
+            try {
+                RecommendedList recommendedList = recommender.recommendRating(dataList);
+                for (int contextIdx = 0; contextIdx < scoreRequests.size(); contextIdx++) {
+                    complete(scoreRequests.get(contextIdx), recommendedList.getKeyValueListByContext(contextIdx),
+                            itemMappingInverse, "server.score");
+                }
+            } catch (Throwable e) {
+                for (Request request : scoreRequests) {
+                    request.result.completeExceptionally(e);
+                }
+            }
+        }
+
+        rankRequests.parallelStream().forEach(request -> {
+            try {
+                int[] excludedItems = request.excludedItems;
+                List<KeyValue<Integer, Double>> itemScores = recommender.recommendRank(request.userIdx, request.n,
+                        itemIdx -> (rankingFilter == null || rankingFilter.acceptItem(itemIdx))
+                                && Arrays.binarySearch(excludedItems, itemIdx) < 0);
+                complete(request, itemScores, itemMappingInverse, "server.topn");
+            } catch (Throwable e) {
+                request.result.completeExceptionally(e);
+            }
+        });
+        metrics.timer("server.batch").updateSince(startTime);
+    }
+
+    private void complete(Request request, List<KeyValue<Integer, Double>> itemScores,
+                          BiMap<Integer, String> itemMappingInverse, String timerName) {
+        List<KeyValue<String, Double>> result = new ArrayList<>(itemScores.size());
+        for (KeyValue<Integer, Double> itemScore : itemScores) {
+            result.add(new KeyValue<>(itemMappingInverse.get(itemScore.getKey()), itemScore.getValue()));
+        }
+        request.result.complete(result);
+        metrics.timer(timerName).updateSince(request.startTime);
+    }
+
+    private interface Handler {
+        String answer(Map<String, String> parameters) throws Exception;
+    }
+
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        int status = 200;
+        String body;
+        try {
+            body = handler.answer(parseQuery(exchange.getRequestURI().getRawQuery()));
+        } catch (ExecutionException e) {
+            status = e.getCause() instanceof NoSuchElementException ? 404 : 500;
+            body = "{\"error\":" + quote(String.valueOf(e.getCause().getMessage())) + "}";
+        } catch (IllegalArgumentException e) {
+            status = 400;
+            body = "{\"error\":" + quote(String.valueOf(e.getMessage())) + "}";
+        } catch (Exception e) {
+            status = 500;
+            body = "{\"error\":" + quote(String.valueOf(e.getMessage())) + "}";
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(bytes);
+        }
+    }
+
+    private String toJson(String userId, Future<List<KeyValue<String, Double>>> future) throws Exception {
+        List<KeyValue<String, Double>> itemScores = future.get(requestTimeout, TimeUnit.MILLISECONDS);
+        StringBuilder sb = new StringBuilder("{\"user\":").append(quote(userId)).append(",\"items\":[");
+        for (int index = 0; index < itemScores.size(); index++) {
+            KeyValue<String, Double> itemScore = itemScores.get(index);
+            double score = itemScore.getValue();
+            sb.append(index > 0 ? "," : "").append("{\"item\":").append(quote(itemScore.getKey()))
+                    .append(",\"score\":").append(Double.isNaN(score) || Double.isInfinite(score) ? "null" : String.valueOf(score))
+                    .append('}');
+        }
+        return sb.append("]}").toString();
+    }
+
+    private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int position = pair.indexOf('=');
+                if (position > 0) {
+                    parameters.put(URLDecoder.decode(pair.substring(0, position), "UTF-8"),
+                            URLDecoder.decode(pair.substring(position + 1), "UTF-8"));
+                }
+            }
+        }
+        return parameters;
+    }
+
+    private static List<String> split(String ids) {
+        List<String> idList = new ArrayList<>();
+        if (StringUtils.isNotBlank(ids)) {
+            for (String id : ids.split(",")) {
+                if (StringUtils.isNotBlank(id)) {
+                    idList.add(id.trim());
+                }
+            }
+        }
+        return idList;
+    }
+
+    private static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.util;
+
+import net.librec.common.LibrecException;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Runs the passes of a training loop over a range of indices, e.g. the users
+ * or the rows of the train set. The range is split into blocks which are
+ * processed by a parallel IntStream, in a pool of numThreads threads of its
+ * own rather than the common pool, so that the passes use rec.thread.count
+ * threads. With one thread the range is processed by the calling thread, in
+ * order.
+ * <p>
+ * The pool is created once, e.g. per training, and released by {@link #close()}.
+ */
+public class RangeExecutor implements AutoCloseable {
+    /**
+     * the number of blocks per thread, to balance blocks of uneven costs
+     */
+    private static final int BLOCKS_PER_THREAD = 4;
+
+    private final int numThreads;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * @param numThreads the number of threads, 1 or less to run serially
+     */
+    public RangeExecutor(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+        this.pool = this.numThreads > 1 ? new ForkJoinPool(this.numThreads) : null;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Process the range [0, size) block by block.
+     *
+     * @param size     the size of the range
+     * @param function the processing of a block, returning e.g. its loss
+     * @return the sum of the values returned by the blocks
+     * @throws LibrecException if the processing of a block fails
+     */
+    public double sum(int size, RangeFunction function) throws LibrecException {
+        if (pool == null || size < 2) {
+            return function.apply(0, size);
+        }
+        int numBlocks = Math.min(size, numThreads * BLOCKS_PER_THREAD);
+        try {
+            return pool.submit(() -> IntStream.range(0, numBlocks).parallel().mapToDouble(block -> {
+                try {
+                    return function.apply((int) ((long) size * block / numBlocks),
+                            (int) ((long) size * (block + 1) / numBlocks));
+                } catch (LibrecException e) {
+                    throw new BlockException(e);
+                }
+            }).sum()).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LibrecException(e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof BlockException ? (LibrecException) e.getCause().getCause()
+                    : new LibrecException(e.getCause());
+        }
+    }
+
+    /**
+     * Process the range [0, size) block by block.
+     *
+     * @param size     the size of the range
+     * @param consumer the processing of a block
+     * @throws LibrecException if the processing of a block fails
+     */
+    public void run(int size, RangeConsumer consumer) throws LibrecException {
+        sum(size, (from, to) -> {
+            consumer.accept(from, to);
+            return 0.0D;
+        });
+    }
+
+    /**
+     * Shut the pool down.
+     */
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * The processing of the block [from, to) of a range, returning a value.
+     */
+    @FunctionalInterface
+    public interface RangeFunction {
+        /**
+         * @param from the first index, inclusive
+         * @param to   the last index, exclusive
+         * @return the value of the block, e.g. its loss
+         * @throws LibrecException if error occurs during processing
+         */
+        double apply(int from, int to) throws LibrecException;
+    }
+
+    /**
+     * The processing of the block [from, to) of a range.
+     */
+    @FunctionalInterface
+    public interface RangeConsumer {
+        /**
+         * @param from the first index, inclusive
+         * @param to   the last index, exclusive
+         * @throws LibrecException if error occurs during processing
+         */
+        void accept(int from, int to) throws LibrecException;
+    }
+
+    /**
+     * Carries the LibrecException of a block out of the stream.
+     */
+    private static final class BlockException extends RuntimeException {
+        BlockException(LibrecException cause) {
+            super(cause);
+        }
+    }
+}
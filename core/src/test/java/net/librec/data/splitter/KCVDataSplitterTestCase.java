@@ -20,6 +20,7 @@ package net.librec.data.splitter;
 import net.librec.BaseTestCase;
 import net.librec.conf.Configured;
 import net.librec.data.convertor.TextDataConvertor;
+import net.librec.math.structure.MatrixEntry;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -86,4 +87,29 @@ public class KCVDataSplitterTestCase extends BaseTestCase {
 			assertEquals(splitter.getTestData().size(), 2);
 		}
 	}
+
+	/**
+	 * Test that every rating is in the test set of exactly one fold
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testKCVFoldsCoverAllRatings() throws Exception {
+		conf.set(Configured.CONF_DATA_COLUMN_FORMAT, "UIR");
+		convertor.processData();
+		KCVDataSplitter splitter = new KCVDataSplitter(convertor, conf);
+		splitter.splitData();
+		int numFolds = 0, numTestRatings = 0, numRatings = 0;
+		while (splitter.nextFold()) {
+			numFolds++;
+			numRatings = splitter.getTrainData().size() + splitter.getTestData().size();
+			numTestRatings += splitter.getTestData().size();
+			for (MatrixEntry matrixEntry : splitter.getTestData()) {
+				assertEquals(0.0, splitter.getTrainData().get(matrixEntry.row(), matrixEntry.column()), 0.0);
+			}
+		}
+		assertEquals(6, numFolds);
+		assertEquals(numRatings, numTestRatings);
+		assertEquals(6, splitter.getAssignMatrixList().size());
+	}
 }
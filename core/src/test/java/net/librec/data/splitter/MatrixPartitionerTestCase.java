@@ -0,0 +1,80 @@
+package net.librec.data.splitter;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import net.librec.math.structure.MatrixEntry;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * MatrixPartitioner TestCase {@link net.librec.data.splitter.MatrixPartitioner}
+ */
+public class MatrixPartitionerTestCase {
+
+    private SequentialAccessSparseMatrix matrix;
+
+    @Before
+    public void setUp() {
+        Random random = new Random(7L);
+        Table<Integer, Integer, Double> dataTable = HashBasedTable.create();
+        for (int row = 0; row < 200; row++) {
+            for (int column = 0; column < 50; column++) {
+                if (random.nextDouble() < 0.3) {
+                    dataTable.put(row, column, 1.0 + random.nextInt(5));
+                }
+            }
+        }
+        matrix = new SequentialAccessSparseMatrix(200, 50, dataTable);
+    }
+
+    @Test
+    public void testAssignmentIsDeterministic() {
+        byte[] assignment = new MatrixPartitioner(matrix, 42L).assignByRatio(0.8);
+        assertArrayEquals(assignment, new MatrixPartitioner(matrix, 42L).assignByRatio(0.8));
+    }
+
+    @Test
+    public void testMaterialize() {
+        MatrixPartitioner partitioner = new MatrixPartitioner(matrix, 42L);
+        byte[] assignment = partitioner.assignByRatio(0.5, 0.3);
+        SequentialAccessSparseMatrix train = partitioner.materialize(assignment, 0);
+        SequentialAccessSparseMatrix valid = partitioner.materialize(assignment, 1);
+        SequentialAccessSparseMatrix test = partitioner.materialize(assignment, 2);
+
+        assertEquals(matrix.size(), train.size() + valid.size() + test.size());
+        assertTrue(Math.abs(train.size() / (double) matrix.size() - 0.5) < 0.05);
+        for (MatrixEntry matrixEntry : matrix) {
+            int part = assignment[partitioner.getRowOffset(matrixEntry.row()) + matrixEntry.columnPosition()];
+            SequentialAccessSparseMatrix subset = part == 0 ? train : part == 1 ? valid : test;
+            assertEquals(matrixEntry.get(), subset.get(matrixEntry.row(), matrixEntry.column()), 0.0);
+        }
+        // the column view is built from the rows
+        for (int column = 0; column < matrix.columnSize(); column++) {
+            assertEquals(matrix.column(column).getNumEntries(), train.column(column).getNumEntries()
+                    + valid.column(column).getNumEntries() + test.column(column).getNumEntries());
+        }
+    }
+
+    @Test
+    public void testFoldsAreBalanced() {
+        MatrixPartitioner partitioner = new MatrixPartitioner(matrix, 42L);
+        byte[] assignment = partitioner.assignFolds(5);
+        int[] foldSizes = new int[6];
+        for (byte fold : assignment) {
+            foldSizes[fold]++;
+        }
+        assertEquals(0, foldSizes[0]);
+        for (int fold = 1; fold <= 5; fold++) {
+            assertTrue(Math.abs(foldSizes[fold] - matrix.size() / 5.0) <= 1.0);
+            SequentialAccessSparseMatrix train = partitioner.materializeExcept(assignment, fold);
+            assertEquals(matrix.size() - foldSizes[fold], train.size());
+        }
+    }
+}
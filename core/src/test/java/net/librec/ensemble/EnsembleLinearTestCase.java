@@ -3,16 +3,31 @@ package net.librec.ensemble;
 import net.librec.BaseTestCase;
 import net.librec.common.LibrecException;
 import net.librec.conf.Configuration.Resource;
+import net.librec.data.structure.AbstractBaseDataEntry;
+import net.librec.data.structure.BaseDataList;
+import net.librec.data.structure.BaseRatingDataEntry;
+import net.librec.data.structure.LibrecDataList;
 import net.librec.job.RecommenderJob;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.recommender.MatrixRecommender;
+import net.librec.recommender.Recommender;
+import net.librec.recommender.item.KeyValue;
+import net.librec.recommender.item.RecommendedItem;
+import net.librec.recommender.item.RecommendedList;
+import net.librec.similarity.PCCSimilarity;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
 
 import net.librec.ensemble.Ensemble;
 import net.librec.ensemble.EnsembleLinear;
 import java.util.List;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 /**
  * @author logicxin
  */
@@ -40,6 +55,31 @@ public class EnsembleLinearTestCase extends BaseTestCase {
         EnsembleLinear ensembleJob = new EnsembleLinear(configFilePath);
         ensembleJob.trainModel();
 
+        // the recommenders share one similarity, with the same class and options
+        assertEquals(2, ensembleJob.recommenders.size());
+        assertEquals(1, ensembleJob.similarities.size());
+
+        // the blended rating is the weighted sum of the predicted ratings
+        SequentialAccessSparseMatrix testMatrix = (SequentialAccessSparseMatrix) ensembleJob.dataModel.getTestDataSet();
+        RecommendedList blendedList = ensembleJob.recommendEnsemble();
+        int userIdx = 0;
+        while (testMatrix.row(userIdx).getNumEntries() == 0) {
+            userIdx++;
+        }
+        LibrecDataList<AbstractBaseDataEntry> dataList = new BaseDataList<>();
+        dataList.addDataEntry(new BaseRatingDataEntry(userIdx, testMatrix.row(userIdx).getIndices()));
+        double blendedRating = 0.0;
+        for (int algIdx = 0; algIdx < 2; algIdx++) {
+            MatrixRecommender recommender = (MatrixRecommender) ensembleJob.recommenders.get(algIdx);
+            blendedRating += ensembleJob.weights.get(algIdx) * recommender.recommendRating(dataList).getKeyValueListByContext(0).get(0).getValue();
+        }
+        KeyValue<Integer, Double> itemValue = blendedList.getKeyValueListByContext(userIdx).get(0);
+        assertEquals(testMatrix.row(userIdx).getIndices()[0], itemValue.getKey().intValue());
+        assertEquals(blendedRating, itemValue.getValue(), 1e-9);
+
+        List<RecommendedItem> ensembleList = ensembleJob.getEnsembleRecommendedList();
+        assertEquals(testMatrix.size(), ensembleList.size());
+
         // Get ensemble weight
         // List<Double> weightList = ensembleJob.ensembelWeight();
 
@@ -50,4 +90,43 @@ public class EnsembleLinearTestCase extends BaseTestCase {
         //Boolean ensenbleResultSave = ensembleJob.saveRecommendResult("rec/ensemble/ensemble-linear.properties");
 
     }
+
+    /**
+     * The recommenders with different similarity options get their own
+     * similarities: a user similarity for UserKNN and an item similarity for
+     * ItemKNN.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSimilarityOptions() throws Exception {
+        EnsembleLinear ensembleJob = new EnsembleLinear("rec/ensemble/ensemble-linear-knn.properties");
+        ensembleJob.trainModel();
+
+        assertEquals(2, ensembleJob.similarities.size());
+        SequentialAccessSparseMatrix trainMatrix = (SequentialAccessSparseMatrix) ensembleJob.dataModel.getTrainDataSet();
+        assertEquals(trainMatrix.rowSize(), ensembleJob.similarities.get(PCCSimilarity.class.getName() + ":user:10").get().getSimilarityMatrix().getDim());
+        assertEquals(trainMatrix.columnSize(), ensembleJob.similarities.get(PCCSimilarity.class.getName() + ":item:10").get().getSimilarityMatrix().getDim());
+
+        // the top items blended from the scores of the candidate items
+        int userIdx = 0;
+        List<MatrixRecommender> matrixRecommenders = new ArrayList<>();
+        for (Recommender recommender : ensembleJob.recommenders) {
+            matrixRecommenders.add((MatrixRecommender) recommender);
+        }
+        List<KeyValue<Integer, Double>> blendedList = ensembleJob.blendRank(matrixRecommenders, userIdx, trainMatrix.columnSize());
+        assertEquals(ensembleJob.topN, blendedList.size());
+        for (int position = 0; position < blendedList.size(); position++) {
+            KeyValue<Integer, Double> itemValue = blendedList.get(position);
+            assertTrue(trainMatrix.get(userIdx, itemValue.getKey()) == 0.0);
+            double blendedScore = 0.0;
+            for (int algIdx = 0; algIdx < 2; algIdx++) {
+                blendedScore += ensembleJob.weights.get(algIdx) * matrixRecommenders.get(algIdx).predictScores(userIdx, new int[]{itemValue.getKey()})[0];
+            }
+            assertEquals(blendedScore, itemValue.getValue(), 1e-9);
+            if (position > 0) {
+                assertTrue(blendedList.get(position - 1).getValue() >= itemValue.getValue());
+            }
+        }
+    }
 }
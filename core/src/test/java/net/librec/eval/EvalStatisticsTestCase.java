@@ -0,0 +1,59 @@
+package net.librec.eval;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import net.librec.conf.Configuration;
+import net.librec.eval.ranking.AUCEvaluator;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.recommender.item.RecommendedList;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test cases about the EvalStatistics class
+ * {@link net.librec.eval.EvalStatistics}
+ */
+public class EvalStatisticsTestCase {
+
+    private static SequentialAccessSparseMatrix matrix(int[][] entries) {
+        Table<Integer, Integer, Double> dataTable = HashBasedTable.create();
+        for (int[] entry : entries) {
+            dataTable.put(entry[0], entry[1], 1.0);
+        }
+        return new SequentialAccessSparseMatrix(3, 4, dataTable);
+    }
+
+    @Test
+    public void testStatistics() {
+        SequentialAccessSparseMatrix trainMatrix = matrix(new int[][]{{0, 0}, {0, 1}, {1, 1}, {2, 3}});
+        SequentialAccessSparseMatrix testMatrix = matrix(new int[][]{{0, 2}, {1, 1}, {2, 1}});
+        EvalStatistics evalStatistics = new EvalStatistics(trainMatrix, testMatrix);
+
+        assertArrayEquals(new int[]{2, 3, 3}, evalStatistics.getNumDroppedItems());
+        assertArrayEquals(new int[]{1, 4, 1, 1}, evalStatistics.getItemPurchaseCounts());
+    }
+
+    @Test
+    public void testAUCWithoutConfiguration() {
+        RecommendedList groundTruthList = new RecommendedList(1);
+        groundTruthList.addList(new ArrayList<>());
+        groundTruthList.add(0, 1, 1.0);
+        RecommendedList recommendedList = new RecommendedList(1);
+        recommendedList.addList(new ArrayList<>());
+        recommendedList.add(0, 1, 0.9);
+        recommendedList.add(0, 2, 0.5);
+
+        EvalContext evalContext = new EvalContext(new Configuration(), recommendedList, new SequentialAccessSparseMatrix(1, 4, HashBasedTable.create()));
+        evalContext.setGroundTruthList(groundTruthList);
+        evalContext.setEvalStatistics(new EvalStatistics(new int[]{4}, new int[]{0, 1, 0, 0}));
+
+        AUCEvaluator evaluator = new AUCEvaluator();
+        evaluator.setTopN(2);
+        // 3 evaluating pairs, the hit is ranked above 1 of the 2 dropped items
+        assertEquals(1.0 / 3, evaluator.evaluate(evalContext), 1e-12);
+    }
+}
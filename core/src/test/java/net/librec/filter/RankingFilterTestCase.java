@@ -0,0 +1,63 @@
+package net.librec.filter;
+
+import com.google.common.collect.BiMap;
+import com.google.common.collect.HashBiMap;
+import net.librec.conf.Configuration;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * RankingFilter TestCase {@link net.librec.filter.RankingFilter}
+ */
+public class RankingFilterTestCase {
+
+    private BiMap<String, Integer> createMapping(int size) {
+        BiMap<String, Integer> mapping = HashBiMap.create();
+        for (int index = 0; index < size; index++) {
+            mapping.put("id" + index, index);
+        }
+        return mapping;
+    }
+
+    @Test
+    public void testBuild() {
+        Configuration conf = new Configuration();
+        assertNull(RankingFilter.build(conf, createMapping(3), createMapping(4)));
+
+        conf.set("rec.filter.user.deny", "id1, unknown");
+        conf.set("rec.filter.item.allow", "id0,id2");
+        conf.set("rec.filter.item.deny", "id2");
+        RankingFilter filter = RankingFilter.build(conf, createMapping(3), createMapping(4));
+        assertTrue(filter.acceptUser(0));
+        assertFalse(filter.acceptUser(1));
+        assertTrue(filter.acceptUser(2));
+        assertTrue(filter.acceptItem(0));
+        assertFalse(filter.acceptItem(1));
+        assertFalse(filter.acceptItem(2));
+        assertFalse(filter.acceptItem(3));
+    }
+
+    @Test
+    public void testExclusionsAndQuotas() {
+        RankingFilter filter = new RankingFilter(2, 5)
+                .allowUsers(1)
+                .excludeItems(1, 4, 2)
+                .excludeItems(1, 2, 0);
+        assertFalse(filter.acceptUser(0));
+        assertTrue(filter.acceptUser(1));
+        assertArrayEquals(new int[]{0, 2, 4}, filter.getExcludedItems(1));
+        assertEquals(0, filter.getExcludedItems(0).length);
+        assertNull(filter.newCategoryCounts());
+        assertTrue(filter.takeWithinQuota(3, null));
+
+        filter.setCategoryQuotas(new int[]{0, 0, 1, -1, 0}, new int[]{2, 1});
+        int[] categoryCounts = filter.newCategoryCounts();
+        assertTrue(filter.takeWithinQuota(0, categoryCounts));
+        assertTrue(filter.takeWithinQuota(2, categoryCounts));
+        assertFalse(filter.takeWithinQuota(2, categoryCounts));
+        assertTrue(filter.takeWithinQuota(3, categoryCounts));
+        assertTrue(filter.takeWithinQuota(1, categoryCounts));
+        assertFalse(filter.takeWithinQuota(4, categoryCounts));
+    }
+}
@@ -0,0 +1,66 @@
+package net.librec.increment;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases about the FactorMatrix class
+ * {@link net.librec.increment.FactorMatrix}
+ */
+public class FactorMatrixTestCase {
+
+    @Test
+    public void testAppendAcrossChunks() {
+        FactorMatrix matrix = new FactorMatrix(3, 4);
+        for (int row = 0; row < 3; row++) {
+            for (int column = 0; column < 4; column++) {
+                matrix.set(row, column, row * 10 + column);
+            }
+        }
+
+        for (int i = 0; i < 5000; i++) {
+            int row = matrix.appendRow();
+            matrix.set(row, 3, row);
+        }
+
+        assertEquals(5003, matrix.rowSize());
+        assertEquals(4, matrix.columnSize());
+        assertEquals(23.0, matrix.get(2, 3), 0.0);
+        assertEquals(4321.0, matrix.get(4321, 3), 0.0);
+        assertEquals(0.0, matrix.get(4321, 0), 0.0);
+    }
+
+    @Test
+    public void testRemoveAndRevive() {
+        FactorMatrix matrix = new FactorMatrix(10, 2);
+        matrix.init(0.0, 0.1);
+        matrix.removeRow(4);
+
+        assertTrue(matrix.isRemoved(4));
+        assertTrue(matrix.isRemoved(10));
+        assertFalse(matrix.isRemoved(3));
+        assertEquals(9, matrix.activeRowSize());
+        assertEquals(0.0, matrix.get(4, 0), 0.0);
+        assertEquals(0.0, matrix.get(4, 1), 0.0);
+
+        matrix.reviveRow(4);
+        assertFalse(matrix.isRemoved(4));
+        assertEquals(10, matrix.activeRowSize());
+    }
+
+    @Test
+    public void testRowMult() {
+        FactorMatrix userFactors = new FactorMatrix(2, 3);
+        FactorMatrix itemFactors = new FactorMatrix(2000, 3);
+        for (int f = 0; f < 3; f++) {
+            userFactors.set(1, f, f + 1);
+            itemFactors.set(1500, f, 2.0);
+        }
+
+        assertEquals(12.0, FactorMatrix.rowMult(userFactors, 1, itemFactors, 1500), 1e-12);
+        assertEquals(12.0, itemFactors.dot(1500, userFactors.getRow(1, new double[3])), 1e-12);
+    }
+}
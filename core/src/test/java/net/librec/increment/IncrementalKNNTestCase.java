@@ -12,8 +12,15 @@ import net.librec.eval.rating.RMSEEvaluator;
 import net.librec.filter.GenericRecommendedFilter;
 import net.librec.filter.RecommendedFilter;
 import net.librec.increment.rating.IncrementalBiasedMFRecommender;
+import net.librec.increment.rating.ItemKNNRecommender;
+import net.librec.increment.stream.MicroBatchIngestor;
+import net.librec.increment.stream.RatingEvent;
 import net.librec.job.RecommenderJob;
+import net.librec.math.structure.MatrixEntry;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
 import net.librec.recommender.RecommenderContext;
+import net.librec.recommender.item.KeyValue;
+import net.librec.recommender.item.RecommendedResultCache;
 import net.librec.similarity.PCCSimilarity;
 import net.librec.similarity.RecommenderSimilarity;
 import org.junit.Before;
@@ -22,9 +29,17 @@ import org.junit.Test;
 import java.io.IOException;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map.Entry;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
 /**
  * @author logicxin
  */
@@ -138,4 +153,246 @@ public class IncrementalKNNTestCase extends BaseTestCase {
        // List<Entry<Integer, Double>> result = recommender.scoreItems(ratedItems, candidateItems);
     }
 
+
+    /**
+     * stream the ratings of a new item through the micro-batch ingestor and
+     * check that its neighbours are maintained incrementally
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testStreamingItemKNN() throws Exception {
+        conf.set("data.input.path", "filmtrust/rating");
+        conf.set("data.column.format", "UIR");
+        conf.set("rec.neighbors.knn.number", "10");
+        DataModel dataModel = new TextDataModel(conf);
+        dataModel.buildDataModel();
+
+        ItemKNNRecommender recommender = new ItemKNNRecommender();
+        recommender.train(new RecommenderContext(conf, dataModel));
+
+        int numItems = dataModel.getItemMappingData().size();
+        int newItem = numItems;
+        MicroBatchIngestor ingestor = new MicroBatchIngestor(recommender, 16, 8, 50);
+        ingestor.start();
+        // the new item is rated like item 0 by every user who rated item 0
+        for (MatrixEntry matrixEntry : (SequentialAccessSparseMatrix) dataModel.getTrainDataSet()) {
+            if (matrixEntry.column() == 0) {
+                ingestor.submit(new RatingEvent(matrixEntry.row(), newItem, matrixEntry.get()));
+            }
+        }
+        ingestor.close();
+
+        assertNull(ingestor.getLastException());
+        assertEquals(0, ingestor.getPendingEvents());
+        assertEquals(0, recommender.getNeighbors(newItem)[0]);
+        assertEquals(newItem, recommender.getNeighbors(0)[0]);
+
+        // removing all its ratings drops it from the neighbour lists again
+        recommender.removeItem(newItem);
+        assertArrayEquals(new int[0], recommender.getNeighbors(newItem));
+    }
+
+    /**
+     * serve the ranked items of the users from the cache and invalidate the
+     * users and the items of the incremental updates
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testResultCacheInvalidation() throws Exception {
+        conf.set("data.input.path", "filmtrust/rating");
+        conf.set("data.column.format", "UIR");
+        conf.set("rec.neighbors.knn.number", "10");
+        conf.set("rec.cache.enable", "true");
+        conf.set("rec.cache.topn", "20");
+        DataModel dataModel = new TextDataModel(conf);
+        dataModel.buildDataModel();
+
+        ItemKNNRecommender recommender = new ItemKNNRecommender();
+        recommender.train(new RecommenderContext(conf, dataModel));
+        RecommendedResultCache cache = recommender.getResultCache();
+
+        List<KeyValue<Integer, Double>> topItems = recommender.recommendRank(0, 5, null);
+        List<KeyValue<Integer, Double>> cachedItems = recommender.recommendRank(0, 5, null);
+        for (int position = 0; position < topItems.size(); position++) {
+            assertEquals(topItems.get(position).getKey(), cachedItems.get(position).getKey());
+            assertEquals(topItems.get(position).getValue(), cachedItems.get(position).getValue(), 1e-5);
+        }
+        recommender.recommendRank(1, 5, null);
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.size());
+
+        // the rating changes the neighbourhood of the item, and so the items of every user
+        int ratedItem = topItems.get(0).getKey();
+        TableMatrix newRatings = new TableMatrix();
+        newRatings.set(0, ratedItem, 4.0);
+        recommender.addRatings(newRatings);
+        assertNull(cache.get(0, 5, null));
+        assertNull(cache.get(1, 5, null));
+
+        recommender.recommendRank(2, 5, null);
+        recommender.removeUser(2);
+        assertNull(cache.get(2, 5, null));
+        assertNotNull(recommender.recommendRank(0, 5, null));
+        assertSame(cache, recommender.getResultCache());
+    }
+
+    /**
+     * an item without ratings, rated like the most rated item, enters the
+     * cached top items of users although they do not contain it
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testResultCacheUpdatedItem() throws Exception {
+        conf.set("data.input.path", "filmtrust/rating");
+        conf.set("data.column.format", "UIR");
+        conf.set("rec.neighbors.knn.number", "10");
+        conf.set("rec.cache.enable", "true");
+        DataModel dataModel = new TextDataModel(conf);
+        dataModel.buildDataModel();
+
+        ItemKNNRecommender recommender = new ItemKNNRecommender();
+        recommender.train(new RecommenderContext(conf, dataModel));
+        SequentialAccessSparseMatrix trainMatrix = (SequentialAccessSparseMatrix) dataModel.getTrainDataSet();
+        int numUsers = trainMatrix.rowSize();
+
+        int updatedItem = 0;
+        while (trainMatrix.column(updatedItem).getNumEntries() > 0) {
+            updatedItem++;
+        }
+        int likedItem = 0;
+        for (int itemIdx = 1; itemIdx < trainMatrix.columnSize(); itemIdx++) {
+            if (trainMatrix.column(itemIdx).getNumEntries() > trainMatrix.column(likedItem).getNumEntries()) {
+                likedItem = itemIdx;
+            }
+        }
+        List<List<KeyValue<Integer, Double>>> cachedItems = new ArrayList<>(numUsers);
+        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            cachedItems.add(recommender.recommendRank(userIdx, 5, null));
+        }
+
+        // half of the users who rated the liked item rate the updated item likewise
+        TableMatrix newRatings = new TableMatrix();
+        for (MatrixEntry matrixEntry : trainMatrix) {
+            if (matrixEntry.column() == likedItem && matrixEntry.row() % 2 == 1) {
+                newRatings.set(matrixEntry.row(), updatedItem, matrixEntry.get());
+            }
+        }
+        recommender.addRatings(newRatings);
+
+        List<List<KeyValue<Integer, Double>>> updatedItems = new ArrayList<>(numUsers);
+        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            updatedItems.add(recommender.recommendRank(userIdx, 5, null));
+        }
+        recommender.getResultCache().invalidateAll();
+        int numEnteredUsers = 0;
+        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            List<KeyValue<Integer, Double>> rankedItems = recommender.recommendRank(userIdx, 5, null);
+            assertEquals(rankedItems.size(), updatedItems.get(userIdx).size());
+            boolean entered = false;
+            for (int position = 0; position < rankedItems.size(); position++) {
+                assertEquals(rankedItems.get(position).getKey(), updatedItems.get(userIdx).get(position).getKey());
+                entered |= rankedItems.get(position).getKey() == updatedItem;
+            }
+            for (KeyValue<Integer, Double> itemValue : cachedItems.get(userIdx)) {
+                entered &= itemValue.getKey() != updatedItem;
+            }
+            numEnteredUsers += entered ? 1 : 0;
+        }
+        assertTrue(numEnteredUsers > 0);
+    }
+
+    /**
+     * item-based KNN exposing its neighbour similarities
+     */
+    private static class InspectableItemKNN extends ItemKNNRecommender {
+        final List<RatingEvent.Type> appliedTypes = new ArrayList<>();
+
+        @Override
+        public void addRatings(TableMatrix newRatings) throws LibrecException {
+            appliedTypes.add(RatingEvent.Type.ADD);
+            super.addRatings(newRatings);
+        }
+
+        @Override
+        public void removeRatings(TableMatrix removeRatings) throws LibrecException {
+            appliedTypes.add(RatingEvent.Type.REMOVE);
+            super.removeRatings(removeRatings);
+        }
+
+        /**
+         * assert that the stored similarities of all the neighbours match the current products and norms
+         */
+        void assertFreshNeighbors() {
+            for (int entity = 0; entity < neighbors.size(); entity++) {
+                int[] entityNeighbors = neighbors.get(entity);
+                for (int position = 0; position < entityNeighbors.length; position++) {
+                    int neighbor = entityNeighbors[position];
+                    double expected = entityProducts.get(entity).get(neighbor)
+                            / Math.sqrt(entityNorms.getDouble(entity) * entityNorms.getDouble(neighbor));
+                    assertEquals(expected, neighborSimilarities.get(entity)[position], 1e-12);
+                }
+            }
+        }
+    }
+
+    /**
+     * a rating without co-rated items only changes the norm of its item, which
+     * must still refresh the neighbour lists containing that item
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testNormChangeRefreshesNeighbors() throws Exception {
+        conf.set("data.input.path", "filmtrust/rating");
+        conf.set("data.column.format", "UIR");
+        conf.set("rec.neighbors.knn.number", "10");
+        DataModel dataModel = new TextDataModel(conf);
+        dataModel.buildDataModel();
+
+        InspectableItemKNN recommender = new InspectableItemKNN();
+        recommender.train(new RecommenderContext(conf, dataModel));
+        recommender.assertFreshNeighbors();
+
+        // new users rating a single item each
+        int numUsers = dataModel.getUserMappingData().size();
+        TableMatrix newRatings = new TableMatrix();
+        for (int userIdx = numUsers; userIdx < numUsers + 5; userIdx++) {
+            newRatings.set(userIdx, recommender.getNeighbors(0)[0], 4.0);
+        }
+        recommender.addRatings(newRatings);
+        recommender.assertFreshNeighbors();
+    }
+
+    /**
+     * the ingestor applies the coalesced events in the order they were submitted
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testIngestorOrder() throws Exception {
+        conf.set("data.input.path", "filmtrust/rating");
+        conf.set("data.column.format", "UIR");
+        DataModel dataModel = new TextDataModel(conf);
+        dataModel.buildDataModel();
+
+        InspectableItemKNN recommender = new InspectableItemKNN();
+        recommender.train(new RecommenderContext(conf, dataModel));
+        int numUsers = dataModel.getUserMappingData().size();
+
+        MicroBatchIngestor ingestor = new MicroBatchIngestor(recommender, 16, 8, 200);
+        ingestor.start();
+        ingestor.submit(new RatingEvent(numUsers, 0, 3.0));
+        ingestor.submit(new RatingEvent(numUsers + 1, 1, 2.0));
+        ingestor.submit(new RatingEvent(numUsers, 0, 3.0, RatingEvent.Type.REMOVE));
+        ingestor.close();
+
+        assertNull(ingestor.getLastException());
+        // the first event is coalesced into the removal, which comes last
+        assertEquals(Arrays.asList(RatingEvent.Type.ADD, RatingEvent.Type.REMOVE), recommender.appliedTypes);
+        recommender.assertFreshNeighbors();
+    }
+
 }
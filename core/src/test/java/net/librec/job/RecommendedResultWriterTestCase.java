@@ -0,0 +1,107 @@
+package net.librec.job;
+
+import com.google.common.collect.BiMap;
+import com.google.common.collect.HashBiMap;
+import net.librec.conf.Configuration;
+import net.librec.recommender.item.GenericRecommendedItem;
+import net.librec.recommender.item.RecommendedItem;
+import net.librec.recommender.item.RecommendedList;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * RecommendedResultWriter TestCase {@link net.librec.job.RecommendedResultWriter}
+ */
+public class RecommendedResultWriterTestCase {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private RecommendedList createRecommendedList() {
+        RecommendedList recommendedList = new RecommendedList(3);
+        recommendedList.addList(new ArrayList<>());
+        recommendedList.add(0, 1, 0.5);
+        recommendedList.add(0, 0, 0.25);
+        recommendedList.addList(new ArrayList<>());
+        recommendedList.addList(new ArrayList<>());
+        recommendedList.add(2, 2, 1.0);
+        return recommendedList;
+    }
+
+    private BiMap<Integer, String> createMapping(String prefix) {
+        BiMap<Integer, String> mapping = HashBiMap.create();
+        for (int index = 0; index < 3; index++) {
+            mapping.put(index, prefix + index);
+        }
+        return mapping;
+    }
+
+    @Test
+    public void testCsvShards() throws IOException {
+        Configuration conf = new Configuration();
+        conf.set("rec.result.shards", "2");
+        String outputPath = folder.getRoot().getPath() + "/result/out";
+        List<String> paths = new RecommendedResultWriter(conf).write(outputPath, createRecommendedList(),
+                createMapping("u"), createMapping("i"));
+        assertEquals(Arrays.asList(outputPath + "-part-00000", outputPath + "-part-00001"), paths);
+        assertEquals(Arrays.asList("u0,i1,0.5", "u0,i0,0.25"), Files.readAllLines(Paths.get(paths.get(0))));
+        assertEquals(Arrays.asList("u2,i2,1.0"), Files.readAllLines(Paths.get(paths.get(1))));
+    }
+
+    @Test
+    public void testShardsByUser() throws IOException {
+        Configuration conf = new Configuration();
+        conf.set("rec.result.shards", "2");
+        List<RecommendedItem> recommendedItems = Arrays.asList(
+                new GenericRecommendedItem("u0", "i0", 0.5),
+                new GenericRecommendedItem("u1", "i0", 0.5),
+                new GenericRecommendedItem("u1", "i1", 0.25),
+                new GenericRecommendedItem("u1", "i2", 0.125),
+                new GenericRecommendedItem("u2", "i2", 1.0));
+        String outputPath = folder.getRoot().getPath() + "/out";
+        List<String> paths = new RecommendedResultWriter(conf).write(outputPath, recommendedItems);
+        // the even bound at the second item of u1 is moved to u2
+        assertEquals(Arrays.asList("u0,i0,0.5", "u1,i0,0.5", "u1,i1,0.25", "u1,i2,0.125"),
+                Files.readAllLines(Paths.get(paths.get(0))));
+        assertEquals(Arrays.asList("u2,i2,1.0"), Files.readAllLines(Paths.get(paths.get(1))));
+    }
+
+    @Test
+    public void testCompressedBinary() throws IOException {
+        Configuration conf = new Configuration();
+        conf.set("rec.result.format", "binary");
+        conf.set("rec.result.compress", "true");
+        List<RecommendedItem> recommendedItems = Arrays.asList(
+                new GenericRecommendedItem("u0", "i1", 0.5),
+                new GenericRecommendedItem("u0", "i0", 0.25),
+                new GenericRecommendedItem("u2", "i2", 1.0));
+        String outputPath = folder.getRoot().getPath() + "/out";
+        List<String> paths = new RecommendedResultWriter(conf).write(outputPath, recommendedItems);
+        assertEquals(Arrays.asList(outputPath + ".gz"), paths);
+
+        try (DataInputStream inputStream = new DataInputStream(new GZIPInputStream(new FileInputStream(paths.get(0))))) {
+            assertEquals("u0", inputStream.readUTF());
+            assertEquals(2, inputStream.readInt());
+            assertEquals("i1", inputStream.readUTF());
+            assertEquals(0.5, inputStream.readDouble(), 0.0);
+            assertEquals("i0", inputStream.readUTF());
+            assertEquals(0.25, inputStream.readDouble(), 0.0);
+            assertEquals("u2", inputStream.readUTF());
+            assertEquals(1, inputStream.readInt());
+            assertEquals("i2", inputStream.readUTF());
+            assertEquals(1.0, inputStream.readDouble(), 0.0);
+            assertEquals(-1, inputStream.read());
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package net.librec.job.metrics;
+
+import net.librec.conf.Configuration;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * MetricsRegistry TestCase {@link net.librec.job.metrics.MetricsRegistry}
+ */
+public class MetricsRegistryTestCase {
+
+    @Test
+    public void testRegistryOfJob() {
+        Configuration conf = new Configuration();
+        conf.set("rec.job.id", "job_metrics_test");
+        MetricsRegistry metrics = MetricsRegistry.get(conf);
+        assertSame(metrics, MetricsRegistry.get(conf));
+        assertEquals("job_metrics_test", metrics.getJobId());
+        assertSame(metrics, MetricsRegistry.remove("job_metrics_test"));
+        assertNotSame(metrics, MetricsRegistry.get(conf));
+        MetricsRegistry.remove("job_metrics_test");
+    }
+
+    @Test
+    public void testRegistryWithoutJob() {
+        Configuration conf = new Configuration();
+        MetricsRegistry metrics = MetricsRegistry.get(conf);
+        metrics.counter("recommend.rank.users").add(3);
+        // runs without a job id do not accumulate into a shared registry
+        assertNotSame(metrics, MetricsRegistry.get(conf));
+        assertNull(MetricsRegistry.get(conf).getCounters().get("recommend.rank.users"));
+    }
+
+    @Test
+    public void testHistogram() {
+        MetricsRegistry.Histogram histogram = new MetricsRegistry("test").histogram("sizes");
+        assertEquals(0L, histogram.getQuantile(0.5));
+        for (long value = 1; value <= 100; value++) {
+            histogram.update(value);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(5050, histogram.getSum());
+        assertEquals(50.5, histogram.getMean(), 1e-9);
+        assertEquals(1, histogram.getMin());
+        assertEquals(100, histogram.getMax());
+        // 50 falls in the bucket [32, 63], 99 in the bucket [64, 127] bounded by the max
+        assertEquals(63, histogram.getQuantile(0.5));
+        assertEquals(100, histogram.getQuantile(0.99));
+        assertEquals(1, histogram.getQuantile(0.0));
+    }
+
+    @Test
+    public void testExport() {
+        MetricsRegistry metrics = new MetricsRegistry("test");
+        metrics.counter("recommend.rank.users").add(3);
+        metrics.timer("data.split").update(2000000000L);
+        metrics.recordEpoch("BPRRecommender", 1, 500000000L, 100, 0.25);
+
+        assertEquals(2.0, metrics.getTimers().get("data.split").getTotalSeconds(), 1e-9);
+        assertEquals(1, metrics.getTimers().get("train.epoch").getCount());
+        MetricsRegistry.Epoch epoch = metrics.getEpochs().get(0);
+        assertEquals(200.0, epoch.getSamplesPerSecond(), 1e-9);
+
+        String json = metrics.toJson();
+        assertTrue(json.startsWith("{\"jobId\":\"test\",\"counters\":{\"recommend.rank.users\":3},\"timers\":{\"data.split\":{\"count\":1,\"totalSeconds\":2.0,"));
+        assertTrue(json.contains("\"epochs\":[{\"recommender\":\"BPRRecommender\",\"iteration\":1,\"seconds\":0.5,\"samples\":100,\"samplesPerSecond\":200.0,\"loss\":0.25}]"));
+
+        String csv = metrics.toCsv();
+        assertTrue(csv.startsWith("type,name,field,value\ncounter,recommend.rank.users,count,3\n"));
+        assertTrue(csv.contains("timer,data.split,totalSeconds,2.0\n"));
+        assertTrue(csv.contains("epoch,BPRRecommender#1,loss,0.25\n"));
+    }
+}
@@ -28,6 +28,7 @@ import java.util.Iterator;
 import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 /**
  * Test cases about the DenseMatrix class
@@ -422,4 +423,79 @@ public class DenseMatrixTestCase extends BaseTestCase {
             e.printStackTrace();
         }
     }
+
+    @Test
+    public void testKernelsAgainstNaiveProducts() {
+        Random random = new Random(11L);
+        DenseMatrix denseMatrix1 = new DenseMatrix(130, 70);
+        DenseMatrix denseMatrix2 = new DenseMatrix(70, 90);
+        denseMatrix1.assign((row, column, value) -> random.nextGaussian());
+        denseMatrix2.assign((row, column, value) -> random.nextGaussian());
+        DenseVector vector = new VectorBasedDenseVector(130);
+        vector.assign((index, value) -> random.nextGaussian());
+
+        DenseMatrix product = denseMatrix1.times(denseMatrix2);
+        DenseMatrix transpose = denseMatrix1.transpose();
+        DenseMatrix gram = denseMatrix1.gram();
+        DenseVector transposeProduct = denseMatrix1.transposeTimes(vector);
+        for (int row = 0; row < 130; row++) {
+            for (int column = 0; column < 90; column++) {
+                double value = 0.0;
+                for (int inner = 0; inner < 70; inner++) {
+                    value += denseMatrix1.get(row, inner) * denseMatrix2.get(inner, column);
+                }
+                assertEquals(value, product.get(row, column), 1e-10);
+            }
+        }
+        for (int row = 0; row < 70; row++) {
+            double value = 0.0;
+            for (int inner = 0; inner < 130; inner++) {
+                value += denseMatrix1.get(inner, row) * vector.get(inner);
+                assertEquals(denseMatrix1.get(inner, row), transpose.get(row, inner), 0.0);
+            }
+            assertEquals(value, transposeProduct.get(row), 1e-10);
+            for (int column = 0; column < 70; column++) {
+                value = 0.0;
+                for (int inner = 0; inner < 130; inner++) {
+                    value += denseMatrix1.get(inner, row) * denseMatrix1.get(inner, column);
+                }
+                assertEquals(value, gram.get(row, column), 1e-10);
+            }
+        }
+        DenseVector product2 = transpose.times(vector);
+        for (int row = 0; row < 70; row++) {
+            assertEquals(transposeProduct.get(row), product2.get(row), 1e-10);
+        }
+    }
+
+    @Test
+    public void testSolveAndCholesky() {
+        Random random = new Random(13L);
+        DenseMatrix denseMatrix = new DenseMatrix(40, 20);
+        denseMatrix.assign((row, column, value) -> random.nextGaussian());
+        DenseMatrix gram = denseMatrix.gram().plus(0.1);
+        DenseVector vector = new VectorBasedDenseVector(20);
+        vector.assign((index, value) -> random.nextGaussian());
+
+        DenseVector expected = gram.inverse().times(vector);
+        DenseVector symmetricSolution = gram.solveSymmetric(vector);
+        DenseVector solution = gram.solve(vector);
+        for (int index = 0; index < 20; index++) {
+            assertEquals(expected.get(index), symmetricSolution.get(index), 1e-8);
+            assertEquals(expected.get(index), solution.get(index), 1e-8);
+        }
+
+        // cholesky returns the upper factor U with gram = U^T U
+        DenseMatrix upper = gram.cholesky();
+        DenseMatrix restored = upper.transpose().times(upper);
+        for (int row = 0; row < 20; row++) {
+            for (int column = 0; column < 20; column++) {
+                assertEquals(gram.get(row, column), restored.get(row, column), 1e-8);
+                if (column < row) {
+                    assertEquals(0.0, upper.get(row, column), 0.0);
+                }
+            }
+        }
+        assertNull(new DenseMatrix(new double[][]{{1, 2}, {2, 1}}).cholesky());
+    }
 }
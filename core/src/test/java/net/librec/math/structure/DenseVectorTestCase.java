@@ -20,6 +20,7 @@ package net.librec.math.structure;
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Table;
 import net.librec.BaseTestCase;
+import net.librec.common.CardinalityException;
 import net.librec.common.LibrecException;
 import org.junit.Test;
 
@@ -93,4 +94,14 @@ public class DenseVectorTestCase {
 
         System.out.println(elapsedTime);
     }
+
+    @Test(expected = CardinalityException.class)
+    public void testDotCardinality() {
+        new VectorBasedDenseVector(new double[]{1.0, 2.0}).dot(new VectorBasedDenseVector(new double[]{1.0, 2.0, 3.0}));
+    }
+
+    @Test(expected = CardinalityException.class)
+    public void testAxpyCardinality() {
+        new VectorBasedDenseVector(new double[]{1.0, 2.0, 3.0}).axpy(1.0, new VectorBasedDenseVector(new double[]{1.0, 2.0}));
+    }
 }
@@ -0,0 +1,46 @@
+package net.librec.math.structure;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * FeatureMatrix TestCase {@link net.librec.math.structure.FeatureMatrix}
+ */
+public class FeatureMatrixTestCase {
+
+    @Test
+    public void testOneHotAndTranspose() throws Exception {
+        SparseTensor tensor = new SparseTensor(3, 4, 2);
+        tensor.add(5.0, 0, 1, 0);
+        tensor.add(3.0, 2, 1, 1);
+        tensor.add(1.0, 1, 3, 1);
+
+        FeatureMatrix featureMatrix = FeatureMatrix.oneHot(tensor);
+        assertEquals(3, featureMatrix.rowSize());
+        assertEquals(9, featureMatrix.getNumFeatures());
+        assertTrue(featureMatrix.isBinary());
+        // user 2, item 3 + 1, context 3 + 4 + 1
+        assertEquals(3, featureMatrix.getRowStart(1));
+        assertEquals(6, featureMatrix.getRowEnd(1));
+        assertArrayEquals(new int[]{2, 4, 8}, Arrays.copyOfRange(featureMatrix.getFeatures(), 3, 6));
+        assertArrayEquals(new int[]{0, 1, 2}, Arrays.copyOfRange(featureMatrix.getFields(), 3, 6));
+        assertEquals(1.0, featureMatrix.getValue(4), 0.0);
+
+        FeatureMatrix transpose = featureMatrix.transpose();
+        assertEquals(9, transpose.rowSize());
+        assertEquals(3, transpose.getNumFeatures());
+        // item 1 is rated in rows 0 and 1
+        assertEquals(2, transpose.getRowEnd(4) - transpose.getRowStart(4));
+        assertEquals(0, transpose.getFeature(transpose.getRowStart(4)));
+        assertEquals(1, transpose.getFeature(transpose.getRowStart(4) + 1));
+        // context 1 occurs in rows 1 and 2
+        assertEquals(1, transpose.getFeature(transpose.getRowStart(8)));
+        assertEquals(2, transpose.getFeature(transpose.getRowStart(8) + 1));
+        assertEquals(featureMatrix.getNumEntries(), transpose.getNumEntries());
+    }
+}
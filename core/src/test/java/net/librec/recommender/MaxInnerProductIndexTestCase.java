@@ -0,0 +1,73 @@
+package net.librec.recommender;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * MaxInnerProductIndex TestCase {@link net.librec.recommender.MaxInnerProductIndex}
+ */
+public class MaxInnerProductIndexTestCase {
+
+    private double[][] createVectors(int size, int dimension, Random random) {
+        double[][] vectors = new double[size][dimension];
+        for (double[] vector : vectors) {
+            for (int d = 0; d < dimension; d++) {
+                vector[d] = random.nextGaussian();
+            }
+        }
+        return vectors;
+    }
+
+    @Test
+    public void testExactSearch() {
+        double[][] vectors = {{1.0, 0.0}, {0.0, 2.0}, {3.0, 3.0}, {-1.0, 5.0}};
+        MaxInnerProductIndex index = MaxInnerProductIndex.build(vectors, 2, 5, 1L);
+        assertArrayEquals(new int[]{2, 0}, index.exactSearch(new double[]{1.0, 0.0}, 2, null));
+        assertArrayEquals(new int[]{3, 1, 0}, index.exactSearch(new double[]{0.0, 1.0}, 3, itemIdx -> itemIdx != 2));
+        // scanning all the clusters and re-ranking all the items is exact
+        assertArrayEquals(new int[]{3, 2}, index.search(new double[]{0.0, 1.0}, 2, 2, 4, null));
+    }
+
+    @Test
+    public void testRecall() {
+        Random random = new Random(1L);
+        double[][] vectors = createVectors(2000, 8, random);
+        double[][] queries = createVectors(50, 8, random);
+        MaxInnerProductIndex index = MaxInnerProductIndex.build(vectors, 40, 10, 1L);
+        assertEquals(40, index.getNumLists());
+        assertEquals(1.0, index.recall(queries, 10, 40, 2000), 0.0);
+
+        double recall = index.recall(queries, 10, 10, 40);
+        assertTrue(recall > 0.8);
+        assertTrue(recall >= index.recall(queries, 10, 2, 40));
+
+        int[] items = index.search(queries[0], 10, 10, 40, itemIdx -> itemIdx % 2 == 0);
+        assertEquals(10, items.length);
+        for (int itemIdx : items) {
+            assertEquals(0, itemIdx % 2);
+        }
+    }
+
+    @Test
+    public void testRestrictiveFilter() {
+        Random random = new Random(1L);
+        double[][] vectors = createVectors(2000, 8, random);
+        double[] query = createVectors(1, 8, random)[0];
+        MaxInnerProductIndex index = MaxInnerProductIndex.build(vectors, 40, 10, 1L);
+
+        // one probed cluster holds about one accepted item, more clusters are scanned to find n of them
+        int[] items = index.search(query, 10, 1, 40, itemIdx -> itemIdx % 40 == 0);
+        assertEquals(10, items.length);
+        for (int itemIdx : items) {
+            assertEquals(0, itemIdx % 40);
+        }
+
+        // fewer accepted items than n: all of them are found
+        int[] allItems = index.search(query, 10, 1, 40, itemIdx -> itemIdx < 5);
+        assertArrayEquals(index.exactSearch(query, 10, itemIdx -> itemIdx < 5), allItems);
+        assertEquals(5, allItems.length);
+    }
+}
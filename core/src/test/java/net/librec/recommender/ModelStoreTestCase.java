@@ -0,0 +1,127 @@
+package net.librec.recommender;
+
+import com.google.common.collect.BiMap;
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.HashBiMap;
+import com.google.common.collect.Table;
+import net.librec.annotation.ModelData;
+import net.librec.math.structure.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * ModelStore TestCase {@link net.librec.recommender.ModelStore}
+ */
+public class ModelStoreTestCase {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @ModelData({"isRanking", "test", "factors", "biases", "ratings", "similarities", "mapping", "topics", "counts",
+            "ratio", "k", "means", "missing"})
+    private static class TestModel {
+        private boolean isRanking;
+        private DenseMatrix factors;
+        private VectorBasedDenseVector biases;
+        private SequentialAccessSparseMatrix ratings;
+        private SymmMatrix similarities;
+        private BiMap<String, Integer> mapping;
+        private double[][][] topics;
+        private int[] counts;
+        private float ratio;
+        private int k;
+        private Map<Integer, Double> means;
+        private DenseMatrix missing;
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        TestModel model = new TestModel();
+        model.isRanking = true;
+        model.factors = new DenseMatrix(new double[][]{{1.0, 2.0, 3.0}, {4.0, 5.0, 6.0}});
+        model.biases = new VectorBasedDenseVector(new double[]{0.5, -0.5});
+        Table<Integer, Integer, Double> table = HashBasedTable.create();
+        table.put(0, 2, 3.0);
+        table.put(1, 0, 4.0);
+        table.put(1, 3, 5.0);
+        model.ratings = new SequentialAccessSparseMatrix(3, 4, table);
+        model.similarities = new SymmMatrix(3);
+        model.similarities.set(0, 2, 0.25);
+        model.mapping = HashBiMap.create();
+        model.mapping.put("u1", 0);
+        model.mapping.put("u2", 1);
+        model.topics = new double[][][]{{{1.0}, {2.0, 3.0}}, {{4.0}}};
+        model.counts = new int[]{7, 8, 9};
+        model.ratio = 0.75f;
+        model.k = 42;
+        model.means = new HashMap<>();
+        model.means.put(1, 2.5);
+
+        List<String> fieldNames = ModelStore.getModelFields(TestModel.class);
+        assertEquals("isRanking", fieldNames.get(0));
+        String filePath = new File(folder.getRoot(), "model.bin").getPath();
+        ModelStore.save(model, fieldNames, filePath);
+
+        TestModel loaded = new TestModel();
+        loaded.missing = new DenseMatrix(1, 1);
+        List<String> loadedNames = ModelStore.load(loaded, filePath);
+        assertEquals(Arrays.asList("isRanking", "factors", "biases", "ratings", "similarities", "mapping", "topics",
+                "counts", "ratio", "k", "means", "missing"), loadedNames);
+
+        assertTrue(loaded.isRanking);
+        assertEquals(2, loaded.factors.rowSize());
+        assertArrayEquals(new double[]{4.0, 5.0, 6.0}, loaded.factors.getValues()[1], 0.0);
+        assertArrayEquals(new double[]{0.5, -0.5}, loaded.biases.getValues(), 0.0);
+        assertEquals(3, loaded.ratings.rowSize());
+        assertEquals(4, loaded.ratings.columnSize());
+        assertEquals(3, loaded.ratings.size());
+        assertEquals(5.0, loaded.ratings.get(1, 3), 0.0);
+        assertEquals(4.0, loaded.ratings.column(0).get(1), 0.0);
+        assertEquals(0.25, loaded.similarities.get(2, 0), 0.0);
+        assertEquals(Integer.valueOf(1), loaded.mapping.get("u2"));
+        assertEquals("u1", loaded.mapping.inverse().get(0));
+        assertArrayEquals(new double[]{2.0, 3.0}, loaded.topics[0][1], 0.0);
+        assertArrayEquals(new int[]{7, 8, 9}, loaded.counts);
+        assertEquals(0.75f, loaded.ratio, 0.0f);
+        assertEquals(42, loaded.k);
+        assertEquals(2.5, loaded.means.get(1), 0.0);
+        assertNull(loaded.missing);
+    }
+
+    @Test(expected = IOException.class)
+    public void testLoadOtherModel() throws IOException {
+        String filePath = new File(folder.getRoot(), "model.bin").getPath();
+        ModelStore.save(new TestModel(), ModelStore.getModelFields(TestModel.class), filePath);
+        ModelStore.load(new Object(), filePath);
+    }
+
+    @ModelData({"file"})
+    private static class FileModel {
+        private File file;
+    }
+
+    /**
+     * Serialized values of classes other than the model data types are not read.
+     *
+     * @throws IOException
+     */
+    @Test(expected = InvalidClassException.class)
+    public void testLoadOtherSerializedType() throws IOException {
+        String filePath = new File(folder.getRoot(), "model.bin").getPath();
+        FileModel model = new FileModel();
+        model.file = new File(filePath);
+        ModelStore.save(model, ModelStore.getModelFields(FileModel.class), filePath);
+        ModelStore.load(new FileModel(), filePath);
+    }
+}
@@ -20,11 +20,19 @@ package net.librec.recommender.cf.ranking;
 import net.librec.BaseTestCase;
 import net.librec.common.LibrecException;
 import net.librec.conf.Configuration;
+import net.librec.data.DataModel;
+import net.librec.data.model.TextDataModel;
 import net.librec.job.RecommenderJob;
+import net.librec.recommender.RecommenderContext;
+import net.librec.recommender.item.KeyValue;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+import static org.junit.Assert.assertEquals;
 
 /**
  * BPR Test Case corresponds to BPRRecommender
@@ -53,4 +61,43 @@ public class BPRTestCase extends BaseTestCase {
         RecommenderJob job = new RecommenderJob(conf);
         job.runJob();
     }
+
+    /**
+     * rank the items from the inner product index under a restrictive filter,
+     * with the ranked items cached
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testIndexedRankingWithCache() throws Exception {
+        conf.addResource(new Configuration.Resource("rec/cf/ranking/bpr-test.properties"));
+        conf.set("rec.iterator.maximum", "5");
+        conf.set("rec.ann.enable", "true");
+        conf.set("rec.ann.probes", "1");
+        conf.set("rec.cache.enable", "true");
+        conf.set("rec.cache.topn", "20");
+        DataModel dataModel = new TextDataModel(conf);
+        dataModel.buildDataModel();
+        BPRRecommender recommender = new BPRRecommender();
+        recommender.train(new RecommenderContext(conf, dataModel));
+
+        // a single probed cluster holds fewer accepted items than requested
+        IntPredicate acceptItem = itemIdx -> itemIdx % 50 == 0;
+        for (int round = 0; round < 2; round++) {
+            List<KeyValue<Integer, Double>> itemValueList = recommender.recommendRank(0, 10, acceptItem);
+            assertEquals(10, itemValueList.size());
+            for (KeyValue<Integer, Double> itemValue : itemValueList) {
+                assertEquals(0, itemValue.getKey() % 50);
+            }
+        }
+
+        // the cached scores are those computed
+        List<KeyValue<Integer, Double>> rankedList = recommender.recommendRank(1, 5, null);
+        List<KeyValue<Integer, Double>> cachedList = recommender.recommendRank(1, 5, null);
+        assertEquals(1, recommender.getResultCache().getHits());
+        for (int position = 0; position < rankedList.size(); position++) {
+            assertEquals(rankedList.get(position).getKey(), cachedList.get(position).getKey());
+            assertEquals(rankedList.get(position).getValue(), cachedList.get(position).getValue(), 0.0);
+        }
+    }
 }
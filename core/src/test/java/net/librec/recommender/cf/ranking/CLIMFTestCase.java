@@ -20,12 +20,18 @@ package net.librec.recommender.cf.ranking;
 import net.librec.BaseTestCase;
 import net.librec.common.LibrecException;
 import net.librec.conf.Configuration;
+import net.librec.data.DataModel;
+import net.librec.data.model.TextDataModel;
 import net.librec.job.RecommenderJob;
+import net.librec.math.algorithm.Maths;
+import net.librec.recommender.RecommenderContext;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
 
+import static org.junit.Assert.assertEquals;
+
 /**
  * CLIMF Test Case corresponds to CLIMFRecommender
  * {@link net.librec.recommender.cf.ranking.CLIMFRecommender}
@@ -53,4 +59,123 @@ public class CLIMFTestCase extends BaseTestCase {
         RecommenderJob job = new RecommenderJob(conf);
         job.runJob();
     }
+
+    /**
+     * One serial epoch of the closed-form gradients gives the factors of the
+     * per-factor gradients of the paper, summed over every pair of items.
+     *
+     * @throws LibrecException
+     */
+    @Test
+    public void testEpochGradient() throws LibrecException {
+        conf.addResource(new Configuration.Resource("rec/cf/ranking/climf-test.properties"));
+        conf.set("data.input.path", "filmtrust/rating");
+        conf.set("data.column.format", "UIR");
+        conf.set("rec.iterator.maximum", "1");
+        DataModel dataModel = new TextDataModel(conf);
+        dataModel.buildDataModel();
+        EpochCLIMFRecommender recommender = new EpochCLIMFRecommender();
+        recommender.train(new RecommenderContext(conf, dataModel));
+
+        double[][][] expectedFactors = recommender.perFactorEpoch();
+        double[][] userValues = recommender.userValues();
+        double[][] itemValues = recommender.itemValues();
+        for (int userIdx = 0; userIdx < userValues.length; userIdx++) {
+            for (int factorIdx = 0; factorIdx < userValues[userIdx].length; factorIdx++) {
+                assertEquals(expectedFactors[0][userIdx][factorIdx], userValues[userIdx][factorIdx], 1e-9);
+            }
+        }
+        for (int itemIdx = 0; itemIdx < itemValues.length; itemIdx++) {
+            for (int factorIdx = 0; factorIdx < itemValues[itemIdx].length; factorIdx++) {
+                assertEquals(expectedFactors[1][itemIdx][factorIdx], itemValues[itemIdx][factorIdx], 1e-9);
+            }
+        }
+    }
+
+    /**
+     * CLIMF keeping its initial factors, to replay its first epoch with the
+     * per-factor gradients.
+     */
+    private static class EpochCLIMFRecommender extends CLIMFRecommender {
+        private double[][] initialUserValues;
+        private double[][] initialItemValues;
+        private double initialLearnRate;
+
+        @Override
+        protected void trainModel() throws LibrecException {
+            initialUserValues = copy(userFactors.getValues());
+            initialItemValues = copy(itemFactors.getValues());
+            initialLearnRate = learnRate;
+            super.trainModel();
+        }
+
+        double[][] userValues() {
+            return userFactors.getValues();
+        }
+
+        double[][] itemValues() {
+            return itemFactors.getValues();
+        }
+
+        /**
+         * @return the user factors and the item factors after one epoch
+         */
+        double[][][] perFactorEpoch() {
+            double[][] userValues = copy(initialUserValues);
+            double[][] itemValues = copy(initialItemValues);
+            for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+                int[] items = trainMatrix.row(userIdx).getIndices();
+                double[] userVector = userValues[userIdx];
+                double[] userGradients = new double[numFactors];
+                double[][] itemGradients = new double[items.length][numFactors];
+                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                    userGradients[factorIdx] = -regUser * userVector[factorIdx];
+                    for (int position = 0; position < items.length; position++) {
+                        double[] itemVector = itemValues[items[position]];
+                        double score = dot(userVector, itemVector);
+                        userGradients[factorIdx] += Maths.logistic(-score) * itemVector[factorIdx];
+                        itemGradients[position][factorIdx] = Maths.logistic(-score) * userVector[factorIdx]
+                                - regItem * itemVector[factorIdx];
+                        for (int compPosition = 0; compPosition < items.length; compPosition++) {
+                            if (compPosition == position) {
+                                continue;
+                            }
+                            double[] compItemVector = itemValues[items[compPosition]];
+                            double diffValue = dot(userVector, compItemVector) - score;
+                            userGradients[factorIdx] += Maths.logisticGradientValue(diffValue) / (1 - Maths.logistic(diffValue))
+                                    * (itemVector[factorIdx] - compItemVector[factorIdx]);
+                            itemGradients[position][factorIdx] += Maths.logisticGradientValue(-diffValue)
+                                    * (1.0d / (1 - Maths.logistic(diffValue)) - 1.0d / (1 - Maths.logistic(-diffValue)))
+                                    * userVector[factorIdx];
+                        }
+                    }
+                }
+                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                    userVector[factorIdx] += initialLearnRate * userGradients[factorIdx];
+                }
+                for (int position = 0; position < items.length; position++) {
+                    for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                        itemValues[items[position]][factorIdx] += initialLearnRate * itemGradients[position][factorIdx];
+                    }
+                }
+            }
+            return new double[][][]{userValues, itemValues};
+        }
+
+        private static double dot(double[] vector1, double[] vector2) {
+            double value = 0.0d;
+            for (int index = 0; index < vector1.length; index++) {
+                value += vector1[index] * vector2[index];
+            }
+            return value;
+        }
+
+        private static double[][] copy(double[][] values) {
+            double[][] copy = new double[values.length][];
+            for (int index = 0; index < values.length; index++) {
+                copy[index] = values[index].clone();
+            }
+            return copy;
+        }
+    }
 }
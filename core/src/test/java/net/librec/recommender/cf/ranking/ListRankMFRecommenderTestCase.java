@@ -3,12 +3,18 @@ package net.librec.recommender.cf.ranking;
 import net.librec.BaseTestCase;
 import net.librec.common.LibrecException;
 import net.librec.conf.Configuration;
+import net.librec.data.DataModel;
+import net.librec.data.model.TextDataModel;
 import net.librec.job.RecommenderJob;
+import net.librec.math.algorithm.Maths;
+import net.librec.recommender.RecommenderContext;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
 
+import static org.junit.Assert.assertEquals;
+
 /**
  * ListRankMF Test Case corresponds to ListRankMFRecommender
  * {@link net.librec.recommender.cf.ranking.ListRankMFRecommender}
@@ -37,4 +43,129 @@ public class ListRankMFRecommenderTestCase extends BaseTestCase{
         RecommenderJob job = new RecommenderJob(conf);
         job.runJob();
     }
+
+    /**
+     * One epoch of the summed gradients gives the factors of the gradients
+     * of the ratings, applied factor by factor, user by user, then item by item.
+     *
+     * @throws LibrecException
+     */
+    @Test
+    public void testEpochGradient() throws LibrecException {
+        conf.addResource(new Configuration.Resource("rec/cf/ranking/listrankmf-test.properties"));
+        conf.set("data.input.path", "filmtrust/rating");
+        conf.set("data.column.format", "UIR");
+        conf.set("rec.iterator.maximum", "1");
+        DataModel dataModel = new TextDataModel(conf);
+        dataModel.buildDataModel();
+        EpochListRankMFRecommender recommender = new EpochListRankMFRecommender();
+        recommender.train(new RecommenderContext(conf, dataModel));
+
+        double[][][] expectedFactors = recommender.perFactorEpoch();
+        double[][] userValues = recommender.userValues();
+        double[][] itemValues = recommender.itemValues();
+        for (int userIdx = 0; userIdx < userValues.length; userIdx++) {
+            for (int factorIdx = 0; factorIdx < userValues[userIdx].length; factorIdx++) {
+                assertEquals(expectedFactors[0][userIdx][factorIdx], userValues[userIdx][factorIdx], 1e-9);
+            }
+        }
+        for (int itemIdx = 0; itemIdx < itemValues.length; itemIdx++) {
+            for (int factorIdx = 0; factorIdx < itemValues[itemIdx].length; factorIdx++) {
+                assertEquals(expectedFactors[1][itemIdx][factorIdx], itemValues[itemIdx][factorIdx], 1e-9);
+            }
+        }
+    }
+
+    /**
+     * ListRankMF keeping its initial factors, to replay its first epoch
+     * rating by rating.
+     */
+    private static class EpochListRankMFRecommender extends ListRankMFRecommender {
+        private double[][] initialUserValues;
+        private double[][] initialItemValues;
+        private double initialLearnRate;
+
+        @Override
+        protected void trainModel() throws LibrecException {
+            initialUserValues = copy(userFactors.getValues());
+            initialItemValues = copy(itemFactors.getValues());
+            initialLearnRate = learnRate;
+            super.trainModel();
+        }
+
+        double[][] userValues() {
+            return userFactors.getValues();
+        }
+
+        double[][] itemValues() {
+            return itemFactors.getValues();
+        }
+
+        /**
+         * @return the user factors and the item factors after one epoch
+         */
+        double[][][] perFactorEpoch() {
+            double[][] userValues = copy(initialUserValues);
+            double[][] itemValues = copy(initialItemValues);
+            for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+                int[] items = trainMatrix.row(userIdx).getIndices();
+                double[] userVector = userValues[userIdx];
+                double uexp = 0.0d;
+                for (int itemIdx : items) {
+                    uexp += Math.exp(Maths.logistic(dot(userVector, itemValues[itemIdx])));
+                }
+                double[] userGradients = new double[numFactors];
+                for (int itemIdx : items) {
+                    double predictRating = dot(userVector, itemValues[itemIdx]);
+                    double error = Maths.logisticGradientValue(predictRating)
+                            * (Math.exp(Maths.logistic(predictRating)) / uexp
+                            - Math.exp(trainMatrix.get(userIdx, itemIdx) / maxRate) / userExp.get(userIdx));
+                    for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                        userGradients[factorIdx] += error * itemValues[itemIdx][factorIdx];
+                    }
+                }
+                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                    userVector[factorIdx] -= initialLearnRate * (userGradients[factorIdx] + regUser * userVector[factorIdx]);
+                }
+            }
+            for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+                int[] users = trainMatrix.column(itemIdx).getIndices();
+                double[] itemVector = itemValues[itemIdx];
+                double iexp = 0.0d;
+                for (int userIdx : users) {
+                    iexp += Math.exp(Maths.logistic(dot(userValues[userIdx], itemVector)));
+                }
+                double[] itemGradients = new double[numFactors];
+                for (int userIdx : users) {
+                    double predictRating = dot(userValues[userIdx], itemVector);
+                    double error = Maths.logisticGradientValue(predictRating)
+                            * (Math.exp(Maths.logistic(predictRating)) / iexp
+                            - Math.exp(trainMatrix.get(userIdx, itemIdx) / maxRate) / userExp.get(userIdx));
+                    for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                        itemGradients[factorIdx] += error * userValues[userIdx][factorIdx];
+                    }
+                }
+                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                    itemVector[factorIdx] -= initialLearnRate * (itemGradients[factorIdx] + regItem * itemVector[factorIdx]);
+                }
+            }
+            return new double[][][]{userValues, itemValues};
+        }
+
+        private static double dot(double[] vector1, double[] vector2) {
+            double value = 0.0d;
+            for (int index = 0; index < vector1.length; index++) {
+                value += vector1[index] * vector2[index];
+            }
+            return value;
+        }
+
+        private static double[][] copy(double[][] values) {
+            double[][] copy = new double[values.length][];
+            for (int index = 0; index < values.length; index++) {
+                copy[index] = values[index].clone();
+            }
+            return copy;
+        }
+    }
 }
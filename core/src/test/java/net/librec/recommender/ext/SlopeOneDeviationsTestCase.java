@@ -0,0 +1,61 @@
+package net.librec.recommender.ext;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * SlopeOneDeviations TestCase {@link net.librec.recommender.ext.SlopeOneDeviations}
+ */
+public class SlopeOneDeviationsTestCase {
+
+    private SequentialAccessSparseMatrix createMatrix() {
+        Table<Integer, Integer, Double> table = HashBasedTable.create();
+        table.put(0, 0, 5.0);
+        table.put(0, 1, 3.0);
+        table.put(0, 2, 2.0);
+        table.put(1, 0, 3.0);
+        table.put(1, 1, 4.0);
+        table.put(2, 1, 2.0);
+        table.put(2, 2, 5.0);
+        table.put(3, 0, 4.0);
+        return new SequentialAccessSparseMatrix(4, 3, table);
+    }
+
+    @Test
+    public void testAccumulate() {
+        SequentialAccessSparseMatrix matrix = createMatrix();
+        SlopeOneDeviations deviations = SlopeOneDeviations.build(matrix, 1, null);
+        assertEquals(3, deviations.size());
+
+        // item 0 from the ratings of user 2: dev(0, 1) = ((5 - 3) + (3 - 4)) / 2 and dev(0, 2) = 5 - 2
+        double[] terms = new double[2];
+        deviations.accumulate(0, matrix.row(2), terms);
+        assertEquals((0.5 + 2.0) * 2 + (3.0 + 5.0), terms[0], 1e-6);
+        assertEquals(3.0, terms[1], 0.0);
+
+        // item 2 from the ratings of user 1: dev(2, 0) = 2 - 5 and dev(2, 1) = ((2 - 3) + (5 - 2)) / 2
+        terms = new double[2];
+        deviations.accumulate(2, matrix.row(1), terms);
+        assertEquals(-3.0 + 3.0 + (1.0 + 4.0) * 2, terms[0], 1e-6);
+        assertEquals(3.0, terms[1], 0.0);
+    }
+
+    @Test
+    public void testMinSupportAndFilter() {
+        SequentialAccessSparseMatrix matrix = createMatrix();
+        assertEquals(2, SlopeOneDeviations.build(matrix, 2, null).size());
+
+        SlopeOneDeviations deviations = SlopeOneDeviations.build(matrix, 1,
+                (userIdx, rating, comparedRating) -> rating >= 3.0 && comparedRating >= 3.0);
+        assertEquals(1, deviations.size());
+        // item 1 from the ratings of user 0: dev(1, 0) = ((3 - 5) + (4 - 3)) / 2
+        double[] terms = new double[2];
+        deviations.accumulate(1, matrix.row(0), terms);
+        assertEquals((-0.5 + 5.0) * 2, terms[0], 1e-6);
+        assertEquals(2.0, terms[1], 0.0);
+    }
+}
@@ -0,0 +1,126 @@
+package net.librec.recommender.item;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * RecommendedResultCache TestCase {@link net.librec.recommender.item.RecommendedResultCache}
+ */
+public class RecommendedResultCacheTestCase {
+
+    private List<KeyValue<Integer, Double>> createList(int... items) {
+        List<KeyValue<Integer, Double>> itemValueList = new ArrayList<>();
+        for (int position = 0; position < items.length; position++) {
+            itemValueList.add(new KeyValue<>(items[position], (double) (items.length - position)));
+        }
+        return itemValueList;
+    }
+
+    @Test
+    public void testGet() {
+        RecommendedResultCache cache = new RecommendedResultCache(10, 1L << 20, 4);
+        assertNull(cache.get(0, 2, null));
+        assertTrue(cache.put(0, cache.getGeneration(0), createList(5, 3, 8), false));
+        assertTrue(cache.put(1, cache.getGeneration(1), createList(2, 7), true));
+
+        List<KeyValue<Integer, Double>> itemValueList = cache.get(0, 2, null);
+        assertEquals(2, itemValueList.size());
+        assertEquals(5, itemValueList.get(0).getKey().intValue());
+        assertEquals(3.0, itemValueList.get(0).getValue(), 0.0);
+        assertEquals(3, itemValueList.get(1).getKey().intValue());
+        // the filtered items are taken from the cached ones while enough of them are accepted
+        itemValueList = cache.get(0, 2, itemIdx -> itemIdx != 3);
+        assertEquals(8, itemValueList.get(1).getKey().intValue());
+        assertNull(cache.get(0, 3, itemIdx -> itemIdx != 3));
+        // all the candidate items of user 1 are cached
+        assertEquals(1, cache.get(1, 5, itemIdx -> itemIdx != 2).size());
+        assertEquals(3, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testEviction() {
+        RecommendedResultCache cache = new RecommendedResultCache(2, 1L << 20, 4);
+        cache.put(0, cache.getGeneration(0), createList(1, 2), false);
+        cache.put(1, cache.getGeneration(1), createList(3, 4), false);
+        cache.get(0, 1, null);
+        cache.put(2, cache.getGeneration(2), createList(5, 6), false);
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(0, 1, null));
+        assertNull(cache.get(1, 1, null));
+
+        // an entry of 2 items is estimated to 104 bytes
+        cache = new RecommendedResultCache(10, 220L, 4);
+        cache.put(0, cache.getGeneration(0), createList(1, 2), false);
+        cache.put(1, cache.getGeneration(1), createList(3, 4), false);
+        cache.put(2, cache.getGeneration(2), createList(5, 6), false);
+        assertEquals(2, cache.size());
+        assertEquals(208L, cache.getBytes());
+        assertNull(cache.get(0, 1, null));
+        assertFalse(cache.put(3, cache.getGeneration(3), createList(new int[20]), false));
+    }
+
+    @Test
+    public void testInvalidation() {
+        RecommendedResultCache cache = new RecommendedResultCache(10, 1L << 20, 4);
+        cache.put(0, cache.getGeneration(0), createList(1, 2), false);
+        cache.put(1, cache.getGeneration(1), createList(3, 4), false);
+        cache.put(2, cache.getGeneration(2), createList(2, 5), false);
+
+        long generation = cache.getGeneration(0);
+        cache.invalidateItems(new int[]{2, 9});
+        assertNull(cache.get(0, 1, null));
+        assertNotNull(cache.get(1, 1, null));
+        assertNull(cache.get(2, 1, null));
+        // a result computed before an invalidation is not cached
+        assertFalse(cache.put(0, generation, createList(1, 2), false));
+
+        cache.invalidateUser(1);
+        assertEquals(0, cache.size());
+
+        cache.put(0, cache.getGeneration(0), createList(1, 2), false);
+        cache.invalidateAll();
+        assertEquals(1, cache.getModelVersion());
+        assertEquals(0, cache.size());
+        assertEquals(0L, cache.getBytes());
+    }
+
+    @Test
+    public void testExactScores() {
+        RecommendedResultCache cache = new RecommendedResultCache(10, 1L << 20, 4);
+        List<KeyValue<Integer, Double>> itemValueList = new ArrayList<>();
+        itemValueList.add(new KeyValue<>(1, 0.1 + 1e-12));
+        cache.put(0, cache.getGeneration(0), itemValueList, true);
+        assertEquals(0.1 + 1e-12, cache.get(0, 1, null).get(0).getValue(), 0.0);
+    }
+
+    @Test
+    public void testSegments() {
+        RecommendedResultCache cache = new RecommendedResultCache(64, 1L << 20, 4, 4);
+        IntStream.range(0, 400).parallel().forEach(userIdx -> {
+            assertNull(cache.get(userIdx, 2, null));
+            assertTrue(cache.put(userIdx, cache.getGeneration(userIdx), createList(userIdx, userIdx + 1), false));
+            assertNotNull(cache.get(userIdx, 2, null));
+        });
+        assertEquals(400, cache.getHits());
+        assertEquals(400, cache.getMisses());
+        // each of the 4 segments holds at most 16 users
+        assertEquals(64, cache.size());
+
+        // an invalidation only rejects the results of its segment
+        long generation = cache.getGeneration(0);
+        cache.invalidateUser(0);
+        assertFalse(cache.put(0, generation, createList(1, 2), false));
+        for (int userIdx = 1; userIdx < 400; userIdx++) {
+            if (cache.getGeneration(userIdx) == 0L) {
+                assertTrue(cache.put(userIdx, 0L, createList(1, 2), false));
+                break;
+            }
+        }
+    }
+}
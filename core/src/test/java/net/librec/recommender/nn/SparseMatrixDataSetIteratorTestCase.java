@@ -0,0 +1,74 @@
+package net.librec.recommender.nn;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * SparseMatrixDataSetIterator TestCase {@link net.librec.recommender.nn.SparseMatrixDataSetIterator}
+ */
+public class SparseMatrixDataSetIteratorTestCase {
+
+    private SequentialAccessSparseMatrix createMatrix() {
+        Table<Integer, Integer, Double> table = HashBasedTable.create();
+        for (int row = 0; row < 5; row++) {
+            table.put(row, row % 3, row + 1.0);
+        }
+        table.put(4, 2, 9.0);
+        return new SequentialAccessSparseMatrix(5, 3, table);
+    }
+
+    @Test
+    public void testMiniBatches() {
+        SequentialAccessSparseMatrix matrix = createMatrix();
+        SparseMatrixDataSetIterator iterator = new SparseMatrixDataSetIterator(matrix, false, 2);
+        assertEquals(5, iterator.numExamples());
+        assertEquals(3, iterator.inputColumns());
+
+        for (int pass = 0; pass < 2; pass++) {
+            iterator.reset();
+            boolean[] seen = new boolean[5];
+            int numBatches = 0;
+            while (iterator.hasNext()) {
+                DataSet batch = iterator.next();
+                int[] rows = SparseMatrixDataSetIterator.getExampleIndices(batch);
+                INDArray features = batch.getFeatures();
+                assertEquals(rows.length, features.rows());
+                assertSame(features, batch.getLabels());
+                for (int position = 0; position < rows.length; position++) {
+                    assertFalse(seen[rows[position]]);
+                    seen[rows[position]] = true;
+                    for (int column = 0; column < 3; column++) {
+                        assertEquals(matrix.get(rows[position], column), features.getDouble(position, column), 0.0);
+                    }
+                }
+                numBatches++;
+            }
+            assertEquals(3, numBatches);
+            for (boolean row : seen) {
+                assertTrue(row);
+            }
+        }
+    }
+
+    @Test
+    public void testWholeMatrixByColumn() {
+        SequentialAccessSparseMatrix matrix = createMatrix();
+        SparseMatrixDataSetIterator iterator = new SparseMatrixDataSetIterator(matrix, true, 0);
+        assertEquals(3, iterator.batch());
+
+        DataSet batch = iterator.next();
+        assertFalse(iterator.hasNext());
+        assertArrayEquals(new int[]{0, 1, 2}, SparseMatrixDataSetIterator.getExampleIndices(batch));
+        assertEquals(9.0, batch.getFeatures().getDouble(2, 4), 0.0);
+        assertEquals(4.0, batch.getFeatures().getDouble(0, 3), 0.0);
+
+        iterator.reset();
+        assertSame(batch, iterator.next());
+    }
+}
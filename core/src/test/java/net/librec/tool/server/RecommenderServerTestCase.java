@@ -0,0 +1,108 @@
+package net.librec.tool.server;
+
+import com.google.common.io.CharStreams;
+import net.librec.BaseTestCase;
+import net.librec.conf.Configuration.Resource;
+import net.librec.recommender.item.KeyValue;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.*;
+
+/**
+ * RecommenderServer TestCase {@link net.librec.tool.server.RecommenderServer}
+ */
+public class RecommenderServerTestCase extends BaseTestCase {
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        conf.addResource(new Resource("rec/baseline/mostpopular-test.properties"));
+        conf.set("rec.server.port", "0");
+    }
+
+    private String get(RecommenderServer server, String path, int expectedStatus) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + server.getPort() + path).openConnection();
+        assertEquals(expectedStatus, connection.getResponseCode());
+        try (Reader reader = new InputStreamReader(expectedStatus == 200 ? connection.getInputStream()
+                : connection.getErrorStream(), StandardCharsets.UTF_8)) {
+            return CharStreams.toString(reader);
+        }
+    }
+
+    @Test
+    public void testServe() throws Exception {
+        RecommenderServer server = RecommenderServer.serve(conf);
+        try {
+            List<KeyValue<String, Double>> topItems = server.topN("1", 5, Collections.<String>emptyList()).get();
+            assertEquals(5, topItems.size());
+            for (int index = 1; index < topItems.size(); index++) {
+                assertTrue(topItems.get(index - 1).getValue() >= topItems.get(index).getValue());
+            }
+
+            String firstItem = topItems.get(0).getKey();
+            List<KeyValue<String, Double>> otherItems = server.topN("1", 5, Arrays.asList(firstItem, "unknown")).get();
+            assertEquals(5, otherItems.size());
+            assertEquals(topItems.get(1).getKey(), otherItems.get(0).getKey());
+            for (KeyValue<String, Double> itemScore : otherItems) {
+                assertNotEquals(firstItem, itemScore.getKey());
+            }
+
+            List<KeyValue<String, Double>> scores = server.score("1", Arrays.asList("unknown", firstItem)).get();
+            assertEquals("unknown", scores.get(0).getKey());
+            assertTrue(Double.isNaN(scores.get(0).getValue()));
+            // the predicted ratings are bounded by the rating scale, unlike the ranking scores
+            assertEquals(Math.min(topItems.get(0).getValue(), 5.0), scores.get(1).getValue(), 1e-9);
+
+            try {
+                server.topN("unknown", 5, Collections.<String>emptyList()).get();
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof NoSuchElementException);
+            }
+
+            String topN = get(server, "/topn?user=1&n=2&exclude=" + firstItem, 200);
+            assertTrue(topN.startsWith("{\"user\":\"1\",\"items\":[{\"item\":\"" + topItems.get(1).getKey() + "\""));
+            assertTrue(get(server, "/score?user=1&items=" + firstItem, 200).contains("\"item\":\"" + firstItem + "\""));
+            assertTrue(get(server, "/topn?user=unknown", 404).contains("error"));
+            assertTrue(get(server, "/metrics", 200).contains("\"server.topn\":{\"count\":3"));
+            assertEquals(3, server.getMetrics().getTimers().get("server.topn").getCount());
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * A request of more items than the model holds gets all of them, and the
+     * server keeps answering.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testLargeTopN() throws Exception {
+        conf.set("rec.cache.enable", "true");
+        RecommenderServer server = RecommenderServer.serve(conf);
+        try {
+            assertTrue(server.getAddress().getAddress().isLoopbackAddress());
+            List<KeyValue<String, Double>> allItems = server.topN("1", Integer.MAX_VALUE,
+                    Collections.<String>emptyList()).get();
+            assertFalse(allItems.isEmpty());
+            assertTrue(get(server, "/topn?user=1&n=" + Integer.MAX_VALUE, 200).contains("\"item\""));
+            assertEquals(2, server.topN("1", 2, Collections.<String>emptyList()).get().size());
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package net.librec.util;
+
+import net.librec.common.LibrecException;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+/**
+ * RangeExecutor TestCase {@link net.librec.util.RangeExecutor}
+ */
+public class RangeExecutorTestCase {
+
+    @Test
+    public void testBlocksCoverRange() throws LibrecException {
+        AtomicIntegerArray counts = new AtomicIntegerArray(1001);
+        try (RangeExecutor rangeExecutor = new RangeExecutor(3)) {
+            // the pool is reused by the passes
+            for (int pass = 0; pass < 2; pass++) {
+                double sum = rangeExecutor.sum(counts.length(), (from, to) -> {
+                    double blockSum = 0.0D;
+                    for (int index = from; index < to; index++) {
+                        counts.incrementAndGet(index);
+                        blockSum += index;
+                    }
+                    return blockSum;
+                });
+                assertEquals(1000 * 1001 / 2, sum, 0.0);
+            }
+        }
+        for (int index = 0; index < counts.length(); index++) {
+            assertEquals(2, counts.get(index));
+        }
+    }
+
+    @Test
+    public void testSerial() throws LibrecException {
+        Thread caller = Thread.currentThread();
+        try (RangeExecutor rangeExecutor = new RangeExecutor(1)) {
+            rangeExecutor.run(10, (from, to) -> {
+                assertSame(caller, Thread.currentThread());
+                assertEquals(0, from);
+                assertEquals(10, to);
+            });
+        }
+    }
+
+    @Test(expected = LibrecException.class)
+    public void testException() throws LibrecException {
+        try (RangeExecutor rangeExecutor = new RangeExecutor(2)) {
+            rangeExecutor.run(10, (from, to) -> {
+                if (from == 0) {
+                    throw new LibrecException("failed block");
+                }
+            });
+        }
+    }
+}
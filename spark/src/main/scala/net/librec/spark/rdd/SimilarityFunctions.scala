@@ -21,8 +21,10 @@ import net.librec.math.structure.SequentialSparseVector
 import net.librec.spark.Correlation.Correlation
 import net.librec.spark.math.structure.IndexedVector
 import net.librec.spark.{LibrecConf, Similarity}
+import org.apache.spark.HashPartitioner
 import org.apache.spark.rdd.RDD
 
+import scala.collection.mutable
 import scala.collection.mutable.ArrayBuffer
 
 class SimilarityFunctions(rdd: RDD[IndexedVector]) {
@@ -63,8 +65,110 @@ class SimilarityFunctions(rdd: RDD[IndexedVector]) {
     }, true)
   }
 
+  /**
+    * Calculate Recommender Similarity without collecting the vectors to the driver.
+    *
+    * The vectors are partitioned into numBlocks blocks by index, and every pair of
+    * blocks is joined on one executor, so each task only holds two blocks instead
+    * of the whole data set. Without topK the result holds each pair once, as
+    * (thisIndex, (thatIndex, similarity)) with thisIndex < thatIndex, like
+    * computeSimilarity(correlation, conf). With topK the result holds, for each
+    * index, its topK most similar neighbours as (index, (neighbour, similarity));
+    * the neighbours are pruned per pair of blocks before they are shuffled.
+    *
+    * @param correlation the method of calculate similarity between thisVector and thatVector.
+    * @param conf
+    * @param numBlocks the number of blocks of vectors
+    * @param topK the number of neighbours kept for each index, all if not positive
+    * @return recommender similarity
+    */
+  def computeSimilarity(correlation: Correlation, conf: LibrecConf, numBlocks: Int, topK: Int): RDD[(Int, (Int, Double))] = {
+    require(numBlocks > 0, "numBlocks should be positive")
+    val blocks = rdd.map { indexedVector =>
+      (indexedVector.getIndex % numBlocks, (indexedVector.getIndex, indexedVector.asLocalVector.asInstanceOf[SequentialSparseVector]))
+    }.aggregateByKey(ArrayBuffer[(Int, SequentialSparseVector)](), new HashPartitioner(numBlocks))(_ += _, _ ++= _)
+      .mapValues(_.toArray)
+
+    // send each block to every pair of blocks it belongs to
+    val numPartitions = math.max(rdd.partitions.length, numBlocks)
+    val blockPairs = blocks.flatMap { case (block, vectors) =>
+      (0 until numBlocks).map { otherBlock =>
+        ((math.min(block, otherBlock), math.max(block, otherBlock)), (block, vectors))
+      }
+    }.groupByKey(new HashPartitioner(numPartitions))
+
+    val similarities = blockPairs.mapPartitions({ iter =>
+      iter.flatMap { case ((thisBlock, thatBlock), pairBlocks) =>
+        // a block without vectors, e.g. with more blocks than vectors, is missing from blocks
+        val thisVectors = pairBlocks.find(_._1 == thisBlock).map(_._2).getOrElse(Array.empty[(Int, SequentialSparseVector)])
+        val thatVectors = pairBlocks.find(_._1 == thatBlock).map(_._2).getOrElse(Array.empty[(Int, SequentialSparseVector)])
+        // the blocks are assigned by index modulo numBlocks, so the lower block may hold the
+        // larger index: order each pair by index rather than by block
+        val pairSimilarities = for {
+          blockVector <- thisVectors.iterator
+          otherBlockVector <- thatVectors.iterator
+          if thisBlock != thatBlock || blockVector._1 < otherBlockVector._1
+          (thisVector, thatVector) = if (blockVector._1 < otherBlockVector._1) (blockVector, otherBlockVector)
+          else (otherBlockVector, blockVector)
+          sim = Similarity.getCorrelation(correlation, thisVector._2, thatVector._2, conf)
+          if sim == sim && sim != 0.0D // Return the specified number is Not-a-Number (NaN) value and unequals 0.0D
+        } yield (thisVector._1, (thatVector._1, sim))
+        if (topK > 0) SimilarityFunctions.topNeighbours(pairSimilarities, topK) else pairSimilarities
+      }
+    }, false) // keyed by index now, no longer by pair of blocks
+
+    if (topK > 0) {
+      similarities.aggregateByKey(ArrayBuffer[(Int, Double)]())(
+        (neighbours, neighbour) => SimilarityFunctions.prune(neighbours += neighbour, topK),
+        (neighbours1, neighbours2) => SimilarityFunctions.prune(neighbours1 ++= neighbours2, topK)
+      ).flatMap { case (index, neighbours) =>
+        neighbours.sortBy(-_._2).take(topK).map((index, _))
+      }
+    } else {
+      similarities
+    }
+  }
+
 }
 
 object SimilarityFunctions {
   implicit def addSimilarityFunctions(rdd: RDD[IndexedVector]) = new SimilarityFunctions(rdd)
+
+  /**
+    * Keep the topK most similar neighbours of each index, in both directions of the pairs.
+    *
+    * @param similarities pairs of (thisIndex, (thatIndex, similarity))
+    * @param topK the number of neighbours kept for each index
+    * @return the kept neighbours as (index, (neighbour, similarity))
+    */
+  private def topNeighbours(similarities: Iterator[(Int, (Int, Double))], topK: Int): Iterator[(Int, (Int, Double))] = {
+    val neighbours = mutable.HashMap[Int, mutable.PriorityQueue[(Int, Double)]]()
+    def offer(index: Int, neighbour: Int, sim: Double): Unit = {
+      val queue = neighbours.getOrElseUpdate(index,
+        mutable.PriorityQueue.empty[(Int, Double)](Ordering.by[(Int, Double), Double](-_._2)))
+      if (queue.size < topK) {
+        queue.enqueue((neighbour, sim))
+      } else if (sim > queue.head._2) {
+        queue.dequeue()
+        queue.enqueue((neighbour, sim))
+      }
+    }
+    similarities.foreach { case (thisIndex, (thatIndex, sim)) =>
+      offer(thisIndex, thatIndex, sim)
+      offer(thatIndex, thisIndex, sim)
+    }
+    neighbours.iterator.flatMap { case (index, queue) => queue.iterator.map((index, _)) }
+  }
+
+  /**
+    * Drop all but the topK most similar neighbours once there are twice as many.
+    */
+  private def prune(neighbours: ArrayBuffer[(Int, Double)], topK: Int): ArrayBuffer[(Int, Double)] = {
+    if (neighbours.length >= 2 * topK) {
+      val kept = neighbours.sortBy(-_._2).take(topK)
+      neighbours.clear()
+      neighbours ++= kept
+    }
+    neighbours
+  }
 }
@@ -0,0 +1,104 @@
+/**
+  * Copyright (C) 2016 LibRec
+  * <p>
+  * This file is part of LibRec.
+  * LibRec is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * <p>
+  * LibRec is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  * GNU General Public License for more details.
+  * <p>
+  * You should have received a copy of the GNU General Public License
+  * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+  */
+package net.librec.spark.recommender
+
+import com.google.common.collect.HashBiMap
+import net.librec.math.structure.DenseMatrix
+import net.librec.recommender.ModelStore
+import org.apache.spark.rdd.RDD
+
+import scala.collection.JavaConverters._
+
+/**
+  * Latent factor model trained in Spark, which can be exported as the model
+  * file of the matching recommender of librec-core.
+  */
+trait FactorModel extends Serializable {
+  /**
+    * the factors of each user
+    */
+  def userFactors: RDD[(Int, Array[Double])]
+
+  /**
+    * the factors of each item
+    */
+  def itemFactors: RDD[(Int, Array[Double])]
+
+  /**
+    * the class of the recommender of librec-core with the same model
+    */
+  def coreRecommenderClass: String
+
+  /**
+    * Export the factors in the model file format of librec-core, so that
+    * loadModel of coreRecommenderClass can score with them. The factor matrices
+    * only have a row for each user and item present, in increasing order of
+    * the ids, and the user and item mappings map the ids to these rows.
+    *
+    * @param filePath the model file on the driver
+    */
+  def saveModel(filePath: String): Unit = {
+    val (userMatrix, userMapping) = FactorModel.collect(userFactors)
+    val (itemMatrix, itemMapping) = FactorModel.collect(itemFactors)
+    val values = Map[String, AnyRef](
+      "userFactors" -> userMatrix,
+      "itemFactors" -> itemMatrix,
+      "userMappingData" -> userMapping,
+      "itemMappingData" -> itemMapping)
+    ModelStore.save(coreRecommenderClass, values.asJava, filePath)
+  }
+
+  /**
+    * Dot products of the factors of some users and related items.
+    *
+    * @param userItems some users and related items
+    * @return (user, item, score) for the pairs of which both factors are known
+    */
+  protected def dotProducts(userItems: RDD[(Int, Int)]): RDD[(Int, Int, Double)] = {
+    userItems.join(userFactors)
+      .map { case (user, (item, userFactor)) => (item, (user, userFactor)) }
+      .join(itemFactors)
+      .map { case (item, ((user, userFactor), itemFactor)) =>
+        var score = 0.0
+        var factorIdx = 0
+        while (factorIdx < userFactor.length) {
+          score += userFactor(factorIdx) * itemFactor(factorIdx)
+          factorIdx += 1
+        }
+        (user, item, score)
+      }
+  }
+}
+
+object FactorModel {
+  /**
+    * Collect distributed factors to a matrix with a row for each id present,
+    * so that a sparse id space does not inflate the matrix.
+    */
+  private def collect(factors: RDD[(Int, Array[Double])]): (DenseMatrix, HashBiMap[String, Integer]) = {
+    val localFactors = factors.collect().sortBy(_._1)
+    val numFactors = if (localFactors.isEmpty) 0 else localFactors.head._2.length
+    val matrix = new DenseMatrix(localFactors.length, numFactors)
+    val mapping = HashBiMap.create[String, Integer](localFactors.length)
+    localFactors.zipWithIndex.foreach { case ((id, factor), row) =>
+      System.arraycopy(factor, 0, matrix.getValues()(row), 0, numFactors)
+      mapping.put(id.toString, row)
+    }
+    (matrix, mapping)
+  }
+}
@@ -0,0 +1,97 @@
+/**
+  * Copyright (C) 2016 LibRec
+  * <p>
+  * This file is part of LibRec.
+  * LibRec is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * <p>
+  * LibRec is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  * GNU General Public License for more details.
+  * <p>
+  * You should have received a copy of the GNU General Public License
+  * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+  */
+package net.librec.spark.recommender.cf
+
+import net.librec.spark.data.Rating
+import net.librec.spark.recommender.{FactorModel, Recommender}
+import org.apache.spark.mllib.recommendation.{MatrixFactorizationModel, ALS => BlockedALS, Rating => ALSRating}
+import org.apache.spark.rdd.RDD
+
+/**
+  * Blocked Alternating Least Squares, on the block-partitioned solver of Spark MLlib.
+  * <ul>
+  * <li>explicit ratings: the counterpart of MFALSRecommender</li>
+  * <li>implicit feedback: Hu et al., Collaborative Filtering for Implicit Feedback Datasets,
+  * ICDM 2008, the counterpart of WRMFRecommender</li>
+  * </ul>
+  *
+  * @param rank          the number of latent factors
+  * @param numIterations the number of iterations
+  * @param lambda        the regularization parameter
+  * @param implicitPrefs whether the ratings are implicit feedback
+  * @param alpha         the confidence parameter of the implicit feedback
+  * @param numBlocks     the number of user and item blocks, -1 to configure it automatically
+  * @param trainData     the training ratings
+  * @param seed          the random seed of the initial factors, 1 as the default of rec.random.seed
+  */
+class ALS(val rank: Int,
+          val numIterations: Int,
+          val lambda: Double,
+          val implicitPrefs: Boolean,
+          val alpha: Double,
+          val numBlocks: Int,
+          val trainData: RDD[Rating],
+          val seed: Long = 1L
+         ) extends Recommender[Array[(Int, Int)]] with FactorModel {
+  /**
+    * The trained model
+    */
+  var model: MatrixFactorizationModel = _
+
+  /**
+    * @see net.librec.spark.recommender.Recommender#train()
+    */
+  override def train(): Unit = {
+    val ratings = trainData.map(rating => ALSRating(rating.user, rating.item, rating.rate))
+    model = new BlockedALS()
+      .setRank(rank)
+      .setIterations(numIterations)
+      .setLambda(lambda)
+      .setImplicitPrefs(implicitPrefs)
+      .setAlpha(alpha)
+      .setBlocks(numBlocks)
+      .setSeed(seed)
+      .run(ratings)
+  }
+
+  /**
+    * @see net.librec.spark.recommender.Recommender#predict(T)
+    */
+  override def predict(userItems: Array[(Int, Int)]): RDD[Rating] = {
+    predict(trainData.sparkContext.parallelize(userItems))
+  }
+
+  /**
+    * Predict specific ratings for some users on related items.
+    *
+    * @param userItems some users and related items
+    * @return predictive ratings
+    */
+  def predict(userItems: RDD[(Int, Int)]): RDD[Rating] = {
+    model.predict(userItems).map(rating => Rating(rating.user, rating.product, rating.rating))
+  }
+
+  override def userFactors: RDD[(Int, Array[Double])] = model.userFeatures
+
+  override def itemFactors: RDD[(Int, Array[Double])] = model.productFeatures
+
+  override def coreRecommenderClass: String = {
+    if (implicitPrefs) "net.librec.recommender.cf.ranking.WRMFRecommender"
+    else "net.librec.recommender.cf.rating.MFALSRecommender"
+  }
+}
@@ -0,0 +1,254 @@
+/**
+  * Copyright (C) 2016 LibRec
+  * <p>
+  * This file is part of LibRec.
+  * LibRec is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * <p>
+  * LibRec is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  * GNU General Public License for more details.
+  * <p>
+  * You should have received a copy of the GNU General Public License
+  * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+  */
+package net.librec.spark.recommender.cf
+
+import java.util.Random
+
+import net.librec.spark.data.Rating
+import net.librec.spark.recommender.{FactorModel, Recommender}
+import org.apache.spark.HashPartitioner
+import org.apache.spark.rdd.RDD
+import org.apache.spark.storage.StorageLevel
+
+/**
+  * Bayesian Personalized Ranking, Rendle et al., BPR: Bayesian Personalized Ranking from
+  * Implicit Feedback, UAI 2009, trained by stratified stochastic gradient descent
+  * (Gemulla et al., Large-Scale Matrix Factorization with Distributed Stochastic
+  * Gradient Descent, KDD 2011).
+  * <p>
+  * The users and the items are split into numBlocks blocks each. A stratum pairs every
+  * user block with a distinct item block, so the blocks of a stratum are updated in
+  * parallel without conflicts; an epoch runs all the numBlocks strata. Within a block
+  * the updates are the same as those of BPRRecommender of librec-core, and the negative
+  * items are drawn from the item block.
+  *
+  * @param rank          the number of latent factors
+  * @param numIterations the number of epochs
+  * @param learnRate     the learning rate
+  * @param regUser       the regularization parameter of the user factors
+  * @param regItem       the regularization parameter of the item factors
+  * @param numBlocks     the number of user and item blocks
+  * @param trainData     the training ratings, of which every rating is a positive feedback
+  * @param seed          the random seed, 1 as the default of rec.random.seed
+  */
+class BPR(val rank: Int,
+          val numIterations: Int,
+          val learnRate: Double,
+          val regUser: Double,
+          val regItem: Double,
+          val numBlocks: Int,
+          val trainData: RDD[Rating],
+          val seed: Long = 1L
+         ) extends Recommender[Array[(Int, Int)]] with FactorModel {
+
+  import BPR._
+
+  /**
+    * Standard deviation of the initial factors
+    */
+  var initStd = 0.001
+  /**
+    * Blocks of the user factors, keyed by the block
+    */
+  var userBlocks: RDD[(Int, FactorBlock)] = _
+  /**
+    * Blocks of the item factors, keyed by the block
+    */
+  var itemBlocks: RDD[(Int, FactorBlock)] = _
+
+  /**
+    * @see net.librec.spark.recommender.Recommender#train()
+    */
+  override def train(): Unit = {
+    val (rank, learnRate, regUser, regItem, numBlocks, seed) =
+      (this.rank, this.learnRate, this.regUser, this.regItem, this.numBlocks, this.seed)
+    val partitioner = new HashPartitioner(numBlocks)
+    val userItems = trainData.map(rating => (rating.user, rating.item)).distinct()
+
+    val ratingBlocks = userItems
+      .map { case (user, item) => ((blockOf(user, numBlocks), blockOf(item, numBlocks)), (user, item)) }
+      .groupByKey(partitioner)
+      .mapValues(RatingBlock(_))
+      .persist(StorageLevel.MEMORY_AND_DISK)
+
+    userBlocks = initBlocks(userItems.map(_._1), rank, initStd, partitioner, seed)
+    itemBlocks = initBlocks(userItems.map(_._2), rank, initStd, partitioner, seed + 1)
+
+    for (iter <- 0 until numIterations; stratum <- 0 until numBlocks) {
+      val stratumSeed = seed + (iter.toLong * numBlocks + stratum) * numBlocks
+      val updatedBlocks = ratingBlocks
+        .filter { case ((userBlock, itemBlock), _) => itemBlock == (userBlock + stratum) % numBlocks }
+        .map { case ((userBlock, itemBlock), ratingBlock) => (userBlock, (itemBlock, ratingBlock)) }
+        .join(userBlocks)
+        .map { case (userBlock, ((itemBlock, ratingBlock), userFactors)) =>
+          (itemBlock, (userBlock, ratingBlock, userFactors))
+        }
+        .join(itemBlocks)
+        .map { case (itemBlock, ((userBlock, ratingBlock, userFactors), itemFactors)) =>
+          val newUserFactors = userFactors.deepCopy()
+          val newItemFactors = itemFactors.deepCopy()
+          update(ratingBlock, newUserFactors, newItemFactors, rank, learnRate, regUser, regItem,
+            new Random(stratumSeed + userBlock))
+          ((userBlock, newUserFactors), (itemBlock, newItemFactors))
+        }
+        .persist(StorageLevel.MEMORY_AND_DISK)
+
+      val newUserBlocks = merge(userBlocks, updatedBlocks.map(_._1), partitioner)
+      val newItemBlocks = merge(itemBlocks, updatedBlocks.map(_._2), partitioner)
+      if (stratum == numBlocks - 1) {
+        newUserBlocks.localCheckpoint()
+        newItemBlocks.localCheckpoint()
+      }
+      newUserBlocks.count()
+      newItemBlocks.count()
+      updatedBlocks.unpersist()
+      userBlocks.unpersist()
+      itemBlocks.unpersist()
+      userBlocks = newUserBlocks
+      itemBlocks = newItemBlocks
+    }
+    ratingBlocks.unpersist()
+  }
+
+  /**
+    * @see net.librec.spark.recommender.Recommender#predict(T)
+    */
+  override def predict(userItems: Array[(Int, Int)]): RDD[Rating] = {
+    predict(trainData.sparkContext.parallelize(userItems))
+  }
+
+  /**
+    * Predict specific ratings for some users on related items.
+    *
+    * @param userItems some users and related items
+    * @return predictive ratings
+    */
+  def predict(userItems: RDD[(Int, Int)]): RDD[Rating] = {
+    dotProducts(userItems).map { case (user, item, score) => Rating(user, item, score) }
+  }
+
+  override def userFactors: RDD[(Int, Array[Double])] = userBlocks.flatMap(_._2.entries)
+
+  override def itemFactors: RDD[(Int, Array[Double])] = itemBlocks.flatMap(_._2.entries)
+
+  override def coreRecommenderClass: String = "net.librec.recommender.cf.ranking.BPRRecommender"
+}
+
+object BPR {
+
+  /**
+    * Factors of the ids of a block, sorted by the ids.
+    */
+  case class FactorBlock(ids: Array[Int], factors: Array[Array[Double]]) {
+    def positionOf(id: Int): Int = java.util.Arrays.binarySearch(ids, id)
+
+    def deepCopy(): FactorBlock = FactorBlock(ids, factors.map(_.clone()))
+
+    def entries: Iterator[(Int, Array[Double])] = ids.iterator.zip(factors.iterator)
+  }
+
+  /**
+    * Positive items of the users of a user block in an item block; the users and the
+    * items of each user are sorted.
+    */
+  case class RatingBlock(users: Array[Int], items: Array[Array[Int]]) {
+    val size: Int = items.map(_.length).sum
+  }
+
+  object RatingBlock {
+    def apply(userItems: Iterable[(Int, Int)]): RatingBlock = {
+      val sorted = userItems.groupBy(_._1).toArray.sortBy(_._1)
+      RatingBlock(sorted.map(_._1), sorted.map(_._2.map(_._2).toArray.sorted))
+    }
+  }
+
+  private def blockOf(id: Int, numBlocks: Int): Int = id % numBlocks
+
+  /**
+    * Draw the initial factors of the blocks of some ids.
+    */
+  private def initBlocks(ids: RDD[Int], rank: Int, initStd: Double, partitioner: HashPartitioner,
+                         seed: Long): RDD[(Int, FactorBlock)] = {
+    val numBlocks = partitioner.numPartitions
+    ids.distinct()
+      .map(id => (blockOf(id, numBlocks), id))
+      .groupByKey(partitioner)
+      .mapPartitions(iter => iter.map { case (block, blockIds) =>
+        val sortedIds = blockIds.toArray.sorted
+        val random = new Random(seed + block)
+        val factors = Array.fill(sortedIds.length, rank)(random.nextGaussian() * initStd)
+        (block, FactorBlock(sortedIds, factors))
+      }, preservesPartitioning = true)
+      .persist(StorageLevel.MEMORY_AND_DISK)
+  }
+
+  /**
+    * Run the updates of BPR on the ratings of a user block and an item block.
+    */
+  private def update(ratingBlock: RatingBlock, userFactors: FactorBlock, itemFactors: FactorBlock,
+                     rank: Int, learnRate: Double, regUser: Double, regItem: Double, random: Random): Unit = {
+    val numUsers = ratingBlock.users.length
+    val numItems = itemFactors.ids.length
+    val userPositions = ratingBlock.users.map(userFactors.positionOf)
+    var sampleCount = 0
+    while (sampleCount < ratingBlock.size) {
+      sampleCount += 1
+      val userIdx = random.nextInt(numUsers)
+      val posItems = ratingBlock.items(userIdx)
+      if (posItems.length < numItems) {
+        val posItem = posItems(random.nextInt(posItems.length))
+        var negItem = itemFactors.ids(random.nextInt(numItems))
+        while (java.util.Arrays.binarySearch(posItems, negItem) >= 0) {
+          negItem = itemFactors.ids(random.nextInt(numItems))
+        }
+
+        val userFactor = userFactors.factors(userPositions(userIdx))
+        val posItemFactor = itemFactors.factors(itemFactors.positionOf(posItem))
+        val negItemFactor = itemFactors.factors(itemFactors.positionOf(negItem))
+        var diffValue = 0.0
+        var factorIdx = 0
+        while (factorIdx < rank) {
+          diffValue += userFactor(factorIdx) * (posItemFactor(factorIdx) - negItemFactor(factorIdx))
+          factorIdx += 1
+        }
+        val deriValue = 1.0 / (1.0 + math.exp(diffValue))
+
+        factorIdx = 0
+        while (factorIdx < rank) {
+          val userFactorValue = userFactor(factorIdx)
+          val posItemFactorValue = posItemFactor(factorIdx)
+          val negItemFactorValue = negItemFactor(factorIdx)
+          userFactor(factorIdx) += learnRate * (deriValue * (posItemFactorValue - negItemFactorValue) - regUser * userFactorValue)
+          posItemFactor(factorIdx) += learnRate * (deriValue * userFactorValue - regItem * posItemFactorValue)
+          negItemFactor(factorIdx) += learnRate * (deriValue * (-userFactorValue) - regItem * negItemFactorValue)
+          factorIdx += 1
+        }
+      }
+    }
+  }
+
+  /**
+    * Replace the blocks which have been updated.
+    */
+  private def merge(blocks: RDD[(Int, FactorBlock)], updatedBlocks: RDD[(Int, FactorBlock)],
+                    partitioner: HashPartitioner): RDD[(Int, FactorBlock)] = {
+    blocks.leftOuterJoin(updatedBlocks, partitioner)
+      .mapValues { case (block, updatedBlock) => updatedBlock.getOrElse(block) }
+      .persist(StorageLevel.MEMORY_AND_DISK)
+  }
+}
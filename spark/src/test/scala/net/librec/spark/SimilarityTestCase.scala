@@ -1,6 +1,6 @@
 package net.librec.spark
 
-import net.librec.spark.data.DataConverter
+import net.librec.spark.data.{DataConverter, Rating}
 import net.librec.spark.rdd.SimilarityFunctions._
 import net.librec.spark.rdd.StatisticalFunctions
 
@@ -23,7 +23,61 @@ class SimilarityTestCase extends BaseTestSuite{
 //
 //    val a = lc.sparkContext.parallelize(List((1,5),(2,6),(3,7)))
 //    a.join(a).collect().foreach(print)
-    val rdd = dataConverter.convertText("file:///E:/workspace/my_workspace/librec/librec/data/spark/rating/ratings.txt")
+    val rdd = dataConverter.convertText("../data/spark/ratings.txt")
     val similarity = StatisticalFunctions.toIndexedSparseVectors(rdd).computeSimilarity(Correlation.BCOS, conf).foreach(println)
   }
+
+  test("BlockSimilarityTestCase") {
+    val ratings = lc.sparkContext.parallelize(for {
+      user <- 0 until 20
+      item <- 0 until 15
+      if (user * 7 + item * 3) % 4 != 0
+    } yield Rating(user, item, 1.0 + (user + item) % 5), 3)
+    val vectors = StatisticalFunctions.toIndexedSparseVectors(ratings)
+
+    val expected = vectors.computeSimilarity(Correlation.COS, conf).collect().map { case (thisIndex, (thatIndex, sim)) =>
+      ((thisIndex, thatIndex), sim)
+    }.toMap
+    val blocked = vectors.computeSimilarity(Correlation.COS, conf, 4, 0).collect()
+    assert(blocked.length === expected.size)
+    blocked.foreach { case (thisIndex, (thatIndex, sim)) =>
+      assert(thisIndex < thatIndex)
+      assert(scala.math.abs(expected((thisIndex, thatIndex)) - sim) < 1e-12)
+    }
+
+    val topK = 3
+    val neighbours = vectors.computeSimilarity(Correlation.COS, conf, 4, topK).groupByKey().collectAsMap()
+    val allNeighbours = expected.toSeq.flatMap { case ((thisIndex, thatIndex), sim) =>
+      Seq((thisIndex, (thatIndex, sim)), (thatIndex, (thisIndex, sim)))
+    }.groupBy(_._1)
+    allNeighbours.foreach { case (index, indexNeighbours) =>
+      val expectedSims = indexNeighbours.map(_._2._2).sortBy(-_).take(topK)
+      val sims = neighbours(index).map(_._2).toSeq.sortBy(-_)
+      assert(sims.length === expectedSims.length)
+      sims.zip(expectedSims).foreach { case (sim, expectedSim) => assert(scala.math.abs(sim - expectedSim) < 1e-12) }
+    }
+  }
+
+  test("BlockSimilarityEmptyBlocksTestCase") {
+    // sparse user ids, and more blocks than users: most blocks hold no vectors
+    val ratings = lc.sparkContext.parallelize(for {
+      user <- 0 until 20
+      item <- 0 until 15
+      if (user * 7 + item * 3) % 4 != 0
+    } yield Rating(user * 3, item, 1.0 + (user + item) % 5), 3)
+    val vectors = StatisticalFunctions.toIndexedSparseVectors(ratings)
+
+    val expected = vectors.computeSimilarity(Correlation.COS, conf).collect().map { case (thisIndex, (thatIndex, sim)) =>
+      ((thisIndex, thatIndex), sim)
+    }.toMap
+    Seq(6, 40).foreach { numBlocks =>
+      val blocked = vectors.computeSimilarity(Correlation.COS, conf, numBlocks, 0).collect()
+      assert(blocked.length === expected.size)
+      blocked.foreach { case (thisIndex, (thatIndex, sim)) =>
+        assert(scala.math.abs(expected((thisIndex, thatIndex)) - sim) < 1e-12)
+      }
+      val neighbours = vectors.computeSimilarity(Correlation.COS, conf, numBlocks, 3).groupByKey().collectAsMap()
+      assert(neighbours.values.forall(_.size <= 3))
+    }
+  }
 }
@@ -0,0 +1,99 @@
+/**
+  * Copyright (C) 2016 LibRec
+  * <p>
+  * This file is part of LibRec.
+  * LibRec is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * <p>
+  * LibRec is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  * GNU General Public License for more details.
+  * <p>
+  * You should have received a copy of the GNU General Public License
+  * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+  */
+package net.librec.spark.recommender
+
+import java.io.File
+
+import com.google.common.collect.BiMap
+import net.librec.math.structure.DenseMatrix
+import net.librec.recommender.ModelStore
+import net.librec.spark.BaseTestSuite
+import net.librec.spark.data.Rating
+import net.librec.spark.recommender.cf.{ALS, BPR}
+
+import scala.collection.JavaConverters._
+
+/**
+  * FactorModel TestCase: ALS and BPR
+  */
+class FactorModelTestCase extends BaseTestSuite {
+
+  private def fieldOf(model: AnyRef, fieldName: String): AnyRef = {
+    var clazz: Class[_] = model.getClass
+    while (clazz.getDeclaredFields.forall(_.getName != fieldName)) {
+      clazz = clazz.getSuperclass
+    }
+    val field = clazz.getDeclaredField(fieldName)
+    field.setAccessible(true)
+    field.get(model)
+  }
+
+  // sparse ids, which must not inflate the exported matrices
+  private def ratings = lc.sparkContext.parallelize(for {
+    user <- 0 until 30
+    item <- 0 until 20
+    if (user + item) % 3 == 0
+  } yield Rating(user * 1000, item * 50, 1.0 + (user * item) % 5), 4)
+
+  private def checkExport(model: FactorModel, rank: Int): Unit = {
+    val file = File.createTempFile("librec", ".model")
+    file.deleteOnExit()
+    model.saveModel(file.getPath)
+    val loaded = Class.forName(model.coreRecommenderClass).newInstance().asInstanceOf[AnyRef]
+    val loadedNames = ModelStore.load(loaded, file.getPath).asScala
+    assert(loadedNames.toSet === Set("userFactors", "itemFactors", "userMappingData", "itemMappingData"))
+    val userFactors = fieldOf(loaded, "userFactors").asInstanceOf[DenseMatrix]
+    assert(userFactors.rowSize() === 30)
+    val itemFactors = fieldOf(loaded, "itemFactors").asInstanceOf[DenseMatrix]
+    assert(itemFactors.rowSize() === 20)
+    assert(itemFactors.columnSize() === rank)
+    assert(fieldOf(loaded, "itemMappingData").asInstanceOf[BiMap[String, Integer]].get("350") === Integer.valueOf(7))
+    val userMapping = fieldOf(loaded, "userMappingData").asInstanceOf[BiMap[String, Integer]]
+    val (user, userFactor) = model.userFactors.first()
+    assert(userFactors.getValues()(userMapping.get(user.toString)).toSeq === userFactor.toSeq)
+  }
+
+  test("ALSTestCase") {
+    val trainData = ratings
+    val als = new ALS(rank = 5, numIterations = 5, lambda = 0.01, implicitPrefs = false, alpha = 1.0,
+      numBlocks = 2, trainData = trainData)
+    als.train()
+    val predictions = als.predict(trainData.map(rating => (rating.user, rating.item)).collect()).collect()
+    assert(predictions.length === trainData.count())
+    assert(predictions.forall(rating => !rating.rate.isNaN))
+    checkExport(als, 5)
+
+    // the default seed makes unseeded runs reproducible
+    val otherAls = new ALS(rank = 5, numIterations = 5, lambda = 0.01, implicitPrefs = false, alpha = 1.0,
+      numBlocks = 2, trainData = trainData)
+    otherAls.train()
+    assert(otherAls.userFactors.collectAsMap().mapValues(_.toSeq) === als.userFactors.collectAsMap().mapValues(_.toSeq))
+  }
+
+  test("BPRTestCase") {
+    val trainData = ratings
+    val bpr = new BPR(rank = 5, numIterations = 10, learnRate = 0.05, regUser = 0.01, regItem = 0.01,
+      numBlocks = 3, trainData = trainData, seed = 1)
+    bpr.train()
+    assert(bpr.userFactors.count() === 30)
+    assert(bpr.itemFactors.count() === 20)
+    val predictions = bpr.predict(Array((0, 0), (0, 50))).collect()
+    assert(predictions.length === 2)
+    checkExport(bpr, 5)
+  }
+}